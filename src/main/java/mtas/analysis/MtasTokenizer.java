@@ -235,6 +235,7 @@ public final class MtasTokenizer extends Tokenizer {
       if (p instanceof MtasParser) {
         MtasParser parser = (MtasParser) p;
         tokenCollection = parser.createTokenCollection(reader);
+        parser.addNgrams(tokenCollection);
         return;
       } else {
         throw new MtasConfigException("no instance of MtasParser");
@@ -1,6 +1,8 @@
 package mtas.analysis.parser;
 
 import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
 import mtas.analysis.token.MtasTokenCollection;
 import mtas.analysis.util.MtasConfigException;
 import mtas.analysis.util.MtasConfiguration;
@@ -32,6 +34,24 @@ abstract public class MtasParser {
   /** The Constant TOKEN_PARENT. */
   protected static final String TOKEN_PARENT = "parent";
 
+  /** The Constant NGRAMS. */
+  protected static final String NGRAMS = "ngrams";
+
+  /** The Constant NGRAM. */
+  protected static final String NGRAM = "ngram";
+
+  /** The Constant NGRAM_PREFIX. */
+  protected static final String NGRAM_PREFIX = "prefix";
+
+  /** The Constant NGRAM_SIZE. */
+  protected static final String NGRAM_SIZE = "size";
+
+  /** The prefixes for n-gram tokens. */
+  protected List<String> ngramPrefixes = new ArrayList<>();
+
+  /** The sizes for n-gram tokens. */
+  protected List<Integer> ngramSizes = new ArrayList<>();
+
   /**
    * Instantiates a new mtas parser.
    */
@@ -63,10 +83,46 @@ abstract public class MtasParser {
         if (current.name.equals("makeunique")) {
           makeunique = current.attributes.get("value").equals("true");
         }
+        if (current.name.equals(NGRAMS)) {
+          for (MtasConfiguration ngram : current.children) {
+            if (ngram.name.equals(NGRAM)) {
+              String prefix = ngram.attributes.get(NGRAM_PREFIX);
+              String size = ngram.attributes.get(NGRAM_SIZE);
+              if (prefix == null || prefix.isEmpty()) {
+                throw new MtasConfigException("no prefix for ngram");
+              }
+              int ngramSize;
+              try {
+                ngramSize = Integer.parseInt(size);
+              } catch (NumberFormatException e) {
+                ngramSize = 0;
+              }
+              if (ngramSize < 2) {
+                throw new MtasConfigException(
+                    "no valid size for ngram " + prefix + ": " + size);
+              }
+              ngramPrefixes.add(prefix);
+              ngramSizes.add(ngramSize);
+            }
+          }
+        }
       }
     }
   }
 
+  /**
+   * Adds the configured n-gram tokens to a token collection.
+   *
+   * @param tokenCollection the token collection
+   * @throws MtasParserException the mtas parser exception
+   */
+  public void addNgrams(MtasTokenCollection tokenCollection)
+      throws MtasParserException {
+    for (int i = 0; i < ngramPrefixes.size(); i++) {
+      tokenCollection.addNgrams(ngramPrefixes.get(i), ngramSizes.get(i));
+    }
+  }
+
   /**
    * Creates the token collection.
    *
@@ -43,6 +43,15 @@ public abstract class MtasToken {
   public static final Pattern patternPrePostFix = Pattern
       .compile(regexpPrePostFix);
 
+  /** The Constant NGRAM_DELIMITER, between the values of an n-gram token. */
+  public static final String NGRAM_DELIMITER = "\u0002";
+
+  /**
+   * The Constant NGRAM_PREFIX, start of the prefix of n-gram tokens, starting
+   * with the delimiter so it can't conflict with configured prefixes.
+   */
+  public static final String NGRAM_PREFIX = NGRAM_DELIMITER + "ngram.";
+
   /** The token id. */
   private Integer tokenId;
 
@@ -539,6 +548,29 @@ public abstract class MtasToken {
     tokenValue = value;
   }
 
+  /**
+   * Gets the prefix of the n-gram tokens for a prefix.
+   *
+   * @param prefix the prefix
+   * @param size the number of positions
+   * @return the n-gram prefix
+   */
+  public static String getNgramPrefix(String prefix, int size) {
+    return NGRAM_PREFIX + size + "." + prefix;
+  }
+
+  /**
+   * Checks if a prefix is the prefix of n-gram tokens. These tokens are only
+   * indexed for grouping, and are not stored in the forward index or counted
+   * as tokens.
+   *
+   * @param prefix the prefix
+   * @return true, if it is an n-gram prefix
+   */
+  public static boolean isNgramPrefix(String prefix) {
+    return prefix != null && prefix.startsWith(NGRAM_PREFIX);
+  }
+
   /**
    * Gets the prefix from value.
    *
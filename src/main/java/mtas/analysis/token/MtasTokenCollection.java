@@ -5,9 +5,12 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
 
 import org.apache.lucene.analysis.payloads.PayloadHelper;
 import org.apache.lucene.util.BytesRef;
@@ -185,6 +188,88 @@ public class MtasTokenCollection {
     }
   }
 
+  /**
+   * Adds n-gram tokens for a prefix: for each sequence of consecutive positions
+   * with exactly one token for the prefix, a token covering these positions
+   * with the values of these tokens. Positions with multiple values for the
+   * prefix, or covered by a multiple position token for the prefix, are not
+   * covered by any n-gram token.
+   *
+   * @param prefix the prefix
+   * @param size the number of positions
+   * @throws MtasParserException the mtas parser exception
+   */
+  public void addNgrams(String prefix, int size) throws MtasParserException {
+    checkTokenCollectionIndex();
+    // collect single values for prefix by position
+    TreeMap<Integer, MtasToken> positionTokens = new TreeMap<>();
+    Set<Integer> ambiguousPositions = new HashSet<>();
+    int nextId = 0;
+    for (MtasToken token : tokenCollection.values()) {
+      nextId = Math.max(nextId, token.getId() + 1);
+      if (!prefix.equals(token.getPrefix()) || token.getPositions() == null) {
+        // not relevant
+      } else if (token.getPositionLength() != 1) {
+        // positions covered by a multiple position token
+        for (int position : token.getPositions()) {
+          positionTokens.remove(position);
+          ambiguousPositions.add(position);
+        }
+      } else {
+        int position = token.getPositionStart();
+        String postfix = token.getPostfix();
+        if (ambiguousPositions.contains(position)) {
+          // already ambiguous
+        } else if (positionTokens.containsKey(position)) {
+          positionTokens.remove(position);
+          ambiguousPositions.add(position);
+        } else if (postfix != null
+            && !postfix.contains(MtasToken.NGRAM_DELIMITER)) {
+          positionTokens.put(position, token);
+        } else {
+          ambiguousPositions.add(position);
+        }
+      }
+    }
+    // create n-grams
+    String ngramPrefix = MtasToken.getNgramPrefix(prefix, size);
+    for (Entry<Integer, MtasToken> entry : positionTokens.entrySet()) {
+      int start = entry.getKey();
+      StringBuilder postfix = new StringBuilder(entry.getValue().getPostfix());
+      // only an offset if all tokens have one
+      Integer offsetStart = entry.getValue().getOffsetStart();
+      Integer offsetEnd = entry.getValue().getOffsetEnd();
+      boolean complete = true;
+      for (int position = start + 1; position < start + size; position++) {
+        MtasToken token = positionTokens.get(position);
+        if (token == null) {
+          complete = false;
+          break;
+        } else {
+          postfix.append(MtasToken.NGRAM_DELIMITER);
+          postfix.append(token.getPostfix());
+          if (offsetStart == null || token.getOffsetStart() == null) {
+            offsetStart = null;
+            offsetEnd = null;
+          } else {
+            offsetStart = Math.min(offsetStart, token.getOffsetStart());
+            offsetEnd = Math.max(offsetEnd, token.getOffsetEnd());
+          }
+        }
+      }
+      if (complete) {
+        MtasToken ngram = new MtasTokenString(nextId++, ngramPrefix,
+            postfix.toString());
+        ngram.addPositionRange(start, start + size - 1);
+        if (offsetStart != null && offsetEnd != null) {
+          ngram.setOffset(offsetStart, offsetEnd);
+        }
+        add(ngram);
+      }
+    }
+    checkTokenCollectionIndex();
+  }
+
   /**
    * Make unique.
    */
@@ -844,9 +844,16 @@ public class MtasFieldsConsumer extends FieldsConsumer {
               if (term == null) {
                 break;
               }
+              String termValue = term.utf8ToString();
+              // n-gram terms are only used from the postings, and are not
+              // stored in the forward index or registered as prefix
+              if (MtasToken
+                  .isNgramPrefix(MtasToken.getPrefixFromValue(termValue))) {
+                continue;
+              }
               // store term and get ref
               Long termRef = outTerm.getFilePointer();
-              outTerm.writeString(term.utf8ToString());
+              outTerm.writeString(termValue);
               termCounter++;
               // get postings
               postingsEnum = termsEnum.postings(postingsEnum, flags);
@@ -10,7 +10,9 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -25,6 +27,8 @@ import org.apache.lucene.store.IndexInput;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.Accountables;
 
+import mtas.codec.util.CodecInfo.IndexDocPositionRange;
+
 /**
  * The Class MtasFieldsProducer.
  */
@@ -45,6 +49,9 @@ public class MtasFieldsProducer extends FieldsProducer {
   /** The version. */
   private int version;
 
+  /** The doc position ranges. */
+  private Map<String, IndexDocPositionRange> docPositionRanges;
+
   /**
    * Instantiates a new mtas fields producer.
    *
@@ -57,7 +64,8 @@ public class MtasFieldsProducer extends FieldsProducer {
     String postingsFormatName = null;
     indexInputList = new HashMap<>();
     indexInputOffsetList = new HashMap<>();
-    version = MtasCodecPostingsFormat.VERSION_CURRENT;    
+    version = MtasCodecPostingsFormat.VERSION_CURRENT;
+    docPositionRanges = new ConcurrentHashMap<>();
     postingsFormatName = addIndexInputToList("object", openMtasFile(state, name,
         MtasCodecPostingsFormat.MTAS_OBJECT_EXTENSION), postingsFormatName);
     addIndexInputToList("term",
@@ -163,7 +171,7 @@ public class MtasFieldsProducer extends FieldsProducer {
   @Override
   public Terms terms(String field) throws IOException {
     return new MtasTerms(delegateFieldsProducer.terms(field), indexInputList,
-        indexInputOffsetList, version);
+        indexInputOffsetList, version, docPositionRanges);
   }
 
   /*
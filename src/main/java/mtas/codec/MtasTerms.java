@@ -2,12 +2,15 @@ package mtas.codec;
 
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Map;
 import java.util.Map.Entry;
 
 import org.apache.lucene.index.Terms;
 import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.store.IndexInput;
 
+import mtas.codec.util.CodecInfo.IndexDocPositionRange;
+
 /**
  * The Class MtasTerms.
  */
@@ -25,6 +28,9 @@ public class MtasTerms extends Terms {
   /** The delegate terms. */
   Terms delegateTerms;
 
+  /** The doc position ranges, shared for the segment. */
+  Map<String, IndexDocPositionRange> docPositionRanges;
+
   /**
    * Instantiates a new mtas terms.
    *
@@ -32,13 +38,16 @@ public class MtasTerms extends Terms {
    * @param indexInputList the index input list
    * @param indexInputOffsetList the index input offset list
    * @param version the version
+   * @param docPositionRanges the doc position ranges
    */
   public MtasTerms(Terms terms, HashMap<String, IndexInput> indexInputList,
-      HashMap<String, Long> indexInputOffsetList, int version) {
+      HashMap<String, Long> indexInputOffsetList, int version,
+      Map<String, IndexDocPositionRange> docPositionRanges) {
     delegateTerms = terms;
     this.indexInputList = indexInputList;
     this.indexInputOffsetList = indexInputOffsetList;
     this.version = version;
+    this.docPositionRanges = docPositionRanges;
   }
 
   /*
@@ -198,4 +207,13 @@ public class MtasTerms extends Terms {
     return indexInputOffsetList;
   }
 
+  /**
+   * Gets the doc position ranges, shared for the segment.
+   *
+   * @return the doc position ranges
+   */
+  public Map<String, IndexDocPositionRange> getDocPositionRanges() {
+    return docPositionRanges;
+  }
+
 }
@@ -0,0 +1,556 @@
+package mtas.codec.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+import java.util.Set;
+
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.automaton.RegExp;
+
+import mtas.analysis.token.MtasToken;
+
+/**
+ * The Class CodecAutomatonCache.
+ *
+ * Bounded cache of the compiled automata for the terms of a prefix, as used by
+ * termvectors and documents, keyed by prefix, regexp, list and ignore
+ * settings. Automata don't depend on the segment, so they are created once and
+ * shared between segments and requests. A determinized automaton for a regular
+ * expression can take megabytes, so the cache is bounded both by the number of
+ * entries and by their estimated size in bytes. Entries are created completely
+ * outside the lock of the cache, and their size is computed once. Entries are
+ * evicted in least recently used order.
+ */
+public class CodecAutomatonCache {
+
+  /** The Constant DEFAULT_MAXIMUM_NUMBER. */
+  public static final int DEFAULT_MAXIMUM_NUMBER = 100;
+
+  /** The Constant DEFAULT_MAXIMUM_SIZE, in bytes. */
+  public static final long DEFAULT_MAXIMUM_SIZE = 32L * 1024 * 1024;
+
+  /** The Constant NAME_HITS. */
+  public static final String NAME_HITS = "hits";
+
+  /** The Constant NAME_MISSES. */
+  public static final String NAME_MISSES = "misses";
+
+  /** The Constant NAME_EVICTIONS. */
+  public static final String NAME_EVICTIONS = "evictions";
+
+  /** The Constant NAME_NUMBER. */
+  public static final String NAME_NUMBER = "number";
+
+  /** The Constant NAME_MAXIMUM_NUMBER. */
+  public static final String NAME_MAXIMUM_NUMBER = "maximumNumber";
+
+  /** The Constant NAME_SIZE. */
+  public static final String NAME_SIZE = "size";
+
+  /** The Constant NAME_MAXIMUM_SIZE. */
+  public static final String NAME_MAXIMUM_SIZE = "maximumSize";
+
+  /**
+   * The Constant REGEXP_CHARACTERS, characters with a special meaning in a
+   * regular expression.
+   */
+  private static final String REGEXP_CHARACTERS = "|&?*+~\\\"()<>.@#[]{}";
+
+  /**
+   * The Constant FILTERED_REGEXP_CHARACTERS, characters with a special meaning
+   * in a regular expression that are not escaped when a value is filtered in
+   * {@link MtasToken#createAutomatonMap(String, List, Boolean)}.
+   */
+  private static final String FILTERED_REGEXP_CHARACTERS = "|&?*+~\\";
+
+  /** The instance. */
+  private static final CodecAutomatonCache instance = new CodecAutomatonCache(
+      DEFAULT_MAXIMUM_NUMBER, DEFAULT_MAXIMUM_SIZE);
+
+  /** The entries, in access order. */
+  private final LinkedHashMap<AutomataKey, Automata> entries;
+
+  /** The maximum number. */
+  private int maximumNumber;
+
+  /** The maximum size in bytes. */
+  private long maximumSize;
+
+  /** The size in bytes of the entries. */
+  private long size;
+
+  /** The hits. */
+  private long hits;
+
+  /** The misses. */
+  private long misses;
+
+  /** The evictions. */
+  private long evictions;
+
+  /**
+   * Instantiates a new codec automaton cache.
+   *
+   * @param maximumNumber the maximum number of entries
+   * @param maximumSize the maximum size in bytes
+   */
+  public CodecAutomatonCache(int maximumNumber, long maximumSize) {
+    this.maximumNumber = Math.max(0, maximumNumber);
+    this.maximumSize = Math.max(0, maximumSize);
+    size = 0;
+    entries = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  /**
+   * Gets the shared instance.
+   *
+   * @return the instance
+   */
+  public static CodecAutomatonCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Sets the maximum number of entries, 0 disables the cache.
+   *
+   * @param maximumNumber the new maximum number
+   */
+  public synchronized void setMaximumNumber(int maximumNumber) {
+    this.maximumNumber = Math.max(0, maximumNumber);
+    evict();
+  }
+
+  /**
+   * Sets the maximum size in bytes, 0 disables the cache.
+   *
+   * @param maximumSize the new maximum size
+   */
+  public synchronized void setMaximumSize(long maximumSize) {
+    this.maximumSize = Math.max(0, maximumSize);
+    evict();
+  }
+
+  /**
+   * Checks if enabled.
+   *
+   * @return true, if is enabled
+   */
+  private boolean isEnabled() {
+    return maximumNumber > 0 && maximumSize > 0;
+  }
+
+  /**
+   * Gets the automata, created if not available.
+   *
+   * @param prefix the prefix
+   * @param regexp the regexp, null or empty if not used
+   * @param list the list, null if not used
+   * @param listRegexp if the items of the list are regular expressions
+   * @param ignoreRegexp the ignore regexp, null or empty if not used
+   * @param ignoreList the ignore list, null if not used
+   * @param ignoreListRegexp if the items of the ignore list are regular
+   *          expressions
+   * @return the automata
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public Automata get(String prefix, String regexp, Set<String> list,
+      boolean listRegexp, String ignoreRegexp, Set<String> ignoreList,
+      boolean ignoreListRegexp) throws IOException {
+    AutomataKey key = new AutomataKey(prefix, regexp, list, listRegexp,
+        ignoreRegexp, ignoreList, ignoreListRegexp);
+    Automata automata;
+    synchronized (this) {
+      if (!isEnabled()) {
+        return new Automata(key);
+      }
+      automata = entries.get(key);
+      if (automata != null) {
+        hits++;
+        return automata;
+      } else {
+        misses++;
+      }
+    }
+    // create outside the lock, concurrent creation only wastes some work
+    automata = new Automata(key);
+    synchronized (this) {
+      if (isEnabled()) {
+        Automata previous = entries.put(key, automata);
+        if (previous != null) {
+          size -= previous.ramBytesUsed();
+        }
+        size += automata.ramBytesUsed();
+        evict();
+      }
+    }
+    return automata;
+  }
+
+  /**
+   * Clear.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    size = 0;
+  }
+
+  /**
+   * Evict least recently used entries until both the number and the size are
+   * not above their maximum.
+   */
+  private void evict() {
+    Iterator<Entry<AutomataKey, Automata>> it = entries.entrySet().iterator();
+    while ((entries.size() > maximumNumber || size > maximumSize)
+        && it.hasNext()) {
+      size -= it.next().getValue().ramBytesUsed();
+      evictions++;
+      it.remove();
+    }
+  }
+
+  /**
+   * Gets the status.
+   *
+   * @return the status
+   */
+  public synchronized Map<String, Object> getStatus() {
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put(NAME_NUMBER, entries.size());
+    status.put(NAME_MAXIMUM_NUMBER, maximumNumber);
+    status.put(NAME_SIZE, size);
+    status.put(NAME_MAXIMUM_SIZE, maximumSize);
+    status.put(NAME_HITS, hits);
+    status.put(NAME_MISSES, misses);
+    status.put(NAME_EVICTIONS, evictions);
+    return Collections.unmodifiableMap(status);
+  }
+
+  /**
+   * Creates the sorted and unique terms for a list of literal values, if the
+   * automata for this list, created with filtering in
+   * {@link MtasToken#createAutomatonMap(String, List, Boolean)}, accept
+   * exactly these terms optionally followed by null characters. These terms
+   * can be used with a {@link CodecLiteralTermsEnum}.
+   *
+   * @param prefix the prefix
+   * @param values the values
+   * @return the terms, or null if values are not literal
+   */
+  public static BytesRef[] createLiteralTerms(String prefix,
+      Collection<String> values) {
+    if (containsAny(prefix, REGEXP_CHARACTERS)) {
+      return null;
+    }
+    BytesRef[] terms = new BytesRef[values.size()];
+    int number = 0;
+    for (String value : values) {
+      if (containsAny(value, FILTERED_REGEXP_CHARACTERS)) {
+        return null;
+      }
+      terms[number++] = new BytesRef(prefix + MtasToken.DELIMITER + value);
+    }
+    Arrays.sort(terms, 0, number);
+    int uniqueNumber = 0;
+    for (int i = 0; i < number; i++) {
+      if (uniqueNumber == 0 || !terms[uniqueNumber - 1].equals(terms[i])) {
+        terms[uniqueNumber++] = terms[i];
+      }
+    }
+    return uniqueNumber == terms.length ? terms
+        : Arrays.copyOf(terms, uniqueNumber);
+  }
+
+  /**
+   * Checks if a text contains any of the characters.
+   *
+   * @param text the text
+   * @param characters the characters
+   * @return true, if successful
+   */
+  private static boolean containsAny(String text, String characters) {
+    for (int i = 0; i < text.length(); i++) {
+      if (characters.indexOf(text.charAt(i)) >= 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The Class AutomataKey.
+   */
+  private static class AutomataKey {
+
+    /** The prefix. */
+    private final String prefix;
+
+    /** The regexp. */
+    private final String regexp;
+
+    /** The list. */
+    private final Set<String> list;
+
+    /** The list regexp. */
+    private final boolean listRegexp;
+
+    /** The ignore regexp. */
+    private final String ignoreRegexp;
+
+    /** The ignore list. */
+    private final Set<String> ignoreList;
+
+    /** The ignore list regexp. */
+    private final boolean ignoreListRegexp;
+
+    /** The hash. */
+    private final int hash;
+
+    /**
+     * Instantiates a new automata key.
+     *
+     * @param prefix the prefix
+     * @param regexp the regexp
+     * @param list the list
+     * @param listRegexp the list regexp
+     * @param ignoreRegexp the ignore regexp
+     * @param ignoreList the ignore list
+     * @param ignoreListRegexp the ignore list regexp
+     */
+    AutomataKey(String prefix, String regexp, Set<String> list,
+        boolean listRegexp, String ignoreRegexp, Set<String> ignoreList,
+        boolean ignoreListRegexp) {
+      this.prefix = Objects.requireNonNull(prefix, "no prefix");
+      this.regexp = (regexp == null || regexp.isEmpty()) ? null : regexp;
+      // copies, the sets of a component may change afterwards
+      this.list = list == null ? null : new HashSet<>(list);
+      this.listRegexp = list != null && listRegexp;
+      this.ignoreRegexp = (ignoreRegexp == null || ignoreRegexp.isEmpty())
+          ? null : ignoreRegexp;
+      this.ignoreList = ignoreList == null ? null : new HashSet<>(ignoreList);
+      this.ignoreListRegexp = ignoreList != null && ignoreListRegexp;
+      hash = Objects.hash(this.prefix, this.regexp, this.list,
+          this.listRegexp, this.ignoreRegexp, this.ignoreList,
+          this.ignoreListRegexp);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null)
+        return false;
+      if (getClass() != obj.getClass())
+        return false;
+      AutomataKey other = (AutomataKey) obj;
+      return hash == other.hash && prefix.equals(other.prefix)
+          && Objects.equals(regexp, other.regexp)
+          && listRegexp == other.listRegexp
+          && ignoreListRegexp == other.ignoreListRegexp
+          && Objects.equals(ignoreRegexp, other.ignoreRegexp)
+          && Objects.equals(list, other.list)
+          && Objects.equals(ignoreList, other.ignoreList);
+    }
+  }
+
+  /**
+   * The Class Automata.
+   *
+   * The compiled automata for the terms, the automata for the items of the
+   * list, the literal terms of the list and the automata for the terms to
+   * ignore. All automata are created by the constructor and immutable, so they
+   * can be used by multiple threads without locking.
+   */
+  public static class Automata implements Accountable {
+
+    /** The key. */
+    private final AutomataKey key;
+
+    /** The compiled automata. */
+    private final List<CompiledAutomaton> compiledAutomata;
+
+    /** The byte run automata for the items of the list, null without list. */
+    private final Map<String, ByteRunAutomaton> listByteRunAutomata;
+
+    /** The literal terms, null if the list is not literal. */
+    private final BytesRef[] literalTerms;
+
+    /** The byte run automata for terms to ignore, null if none. */
+    private final List<ByteRunAutomaton> ignoreByteRunAutomata;
+
+    /** The size in bytes. */
+    private final long bytes;
+
+    /**
+     * Instantiates new automata.
+     *
+     * @param key the key
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private Automata(AutomataKey key) throws IOException {
+      this.key = key;
+      if (key.list != null && !key.listRegexp && key.regexp == null) {
+        literalTerms = createLiteralTerms(key.prefix, key.list);
+      } else {
+        literalTerms = null;
+      }
+      List<ByteRunAutomaton> ignoreList = null;
+      if (key.ignoreRegexp != null) {
+        ignoreList = new ArrayList<>();
+        RegExp re = new RegExp(
+            key.prefix + MtasToken.DELIMITER + key.ignoreRegexp + "\u0000*");
+        ignoreList.add(new ByteRunAutomaton(re.toAutomaton()));
+      }
+      if (key.ignoreList != null) {
+        if (ignoreList == null) {
+          ignoreList = new ArrayList<>();
+        }
+        Map<String, Automaton> list = MtasToken.createAutomatonMap(key.prefix,
+            new ArrayList<String>(key.ignoreList), !key.ignoreListRegexp);
+        for (Automaton automaton : list.values()) {
+          ignoreList.add(new ByteRunAutomaton(automaton));
+        }
+      }
+      ignoreByteRunAutomata = ignoreList == null ? null
+          : Collections.unmodifiableList(ignoreList);
+      Map<String, Automaton> automatonMap = null;
+      if (key.list == null) {
+        RegExp re;
+        if (key.regexp == null) {
+          re = new RegExp(key.prefix + MtasToken.DELIMITER + ".*");
+        } else {
+          re = new RegExp(
+              key.prefix + MtasToken.DELIMITER + key.regexp + "\u0000*");
+        }
+        compiledAutomata = Collections
+            .singletonList(new CompiledAutomaton(re.toAutomaton()));
+        listByteRunAutomata = null;
+      } else {
+        automatonMap = MtasToken.createAutomatonMap(key.prefix,
+            new ArrayList<String>(key.list), !key.listRegexp);
+        compiledAutomata = Collections.unmodifiableList(
+            MtasToken.createAutomata(key.prefix, key.regexp, automatonMap));
+        listByteRunAutomata = Collections
+            .unmodifiableMap(MtasToken.byteRunAutomatonMap(automatonMap));
+      }
+      bytes = computeRamBytesUsed(automatonMap);
+    }
+
+    /**
+     * Gets the compiled automata.
+     *
+     * @return the compiled automata
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public List<CompiledAutomaton> getCompiledAutomata() throws IOException {
+      return compiledAutomata;
+    }
+
+    /**
+     * Gets the byte run automata for the items of the list.
+     *
+     * @return the byte run automata, null without list
+     */
+    public Map<String, ByteRunAutomaton> getListByteRunAutomata() {
+      return listByteRunAutomata;
+    }
+
+    /**
+     * Gets the sorted literal terms, if the list only contains literal values
+     * and no regexp is used.
+     *
+     * @return the literal terms, null if not available
+     */
+    public BytesRef[] getLiteralTerms() {
+      return literalTerms;
+    }
+
+    /**
+     * Gets the byte run automata for the terms to ignore.
+     *
+     * @return the byte run automata, null if none
+     */
+    public List<ByteRunAutomaton> getIgnoreByteRunAutomata() {
+      return ignoreByteRunAutomata;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see org.apache.lucene.util.Accountable#ramBytesUsed()
+     */
+    @Override
+    public long ramBytesUsed() {
+      return bytes;
+    }
+
+    /**
+     * Compute the size in bytes.
+     *
+     * @param automatonMap the automata for the items of the list, null without
+     *          list
+     * @return the size in bytes
+     */
+    private long computeRamBytesUsed(Map<String, Automaton> automatonMap) {
+      long total = 0;
+      if (automatonMap != null) {
+        for (Automaton automaton : automatonMap.values()) {
+          total += automaton.ramBytesUsed();
+        }
+      }
+      if (compiledAutomata != null) {
+        for (CompiledAutomaton compiledAutomaton : compiledAutomata) {
+          total += compiledAutomaton.ramBytesUsed();
+        }
+      }
+      if (listByteRunAutomata != null) {
+        for (ByteRunAutomaton byteRunAutomaton : listByteRunAutomata
+            .values()) {
+          total += byteRunAutomaton.ramBytesUsed();
+        }
+      }
+      if (literalTerms != null) {
+        for (BytesRef term : literalTerms) {
+          total += RamUsageEstimator.sizeOf(term.bytes);
+        }
+      }
+      if (ignoreByteRunAutomata != null) {
+        for (ByteRunAutomaton byteRunAutomaton : ignoreByteRunAutomata) {
+          total += byteRunAutomaton.ramBytesUsed();
+        }
+      }
+      return total;
+    }
+
+  }
+
+}
@@ -1,11 +1,15 @@
 package mtas.codec.util;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.lang.reflect.InvocationTargetException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -16,11 +20,22 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
+import java.util.Queue;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TimeZone;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.ToIntFunction;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
@@ -69,10 +84,12 @@ import mtas.search.spans.MtasSpanSequenceItem;
 import mtas.search.spans.MtasSpanSequenceQuery;
 import mtas.search.spans.MtasSpanTermQuery;
 import mtas.search.spans.util.MtasSpanQuery;
+import mtas.search.spans.util.MtasSpanSharedWeight;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.DocValuesType;
 import org.apache.lucene.index.FieldInfo;
 import org.apache.lucene.index.FieldInfos;
@@ -93,12 +110,17 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreMode;
 import org.apache.lucene.search.spans.SpanWeight;
 import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.util.ArrayUtil;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.StringHelper;
 import org.apache.lucene.util.automaton.Automaton;
 import org.apache.lucene.util.automaton.ByteRunAutomaton;
 import org.apache.lucene.util.automaton.CompiledAutomaton;
+import org.apache.lucene.util.automaton.Operations;
 import org.apache.lucene.util.automaton.RegExp;
+import org.apache.lucene.util.automaton.TooComplexToDeterminizeException;
 import org.apache.solr.legacy.LegacyNumericUtils;
 import org.apache.solr.schema.NumberType;
 
@@ -119,6 +141,26 @@ public class CodecCollector {
   /** The Constant INDEX_MATCH_COMPLETE. */
   public static final String MATCH_COMPLETE = "complete";
 
+  /**
+   * The Constant NGRAM_COST_FACTOR, the number of n-gram terms and positions
+   * that may be visited for each match before grouping falls back on the
+   * forward index.
+   */
+  private static final int NGRAM_COST_FACTOR = 8;
+
+  /**
+   * The Constant DEFAULT_TERMVECTOR_DOC_COST_FACTOR, the default factor
+   * deciding whether a termvector or the term statistics of documents are
+   * computed from the forward index or from the postings.
+   */
+  public static final int DEFAULT_TERMVECTOR_DOC_COST_FACTOR = 4;
+
+  /**
+   * The Constant TERMVECTOR_PARTITION_DEPTH, the number of bytes of the
+   * postfix used to choose the boundaries of ranges of terms.
+   */
+  private static final int TERMVECTOR_PARTITION_DEPTH = 3;
+
   /**
    * Instantiates a new codec collector.
    */
@@ -159,76 +201,110 @@ public class CodecCollector {
       List<Integer> fullDocList, List<Integer> fullDocSet, ComponentField fieldInfo,
       Map<MtasSpanQuery, SpanWeight> spansQueryWeight, Status status)
       throws IllegalAccessException, IllegalArgumentException, InvocationTargetException, IOException {
+    collectField(field, searcher, reader, rawReader, fullDocList, fullDocSet, fieldInfo, spansQueryWeight, status,
+        null);
+  }
+
+  /**
+   * Collect field, collecting the data of segments concurrently if an executor
+   * is provided. The collection of span, position, token and facet data, and
+   * the computation of the terms of full termvectors, runs concurrently; stats,
+   * termvector, group, kwic and list results are registered from that data on
+   * the calling thread, in segment order, so the outcome doesn't depend on the
+   * executor.
+   *
+   * @param field
+   *          the field
+   * @param searcher
+   *          the searcher
+   * @param reader
+   *          the reader
+   * @param rawReader
+   *          the raw reader
+   * @param fullDocList
+   *          the full doc list
+   * @param fullDocSet
+   *          the full doc set
+   * @param fieldInfo
+   *          the field info
+   * @param spansQueryWeight
+   *          the spans query weight
+   * @param status
+   *          the status
+   * @param executor
+   *          the executor for segments, null to collect serially
+   * @throws IllegalAccessException
+   *           the illegal access exception
+   * @throws IllegalArgumentException
+   *           the illegal argument exception
+   * @throws InvocationTargetException
+   *           the invocation target exception
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public static void collectField(String field, IndexSearcher searcher, IndexReader reader, IndexReader rawReader,
+      List<Integer> fullDocList, List<Integer> fullDocSet, ComponentField fieldInfo,
+      Map<MtasSpanQuery, SpanWeight> spansQueryWeight, Status status, ExecutorService executor)
+      throws IllegalAccessException, IllegalArgumentException, InvocationTargetException, IOException {
+
+    // doc ids in list cursors are only valid for this version of the index
+    if (!fieldInfo.listList.isEmpty()) {
+      long indexVersion = (reader instanceof DirectoryReader) ? ((DirectoryReader) reader).getVersion() : -1;
+      for (ComponentList list : fieldInfo.listList) {
+        list.setIndexVersion(indexVersion);
+      }
+    }
 
-    Map<Integer, List<Integer>> docSets = new HashMap<>();
+    // state of segments for the second termvector round
+    Map<Integer, TermvectorSegmentState> termvectorStates = new HashMap<>();
+    // sorted once, segments are views
+    final CodecDocSet fullDocListIds = CodecDocSet.fromList(fullDocList);
+    final CodecDocSet fullDocSetIds = CodecDocSet.fromList(fullDocSet);
 
-    ListIterator<LeafReaderContext> iterator = reader.leaves().listIterator();
+    List<LeafReaderContext> leaves = reader.leaves();
     long numberOfDocumentsFound = 0;
     if (status != null) {
-      status.init(reader.numDocs(), reader.leaves().size());
-      if (fullDocSet != null && status.numberDocumentsFound == null) {
-        status.numberDocumentsFound = numberOfDocumentsFound;
+      status.init(reader.numDocs(), leaves.size());
+      if (fullDocSet != null) {
+        status.updateNumberDocumentsFound(numberOfDocumentsFound);
       }
     }
 
-    while (iterator.hasNext()) {
-      LeafReaderContext lrc = iterator.next();
-      LeafReader r = lrc.reader();
-      // compute relevant docSet/docList
-      List<Integer> docSet = null;
-      List<Integer> docList = null;
-      if (fullDocSet != null) {
-        docSet = new ArrayList<>();
-        docSets.put(lrc.ord, docSet);
-        Iterator<Integer> docSetIterator = fullDocSet.iterator();
-        Integer docSetId = null;
-        Bits liveDocs = lrc.reader().getLiveDocs();
-        while (docSetIterator.hasNext()) {
-          docSetId = docSetIterator.next();
-          // just to make sure to ignore deleted documents
-          if ((docSetId >= lrc.docBase) && (docSetId < lrc.docBase + lrc.reader().maxDoc())
-              && (liveDocs == null || liveDocs.get((docSetId - lrc.docBase)))) {
-            docSet.add(docSetId);
-          }
-        }
-        Collections.sort(docSet);
-        numberOfDocumentsFound += docSet.size();
-        status.numberDocumentsFound = Math.max(status.numberDocumentsFound, numberOfDocumentsFound);
-      }
-      if (fullDocList != null) {
-        docList = new ArrayList<>();
-        Iterator<Integer> docListIterator = fullDocList.iterator();
-        Integer docListId = null;
-        while (docListIterator.hasNext()) {
-          docListId = docListIterator.next();
-          if ((docListId >= lrc.docBase) && (docListId < lrc.docBase + lrc.reader().maxDoc())) {
-            docList.add(docListId);
+    if (executor == null || leaves.size() < 2) {
+      for (LeafReaderContext lrc : leaves) {
+        SegmentData segmentData = collectSegment(field, rawReader, lrc, fullDocListIds, fullDocSetIds, fieldInfo,
+            spansQueryWeight, false);
+        numberOfDocumentsFound = finishSegment(segmentData, field, searcher, fieldInfo, termvectorStates, status,
+            numberOfDocumentsFound, executor);
+      }
+    } else {
+      // compute segments concurrently, bounded by the size of the pool
+      int maximumQueued = (executor instanceof ThreadPoolExecutor)
+          ? Math.max(2, 2 * ((ThreadPoolExecutor) executor).getMaximumPoolSize())
+          : leaves.size();
+      ArrayDeque<Future<SegmentData>> futures = new ArrayDeque<>();
+      AtomicBoolean aborted = new AtomicBoolean(false);
+      prepareTermvectors(fieldInfo.termVectorList);
+      int next = 0;
+      try {
+        while (next < leaves.size() || !futures.isEmpty()) {
+          while (next < leaves.size() && futures.size() < maximumQueued) {
+            final LeafReaderContext lrc = leaves.get(next++);
+            futures.add(submit(executor, () -> collectSegment(field, rawReader, lrc, fullDocListIds, fullDocSetIds,
+                fieldInfo, spansQueryWeight, true), aborted));
           }
+          SegmentData segmentData = getSegmentData(futures.poll());
+          numberOfDocumentsFound = finishSegment(segmentData, field, searcher, fieldInfo, termvectorStates, status,
+              numberOfDocumentsFound, executor);
         }
-        Collections.sort(docList);
+      } finally {
+        abortAndWait(futures, aborted);
       }
+    }
 
-      Terms t = rawReader.leaves().get(lrc.ord).reader().terms(field);
-      CodecInfo mtasCodecInfo = t == null ? null : CodecInfo.getCodecInfoFromTerms(t);
-
-      collectSpansPositionsAndTokens(spansQueryWeight, searcher, mtasCodecInfo, r, lrc, field, t, docSet, docList,
-          fieldInfo, rawReader.leaves().get(lrc.ord).reader().getFieldInfos(), status);
-      collectPrefixes(rawReader.leaves().get(lrc.ord).reader().getFieldInfos(), field, fieldInfo, status);
-
-      if (status != null) {
-        Integer segmentNumber;
-        Long documentNumber;
-        if ((segmentNumber = status.subNumberSegmentsFinished.get(field)) != null) {
-          status.subNumberSegmentsFinished.put(field, segmentNumber + 1);
-          status.subNumberSegmentsFinishedTotal++;
-          status.numberSegmentsFinished = Collections.max(status.subNumberSegmentsFinished.values());
-        }
-        if ((documentNumber = status.subNumberDocumentsFinished.get(field)) != null) {
-          status.subNumberDocumentsFinished.put(field, documentNumber + r.numDocs());
-          status.subNumberDocumentsFinishedTotal += +r.numDocs();
-          status.numberDocumentsFinished = Collections.max(status.subNumberDocumentsFinished.values());
-        }
-      }
+    // register approximated groups
+    if (!fieldInfo.groupList.isEmpty()) {
+      finishGroups(fieldInfo.groupList);
     }
 
     // check termvectors
@@ -242,22 +318,232 @@ public class CodecCollector {
           }
         }
       }
-      Map<Integer, Integer> positionsData = null;
+      CodecDocColumn positionsData = null;
 
-      // loop
-      iterator = reader.leaves().listIterator();
+      // loop, only seeking the missing keys with the state of the first round
+      ListIterator<LeafReaderContext> iterator = reader.leaves().listIterator();
       while (iterator.hasNext()) {
         LeafReaderContext lrc = iterator.next();
+        // release the state of each segment once it is used
+        TermvectorSegmentState termvectorState = termvectorStates.remove(lrc.ord);
+        if (termvectorState == null) {
+          continue;
+        }
         LeafReader r = lrc.reader();
-        List<Integer> docSet = docSets.get(lrc.ord);
-        Terms t = rawReader.leaves().get(lrc.ord).reader().terms(field);
+        Terms t = termvectorState.t;
         if (needPositions) {
-          CodecInfo mtasCodecInfo = t == null ? null : CodecInfo.getCodecInfoFromTerms(t);
-          positionsData = computePositions(mtasCodecInfo, r, lrc, field, docSet);
+          positionsData = termvectorState.positionsData;
+          if (positionsData == null) {
+            CodecInfo mtasCodecInfo = t == null ? null : CodecInfo.getCodecInfoFromTerms(t);
+            positionsData = computePositions(mtasCodecInfo, r, lrc, field, termvectorState.docSet);
+          }
         }
-        createTermvectorSecondRound(fieldInfo.termVectorList, positionsData, docSets.get(lrc.ord), t, r, lrc, status);
+        createTermvectorSecondRound(fieldInfo.termVectorList, positionsData, termvectorState.docSet, t, r, lrc,
+            termvectorState.intersection, status);
+      }
+
+    }
+  }
+
+  /**
+   * Collect segment: compute all data for the segment that doesn't depend on
+   * other segments. Can be called concurrently for different segments.
+   *
+   * @param field
+   *          the field
+   * @param rawReader
+   *          the raw reader
+   * @param lrc
+   *          the lrc
+   * @param fullDocList
+   *          the full doc list
+   * @param fullDocSet
+   *          the full doc set
+   * @param fieldInfo
+   *          the field info
+   * @param spansQueryWeight
+   *          the spans query weight
+   * @param computeTermvectors
+   *          compute the terms of full termvectors, to be registered when the
+   *          segment is finished
+   * @return the segment data
+   * @throws IllegalAccessException
+   *           the illegal access exception
+   * @throws IllegalArgumentException
+   *           the illegal argument exception
+   * @throws InvocationTargetException
+   *           the invocation target exception
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static SegmentData collectSegment(String field, IndexReader rawReader, LeafReaderContext lrc,
+      CodecDocSet fullDocList, CodecDocSet fullDocSet, ComponentField fieldInfo,
+      Map<MtasSpanQuery, SpanWeight> spansQueryWeight, boolean computeTermvectors)
+      throws IllegalAccessException, IllegalArgumentException, InvocationTargetException, IOException {
+    LeafReader r = lrc.reader();
+    // compute relevant docSet/docList, ignoring deleted documents in docSet
+    CodecDocSet docSet = fullDocSet == null ? null : fullDocSet.segment(lrc, r.getLiveDocs());
+    CodecDocSet docList = fullDocList == null ? null : fullDocList.segment(lrc, null);
+
+    LeafReader rawLeafReader = rawReader.leaves().get(lrc.ord).reader();
+    Terms t = rawLeafReader.terms(field);
+    CodecInfo mtasCodecInfo = t == null ? null : CodecInfo.getCodecInfoFromTerms(t);
+
+    SegmentData segmentData = collectSpansPositionsAndTokens(spansQueryWeight, mtasCodecInfo, r, lrc, field, t,
+        docSet, docList, fieldInfo, rawLeafReader.getFieldInfos());
+    // release matches shared between span queries for this segment
+    for (SpanWeight spanWeight : spansQueryWeight.values()) {
+      if (spanWeight instanceof MtasSpanSharedWeight) {
+        ((MtasSpanSharedWeight) spanWeight).releaseAll(lrc);
+        break;
+      }
+    }
+    if (computeTermvectors && t != null && docSet != null && !docSet.isEmpty()) {
+      segmentData.termvectorRanges = computeTermvectorFullSegment(fieldInfo.termVectorList,
+          segmentData.positionsData, docSet, t, r, lrc, mtasCodecInfo, field);
+    }
+    return segmentData;
+  }
+
+  /**
+   * Finish segment: add the segment data to the collectors. Segments are
+   * finished one at a time, in segment order.
+   *
+   * @param segmentData
+   *          the segment data
+   * @param field
+   *          the field
+   * @param searcher
+   *          the searcher
+   * @param fieldInfo
+   *          the field info
+   * @param termvectorStates
+   *          the state of the segments for the second termvector round
+   * @param status
+   *          the status
+   * @param numberOfDocumentsFound
+   *          the number of documents found in previous segments
+   * @param executor
+   *          the executor for ranges of full termvectors, null to compute
+   *          serially
+   * @return the number of documents found including this segment
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static long finishSegment(SegmentData segmentData, String field, IndexSearcher searcher,
+      ComponentField fieldInfo, Map<Integer, TermvectorSegmentState> termvectorStates, Status status,
+      long numberOfDocumentsFound, ExecutorService executor) throws IOException {
+    TermvectorSegmentState termvectorState = null;
+    if (segmentData.docSet != null) {
+      if (!fieldInfo.termVectorList.isEmpty()) {
+        termvectorState = new TermvectorSegmentState(segmentData);
+        // keep for a possible second round
+        for (ComponentTermVector termVector : fieldInfo.termVectorList) {
+          if (mayNeedSecondRoundTermvector(termVector)) {
+            termvectorStates.put(segmentData.lrc.ord, termvectorState);
+            break;
+          }
+        }
+      }
+      numberOfDocumentsFound += segmentData.docSet.size();
+      if (status != null) {
+        status.updateNumberDocumentsFound(numberOfDocumentsFound);
+      }
+    }
+    createSegmentResults(segmentData, searcher, field, fieldInfo, termvectorState, status, executor);
+    collectPrefixes(segmentData.fieldInfos, field, fieldInfo, status);
+    if (status != null) {
+      status.finishSegment(field, segmentData.lrc.reader().numDocs());
+    }
+    return numberOfDocumentsFound;
+  }
+
+  /**
+   * Gets the segment data from a concurrent computation.
+   *
+   * @param future
+   *          the future
+   * @return the segment data
+   * @throws IllegalAccessException
+   *           the illegal access exception
+   * @throws InvocationTargetException
+   *           the invocation target exception
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static SegmentData getSegmentData(Future<SegmentData> future)
+      throws IllegalAccessException, InvocationTargetException, IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while collecting segment", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof IllegalAccessException) {
+        throw (IllegalAccessException) cause;
+      } else if (cause instanceof InvocationTargetException) {
+        throw (InvocationTargetException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw new IOException(cause);
       }
+    }
+  }
+
+  /**
+   * Submit a task that is skipped if the computation has been aborted before
+   * the task starts.
+   *
+   * @param <T>
+   *          the generic type
+   * @param executor
+   *          the executor
+   * @param task
+   *          the task
+   * @param aborted
+   *          the aborted flag
+   * @return the future
+   */
+  public static <T> Future<T> submit(ExecutorService executor, Callable<T> task, AtomicBoolean aborted) {
+    return executor.submit(() -> aborted.get() ? null : task.call());
+  }
 
+  /**
+   * Abort the tasks that didn't start yet, and wait for the ones that are
+   * already running. Running tasks are not interrupted: an interrupt during a
+   * read from an NIOFSDirectory closes the shared file channel, and breaks the
+   * searcher for all later requests.
+   *
+   * @param futures
+   *          the futures of tasks submitted with
+   *          {@link #submit(ExecutorService, Callable, AtomicBoolean)}
+   * @param aborted
+   *          the aborted flag
+   */
+  public static void abortAndWait(Collection<? extends Future<?>> futures, AtomicBoolean aborted) {
+    aborted.set(true);
+    boolean interrupted = false;
+    for (Future<?> future : futures) {
+      while (true) {
+        try {
+          future.get();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        } catch (ExecutionException | CancellationException e) {
+          // result is not needed
+          break;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
     }
   }
 
@@ -281,33 +567,24 @@ public class CodecCollector {
       // can't do anything in lucene for list
     } else if (collectionInfo.action().equals(ComponentCollection.ACTION_CREATE)) {
       BytesRef term = null;
-      PostingsEnum postingsEnum = null;
-      Integer docId;
-      Integer termDocId = -1;
       Terms terms;
       LeafReaderContext lrc;
       LeafReader r;
+      CodecDocSet docSetIds = CodecDocSet.fromList(docSet);
       ListIterator<LeafReaderContext> iterator = reader.leaves().listIterator();
       while (iterator.hasNext()) {
         lrc = iterator.next();
         r = lrc.reader();
+        CodecDocSetIntersection intersection = new CodecDocSetIntersection(docSetIds, lrc);
+        if (intersection.getDocSet().isEmpty()) {
+          continue;
+        }
         for (String field : collectionInfo.fields()) {
           if ((terms = r.terms(field)) != null) {
             TermsEnum termsEnum = terms.iterator();
             while ((term = termsEnum.next()) != null) {
-              Iterator<Integer> docIterator = docSet.iterator();
-              postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.NONE);
-              termDocId = -1;
-              while (docIterator.hasNext()) {
-                docId = docIterator.next() - lrc.docBase;
-                if ((docId >= termDocId)
-                    && ((docId.equals(termDocId)) || ((termDocId = postingsEnum.advance(docId)).equals(docId)))) {
-                  collectionInfo.addValue(term.utf8ToString());
-                  break;
-                }
-                if (termDocId.equals(PostingsEnum.NO_MORE_DOCS)) {
-                  break;
-                }
+              if (intersection.intersects(termsEnum)) {
+                collectionInfo.addValue(term.utf8ToString());
               }
             }
           }
@@ -321,8 +598,6 @@ public class CodecCollector {
    *
    * @param spansQueryWeight
    *          the spans query weight
-   * @param searcher
-   *          the searcher
    * @param mtasCodecInfo
    *          the mtas codec info
    * @param r
@@ -341,28 +616,31 @@ public class CodecCollector {
    *          the field info
    * @param fieldInfos
    *          the field infos
-   * @param status
-   *          the status
+   * @return the segment data
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
-  private static void collectSpansPositionsAndTokens(Map<MtasSpanQuery, SpanWeight> spansQueryWeight,
-      IndexSearcher searcher, CodecInfo mtasCodecInfo, LeafReader r, LeafReaderContext lrc, String field, Terms t,
-      List<Integer> docSet, List<Integer> docList, ComponentField fieldInfo, FieldInfos fieldInfos, Status status)
-      throws IOException {
+  private static SegmentData collectSpansPositionsAndTokens(Map<MtasSpanQuery, SpanWeight> spansQueryWeight,
+      CodecInfo mtasCodecInfo, LeafReader r, LeafReaderContext lrc, String field, Terms t, CodecDocSet docSet,
+      CodecDocSet docList, ComponentField fieldInfo, FieldInfos fieldInfos) throws IOException {
 
     boolean needSpans = false;
     boolean needPositions = false;
     boolean needTokens = false;
 
+    // documents to collect spans for, numbers are aligned with these
+    CodecDocSet collectDocs = (docSet != null) ? docSet : docList;
+
     // results
-    Map<Integer, Integer> positionsData = null;
-    Map<Integer, Integer> tokensData = null;
+    CodecDocColumn positionsData = null;
+    CodecDocColumn tokensData = null;
     Set<MtasSpanQuery> spansNumberByPositions = null;
-    Map<MtasSpanQuery, Map<Integer, Integer>> spansNumberData = null;
-    Map<MtasSpanQuery, Map<Integer, List<Match>>> spansMatchData = null;
+    Map<MtasSpanQuery, CodecDocColumn> spansNumberData = null;
+    Map<MtasSpanQuery, CodecMatchStore> spansMatchData = null;
     Map<String, SortedMap<String, int[]>> facetData = null;
     Map<String, String> facetDataType = null;
+    // queries with matches only used for kwic
+    Set<MtasSpanQuery> kwicQueries = Collections.emptySet();
 
     // collect position stats
     if (!fieldInfo.statsPositionList.isEmpty()) {
@@ -401,7 +679,7 @@ public class CodecCollector {
             if (cs.queries.length > a) {
               MtasSpanQuery q = cs.queries[a];
               if (!spansNumberData.containsKey(q)) {
-                spansNumberData.put(q, new HashMap<Integer, Integer>());
+                spansNumberData.put(q, new CodecDocColumn(collectDocs));
               }
             }
           }
@@ -412,7 +690,7 @@ public class CodecCollector {
         needSpans = true;
         for (ComponentKwic ck : fieldInfo.kwicList) {
           if (!spansMatchData.containsKey(ck.query)) {
-            spansMatchData.put(ck.query, new HashMap<Integer, List<Match>>());
+            spansMatchData.put(ck.query, new CodecMatchStore());
           }
         }
       }
@@ -421,10 +699,10 @@ public class CodecCollector {
         needSpans = true;
         for (ComponentIndex ci : fieldInfo.indexList) {
           if (!spansMatchData.containsKey(ci.query)) {
-            spansMatchData.put(ci.query, new HashMap<Integer, List<Match>>());
+            spansMatchData.put(ci.query, new CodecMatchStore());
           }
           if (ci.blockQuery != null && !spansMatchData.containsKey(ci.blockQuery)) {
-            spansMatchData.put(ci.blockQuery, new HashMap<Integer, List<Match>>());
+            spansMatchData.put(ci.blockQuery, new CodecMatchStore());
           }
         }
       }
@@ -436,12 +714,12 @@ public class CodecCollector {
             if (cl.number > 0) {
               // only if needed
               if (cl.position < (cl.start + cl.number)) {
-                spansMatchData.put(cl.spanQuery, new HashMap<Integer, List<Match>>());
+                spansMatchData.put(cl.spanQuery, new CodecMatchStore());
               } else {
-                spansNumberData.put(cl.spanQuery, new HashMap<Integer, Integer>());
+                spansNumberData.put(cl.spanQuery, new CodecDocColumn(collectDocs));
               }
             } else if (!spansNumberData.containsKey(cl.spanQuery)) {
-              spansNumberData.put(cl.spanQuery, new HashMap<Integer, Integer>());
+              spansNumberData.put(cl.spanQuery, new CodecDocColumn(collectDocs));
             }
           }
         }
@@ -451,10 +729,18 @@ public class CodecCollector {
         needSpans = true;
         for (ComponentGroup cg : fieldInfo.groupList) {
           if (!spansMatchData.containsKey(cg.spanQuery)) {
-            spansMatchData.put(cg.spanQuery, new HashMap<Integer, List<Match>>());
+            spansMatchData.put(cg.spanQuery, new CodecMatchStore());
           }
         }
       }
+      // kwic: only collect and store the matches to be shown, if possible
+      if (!fieldInfo.kwicList.isEmpty()) {
+        kwicQueries = setKwicWindows(fieldInfo, spansMatchData);
+      }
+      // list: only collect matches up to the last hit shown, if possible
+      if (!fieldInfo.listList.isEmpty()) {
+        setListRanges(fieldInfo, spansMatchData);
+      }
       // heatmap
       if (!fieldInfo.heatmapList.isEmpty()) {
         needSpans = true;
@@ -468,7 +754,7 @@ public class CodecCollector {
             if (ch.queries.length > a) {
               MtasSpanQuery q = ch.queries[a];
               if (!spansNumberData.containsKey(q)) {
-                spansNumberData.put(q, new HashMap<Integer, Integer>());
+                spansNumberData.put(q, new CodecDocColumn(collectDocs));
               }
             }
           }
@@ -486,7 +772,7 @@ public class CodecCollector {
               if (cf.spanQueries.length > a) {
                 MtasSpanQuery q = cf.spanQueries[a];
                 if (!spansNumberData.containsKey(q)) {
-                  spansNumberData.put(q, new HashMap<Integer, Integer>());
+                  spansNumberData.put(q, new CodecDocColumn(collectDocs));
                 }
               }
             }
@@ -497,7 +783,7 @@ public class CodecCollector {
                 if (cf.spanQueries.length > a) {
                   MtasSpanQuery q = cf.spanQueries[a];
                   if (!spansNumberData.containsKey(q)) {
-                    spansNumberData.put(q, new HashMap<Integer, Integer>());
+                    spansNumberData.put(q, new CodecDocColumn(collectDocs));
                   }
                 }
               }
@@ -522,8 +808,11 @@ public class CodecCollector {
     }
 
     if (needSpans) {
-      Map<Integer, Integer> numberData;
-      Map<Integer, List<Match>> matchData;
+      CodecDocColumn numberData;
+      CodecMatchStore matchData;
+      // cache for matches, reused across requests
+      CodecSpanMatchCache matchCache = CodecSpanMatchCache.getInstance();
+      IndexReader.CacheKey matchCacheKey = matchCache.isEnabled() ? matchCache.getCoreKey(r) : null;
       // collect values for facetFields
       for (Entry<String, SortedMap<String, int[]>> entry : facetData.entrySet()) {
         FieldInfo fi = fieldInfos.fieldInfo(entry.getKey());
@@ -732,49 +1021,90 @@ public class CodecCollector {
         }
         // collect (if termvector collection didn't work)
         if (doNormalCollection && ((numberData != null) || (matchData != null))) {
+          // matches only used for kwic are only needed for the listed docs
+          CodecDocSet queryDocs = (numberData == null && docList != null && kwicQueries.contains(sq)) ? docList
+              : collectDocs;
+          CodecSpanMatchCache.Matches cachedMatches = (matchCacheKey != null)
+              ? matchCache.get(matchCacheKey, field, sq, queryDocs, lrc.docBase) : null;
+          if (cachedMatches != null) {
+            // use matches from cache
+            for (int index = 0; index < queryDocs.size(); index++) {
+              int docId = queryDocs.getInt(index);
+              int docIndex = cachedMatches.docIndex(docId - lrc.docBase);
+              if (docIndex >= 0) {
+                int number = cachedMatches.number(docIndex);
+                if ((numberData != null)) {
+                  numberData.setValueAt(index, number);
+                }
+                if ((matchData != null)) {
+                  int offset = cachedMatches.offset(docIndex);
+                  matchData.startDoc(docId);
+                  for (int i = offset; i < offset + number; i++) {
+                    matchData.add(cachedMatches.startPosition(i), cachedMatches.endPosition(i));
+                  }
+                }
+              }
+            }
+            continue;
+          }
+          // only a range of docs needed
+          boolean collectRange = matchData != null && numberData == null && matchData.getRangeFirstDocId() >= 0;
+          // only complete matches are cached, a range is collected without cache
+          CodecSpanMatchCache.MatchesBuilder matchesBuilder = (matchCacheKey != null && !collectRange)
+              ? matchCache.createBuilder(r.maxDoc()) : null;
           Spans spans = spansQueryWeight.get(sq).getSpans(lrc, SpanWeight.Postings.POSITIONS);
           if (spans != null) {
-            Iterator<Integer> it;
-            if (docSet != null) {
-              it = docSet.iterator();
-            } else {
-              it = docList.iterator();
-            }
-            if (it.hasNext()) {
-              int docId = it.next();
+            int size = queryDocs.size();
+            int index = collectRange ? queryDocs.ceilingIndexOfDoc(matchData.getRangeFirstDocId()) : 0;
+            if (index < size) {
+              int docId = queryDocs.getInt(index);
               int number;
-              ArrayList<Match> matchDataList;
-              Integer spansDocId = null;
-              while (docId != DocIdSetIterator.NO_MORE_DOCS) {
+              int spansDocId;
+              while (true) {
                 if (spans.advance((docId - lrc.docBase)) == DocIdSetIterator.NO_MORE_DOCS) {
                   break;
                 }
                 spansDocId = spans.docID() + lrc.docBase;
-                while ((docId < spansDocId) && it.hasNext()) {
-                  docId = it.next();
+                while ((docId < spansDocId) && (index + 1 < size)) {
+                  docId = queryDocs.getInt(++index);
                 }
                 if (docId < spansDocId) {
                   break;
                 }
-                if (spansDocId.equals(docId)) {
+                if (spansDocId == docId) {
                   number = 0;
-                  matchDataList = new ArrayList<>();
+                  if (matchData != null) {
+                    matchData.startDoc(spansDocId);
+                  }
+                  if (matchesBuilder != null) {
+                    matchesBuilder.collectDoc(spansDocId - lrc.docBase);
+                  }
                   int tmpStartPosition;
                   while ((tmpStartPosition = spans.nextStartPosition()) != Spans.NO_MORE_POSITIONS) {
                     number++;
                     if (matchData != null) {
-                      Match m = new Match(tmpStartPosition, spans.endPosition());
-                      matchDataList.add(m);
+                      matchData.add(tmpStartPosition, spans.endPosition());
+                    }
+                    if (matchesBuilder != null) {
+                      matchesBuilder.addMatch(tmpStartPosition, spans.endPosition());
+                    } else if (matchData != null && matchData.isDocWindowComplete()) {
+                      // no more matches stored for this doc, only count
+                      int counted = 0;
+                      while (spans.nextStartPosition() != Spans.NO_MORE_POSITIONS) {
+                        counted++;
+                      }
+                      matchData.addCounted(counted);
+                      number += counted;
+                      break;
                     }
                   }
                   if ((numberData != null)) {
-                    numberData.put(spansDocId, number);
+                    numberData.setValueAt(index, number);
                   }
-                  if ((matchData != null)) {
-                    matchData.put(spansDocId, matchDataList);
-                  }
-                  if (it.hasNext()) {
-                    docId = it.next();
+                  if (collectRange && matchData.isRangeComplete()) {
+                    break;
+                  } else if (index + 1 < size) {
+                    docId = queryDocs.getInt(++index);
                   } else {
                     break;
                   }
@@ -782,68 +1112,70 @@ public class CodecCollector {
               }
             }
           }
+          if (matchesBuilder != null) {
+            matchCache.put(matchCacheKey, field, sq, matchesBuilder.build(queryDocs, lrc.docBase));
+          }
         }
       }
     }
 
     // collect position stats
     if (needPositions) {
-      if (mtasCodecInfo != null) {
-        // for relatively small numbers, compute only what is needed
-        if (docSet.size() < Math.log(r.maxDoc())) {
-          positionsData = new HashMap<>();
-          for (int docId : docSet) {
-            positionsData.put(docId, mtasCodecInfo.getNumberOfPositions(field, (docId - lrc.docBase)));
-          }
-          // compute everything, only use what is needed
-        } else {
-          positionsData = mtasCodecInfo.getAllNumberOfPositions(field, lrc.docBase);
-          for (int docId : docSet) {
-            if (!positionsData.containsKey(docId)) {
-              positionsData.put(docId, 0);
-            }
-          }
-        }
-      } else {
-        positionsData = new HashMap<>();
-        for (int docId : docSet) {
-          positionsData.put(docId, 0);
-        }
-      }
+      positionsData = computePositions(mtasCodecInfo, r, lrc, field, docSet);
       if (spansNumberByPositions != null && spansNumberData != null) {
         for (MtasSpanQuery sq : spansNumberByPositions) {
-          Map<Integer, Integer> numberData = spansNumberData.get(sq);
-          positionsData.forEach((k, v) -> numberData.put(k, v != null ? v : 0));
+          spansNumberData.put(sq, positionsData);
         }
       }
     }
 
     // collect token stats
     if (needTokens) {
-      if (mtasCodecInfo != null) {
-        // for relatively small numbers, compute only what is needed
-        if (docSet.size() < Math.log(r.maxDoc())) {
-          tokensData = new HashMap<>();
-          for (int docId : docSet) {
-            tokensData.put(docId, mtasCodecInfo.getNumberOfTokens(field, (docId - lrc.docBase)));
-          }
-          // compute everything, only use what is needed
-        } else {
-          tokensData = mtasCodecInfo.getAllNumberOfTokens(field, lrc.docBase);
-          for (int docId : docSet) {
-            if (!tokensData.containsKey(docId)) {
-              tokensData.put(docId, 0);
-            }
-          }
-        }
-      } else {
-        tokensData = new HashMap<>();
-        for (int docId : docSet) {
-          tokensData.put(docId, 0);
-        }
-      }
+      tokensData = computeTokens(mtasCodecInfo, r, lrc, field, docSet);
     }
 
+    return new SegmentData(lrc, t, mtasCodecInfo, fieldInfos, docSet, docList, positionsData, tokensData,
+        spansNumberData, spansMatchData, facetData);
+  }
+
+  /**
+   * Creates the segment results: add the computed data for a segment to the
+   * collectors of the components.
+   *
+   * @param segmentData
+   *          the segment data
+   * @param searcher
+   *          the searcher
+   * @param field
+   *          the field
+   * @param fieldInfo
+   *          the field info
+   * @param termvectorState
+   *          the termvector state of the segment, null if not available
+   * @param status
+   *          the status
+   * @param executor
+   *          the executor for ranges of full termvectors, null to compute
+   *          serially
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static void createSegmentResults(SegmentData segmentData, IndexSearcher searcher, String field,
+      ComponentField fieldInfo, TermvectorSegmentState termvectorState, Status status, ExecutorService executor)
+      throws IOException {
+    LeafReaderContext lrc = segmentData.lrc;
+    LeafReader r = lrc.reader();
+    Terms t = segmentData.t;
+    CodecInfo mtasCodecInfo = segmentData.mtasCodecInfo;
+    FieldInfos fieldInfos = segmentData.fieldInfos;
+    CodecDocSet docSet = segmentData.docSet;
+    CodecDocSet docList = segmentData.docList;
+    CodecDocColumn positionsData = segmentData.positionsData;
+    CodecDocColumn tokensData = segmentData.tokensData;
+    Map<MtasSpanQuery, CodecDocColumn> spansNumberData = segmentData.spansNumberData;
+    Map<MtasSpanQuery, CodecMatchStore> spansMatchData = segmentData.spansMatchData;
+    Map<String, SortedMap<String, int[]>> facetData = segmentData.facetData;
+
     if (!fieldInfo.statsPositionList.isEmpty()) {
       // create positions
       createPositions(fieldInfo.statsPositionList, positionsData, docSet);
@@ -859,13 +1191,13 @@ public class CodecCollector {
     }
     if (!fieldInfo.documentList.isEmpty()) {
       // create document
-      createDocument(fieldInfo.documentList, docList, fieldInfo.uniqueKeyField, searcher, t, lrc);
+      createDocument(fieldInfo.documentList, docList, fieldInfo.uniqueKeyField, searcher, t, lrc, mtasCodecInfo,
+          field);
     }
     if (!fieldInfo.spanQueryList.isEmpty()) {
       if (!fieldInfo.statsSpanList.isEmpty()) {
         // create stats
-        createStats(fieldInfo.statsSpanList, positionsData, spansNumberData,
-            docSet.toArray(new Integer[docSet.size()]));
+        createStats(fieldInfo.statsSpanList, positionsData, spansNumberData, docSet);
       }
       if (!fieldInfo.listList.isEmpty()) {
         // create list
@@ -874,7 +1206,7 @@ public class CodecCollector {
       }
       if (!fieldInfo.groupList.isEmpty()) {
         // create group
-        createGroup(fieldInfo.groupList, spansMatchData, docSet, fieldInfos.fieldInfo(field), field, lrc.docBase,
+        createGroup(fieldInfo.groupList, spansMatchData, docSet, fieldInfos.fieldInfo(field), field, t, lrc.docBase,
             mtasCodecInfo, searcher, lrc, status);
       }
       if (!fieldInfo.kwicList.isEmpty()) {
@@ -897,8 +1229,12 @@ public class CodecCollector {
       }
     }
     if (!fieldInfo.termVectorList.isEmpty()) {
-      createTermvectorFull(fieldInfo.termVectorList, positionsData, docSet, t, r, lrc);
-      createTermvectorFirstRound(fieldInfo.termVectorList, positionsData, docSet, t, r, lrc);
+      CodecDocSetIntersection intersection = termvectorState != null ? termvectorState.intersection
+          : new CodecDocSetIntersection(docSet, lrc);
+      createTermvectorFull(fieldInfo.termVectorList, positionsData, docSet, t, r, lrc, intersection, mtasCodecInfo,
+          field, segmentData.termvectorRanges, executor);
+      createTermvectorFirstRound(fieldInfo.termVectorList, positionsData, docSet, t, r, lrc, intersection,
+          mtasCodecInfo, field);
     }
   }
 
@@ -1184,82 +1520,136 @@ public class CodecCollector {
    *          the field
    * @param docSet
    *          the doc set
-   * @return the map
+   * @return the codec doc column
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
-  private static Map<Integer, Integer> computePositions(CodecInfo mtasCodecInfo, LeafReader r, LeafReaderContext lrc,
-      String field, List<Integer> docSet) throws IOException {
-    HashMap<Integer, Integer> positionsData;
+  private static CodecDocColumn computePositions(CodecInfo mtasCodecInfo, LeafReader r, LeafReaderContext lrc,
+      String field, CodecDocSet docSet) throws IOException {
+    CodecDocColumn positionsData = new CodecDocColumn(docSet);
     if (mtasCodecInfo != null) {
       // for relatively small numbers, compute only what is needed
       if (docSet.size() < Math.log(r.maxDoc())) {
-        positionsData = new HashMap<>();
-        for (int docId : docSet) {
-          positionsData.put(docId, mtasCodecInfo.getNumberOfPositions(field, (docId - lrc.docBase)));
+        for (int i = 0; i < docSet.size(); i++) {
+          Integer number = mtasCodecInfo.getNumberOfPositions(field, (docSet.getInt(i) - lrc.docBase));
+          positionsData.setValueAt(i, number == null ? 0 : number);
         }
-        // compute everything, only use what is needed
+        // scan everything, only store what is needed
       } else {
-        positionsData = mtasCodecInfo.getAllNumberOfPositions(field, lrc.docBase);
-        for (int docId : docSet) {
-          if (!positionsData.containsKey(docId)) {
-            positionsData.put(docId, 0);
-          }
-        }
-      }
-    } else {
-      positionsData = new HashMap<>();
-      for (int docId : docSet) {
-        positionsData.put(docId, 0);
+        mtasCodecInfo.fillNumberOfPositions(field, lrc.docBase, positionsData);
       }
     }
     return positionsData;
   }
 
   /**
-   * Compute arguments.
+   * Compute tokens.
    *
-   * @param spansNumberData
-   *          the spans number data
-   * @param queries
-   *          the queries
+   * @param mtasCodecInfo
+   *          the mtas codec info
+   * @param r
+   *          the r
+   * @param lrc
+   *          the lrc
+   * @param field
+   *          the field
    * @param docSet
    *          the doc set
-   * @return the map
+   * @return the codec doc column
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
    */
-  private static Map<Integer, long[]> computeArguments(Map<MtasSpanQuery, Map<Integer, Integer>> spansNumberData,
-      MtasSpanQuery[] queries, Integer[] docSet) {
-    Map<Integer, long[]> args = new HashMap<>();
-    for (int q = 0; q < queries.length; q++) {
-      Map<Integer, Integer> tmpData = spansNumberData.get(queries[q]);
-      long[] tmpList = null;
-      for (int docId : docSet) {
-        if (tmpData != null && tmpData.containsKey(docId)) {
-          if (!args.containsKey(docId)) {
-            tmpList = new long[queries.length];
-          } else {
-            tmpList = args.get(docId);
-          }
-          tmpList[q] = tmpData.get(docId);
-          args.put(docId, tmpList);
-        } else if (!args.containsKey(docId)) {
-          tmpList = new long[queries.length];
-          args.put(docId, tmpList);
+  private static CodecDocColumn computeTokens(CodecInfo mtasCodecInfo, LeafReader r, LeafReaderContext lrc,
+      String field, CodecDocSet docSet) throws IOException {
+    CodecDocColumn tokensData = new CodecDocColumn(docSet);
+    if (mtasCodecInfo != null) {
+      // for relatively small numbers, compute only what is needed
+      if (docSet.size() < Math.log(r.maxDoc())) {
+        for (int i = 0; i < docSet.size(); i++) {
+          Integer number = mtasCodecInfo.getNumberOfTokens(field, (docSet.getInt(i) - lrc.docBase));
+          tokensData.setValueAt(i, number == null ? 0 : number);
         }
+        // scan everything, only store what is needed
+      } else {
+        mtasCodecInfo.fillNumberOfTokens(field, lrc.docBase, tokensData);
       }
     }
-    return args;
+    return tokensData;
   }
 
   /**
-   * Intersected doc list.
+   * Compute argument columns: the number column for each query, null if not
+   * collected.
    *
-   * @param facetDocList
-   *          the facet doc list
-   * @param docSet
-   *          the doc set
-   * @return the integer[]
-   */
+   * @param spansNumberData
+   *          the spans number data
+   * @param queries
+   *          the queries
+   * @return the codec doc column[]
+   */
+  private static CodecDocColumn[] computeArgumentColumns(Map<MtasSpanQuery, CodecDocColumn> spansNumberData,
+      MtasSpanQuery[] queries) {
+    CodecDocColumn[] columns = new CodecDocColumn[queries.length];
+    for (int q = 0; q < queries.length; q++) {
+      columns[q] = spansNumberData.get(queries[q]);
+    }
+    return columns;
+  }
+
+  /**
+   * Fill the arguments for the n-th document of a doc set.
+   *
+   * @param columns
+   *          the argument columns
+   * @param docSet
+   *          the doc set
+   * @param index
+   *          the index in the doc set
+   * @param argsQ
+   *          the number of hits for each argument, filled
+   * @param argsD
+   *          1 if the argument has hits, 0 otherwise, filled if not null
+   */
+  private static void fillArguments(CodecDocColumn[] columns, CodecDocSet docSet, int index, long[] argsQ,
+      long[] argsD) {
+    for (int q = 0; q < columns.length; q++) {
+      argsQ[q] = (columns[q] == null) ? 0 : columns[q].get(docSet, index);
+      if (argsD != null) {
+        argsD[q] = (argsQ[q] > 0) ? 1 : 0;
+      }
+    }
+  }
+
+  /**
+   * Fill the arguments for a doc id.
+   *
+   * @param columns
+   *          the argument columns
+   * @param docId
+   *          the doc id
+   * @param argsQ
+   *          the number of hits for each argument, filled
+   * @param argsD
+   *          1 if the argument has hits, 0 otherwise, filled if not null
+   */
+  private static void fillArguments(CodecDocColumn[] columns, int docId, long[] argsQ, long[] argsD) {
+    for (int q = 0; q < columns.length; q++) {
+      argsQ[q] = (columns[q] == null) ? 0 : columns[q].get(docId);
+      if (argsD != null) {
+        argsD[q] = (argsQ[q] > 0) ? 1 : 0;
+      }
+    }
+  }
+
+  /**
+   * Intersected doc list.
+   *
+   * @param facetDocList
+   *          the facet doc list
+   * @param docSet
+   *          the doc set
+   * @return the integer[]
+   */
   private static Integer[] intersectedDocList(int[] facetDocList, Integer[] docSet) {
     if (facetDocList != null && docSet != null) {
       Integer[] c = new Integer[Math.min(facetDocList.length, docSet.length)];
@@ -1296,18 +1686,16 @@ public class CodecCollector {
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
-  private static void createPositions(List<ComponentPosition> statsPositionList, Map<Integer, Integer> positionsData,
-      List<Integer> docSet) throws IOException {
+  private static void createPositions(List<ComponentPosition> statsPositionList, CodecDocColumn positionsData,
+      CodecDocSet docSet) throws IOException {
     if (statsPositionList != null) {
       for (ComponentPosition position : statsPositionList) {
         position.dataCollector.initNewList(1);
-        Integer tmpValue;
         long[] values = new long[docSet.size()];
         int value;
         int number = 0;
-        for (int docId : docSet) {
-          tmpValue = positionsData.get(docId);
-          value = tmpValue == null ? 0 : tmpValue.intValue();
+        for (int i = 0; i < values.length; i++) {
+          value = positionsData.get(docSet, i);
           if (((position.minimumLong == null) || (value >= position.minimumLong))
               && ((position.maximumLong == null) || (value <= position.maximumLong))) {
             values[number] = value;
@@ -1334,19 +1722,17 @@ public class CodecCollector {
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
-  private static void createTokens(List<ComponentToken> statsTokenList, Map<Integer, Integer> tokensData,
-      List<Integer> docSet) throws IOException {
+  private static void createTokens(List<ComponentToken> statsTokenList, CodecDocColumn tokensData,
+      CodecDocSet docSet) throws IOException {
     if (statsTokenList != null) {
       for (ComponentToken token : statsTokenList) {
         token.dataCollector.initNewList(1);
-        Integer tmpValue;
         long[] values = new long[docSet.size()];
         int value;
         int number = 0;
         if (tokensData != null) {
-          for (int docId : docSet) {
-            tmpValue = tokensData.get(docId);
-            value = tmpValue == null ? 0 : tmpValue.intValue();
+          for (int i = 0; i < values.length; i++) {
+            value = tokensData.get(docSet, i);
             if (((token.minimumLong == null) || (value >= token.minimumLong))
                 && ((token.maximumLong == null) || (value <= token.maximumLong))) {
               values[number] = value;
@@ -1376,8 +1762,8 @@ public class CodecCollector {
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
-  private static void createStats(List<ComponentSpan> statsSpanList, Map<Integer, Integer> positionsData,
-      Map<MtasSpanQuery, Map<Integer, Integer>> spansNumberData, Integer[] docSet) throws IOException {
+  private static void createStats(List<ComponentSpan> statsSpanList, CodecDocColumn positionsData,
+      Map<MtasSpanQuery, CodecDocColumn> spansNumberData, CodecDocSet docSet) throws IOException {
     if (statsSpanList != null) {
       for (ComponentSpan span : statsSpanList) {
         if (span.parser.needArgumentsNumber() > span.queries.length) {
@@ -1385,7 +1771,7 @@ public class CodecCollector {
               "function " + span.parser + " expects (at least) " + span.parser.needArgumentsNumber() + " queries");
         }
         // collect
-        Map<Integer, long[]> args = computeArguments(spansNumberData, span.queries, docSet);
+        CodecDocColumn[] argumentColumns = computeArgumentColumns(spansNumberData, span.queries);
         if (span.dataType.equals(CodecUtil.DATA_TYPE_LONG)) {
           // try to call functionParser as little as possible
           if (span.statsType.equals(CodecUtil.STATS_BASIC) && (span.minimumLong == null) && (span.maximumLong == null)
@@ -1397,25 +1783,23 @@ public class CodecCollector {
             long[] valueDSum = new long[length];
             long valuePositions = 0;
             // collect
-            if (docSet.length > 0) {
-              long[] tmpArgs;
-              for (int docId : docSet) {
-                tmpArgs = args.get(docId);
-                valuePositions += (positionsData == null) ? 0 : positionsData.get(docId);
-                if (tmpArgs != null) {
-                  for (int i = 0; i < length; i++) {
-                    if(tmpArgs[i]>0) {
-                      valueQSum[i] += tmpArgs[i];
-                      valueDSum[i] += 1;
-                    }  
+            if (!docSet.isEmpty()) {
+              long[] tmpArgs = new long[argumentColumns.length];
+              for (int index = 0; index < docSet.size(); index++) {
+                fillArguments(argumentColumns, docSet, index, tmpArgs, null);
+                valuePositions += (positionsData == null) ? 0 : positionsData.get(docSet, index);
+                for (int i = 0; i < length; i++) {
+                  if (tmpArgs[i] > 0) {
+                    valueQSum[i] += tmpArgs[i];
+                    valueDSum[i] += 1;
                   }
                 }
               }
               long valueLong;
               span.dataCollector.initNewList(1);
               try {
-                valueLong = span.parser.getValueLong(valueQSum, valueDSum, valuePositions, docSet.length);
-                span.dataCollector.add(valueLong, docSet.length);
+                valueLong = span.parser.getValueLong(valueQSum, valueDSum, valuePositions, docSet.size());
+                span.dataCollector.add(valueLong, docSet.size());
               } catch (IOException e) {
                 log.debug(e);
                 span.dataCollector.error(e.getMessage(), 1);
@@ -1425,16 +1809,16 @@ public class CodecCollector {
                   function.dataCollector.initNewList(1);
                   if (function.dataType.equals(CodecUtil.DATA_TYPE_LONG)) {
                     try {
-                      valueLong = function.parserFunction.getValueLong(valueQSum, valueDSum, valuePositions, docSet.length);
-                      function.dataCollector.add(valueLong, docSet.length);
+                      valueLong = function.parserFunction.getValueLong(valueQSum, valueDSum, valuePositions, docSet.size());
+                      function.dataCollector.add(valueLong, docSet.size());
                     } catch (IOException e) {
                       log.debug(e);
                       function.dataCollector.error(e.getMessage(), 1);
                     }
                   } else if (function.dataType.equals(CodecUtil.DATA_TYPE_DOUBLE)) {
                     try {
-                      double valueDouble = function.parserFunction.getValueDouble(valueQSum, valueDSum, valuePositions, docSet.length);
-                      function.dataCollector.add(valueDouble, docSet.length);
+                      double valueDouble = function.parserFunction.getValueDouble(valueQSum, valueDSum, valuePositions, docSet.size());
+                      function.dataCollector.add(valueDouble, docSet.size());
                     } catch (IOException e) {
                       log.debug(e);
                       function.dataCollector.error(e.getMessage(), 1);
@@ -1449,12 +1833,12 @@ public class CodecCollector {
             }
           } else {
             // collect
-            if (docSet.length > 0) {
+            if (!docSet.isEmpty()) {
               int number = 0;
               int positions;
               long valueLong;
               double valueDouble;
-              long[] values = new long[docSet.length];
+              long[] values = new long[docSet.size()];
               long[][] functionValuesLong = null;
               double[][] functionValuesDouble = null;
               span.dataCollector.initNewList(1);
@@ -1464,26 +1848,21 @@ public class CodecCollector {
                 for (int i = 0; i < span.functions.size(); i++) {
                   SubComponentFunction function = span.functions.get(i);
                   if (function.dataType.equals(CodecUtil.DATA_TYPE_LONG)) {
-                    functionValuesLong[i] = new long[docSet.length];
+                    functionValuesLong[i] = new long[docSet.size()];
                     functionValuesDouble[i] = null;
                   } else if (function.dataType.equals(CodecUtil.DATA_TYPE_DOUBLE)) {
                     functionValuesLong[i] = null;
-                    functionValuesDouble[i] = new double[docSet.length];
+                    functionValuesDouble[i] = new double[docSet.size()];
                   }
                   function.dataCollector.initNewList(1);
                 }
               }
-              for (int docId : docSet) {
-                if (positionsData == null) {
-                  positions = 0;
-                } else {
-                  positions = (positionsData.get(docId) == null ? 0 : positionsData.get(docId));
-                }
-                long[] argsD = args.get(docId).clone();
-                for(int k=0; k<argsD.length; k++) {
-                  argsD[k] = (argsD[k]>0)?1:0;
-                }
-                valueLong = span.parser.getValueLong(args.get(docId), argsD, positions, 1);
+              long[] argsQ = new long[argumentColumns.length];
+              long[] argsD = new long[argumentColumns.length];
+              for (int index = 0; index < docSet.size(); index++) {
+                positions = (positionsData == null) ? 0 : positionsData.get(docSet, index);
+                fillArguments(argumentColumns, docSet, index, argsQ, argsD);
+                valueLong = span.parser.getValueLong(argsQ, argsD, positions, 1);
                 if (((span.minimumLong == null) || (valueLong >= span.minimumLong))
                     && ((span.maximumLong == null) || (valueLong <= span.maximumLong))) {
                   values[number] = valueLong;
@@ -1492,10 +1871,10 @@ public class CodecCollector {
                       SubComponentFunction function = span.functions.get(i);
                       try {
                         if (function.dataType.equals(CodecUtil.DATA_TYPE_LONG)) {
-                          valueLong = function.parserFunction.getValueLong(args.get(docId), argsD, positions, 1);
+                          valueLong = function.parserFunction.getValueLong(argsQ, argsD, positions, 1);
                           functionValuesLong[i][number] = valueLong;
                         } else if (function.dataType.equals(CodecUtil.DATA_TYPE_DOUBLE)) {
-                          valueDouble = function.parserFunction.getValueDouble(args.get(docId), argsD, positions, 1);
+                          valueDouble = function.parserFunction.getValueDouble(argsQ, argsD, positions, 1);
                           functionValuesDouble[i][number] = valueDouble;
                         }
                       } catch (IOException e) {
@@ -1560,26 +1939,31 @@ public class CodecCollector {
    *           Signals that an I/O exception has occurred.
    */
   private static void createList(List<ComponentList> listList,
-      Map<MtasSpanQuery, Map<Integer, Integer>> spansNumberData,
-      Map<MtasSpanQuery, Map<Integer, List<Match>>> spansMatchData, List<Integer> docSet, String field, int docBase,
+      Map<MtasSpanQuery, CodecDocColumn> spansNumberData,
+      Map<MtasSpanQuery, CodecMatchStore> spansMatchData, List<Integer> docSet, String field, int docBase,
       String uniqueKeyField, CodecInfo mtasCodecInfo, IndexSearcher searcher) throws IOException {
     if (listList != null) {
       for (ComponentList list : listList) {
         // collect not only stats
         if (list.number > 0) {
-          Map<Integer, List<Match>> matchData = spansMatchData.get(list.spanQuery);
-          Map<Integer, Integer> numberData = spansNumberData.get(list.spanQuery);
-          List<Match> matchList;
-          Integer matchNumber;
+          CodecMatchStore matchData = spansMatchData.get(list.spanQuery);
+          CodecMatchStore.Cursor matchCursor = matchData != null ? matchData.cursor() : null;
+          CodecDocColumn numberData = spansNumberData.get(list.spanQuery);
           for (int docId : docSet) {
-            if (matchData != null && (matchList = matchData.get(docId)) != null) {
+            if (!list.afterCursor(docId, Integer.MAX_VALUE)) {
+              // before cursor
+              continue;
+            } else if (matchCursor != null && matchCursor.seek(docId)) {
               if (list.position < (list.start + list.number)) {
                 boolean getDoc = false;
                 Match m;
                 if (list.output.equals(ComponentList.LIST_OUTPUT_HIT)) {
-                  for (int i = 0; i < matchList.size(); i++) {
-                    if ((list.position >= list.start) && (list.position < (list.start + list.number))) {
-                      m = matchList.get(i);
+                  while (matchCursor.next()) {
+                    int i = matchCursor.index();
+                    if (!list.afterCursor(docId, i)) {
+                      continue;
+                    } else if ((list.position >= list.start) && (list.position < (list.start + list.number))) {
+                      m = matchCursor.match();
                       getDoc = true;
                       int startPosition = m.startPosition;
                       int endPosition = m.endPosition - 1;
@@ -1600,13 +1984,17 @@ public class CodecCollector {
                         }
                       }
                       list.hits.add(new ListHit(docId, i, m, kwicListHits));
+                      list.updateNextCursor(docId, i);
                     }
                     list.position++;
                   }
                 } else if (list.output.equals(ComponentList.LIST_OUTPUT_TOKEN)) {
-                  for (int i = 0; i < matchList.size(); i++) {
-                    if ((list.position >= list.start) && (list.position < (list.start + list.number))) {
-                      m = matchList.get(i);
+                  while (matchCursor.next()) {
+                    int i = matchCursor.index();
+                    if (!list.afterCursor(docId, i)) {
+                      continue;
+                    } else if ((list.position >= list.start) && (list.position < (list.start + list.number))) {
+                      m = matchCursor.match();
                       getDoc = true;
                       int startPosition = m.startPosition;
                       int endPosition = m.endPosition - 1;
@@ -1614,6 +2002,7 @@ public class CodecCollector {
                       tokens = mtasCodecInfo.getPrefixFilteredObjectsByPositions(field, (docId - docBase),
                           list.prefixes, startPosition - list.left, endPosition + list.right);
                       list.tokens.add(new ListToken(docId, i, m, tokens));
+                      list.updateNextCursor(docId, i);
                     }
                     list.position++;
                   }
@@ -1706,7 +2095,7 @@ public class CodecCollector {
                     }
                   }
                   // get other doc info
-                  list.subTotal.put(docId, matchList.size());
+                  list.subTotal.put(docId, matchCursor.size());
                   IndexDoc mDoc = mtasCodecInfo.getDoc(field, (docId - docBase));
                   if (mDoc != null) {
                     list.minPosition.put(docId, mDoc.minPosition);
@@ -1714,21 +2103,19 @@ public class CodecCollector {
                   }
                 }
               } else {
-                list.position += matchList.size();
+                list.position += matchCursor.size();
               }
-            } else if (numberData != null && (matchNumber = numberData.get(docId)) != null) {
-              list.position += matchNumber;
+            } else if (numberData != null) {
+              list.position += numberData.get(docId);
             }
           }
           list.total = list.position;
         } else {
-          Map<Integer, Integer> data = spansNumberData.get(list.spanQuery);
+          CodecDocColumn data = spansNumberData.get(list.spanQuery);
           if (data != null) {
-            for (int docId : docSet) {
-              Integer matchNumber = data.get(docId);
-              if (matchNumber != null) {
-                list.position += matchNumber;
-              }
+            CodecDocSet listDocSet = CodecDocSet.fromList(docSet);
+            for (int index = 0; index < listDocSet.size(); index++) {
+              list.position += data.get(listDocSet, index);
             }
             list.total = list.position;
           }
@@ -1764,48 +2151,54 @@ public class CodecCollector {
    *           Signals that an I/O exception has occurred.
    */
   private static void createGroup(List<ComponentGroup> groupList,
-      Map<MtasSpanQuery, Map<Integer, List<Match>>> spansMatchData, List<Integer> docSet, FieldInfo fieldInfo,
-      String field, int docBase, CodecInfo mtasCodecInfo, IndexSearcher searcher, LeafReaderContext lrc, Status status)
-      throws IOException {
+      Map<MtasSpanQuery, CodecMatchStore> spansMatchData, List<Integer> docSet, FieldInfo fieldInfo,
+      String field, Terms t, int docBase, CodecInfo mtasCodecInfo, IndexSearcher searcher, LeafReaderContext lrc,
+      Status status) throws IOException {
 
     if (mtasCodecInfo != null && groupList != null) {
-      List<Match> matchList;
-      Map<Integer, List<Match>> matchData;
+      CodecMatchStore matchData;
+      CodecMatchStore.Cursor matchCursor;
       for (ComponentGroup group : groupList) {
         group.dataCollector.setWithTotal();
         if (!group.prefixes.isEmpty()) {
           matchData = spansMatchData.get(group.spanQuery);
+          matchCursor = matchData != null ? matchData.cursor() : null;
           Set<String> knownPrefixes = collectKnownPrefixes(fieldInfo);
           Set<String> intersectionPrefixes = collectIntersectionPrefixes(fieldInfo);
           boolean intersectionGroupPrefixes = intersectionPrefixes(group, intersectionPrefixes);
           boolean availablePrefixes = availablePrefixes(group, knownPrefixes);
-          // sort match lists
-          if (!intersectionGroupPrefixes) {
-            for (Entry<Integer, List<Match>> entry : matchData.entrySet()) {
-              sortMatchList(entry.getValue());
-            }
-          }
+          // match lists are sorted on start position by construction
           // init
-          group.dataCollector.initNewList(1);
+          if (!group.approximate) {
+            group.dataCollector.initNewList(1);
+          }
           int docId;
+          // in approximate mode, the number of groups is bounded
+          long approximationError = 0;
+          int maximumNumberOfGroups = group.approximate ? 2 * group.capacity : Integer.MAX_VALUE;
 
           Map<GroupHit, Long> occurencesSum = new HashMap<>();
           Map<GroupHit, Integer> occurencesN = new HashMap<>();
           Set<GroupHit> occurencesInCurrentDocument = new HashSet<>();
+          // groups for documents answered from n-gram tokens
+          Map<String, Long> ngramSum = new HashMap<>();
+          Map<String, Long> ngramN = new HashMap<>();
 
           if (!availablePrefixes) {
             HashMap<Integer, GroupHit> hits = new HashMap<>();
             for (int docCounter = 0; docCounter < docSet.size(); docCounter++) {
               occurencesInCurrentDocument.clear();
+              if (occurencesSum.size() >= maximumNumberOfGroups) {
+                approximationError += CodecFrequentItems.reduce(occurencesSum, occurencesN, group.capacity);
+              }
               docId = docSet.get(docCounter);
               GroupHit hit;
               GroupHit hitKey;
-              if (matchData != null && (matchList = matchData.get(docId)) != null && !matchList.isEmpty()) {
-                Iterator<Match> it = matchList.listIterator();
-                while (it.hasNext()) {
-                  Match m = it.next();
-                  IntervalTreeNodeData<String> positionHit = createPositionHit(m, group);
-                  int length = m.endPosition - m.startPosition;
+              if (matchCursor != null && matchCursor.seek(docId) && matchCursor.size() > 0) {
+                while (matchCursor.next()) {
+                  IntervalTreeNodeData<String> positionHit = createPositionHit(matchCursor.startPosition(),
+                      matchCursor.endPosition(), group);
+                  int length = matchCursor.endPosition() - matchCursor.startPosition();
                   hitKey = null;
                   if (!hits.containsKey(length)) {
                     hit = new GroupHit(positionHit.list, positionHit.start, positionHit.end, positionHit.hitStart,
@@ -1813,11 +2206,8 @@ public class CodecCollector {
                     hits.put(length, hit);
                   } else {
                     hit = hits.get(length);
-                    for (GroupHit hitKeyItem : occurencesSum.keySet()) {
-                      if (hitKeyItem.equals(hit)) {
-                        hitKey = hitKeyItem;
-                        break;
-                      }
+                    if (occurencesSum.containsKey(hit)) {
+                      hitKey = hit;
                     }
                   }
                   if (hitKey == null) {
@@ -1843,16 +2233,25 @@ public class CodecCollector {
             int boundaryMinimumNumberOfDocuments = 1;
             int boundaryMaximumNumberOfDocuments = 5;
             Set<GroupHit> administrationOccurrences = new HashSet<>();
-            for (int docCounter = 0; docCounter < docSet.size(); docCounter++) {
+            // use n-gram tokens if available, only remaining documents are
+            // handled using the forward index
+            List<Integer> groupDocSet = collectGroupUsingNgrams(group, knownPrefixes, matchCursor, docSet, docBase, t,
+                ngramSum, ngramN);
+            if (groupDocSet == null) {
+              groupDocSet = docSet;
+            }
+            for (int docCounter = 0; docCounter < groupDocSet.size(); docCounter++) {
               occurencesInCurrentDocument.clear();
-              docId = docSet.get(docCounter);
-              if (matchData != null && (matchList = matchData.get(docId)) != null && !matchList.isEmpty()) {
+              if (occurencesSum.size() >= maximumNumberOfGroups) {
+                approximationError += CodecFrequentItems.reduce(occurencesSum, occurencesN, group.capacity);
+              }
+              docId = groupDocSet.get(docCounter);
+              if (matchCursor != null && matchCursor.seek(docId) && matchCursor.size() > 0) {
                 // loop over matches
-                Iterator<Match> it = matchList.listIterator();
-                ArrayList<IntervalTreeNodeData<String>> positionsHits = new ArrayList<>();
-                while (it.hasNext()) {
-                  Match m = it.next();
-                  positionsHits.add(createPositionHit(m, group));
+                ArrayList<IntervalTreeNodeData<String>> positionsHits = new ArrayList<>(matchCursor.size());
+                while (matchCursor.next()) {
+                  positionsHits.add(
+                      createPositionHit(matchCursor.startPosition(), matchCursor.endPosition(), group));
                 }
                 mtasCodecInfo.collectTermsByPrefixesForListOfHitPositions(field, (docId - docBase), group.prefixes,
                     positionsHits);
@@ -1860,13 +2259,8 @@ public class CodecCollector {
                 for (IntervalTreeNodeData<String> positionHit : positionsHits) {
                   GroupHit hit = new GroupHit(positionHit.list, positionHit.start, positionHit.end,
                       positionHit.hitStart, positionHit.hitEnd, group, knownPrefixes);
-                  GroupHit hitKey = null;
-                  for (GroupHit hitKeyItem : occurencesSum.keySet()) {
-                    if (hitKeyItem.equals(hit)) {
-                      hitKey = hitKeyItem;
-                      break;
-                    }
-                  }
+                  // equal group hits share the same hash, so the hit is its own key
+                  GroupHit hitKey = occurencesSum.containsKey(hit) ? hit : null;
                   if (hitKey == null) {
                     occurencesSum.put(hit, Long.valueOf(1));
                     occurencesN.put(hit, 1);
@@ -1897,8 +2291,8 @@ public class CodecCollector {
                       Map<GroupHit, Spans> list = collectSpansForOccurences(administrationOccurrences, knownPrefixes,
                           field, searcher, lrc);
                       if (list.size() > 0) {
-                        collectGroupUsingSpans(list, docSet, docBase, docCounter, matchData, occurencesSum,
-                            occurencesN);
+                        collectGroupUsingSpans(list, groupDocSet, docBase, docCounter, matchData.cursor(),
+                            occurencesSum, occurencesN);
                       }
                     }
                     administrationOccurrences.clear();
@@ -1911,11 +2305,311 @@ public class CodecCollector {
             }
           }
 
-          for (Entry<GroupHit, Long> entry : occurencesSum.entrySet()) {
-            group.dataCollector.add(entry.getKey().toString(), entry.getValue(), occurencesN.get(entry.getKey()));
+          if (group.approximate) {
+            // merge into the approximation, registered after the last segment
+            approximationError += CodecFrequentItems.reduce(occurencesSum, occurencesN, group.capacity);
+            approximationError += CodecFrequentItems.reduce(ngramSum, ngramN, group.capacity);
+            if (group.approximation == null) {
+              group.approximation = new CodecFrequentItems<>(group.capacity);
+            }
+            for (Entry<GroupHit, Long> entry : occurencesSum.entrySet()) {
+              group.approximation.add(entry.getKey().toString(), entry.getValue(), occurencesN.get(entry.getKey()));
+            }
+            for (Entry<String, Long> entry : ngramSum.entrySet()) {
+              group.approximation.add(entry.getKey(), entry.getValue(), ngramN.get(entry.getKey()));
+            }
+            group.approximation.addError(approximationError);
+          } else if (ngramSum.isEmpty()) {
+            for (Entry<GroupHit, Long> entry : occurencesSum.entrySet()) {
+              group.dataCollector.add(entry.getKey().toString(), entry.getValue(), occurencesN.get(entry.getKey()));
+            }
+            group.dataCollector.closeNewList();
+          } else {
+            // a key can occur both in the n-gram and the forward index results
+            for (Entry<GroupHit, Long> entry : occurencesSum.entrySet()) {
+              String key = entry.getKey().toString();
+              ngramSum.merge(key, entry.getValue(), Long::sum);
+              ngramN.merge(key, Long.valueOf(occurencesN.get(entry.getKey())), Long::sum);
+            }
+            for (Entry<String, Long> entry : ngramSum.entrySet()) {
+              group.dataCollector.add(entry.getKey(), entry.getValue(), ngramN.get(entry.getKey()));
+            }
+            group.dataCollector.closeNewList();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Collect group using n-gram tokens. If the grouping only involves a single
+   * prefix, at the positions inside the hit and at consecutive positions left
+   * and right of the hit, the groups can be read from the n-gram tokens for
+   * this prefix, if indexed. The n-gram terms are enumerated, and their
+   * positions compared with the matches in the documents of the doc set. Only
+   * documents with all matches covered by n-grams are answered this way.
+   *
+   * @param group
+   *          the group
+   * @param knownPrefixes
+   *          the known prefixes
+   * @param matchCursor
+   *          the match cursor
+   * @param docSet
+   *          the doc set
+   * @param docBase
+   *          the doc base
+   * @param t
+   *          the terms
+   * @param ngramSum
+   *          the sums for the answered documents
+   * @param ngramN
+   *          the numbers for the answered documents
+   * @return the documents of the doc set that still have to be handled, or
+   *         null if n-grams were not used
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static List<Integer> collectGroupUsingNgrams(ComponentGroup group, Set<String> knownPrefixes,
+      CodecMatchStore.Cursor matchCursor, List<Integer> docSet, int docBase, Terms t, Map<String, Long> ngramSum,
+      Map<String, Long> ngramN) throws IOException {
+    // check grouping
+    String prefix = (group.hitInside != null && group.hitInside.size() == 1) ? group.hitInside.iterator().next()
+        : null;
+    if (prefix == null || t == null || matchCursor == null || knownPrefixes == null
+        || !knownPrefixes.contains(prefix) || group.hitInsideLeft != null || group.hitInsideRight != null
+        || group.hitLeft != null || group.hitRight != null || !singlePrefix(group.left, prefix)
+        || !singlePrefix(group.right, prefix)) {
+      return null;
+    }
+    int left = group.left == null ? 0 : group.left.length;
+    int right = group.right == null ? 0 : group.right.length;
+    // documents with matches
+    int[] docIds = new int[docSet.size()];
+    int[] matchNumbers = new int[docSet.size()];
+    int docNumber = 0;
+    long matchNumber = 0;
+    Set<Integer> lengths = new TreeSet<>();
+    for (int docId : docSet) {
+      if (matchCursor.seek(docId) && matchCursor.size() > 0) {
+        docIds[docNumber] = docId;
+        matchNumbers[docNumber] = matchCursor.size();
+        docNumber++;
+        matchNumber += matchCursor.size();
+        while (matchCursor.next()) {
+          lengths.add(matchCursor.endPosition() - matchCursor.startPosition());
+        }
+      }
+    }
+    if (docNumber == 0) {
+      return null;
+    }
+    long budget = NGRAM_COST_FACTOR * matchNumber;
+    long visited = 0;
+    // compare positions of n-gram terms with the matches
+    int[] coveredNumbers = new int[docNumber];
+    List<String> keys = new ArrayList<>();
+    int[][] records = new int[16][];
+    int recordNumber = 0;
+    PostingsEnum postingsEnum = null;
+    TermsEnum termsEnum = t.iterator();
+    for (int length : lengths) {
+      int size = left + length + right;
+      BytesRef ngramPrefix = new BytesRef(MtasToken.getNgramPrefix(prefix, size) + MtasToken.DELIMITER);
+      if (termsEnum.seekCeil(ngramPrefix) == TermsEnum.SeekStatus.END) {
+        continue;
+      }
+      do {
+        BytesRef term = termsEnum.term();
+        if (!StringHelper.startsWith(term, ngramPrefix)) {
+          break;
+        }
+        int keyIndex = -1;
+        postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.POSITIONS);
+        int docIndex = 0;
+        int doc = postingsEnum.nextDoc();
+        while (doc != DocIdSetIterator.NO_MORE_DOCS && docIndex < docNumber) {
+          int target = docIds[docIndex] - docBase;
+          if (doc < target) {
+            doc = postingsEnum.advance(target);
+          } else if (doc > target) {
+            docIndex++;
+          } else {
+            matchCursor.seek(docIds[docIndex]);
+            int freq = postingsEnum.freq();
+            int count = 0;
+            for (int i = 0; i < freq; i++) {
+              int startPosition = postingsEnum.nextPosition() + left;
+              count += countMatches(matchCursor, startPosition, startPosition + length);
+            }
+            visited += freq;
+            if (count > 0) {
+              if (keyIndex < 0) {
+                keyIndex = keys.size();
+                keys.add(createNgramKey(term, ngramPrefix, prefix, left, length, right, group, knownPrefixes));
+              }
+              if (recordNumber == records.length) {
+                records = Arrays.copyOf(records, 2 * recordNumber);
+              }
+              records[recordNumber++] = new int[] { keyIndex, docIndex, count };
+              coveredNumbers[docIndex] += count;
+            }
+            docIndex++;
+            doc = postingsEnum.nextDoc();
           }
-          group.dataCollector.closeNewList();
         }
+        visited++;
+        if (visited > budget) {
+          // cheaper to use the forward index
+          return null;
+        }
+      } while (termsEnum.next() != null);
+    }
+    // register documents with all matches covered
+    boolean[] covered = new boolean[docNumber];
+    for (int i = 0; i < docNumber; i++) {
+      covered[i] = coveredNumbers[i] == matchNumbers[i];
+    }
+    for (int i = 0; i < recordNumber; i++) {
+      if (covered[records[i][1]]) {
+        String key = keys.get(records[i][0]);
+        if (key != null) {
+          ngramSum.merge(key, (long) records[i][2], Long::sum);
+          ngramN.merge(key, 1L, Long::sum);
+        }
+      }
+    }
+    // remaining documents
+    int[] remainingDocIds = new int[docSet.size()];
+    int remainingDocNumber = 0;
+    int docIndex = 0;
+    for (int docId : docSet) {
+      while (docIndex < docNumber && docIds[docIndex] < docId) {
+        docIndex++;
+      }
+      if (docIndex >= docNumber || docIds[docIndex] != docId || !covered[docIndex]) {
+        remainingDocIds[remainingDocNumber++] = docId;
+      }
+    }
+    return CodecDocSet.of(remainingDocIds, remainingDocNumber);
+  }
+
+  /**
+   * Check if all positions are grouped by the same single prefix.
+   *
+   * @param positionPrefixes
+   *          the prefixes for each position, null if no positions
+   * @param prefix
+   *          the prefix
+   * @return true, if successful
+   */
+  private static boolean singlePrefix(Set<String>[] positionPrefixes, String prefix) {
+    if (positionPrefixes != null) {
+      for (Set<String> positionPrefix : positionPrefixes) {
+        if (positionPrefix == null || positionPrefix.size() != 1 || !positionPrefix.contains(prefix)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Count the matches with given start and end position.
+   *
+   * @param matchCursor
+   *          the match cursor, positioned on the doc
+   * @param startPosition
+   *          the start position
+   * @param endPosition
+   *          the end position
+   * @return the number of matches
+   */
+  private static int countMatches(CodecMatchStore.Cursor matchCursor, int startPosition, int endPosition) {
+    // find first match not before the start position
+    int low = 0;
+    int high = matchCursor.size();
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (matchCursor.startPosition(mid) < startPosition) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    int count = 0;
+    for (int i = low; i < matchCursor.size() && matchCursor.startPosition(i) == startPosition; i++) {
+      if (matchCursor.endPosition(i) == endPosition) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Creates the group key for an n-gram term, equal to the key of a group hit
+   * constructed from the forward index for the same values.
+   *
+   * @param term
+   *          the term
+   * @param ngramPrefix
+   *          the n-gram prefix, including delimiter
+   * @param prefix
+   *          the prefix
+   * @param left
+   *          the number of positions left of the hit
+   * @param length
+   *          the number of positions of the hit
+   * @param right
+   *          the number of positions right of the hit
+   * @param group
+   *          the group
+   * @param knownPrefixes
+   *          the known prefixes
+   * @return the key, null if the term doesn't match the size
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static String createNgramKey(BytesRef term, BytesRef ngramPrefix, String prefix, int left, int length,
+      int right, ComponentGroup group, Set<String> knownPrefixes) throws IOException {
+    String postfix = new String(term.bytes, term.offset + ngramPrefix.length, term.length - ngramPrefix.length,
+        StandardCharsets.UTF_8);
+    String[] values = postfix.split(Pattern.quote(MtasToken.NGRAM_DELIMITER), -1);
+    int size = left + length + right;
+    if (values.length != size) {
+      return null;
+    } else {
+      List<MtasTreeHit<String>> list = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        MtasTreeHit<String> hit = new MtasTreeHit<>(i, i, 0, 0, i);
+        hit.idData = prefix;
+        hit.refData = prefix + MtasToken.DELIMITER + values[i];
+        list.add(hit);
+      }
+      return new GroupHit(list, 0, size - 1, left, left + length - 1, group, knownPrefixes).toString();
+    }
+  }
+
+  /**
+   * Finish groups: register the groups kept by the approximation of groups in
+   * approximate mode, now all segments have been merged.
+   *
+   * @param groupList
+   *          the group list
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static void finishGroups(List<ComponentGroup> groupList) throws IOException {
+    for (ComponentGroup group : groupList) {
+      if (group.approximate && group.approximation != null) {
+        group.approximation.reduce();
+        group.dataCollector.initNewList(1);
+        for (Entry<String, Long> entry : group.approximation.getSums().entrySet()) {
+          group.dataCollector.add(entry.getKey(), entry.getValue(), group.approximation.getNumber(entry.getKey()));
+        }
+        group.dataCollector.closeNewList();
+        group.approximationError += group.approximation.getError();
+        group.approximation = null;
       }
     }
   }
@@ -1963,45 +2657,57 @@ public class CodecCollector {
   /**
    * Creates the position hit.
    *
-   * @param m
-   *          the m
+   * @param startPosition
+   *          the start position of the match
+   * @param endPosition
+   *          the end position of the match
    * @param group
    *          the group
    * @return the interval tree node data
    */
-  private static IntervalTreeNodeData<String> createPositionHit(Match m, ComponentGroup group) {
+  private static IntervalTreeNodeData<String> createPositionHit(int startPosition, int endPosition,
+      ComponentGroup group) {
     Integer start = null;
     Integer end = null;
     if (group.hitInside != null || group.hitInsideLeft != null || group.hitInsideRight != null) {
-      start = m.startPosition;
-      end = m.endPosition - 1;
+      start = startPosition;
+      end = endPosition - 1;
     } else {
       start = null;
       end = null;
     }
     if (group.hitLeft != null) {
-      start = m.startPosition;
-      end = Math.max(m.startPosition + group.hitLeft.length - 1, m.endPosition - 1);
+      start = startPosition;
+      end = Math.max(startPosition + group.hitLeft.length - 1, endPosition - 1);
     }
     if (group.hitRight != null) {
-      start = Math.min(m.endPosition - group.hitRight.length, m.startPosition);
-      end = end == null ? (m.endPosition - 1) : Math.max(end, (m.endPosition - 1));
+      start = Math.min(endPosition - group.hitRight.length, startPosition);
+      end = end == null ? (endPosition - 1) : Math.max(end, (endPosition - 1));
     }
     if (group.left != null) {
-      start = start == null ? m.startPosition - group.left.length
-          : Math.min(m.startPosition - group.left.length, start);
-      end = end == null ? m.startPosition - 1 : Math.max(m.startPosition - 1, end);
+      start = start == null ? startPosition - group.left.length
+          : Math.min(startPosition - group.left.length, start);
+      end = end == null ? startPosition - 1 : Math.max(startPosition - 1, end);
     }
     if (group.right != null) {
-      start = start == null ? m.endPosition : Math.min(m.endPosition, start);
-      end = end == null ? m.endPosition + group.right.length - 1
-          : Math.max(m.endPosition + group.right.length - 1, end);
+      start = start == null ? endPosition : Math.min(endPosition, start);
+      end = end == null ? endPosition + group.right.length - 1
+          : Math.max(endPosition + group.right.length - 1, end);
     }
-    return new IntervalTreeNodeData<>(start, end, m.startPosition, m.endPosition - 1);
+    return new IntervalTreeNodeData<>(start, end, startPosition, endPosition - 1);
   }
 
-  private static IntervalTreeNodeData<String> createPositionHit(Match m) {
-    return new IntervalTreeNodeData<>(m.startPosition, m.endPosition - 1, m.startPosition, m.endPosition - 1);
+  /**
+   * Creates the position hit.
+   *
+   * @param startPosition
+   *          the start position of the match
+   * @param endPosition
+   *          the end position of the match
+   * @return the interval tree node data
+   */
+  private static IntervalTreeNodeData<String> createPositionHit(int startPosition, int endPosition) {
+    return new IntervalTreeNodeData<>(startPosition, endPosition - 1, startPosition, endPosition - 1);
   }
 
   /**
@@ -2015,8 +2721,8 @@ public class CodecCollector {
    *          the doc base
    * @param docCounter
    *          the doc counter
-   * @param matchData
-   *          the match data
+   * @param matchCursor
+   *          the match cursor
    * @param occurencesSum
    *          the occurences sum
    * @param occurencesN
@@ -2026,7 +2732,7 @@ public class CodecCollector {
    *           Signals that an I/O exception has occurred.
    */
   private static int collectGroupUsingSpans(Map<GroupHit, Spans> list, List<Integer> docSet, int docBase,
-      int docCounter, Map<Integer, List<Match>> matchData, Map<GroupHit, Long> occurencesSum,
+      int docCounter, CodecMatchStore.Cursor matchCursor, Map<GroupHit, Long> occurencesSum,
       Map<GroupHit, Integer> occurencesN) throws IOException {
     int total = 0;
     if (docCounter + 1 < docSet.size()) {
@@ -2038,7 +2744,6 @@ public class CodecCollector {
       boolean newNextDoc;
       int[] spansNextDoc = new int[list.size()];
       int nextDoc = 0;
-      List<Match> matchList;
       GroupHit[] hitList = list.keySet().toArray(new GroupHit[list.size()]);
       Spans[] spansList = new Spans[list.size()];
       boolean[] finishedSpansList = new boolean[list.size()];
@@ -2062,12 +2767,12 @@ public class CodecCollector {
         }
         // go to the matches
         if (docSet.get(nextDocCounter) == nextDoc + docBase) {
-          matchList = matchData.get(nextDoc + docBase);
-          if (matchList != null && !matchList.isEmpty()) {
+          if (matchCursor.seek(nextDoc + docBase) && matchCursor.size() > 0) {
             // initialize
+            int matchNumber = matchCursor.size();
             int currentMatchPosition = 0;
-            int lastMatchStartPosition = matchList.get(matchList.size() - 1).startPosition;
-            ArrayList<Match> newMatchList = new ArrayList<>(matchList.size());
+            int lastMatchStartPosition = matchCursor.startPosition(matchNumber - 1);
+            boolean[] usedMatches = new boolean[matchNumber];
             int currentSpanPosition = Spans.NO_MORE_POSITIONS;
             // check and initialize for each span
             for (int i = 0; i < spansList.length; i++) {
@@ -2086,31 +2791,31 @@ public class CodecCollector {
               }
             }
             // loop over matches
-            while (currentMatchPosition < matchList.size() && currentSpanPosition < Spans.NO_MORE_POSITIONS) {
+            while (currentMatchPosition < matchNumber && currentSpanPosition < Spans.NO_MORE_POSITIONS) {
 
-              if (currentSpanPosition < matchList.get(currentMatchPosition).startPosition) {
+              if (currentSpanPosition < matchCursor.startPosition(currentMatchPosition)) {
                 // do nothing, match not reached
               } else if (currentSpanPosition > lastMatchStartPosition) {
                 // finish, past last match
                 break;
               } else {
                 // advance matches
-                while (currentMatchPosition < matchList.size()
-                    && currentSpanPosition > matchList.get(currentMatchPosition).startPosition) {
-                  // store current match, not relevant
-                  newMatchList.add(matchList.get(currentMatchPosition));
+                while (currentMatchPosition < matchNumber
+                    && currentSpanPosition > matchCursor.startPosition(currentMatchPosition)) {
+                  // keep current match, not relevant
                   currentMatchPosition++;
                 }
                 // equal startPosition
-                while (currentMatchPosition < matchList.size()
-                    && currentSpanPosition == matchList.get(currentMatchPosition).startPosition) {
+                while (currentMatchPosition < matchNumber
+                    && currentSpanPosition == matchCursor.startPosition(currentMatchPosition)) {
                   // check for each span
                   for (int i = 0; i < spansList.length; i++) {
                     // equal start and end, therefore match
                     if (!finishedSpansList[i] && spansList[i].docID() == nextDoc
-                        && spansList[i].startPosition() == matchList.get(currentMatchPosition).startPosition
-                        && spansList[i].endPosition() == matchList.get(currentMatchPosition).endPosition) {
+                        && spansList[i].startPosition() == matchCursor.startPosition(currentMatchPosition)
+                        && spansList[i].endPosition() == matchCursor.endPosition(currentMatchPosition)) {
                       // administration
+                      usedMatches[currentMatchPosition] = true;
                       total++;
                       subSum[i]++;
                       if (newNextDocs[i]) {
@@ -2118,10 +2823,6 @@ public class CodecCollector {
                         newNextDocs[i] = false;
                         newNextDoc = false;
                       }
-                    } else if (!finishedSpansList[i] && spansList[i].docID() == nextDoc
-                        && spansList[i].startPosition() == matchList.get(currentMatchPosition).startPosition) {
-                      // no match, store
-                      newMatchList.add(matchList.get(currentMatchPosition));
                     }
                   }
                   currentMatchPosition++;
@@ -2129,12 +2830,12 @@ public class CodecCollector {
               }
 
               // advance spans
-              if (currentMatchPosition < matchList.size()) {
+              if (currentMatchPosition < matchNumber) {
                 currentSpanPosition = Spans.NO_MORE_POSITIONS;
                 for (int i = 0; i < spansList.length; i++) {
                   if (!finishedSpansList[i] && (spansList[i].docID() == nextDoc)) {
                     while (!finishedSpansList[i]
-                        && spansList[i].startPosition() < matchList.get(currentMatchPosition).startPosition) {
+                        && spansList[i].startPosition() < matchCursor.startPosition(currentMatchPosition)) {
                       int tmpStartPosition = spansList[i].nextStartPosition();
                       if (tmpStartPosition == Spans.NO_MORE_POSITIONS) {
                         finishedSpansList[i] = true;
@@ -2152,17 +2853,8 @@ public class CodecCollector {
               }
             }
             if (!newNextDoc) {
-              // add other matches
-              while (currentMatchPosition < matchList.size()) {
-                newMatchList.add(matchList.get(currentMatchPosition));
-                currentMatchPosition++;
-              }
-              // update administration
-              if (!newMatchList.isEmpty()) {
-                matchData.put(nextDoc + docBase, newMatchList);
-              } else {
-                matchData.put(nextDoc + docBase, null);
-              }
+              // update administration: remove the matches already counted
+              matchCursor.remove(usedMatches);
             }
           }
         }
@@ -2198,19 +2890,6 @@ public class CodecCollector {
     return total;
   }
 
-  /**
-   * Sort match list.
-   *
-   * @param list
-   *          the list
-   */
-  private static void sortMatchList(List<Match> list) {
-    if (list != null) {
-      // light sorting on start position
-      Collections.sort(list, (Match m1, Match m2) -> (Integer.compare(m1.startPosition, m2.startPosition)));
-    }
-  }
-
   /**
    * Creates the pages.
    *
@@ -2343,15 +3022,15 @@ public class CodecCollector {
   }
 
   private static void createIndexes(List<ComponentIndex> indexList,
-      Map<MtasSpanQuery, Map<Integer, List<Match>>> spansMatchData, List<Integer> docList, FieldInfo fieldInfo,
+      Map<MtasSpanQuery, CodecMatchStore> spansMatchData, List<Integer> docList, FieldInfo fieldInfo,
       String field, int docBase, String uniqueKeyField, CodecInfo mtasCodecInfo, IndexSearcher searcher)
       throws IOException {
     if (indexList != null) {
       for (ComponentIndex index : indexList) {
-        Map<Integer, List<Match>> matchData = spansMatchData.get(index.query);
-        Map<Integer, List<Match>> blockMatchData = index.blockQuery != null ? spansMatchData.get(index.blockQuery)
-            : null;
-        List<Match> matchList, blockMatchList;
+        CodecMatchStore matchData = spansMatchData.get(index.query);
+        CodecMatchStore.Cursor matchCursor = matchData != null ? matchData.cursor() : null;
+        CodecMatchStore blockMatchData = index.blockQuery != null ? spansMatchData.get(index.blockQuery) : null;
+        CodecMatchStore.Cursor blockMatchCursor = blockMatchData != null ? blockMatchData.cursor() : null;
         // initialize
         for (int docId : docList) {
           // get unique id
@@ -2369,10 +3048,10 @@ public class CodecCollector {
             List<IndexItem> indexItems = new ArrayList<>();
             if (index.blockQuery != null) {
               index.indexItems.put(docId, indexItems);
-              if (blockMatchData != null && (blockMatchList = blockMatchData.get(docId)) != null) {
-                for (Match m : blockMatchList) {
-                  int start = m.startPosition;
-                  int end = m.endPosition - 1;
+              if (blockMatchCursor != null && blockMatchCursor.seek(docId)) {
+                while (blockMatchCursor.next()) {
+                  int start = blockMatchCursor.startPosition();
+                  int end = blockMatchCursor.endPosition() - 1;
                   IndexItem indexItem = new IndexItem(start, end, null);
                   intervalTree.insertNode(new IntervalTreeItem(indexItem));
                   indexItems.add(indexItem);
@@ -2401,11 +3080,11 @@ public class CodecCollector {
             }
 
             // update these intervals
-            if (matchData != null && (matchList = matchData.get(docId)) != null) {
-              ArrayList<IntervalTreeNodeData<String>> positionsHits = new ArrayList<>();
-              for (Match m : matchList) {
-                positionsHits.add(createPositionHit(m));
-                intervalTree.updateInterval(m.startPosition, (m.endPosition - 1), index.match);
+            if (matchCursor != null && matchCursor.seek(docId) && matchCursor.size() > 0) {
+              ArrayList<IntervalTreeNodeData<String>> positionsHits = new ArrayList<>(matchCursor.size());
+              while (matchCursor.next()) {
+                positionsHits.add(createPositionHit(matchCursor.startPosition(), matchCursor.endPosition()));
+                intervalTree.updateInterval(matchCursor.startPosition(), (matchCursor.endPosition() - 1), index.match);
               }
               if (!index.listPrefixes.isEmpty()) {
                 mtasCodecInfo.collectTermsByPrefixesForListOfHitPositions(field, (docId - docBase), index.listPrefixes,
@@ -2421,10 +3100,9 @@ public class CodecCollector {
     }
   }
 
-  private static void createHeatmaps(List<ComponentHeatmap> heatmapList, Map<Integer, Integer> positionsData,
-      Map<MtasSpanQuery, Map<Integer, Integer>> spansNumberData, List<Integer> docSetOld, LeafReader r,
+  private static void createHeatmaps(List<ComponentHeatmap> heatmapList, CodecDocColumn positionsData,
+      Map<MtasSpanQuery, CodecDocColumn> spansNumberData, CodecDocSet docSet, LeafReader r,
       LeafReaderContext lrc) throws IOException {
-    Integer[] docSet = docSetOld.toArray(new Integer[docSetOld.size()]);
     if (heatmapList != null) {
       for (ComponentHeatmap heatmap : heatmapList) {
         if (heatmap.parser.needArgumentsNumber() > heatmap.queries.length) {
@@ -2432,18 +3110,19 @@ public class CodecCollector {
               + heatmap.parser.needArgumentsNumber() + " queries");
         }
         // collect
-        Map<Integer, long[]> args = computeArguments(spansNumberData, heatmap.queries, docSet);
+        CodecDocColumn[] argumentColumns = computeArgumentColumns(spansNumberData, heatmap.queries);
         if (heatmap.dataType.equals(CodecUtil.DATA_TYPE_LONG)) {
           // collect
-          if (docSet.length > 0) {
+          if (!docSet.isEmpty()) {
             int number = 0;
             int docPositions;
             long docValueLong;
             // double valueDouble;
-            long[] values = new long[docSet.length];
-            int[] docs = new int[docSet.length];
-            int[] positions = new int[docSet.length];
-            long[][] arguments = new long[docSet.length][];
+            long[] values = new long[docSet.size()];
+            int[] docs = new int[docSet.size()];
+            int[] positions = new int[docSet.size()];
+            long[][] arguments = new long[docSet.size()][];
+            long[] docArguments = new long[argumentColumns.length];
             // long[][] functionValuesLong = null;
             // double[][] functionValuesDouble = null;
             // if (heatmap.hm.functions != null) {
@@ -2460,19 +3139,17 @@ public class CodecCollector {
             // }
             // }
             // }
-            for (int docId : docSet) {
-              if (positionsData == null) {
-                docPositions = 0;
-              } else {
-                docPositions = (positionsData.get(docId) == null ? 0 : positionsData.get(docId));
-              }
-              docValueLong = heatmap.parser.getValueLong(args.get(docId), new long[] {1}, docPositions, 1);
+            long[] docArgumentsD = new long[] {1};
+            for (int index = 0; index < docSet.size(); index++) {
+              docPositions = (positionsData == null) ? 0 : positionsData.get(docSet, index);
+              fillArguments(argumentColumns, docSet, index, docArguments, null);
+              docValueLong = heatmap.parser.getValueLong(docArguments, docArgumentsD, docPositions, 1);
               if (((heatmap.minimumLong == null) || (docValueLong >= heatmap.minimumLong))
                   && ((heatmap.maximumLong == null) || (docValueLong <= heatmap.maximumLong))) {
                 values[number] = docValueLong;
-                docs[number] = docId - lrc.docBase;
+                docs[number] = docSet.getInt(index) - lrc.docBase;
                 positions[number] = docPositions;
-                arguments[number] = args.get(docId);                
+                arguments[number] = docArguments.clone();
                 number++;
               }
             }
@@ -2502,11 +3179,16 @@ public class CodecCollector {
    *          the t
    * @param lrc
    *          the lrc
+   * @param mtasCodecInfo
+   *          the mtas codec info
+   * @param field
+   *          the field
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
   private static void createDocument(List<ComponentDocument> documentList, List<Integer> docList, String uniqueKeyField,
-      IndexSearcher searcher, Terms t, LeafReaderContext lrc) throws IOException {
+      IndexSearcher searcher, Terms t, LeafReaderContext lrc, CodecInfo mtasCodecInfo, String field)
+      throws IOException {
     if (documentList != null) {
       SortedSet<String> listStatsItems = CodecUtil.createStatsItems("sum");
       String listStatsType = CodecUtil.createStatsType(listStatsItems, CodecUtil.STATS_TYPE_SUM, null);
@@ -2547,54 +3229,30 @@ public class CodecCollector {
       if (t != null) {
         BytesRef term;
         TermsEnum termsEnum;
-        PostingsEnum postingsEnum = null;
+        CodecDocSetIntersection intersection = new CodecDocSetIntersection(docList, lrc);
         // loop over termvectors
         for (ComponentDocument document : documentList) {
 
-          List<CompiledAutomaton> listAutomata;
-          Map<String, Automaton> automatonMap;
-          Map<String, ByteRunAutomaton> byteRunAutomatonMap;
-          if (document.list == null) {
-            automatonMap = null;
-            byteRunAutomatonMap = null;
-            listAutomata = new ArrayList<>();
-            CompiledAutomaton compiledAutomaton;
-            Automaton automaton;
-            if ((document.regexp == null) || (document.regexp.isEmpty())) {
-              RegExp re = new RegExp(document.prefix + MtasToken.DELIMITER + ".*");
-              automaton = re.toAutomaton();
-            } else {
-              RegExp re = new RegExp(document.prefix + MtasToken.DELIMITER + document.regexp + "\u0000*");
-              automaton = re.toAutomaton();
-            }
-            compiledAutomaton = new CompiledAutomaton(automaton);
-            listAutomata.add(compiledAutomaton);
-          } else {
-            automatonMap = MtasToken.createAutomatonMap(document.prefix, new ArrayList<String>(document.list),
-                document.listRegexp ? false : true);
-            byteRunAutomatonMap = MtasToken.byteRunAutomatonMap(automatonMap);
-            listAutomata = MtasToken.createAutomata(document.prefix, document.regexp, automatonMap);
-          }
-          List<ByteRunAutomaton> ignoreByteRunAutomatonList = null;
-          if ((document.ignoreRegexp != null) && (!document.ignoreRegexp.isEmpty())) {
-            ignoreByteRunAutomatonList = new ArrayList<>();
-            RegExp re = new RegExp(document.prefix + MtasToken.DELIMITER + document.ignoreRegexp + "\u0000*");
-            ignoreByteRunAutomatonList.add(new ByteRunAutomaton(re.toAutomaton()));
-          }
-          if (document.ignoreList != null) {
-            if (ignoreByteRunAutomatonList == null) {
-              ignoreByteRunAutomatonList = new ArrayList<>();
-            }
-            Map<String, Automaton> list = MtasToken.createAutomatonMap(document.prefix,
-                new ArrayList<String>(document.ignoreList), document.ignoreListRegexp ? false : true);
-            for (Automaton automaton : list.values()) {
-              ignoreByteRunAutomatonList.add(new ByteRunAutomaton(automaton));
-            }
-          }
+          CodecAutomatonCache.Automata automata = CodecAutomatonCache.getInstance().get(document.prefix,
+              document.regexp, document.list, document.listRegexp, document.ignoreRegexp, document.ignoreList,
+              document.ignoreListRegexp);
+          List<CompiledAutomaton> listAutomata = automata.getCompiledAutomata();
+          Map<String, ByteRunAutomaton> byteRunAutomatonMap = automata.getListByteRunAutomata();
+          List<ByteRunAutomaton> ignoreByteRunAutomatonList = automata.getIgnoreByteRunAutomata();
+          // small list of documents: use forward index
+          TermvectorDocTerms docTerms = createTermvectorDocTerms(document.prefix, document.docCostFactor, docList, t,
+              lrc, mtasCodecInfo, field);
 
           for (CompiledAutomaton compiledAutomaton : listAutomata) {
             if (!compiledAutomaton.type.equals(CompiledAutomaton.AUTOMATON_TYPE.NONE)) {
-              termsEnum = t.intersect(compiledAutomaton, null);
+              boolean useDocTerms = docTerms != null
+                  && compiledAutomaton.type.equals(CompiledAutomaton.AUTOMATON_TYPE.NORMAL);
+              if (useDocTerms) {
+                docTerms.reset();
+                termsEnum = null;
+              } else {
+                termsEnum = t.intersect(compiledAutomaton, null);
+              }
               // init
               int initBaseSize = Math.min((int) t.size(), 1000);
               int initListSize = document.statsList != null ? Math.min(document.statsList.size(), initBaseSize)
@@ -2609,12 +3267,8 @@ public class CodecCollector {
                 }
               }
               // fill
-              int termDocId;
               boolean acceptedTerm;
-              while ((term = termsEnum.next()) != null) {
-                Iterator<Integer> docIterator = docList.iterator();
-                postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.FREQS);
-                termDocId = -1;
+              while ((term = useDocTerms ? docTerms.next(compiledAutomaton) : termsEnum.next()) != null) {
                 acceptedTerm = true;
                 if (ignoreByteRunAutomatonList != null) {
                   for (ByteRunAutomaton ignoreByteRunAutomaton : ignoreByteRunAutomatonList) {
@@ -2625,37 +3279,34 @@ public class CodecCollector {
                   }
                 }
                 if (acceptedTerm) {
-                  while (docIterator.hasNext()) {
-                    int segmentDocId = docIterator.next() - lrc.docBase;
-                    if (segmentDocId >= termDocId && ((segmentDocId == termDocId)
-                        || ((termDocId = postingsEnum.advance(segmentDocId)) == segmentDocId))) {
-                      // register stats
-                      document.statsData.get(segmentDocId + lrc.docBase).add(new long[] { postingsEnum.freq() }, 1);
-                      // register list
-                      if (document.statsList != null) {
-                        if (automatonMap != null) {
-                          MtasDataCollector<?, ?> dataCollector;
-                          MtasDataCollector<?, ?> subSataCollector;
-                          for (Entry<String, ByteRunAutomaton> entry : byteRunAutomatonMap.entrySet()) {
-                            ByteRunAutomaton bra = entry.getValue();
-                            if (bra.run(term.bytes, term.offset, term.length)) {
-                              dataCollector = document.statsList.get(segmentDocId + lrc.docBase);
-                              subSataCollector = dataCollector.add(entry.getKey(), new long[] { postingsEnum.freq() },
-                                  1);
-                              if (document.listExpand && subSataCollector != null) {
-                                if (!initialised.contains(subSataCollector)) {
-                                  subSataCollector.initNewList(initBaseSize);
-                                  initialised.add(subSataCollector);
-                                }
-                                subSataCollector.add(MtasToken.getPostfixFromValue(term),
-                                    new long[] { postingsEnum.freq() }, 1);
+                  int docNumber = useDocTerms ? docTerms.docNumber() : intersection.intersect(termsEnum, true);
+                  for (int n = 0; n < docNumber; n++) {
+                    int docId = useDocTerms ? docList.get(docTerms.docIndex(n)) : intersection.docId(n);
+                    long freq = useDocTerms ? docTerms.docCount(n) : intersection.freq(n);
+                    // register stats
+                    document.statsData.get(docId).add(new long[] { freq }, 1);
+                    // register list
+                    if (document.statsList != null) {
+                      if (byteRunAutomatonMap != null) {
+                        MtasDataCollector<?, ?> dataCollector;
+                        MtasDataCollector<?, ?> subSataCollector;
+                        for (Entry<String, ByteRunAutomaton> entry : byteRunAutomatonMap.entrySet()) {
+                          ByteRunAutomaton bra = entry.getValue();
+                          if (bra.run(term.bytes, term.offset, term.length)) {
+                            dataCollector = document.statsList.get(docId);
+                            subSataCollector = dataCollector.add(entry.getKey(), new long[] { freq }, 1);
+                            if (document.listExpand && subSataCollector != null) {
+                              if (!initialised.contains(subSataCollector)) {
+                                subSataCollector.initNewList(initBaseSize);
+                                initialised.add(subSataCollector);
                               }
+                              subSataCollector.add(MtasToken.getPostfixFromValue(term), new long[] { freq }, 1);
                             }
                           }
-                        } else {
-                          document.statsList.get(segmentDocId + lrc.docBase).add(MtasToken.getPostfixFromValue(term),
-                              new long[] { postingsEnum.freq() }, 1);
                         }
+                      } else {
+                        document.statsList.get(docId).add(MtasToken.getPostfixFromValue(term), new long[] { freq },
+                            1);
                       }
                     }
                   }
@@ -2696,15 +3347,15 @@ public class CodecCollector {
    *           Signals that an I/O exception has occurred.
    */
   private static void createKwic(List<ComponentKwic> kwicList,
-      Map<MtasSpanQuery, Map<Integer, List<Match>>> spansMatchData, List<Integer> docList, String field, int docBase,
+      Map<MtasSpanQuery, CodecMatchStore> spansMatchData, List<Integer> docList, String field, int docBase,
       String uniqueKeyField, CodecInfo mtasCodecInfo, IndexSearcher searcher) throws IOException {
     if (kwicList != null) {
       for (ComponentKwic kwic : kwicList) {
-        Map<Integer, List<Match>> matchData = spansMatchData.get(kwic.query);
-        List<Match> matchList;
+        CodecMatchStore matchData = spansMatchData.get(kwic.query);
+        CodecMatchStore.Cursor matchCursor = matchData != null ? matchData.cursor() : null;
         if (kwic.output.equals(ComponentKwic.KWIC_OUTPUT_HIT)) {
           for (int docId : docList) {
-            if (matchData != null && (matchList = matchData.get(docId)) != null) {
+            if (matchCursor != null && matchCursor.seek(docId) && matchCursor.total() > 0) {
               // get unique id
               Document doc = searcher.doc(docId, new HashSet<String>(Arrays.asList(uniqueKeyField)));
               IndexableField indxfld = doc.getField(uniqueKeyField);
@@ -2712,53 +3363,51 @@ public class CodecCollector {
               if (indxfld != null) {
                 kwic.uniqueKey.put(docId, indxfld.stringValue());
               }
-              kwic.subTotal.put(docId, matchList.size());
+              kwic.subTotal.put(docId, matchCursor.total());
               IndexDoc mDoc = mtasCodecInfo.getDoc(field, (docId - docBase));
+              // kwiclist
+              List<KwicHit> kwicItemList = new ArrayList<>();
               if (mDoc != null) {
                 kwic.minPosition.put(docId, mDoc.minPosition);
                 kwic.maxPosition.put(docId, mDoc.maxPosition);
-              }
-              // kwiclist
-              List<KwicHit> kwicItemList = new ArrayList<>();
-              int number = 0;
-              for (Match m : matchList) {
-                if (kwic.number != null && number >= (kwic.start + kwic.number)) {
-                  break;
-                } else if (kwic.pageStart != null && kwic.pageEnd != null) {
-                  if ((m.endPosition - 1) < kwic.pageStart || m.startPosition > kwic.pageEnd) {
-                    continue;
+                List<Match> selectedMatches = selectKwicMatches(kwic, matchCursor);
+                int[][] windows = createKwicWindows(kwic, mDoc, selectedMatches);
+                // get terms for overlapping windows at once
+                int i = 0;
+                while (i < windows.length) {
+                  int j = i;
+                  int clusterEnd = windows[i][1];
+                  while (j + 1 < windows.length && windows[j + 1][0] <= clusterEnd + 1) {
+                    j++;
+                    clusterEnd = Math.max(clusterEnd, windows[j][1]);
                   }
-                }
-                if (number >= kwic.start) {
-                  int startPosition = m.startPosition;
-                  int endPosition = m.endPosition - 1;
                   List<MtasTreeHit<String>> terms = mtasCodecInfo.getPositionedTermsByPrefixesAndPositionRange(field,
-                      (docId - docBase), kwic.prefixes, Math.max(mDoc.minPosition, startPosition - kwic.left),
-                      Math.min(mDoc.maxPosition, endPosition + kwic.right));
-                  // construct hit
-                  Map<Integer, List<String>> kwicListHits = new HashMap<>();
-                  for (int position = Math.max(mDoc.minPosition, startPosition - kwic.left); position <= Math
-                      .min(mDoc.maxPosition, endPosition + kwic.right); position++) {
-                    kwicListHits.put(position, new ArrayList<String>());
-                  }
-                  List<String> termList;
-                  for (MtasTreeHit<String> term : terms) {
-                    for (int position = Math.max((startPosition - kwic.left), term.startPosition); position <= Math
-                        .min((endPosition + kwic.right), term.endPosition); position++) {
-                      termList = kwicListHits.get(position);
-                      termList.add(term.data);
+                      (docId - docBase), kwic.prefixes, windows[i][0], clusterEnd);
+                  List<List<MtasTreeHit<String>>> windowTerms = splitKwicWindows(terms, term -> term.startPosition,
+                      term -> term.endPosition, windows, i, j);
+                  for (int k = i; k <= j; k++) {
+                    // construct hit
+                    Map<Integer, List<String>> kwicListHits = new HashMap<>();
+                    for (int position = windows[k][0]; position <= windows[k][1]; position++) {
+                      kwicListHits.put(position, new ArrayList<String>());
+                    }
+                    for (MtasTreeHit<String> term : windowTerms.get(k - i)) {
+                      for (int position = Math.max(windows[k][0], term.startPosition); position <= Math
+                          .min(windows[k][1], term.endPosition); position++) {
+                        kwicListHits.get(position).add(term.data);
+                      }
                     }
+                    kwicItemList.add(new KwicHit(selectedMatches.get(k), kwicListHits));
                   }
-                  kwicItemList.add(new KwicHit(m, kwicListHits));
+                  i = j + 1;
                 }
-                number++;
               }
               kwic.hits.put(docId, kwicItemList);
             }
           }
         } else if (kwic.output.equals(ComponentKwic.KWIC_OUTPUT_TOKEN)) {
           for (int docId : docList) {
-            if (matchData != null && (matchList = matchData.get(docId)) != null) {
+            if (matchCursor != null && matchCursor.seek(docId) && matchCursor.total() > 0) {
               // get unique id
               Document doc = searcher.doc(docId, new HashSet<String>(Arrays.asList(uniqueKeyField)));
               // get other doc info
@@ -2766,31 +3415,31 @@ public class CodecCollector {
               if (indxfld != null) {
                 kwic.uniqueKey.put(docId, indxfld.stringValue());
               }
-              kwic.subTotal.put(docId, matchList.size());
+              kwic.subTotal.put(docId, matchCursor.total());
               IndexDoc mDoc = mtasCodecInfo.getDoc(field, (docId - docBase));
               if (mDoc != null) {
                 kwic.minPosition.put(docId, mDoc.minPosition);
                 kwic.maxPosition.put(docId, mDoc.maxPosition);
                 List<KwicToken> kwicItemList = new ArrayList<>();
-                int number = 0;
-                for (Match m : matchList) {
-                  if (kwic.number != null && number >= (kwic.start + kwic.number)) {
-                    break;
-                  } else if (kwic.pageStart != null && kwic.pageEnd != null) {
-                    if ((m.endPosition - 1) < kwic.pageStart || m.startPosition > kwic.pageEnd) {
-                      continue;
-                    }
+                List<Match> selectedMatches = selectKwicMatches(kwic, matchCursor);
+                int[][] windows = createKwicWindows(kwic, mDoc, selectedMatches);
+                // get tokens for overlapping windows at once
+                int i = 0;
+                while (i < windows.length) {
+                  int j = i;
+                  int clusterEnd = windows[i][1];
+                  while (j + 1 < windows.length && windows[j + 1][0] <= clusterEnd + 1) {
+                    j++;
+                    clusterEnd = Math.max(clusterEnd, windows[j][1]);
                   }
-                  if (number >= kwic.start) {
-                    int startPosition = m.startPosition;
-                    int endPosition = m.endPosition - 1;
-                    List<MtasTokenString> tokens;
-                    tokens = mtasCodecInfo.getPrefixFilteredObjectsByPositions(field, (docId - docBase), kwic.prefixes,
-                        Math.max(mDoc.minPosition, startPosition - kwic.left),
-                        Math.min(mDoc.maxPosition, endPosition + kwic.right));
-                    kwicItemList.add(new KwicToken(m, tokens));
+                  List<MtasTokenString> tokens = mtasCodecInfo.getPrefixFilteredObjectsByPositions(field,
+                      (docId - docBase), kwic.prefixes, windows[i][0], clusterEnd);
+                  List<List<MtasTokenString>> windowTokens = splitKwicWindows(tokens, MtasToken::getPositionStart,
+                      MtasToken::getPositionEnd, windows, i, j);
+                  for (int k = i; k <= j; k++) {
+                    kwicItemList.add(new KwicToken(selectedMatches.get(k), windowTokens.get(k - i)));
                   }
-                  number++;
+                  i = j + 1;
                 }
                 kwic.tokens.put(docId, kwicItemList);
               }
@@ -2802,51 +3451,259 @@ public class CodecCollector {
   }
 
   /**
-   * Creates the facet base.
+   * Sets the kwic windows: if the matches of a kwic query are only used for
+   * kwic, only the matches shown are stored.
    *
-   * @param cf
-   *          the cf
-   * @param level
-   *          the level
-   * @param dataCollector
-   *          the data collector
-   * @param positionsData
-   *          the positions data
-   * @param spansNumberData
-   *          the spans number data
-   * @param facetData
-   *          the facet data
-   * @param docSet
-   *          the doc set
-   * @throws IOException
-   *           Signals that an I/O exception has occurred.
+   * @param fieldInfo
+   *          the field info
+   * @param spansMatchData
+   *          the spans match data
+   * @return the queries with matches only used for kwic
    */
-  private static void createFacetBase(ComponentFacet cf, int level, MtasDataCollector<?, ?> dataCollector,
-      Map<Integer, Integer> positionsData, Map<MtasSpanQuery, Map<Integer, Integer>> spansNumberData,
-      Map<String, SortedMap<String, int[]>> facetData, Integer[] docSet) throws IOException {
-    for (MtasFunctionParserFunction function : cf.baseFunctionParserFunctions[level]) {
-      if (function.needArgumentsNumber() > cf.spanQueries.length) {
-        throw new IOException(
-            "function " + function + " expects (at least) " + function.needArgumentsNumber() + " queries");
+  private static Set<MtasSpanQuery> setKwicWindows(ComponentField fieldInfo,
+      Map<MtasSpanQuery, CodecMatchStore> spansMatchData) {
+    // queries with matches used by other components
+    Set<MtasSpanQuery> otherQueries = new HashSet<>();
+    for (ComponentIndex ci : fieldInfo.indexList) {
+      otherQueries.add(ci.query);
+      if (ci.blockQuery != null) {
+        otherQueries.add(ci.blockQuery);
       }
     }
-    Map<String, int[]> list = facetData.get(cf.baseFields[level]);
-    if (dataCollector != null) {
-      MtasDataCollector<?, ?> subDataCollector = null;
-      dataCollector.initNewList(1);
-      if (cf.baseFunctionList[level] != null) {
-        SubComponentFunction[] tmpList;
-        if (!cf.baseFunctionList[level].containsKey(dataCollector)) {
-          tmpList = new SubComponentFunction[cf.baseFunctionParserFunctions[level].length];
-          cf.baseFunctionList[level].put(dataCollector, tmpList);
-          for (int i = 0; i < cf.baseFunctionParserFunctions[level].length; i++) {
-            try {
-              tmpList[i] = new SubComponentFunction(DataCollector.COLLECTOR_TYPE_LIST, cf.baseFunctionKeys[level][i],
-                  cf.baseFunctionTypes[level][i], cf.baseFunctionParserFunctions[level][i], null, null, 0,
-                  Integer.MAX_VALUE, null, null);
-
-            } catch (ParseException e) {
-              throw new IOException(e.getMessage());
+    for (ComponentList cl : fieldInfo.listList) {
+      otherQueries.add(cl.spanQuery);
+    }
+    for (ComponentGroup cg : fieldInfo.groupList) {
+      otherQueries.add(cg.spanQuery);
+    }
+    Map<MtasSpanQuery, List<ComponentKwic>> kwicQueries = new HashMap<>();
+    for (ComponentKwic ck : fieldInfo.kwicList) {
+      if (!otherQueries.contains(ck.query)) {
+        kwicQueries.computeIfAbsent(ck.query, k -> new ArrayList<>()).add(ck);
+      }
+    }
+    for (Entry<MtasSpanQuery, List<ComponentKwic>> entry : kwicQueries.entrySet()) {
+      ComponentKwic first = entry.getValue().get(0);
+      boolean samePages = true;
+      Integer limit = 0;
+      for (ComponentKwic ck : entry.getValue()) {
+        samePages &= Objects.equals(ck.pageStart, first.pageStart) && Objects.equals(ck.pageEnd, first.pageEnd);
+        limit = (limit == null || ck.number == null) ? null : Math.max(limit, ck.start + ck.number);
+      }
+      if (samePages && (limit != null || first.pageStart != null)) {
+        spansMatchData.get(entry.getKey()).setWindow(limit, first.pageStart, first.pageEnd);
+      }
+    }
+    return kwicQueries.keySet();
+  }
+
+  /**
+   * Sets the list ranges: if the matches of a list query are only used for
+   * lists, collection stops when the matches up to the last hit shown are
+   * found. For lists continuing after a cursor, only matches after the cursor
+   * are collected.
+   *
+   * @param fieldInfo
+   *          the field info
+   * @param spansMatchData
+   *          the spans match data
+   */
+  private static void setListRanges(ComponentField fieldInfo,
+      Map<MtasSpanQuery, CodecMatchStore> spansMatchData) {
+    // queries with matches used by other components
+    Set<MtasSpanQuery> otherQueries = new HashSet<>();
+    for (ComponentKwic ck : fieldInfo.kwicList) {
+      otherQueries.add(ck.query);
+    }
+    for (ComponentIndex ci : fieldInfo.indexList) {
+      otherQueries.add(ci.query);
+      if (ci.blockQuery != null) {
+        otherQueries.add(ci.blockQuery);
+      }
+    }
+    for (ComponentGroup cg : fieldInfo.groupList) {
+      otherQueries.add(cg.spanQuery);
+    }
+    Map<MtasSpanQuery, List<ComponentList>> listQueries = new HashMap<>();
+    for (ComponentList cl : fieldInfo.listList) {
+      if (cl.number <= 0) {
+        otherQueries.add(cl.spanQuery);
+      } else {
+        listQueries.computeIfAbsent(cl.spanQuery, k -> new ArrayList<>()).add(cl);
+      }
+    }
+    for (Entry<MtasSpanQuery, List<ComponentList>> entry : listQueries.entrySet()) {
+      CodecMatchStore matchData = spansMatchData.get(entry.getKey());
+      if (matchData != null && !otherQueries.contains(entry.getKey())) {
+        int firstDocId = Integer.MAX_VALUE;
+        boolean sameDocIds = true;
+        int limit = 0;
+        for (ComponentList cl : entry.getValue()) {
+          // without cursor, from the first doc
+          sameDocIds &= cl.cursorDocId == entry.getValue().get(0).cursorDocId;
+          firstDocId = Math.min(firstDocId, Math.max(0, cl.cursorDocId));
+          limit = (int) Math.max(limit, Math.min(Integer.MAX_VALUE,
+              (long) (cl.cursor != null ? cl.cursorDocPosition + 1 : cl.start) + cl.number));
+        }
+        if (firstDocId > 0 || (sameDocIds && limit < Integer.MAX_VALUE)) {
+          matchData.setRange(firstDocId, sameDocIds ? limit : null);
+        }
+      }
+    }
+  }
+
+  /**
+   * Select the kwic matches of the doc the cursor is positioned on.
+   *
+   * @param kwic
+   *          the kwic
+   * @param matchCursor
+   *          the match cursor
+   * @return the list
+   */
+  private static List<Match> selectKwicMatches(ComponentKwic kwic, CodecMatchStore.Cursor matchCursor) {
+    List<Match> selectedMatches = new ArrayList<>();
+    int number = 0;
+    while (matchCursor.next()) {
+      if (kwic.number != null && number >= (kwic.start + kwic.number)) {
+        break;
+      } else if (kwic.pageStart != null && kwic.pageEnd != null) {
+        if ((matchCursor.endPosition() - 1) < kwic.pageStart || matchCursor.startPosition() > kwic.pageEnd) {
+          continue;
+        }
+      }
+      if (number >= kwic.start) {
+        selectedMatches.add(matchCursor.match());
+      }
+      number++;
+    }
+    return selectedMatches;
+  }
+
+  /**
+   * Creates the kwic windows, the range of positions shown for each match.
+   *
+   * @param kwic
+   *          the kwic
+   * @param mDoc
+   *          the doc
+   * @param matches
+   *          the matches
+   * @return the windows
+   */
+  private static int[][] createKwicWindows(ComponentKwic kwic, IndexDoc mDoc, List<Match> matches) {
+    int[][] windows = new int[matches.size()][];
+    for (int i = 0; i < matches.size(); i++) {
+      Match m = matches.get(i);
+      windows[i] = new int[] { Math.max(mDoc.minPosition, m.startPosition - kwic.left),
+          Math.min(mDoc.maxPosition, m.endPosition - 1 + kwic.right) };
+    }
+    return windows;
+  }
+
+  /**
+   * Split items collected for a range of windows over these windows: each
+   * window gets the items with positions overlapping the window.
+   *
+   * @param <T>
+   *          the item type
+   * @param items
+   *          the items
+   * @param startPosition
+   *          the start position of an item
+   * @param endPosition
+   *          the end position of an item
+   * @param windows
+   *          the windows
+   * @param from
+   *          the first window
+   * @param to
+   *          the last window
+   * @return the items for each window from the first to the last
+   */
+  private static <T> List<List<T>> splitKwicWindows(List<T> items, ToIntFunction<T> startPosition,
+      ToIntFunction<T> endPosition, int[][] windows, int from, int to) {
+    List<List<T>> windowItems = new ArrayList<>(to - from + 1);
+    if (from == to) {
+      windowItems.add(items);
+    } else {
+      List<T> sortedItems = new ArrayList<>(items);
+      sortedItems.sort(Comparator.comparingInt(startPosition));
+      int maximumLength = 0;
+      for (T item : sortedItems) {
+        maximumLength = Math.max(maximumLength, endPosition.applyAsInt(item) - startPosition.applyAsInt(item));
+      }
+      for (int k = from; k <= to; k++) {
+        List<T> list = new ArrayList<>();
+        // first item that can overlap the window
+        int low = 0;
+        int high = sortedItems.size();
+        while (low < high) {
+          int mid = (low + high) >>> 1;
+          if (startPosition.applyAsInt(sortedItems.get(mid)) < windows[k][0] - maximumLength) {
+            low = mid + 1;
+          } else {
+            high = mid;
+          }
+        }
+        for (int i = low; i < sortedItems.size()
+            && startPosition.applyAsInt(sortedItems.get(i)) <= windows[k][1]; i++) {
+          if (endPosition.applyAsInt(sortedItems.get(i)) >= windows[k][0]) {
+            list.add(sortedItems.get(i));
+          }
+        }
+        windowItems.add(list);
+      }
+    }
+    return windowItems;
+  }
+
+  /**
+   * Creates the facet base.
+   *
+   * @param cf
+   *          the cf
+   * @param level
+   *          the level
+   * @param dataCollector
+   *          the data collector
+   * @param positionsData
+   *          the positions data
+   * @param spansNumberData
+   *          the spans number data
+   * @param facetData
+   *          the facet data
+   * @param docSet
+   *          the doc set
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static void createFacetBase(ComponentFacet cf, int level, MtasDataCollector<?, ?> dataCollector,
+      CodecDocColumn positionsData, Map<MtasSpanQuery, CodecDocColumn> spansNumberData,
+      Map<String, SortedMap<String, int[]>> facetData, Integer[] docSet) throws IOException {
+    for (MtasFunctionParserFunction function : cf.baseFunctionParserFunctions[level]) {
+      if (function.needArgumentsNumber() > cf.spanQueries.length) {
+        throw new IOException(
+            "function " + function + " expects (at least) " + function.needArgumentsNumber() + " queries");
+      }
+    }
+    Map<String, int[]> list = facetData.get(cf.baseFields[level]);
+    if (dataCollector != null) {
+      MtasDataCollector<?, ?> subDataCollector = null;
+      dataCollector.initNewList(1);
+      if (cf.baseFunctionList[level] != null) {
+        SubComponentFunction[] tmpList;
+        if (!cf.baseFunctionList[level].containsKey(dataCollector)) {
+          tmpList = new SubComponentFunction[cf.baseFunctionParserFunctions[level].length];
+          cf.baseFunctionList[level].put(dataCollector, tmpList);
+          for (int i = 0; i < cf.baseFunctionParserFunctions[level].length; i++) {
+            try {
+              tmpList[i] = new SubComponentFunction(DataCollector.COLLECTOR_TYPE_LIST, cf.baseFunctionKeys[level][i],
+                  cf.baseFunctionTypes[level][i], cf.baseFunctionParserFunctions[level][i], null, null, 0,
+                  Integer.MAX_VALUE, null, null);
+
+            } catch (ParseException e) {
+              throw new IOException(e.getMessage());
             }
           }
         } else {
@@ -2886,7 +3743,7 @@ public class CodecCollector {
           }
           // compute stats for each key
           if (documentsInFacets) {
-            Map<Integer, long[]> args = computeArguments(spansNumberData, cf.spanQueries, docSet);
+            CodecDocColumn[] argumentColumns = computeArgumentColumns(spansNumberData, cf.spanQueries);
             if (cf.baseDataTypes[level].equals(CodecUtil.DATA_TYPE_LONG)) {
               // check functions
               boolean applySumRule = false;
@@ -2914,19 +3771,16 @@ public class CodecCollector {
                     long valuePositions = 0;
                     // collect
                     if (subDocSet.length > 0) {
-                      long[] tmpArgs;
+                      long[] tmpArgs = new long[argumentColumns.length];
                       for (int docId : subDocSet) {
-                        tmpArgs = args.get(docId);
-                        if (positionsData != null && positionsData.containsKey(docId)
-                            && positionsData.get(docId) != null) {
-                          valuePositions += positionsData.get(docId).longValue();
+                        fillArguments(argumentColumns, docId, tmpArgs, null);
+                        if (positionsData != null) {
+                          valuePositions += positionsData.get(docId);
                         }
-                        if (tmpArgs != null) {
-                          for (int i = 0; i < length; i++) {
-                            if(tmpArgs[i]>0) {
-                              valueQSum[i] += tmpArgs[i];
-                              valueDSum[i] += 1;
-                            }  
+                        for (int i = 0; i < length; i++) {
+                          if (tmpArgs[i] > 0) {
+                            valueQSum[i] += tmpArgs[i];
+                            valueDSum[i] += 1;
                           }
                         }
                       }
@@ -2994,14 +3848,11 @@ public class CodecCollector {
                       int number = 0;
                       Integer[] restrictedSubDocSet = new Integer[subDocSet.length];
                       long[] values = new long[subDocSet.length];
+                      long[] tmpArgsQ = new long[argumentColumns.length];
+                      long[] tmpArgsD = new long[argumentColumns.length];
                       for (int docId : subDocSet) {
-                        long[] tmpArgsQ = args.get(docId);
-                        long[] tmpArgsD = tmpArgsQ.clone();
-                        for(int k=0; k<tmpArgsD.length; k++) {
-                          tmpArgsD[k] = (tmpArgsD[k]>0)?1:0;
-                        }
-                        int tmpPositions = (positionsData == null) ? 0
-                            : (positionsData.get(docId) == null ? 0 : positionsData.get(docId));
+                        fillArguments(argumentColumns, docId, tmpArgsQ, tmpArgsD);
+                        int tmpPositions = (positionsData == null) ? 0 : positionsData.get(docId);
                         long value = cf.baseParsers[level].getValueLong(tmpArgsQ, tmpArgsD, tmpPositions, 1);
                         if ((cf.baseMinimumLongs[level] == null || value >= cf.baseMinimumLongs[level])
                             && (cf.baseMaximumLongs[level] == null || value <= cf.baseMaximumLongs[level])) {
@@ -3177,8 +4028,8 @@ public class CodecCollector {
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
-  private static void createFacet(List<ComponentFacet> facetList, Map<Integer, Integer> positionsData,
-      Map<MtasSpanQuery, Map<Integer, Integer>> spansNumberData, Map<String, SortedMap<String, int[]>> facetData,
+  private static void createFacet(List<ComponentFacet> facetList, CodecDocColumn positionsData,
+      Map<MtasSpanQuery, CodecDocColumn> spansNumberData, Map<String, SortedMap<String, int[]>> facetData,
       List<Integer> docSet) throws IOException {
 
     if (facetList != null) {
@@ -3206,16 +4057,28 @@ public class CodecCollector {
    *          the r
    * @param lrc
    *          the lrc
+   * @param intersection
+   *          the intersection of the doc set with postings
+   * @param mtasCodecInfo
+   *          the mtas codec info
+   * @param field
+   *          the field
+   * @param termvectorRanges
+   *          the terms of full termvectors computed while collecting the
+   *          segment, null if not available
+   * @param executor
+   *          the executor for ranges of terms, null to compute serially
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
   private static void createTermvectorFull(List<ComponentTermVector> termVectorList,
-      Map<Integer, Integer> positionsData, List<Integer> docSet, Terms t, LeafReader r, LeafReaderContext lrc)
+      CodecDocColumn positionsData, List<Integer> docSet, Terms t, LeafReader r, LeafReaderContext lrc,
+      CodecDocSetIntersection intersection, CodecInfo mtasCodecInfo, String field,
+      Map<ComponentTermVector, TermvectorFullRange> termvectorRanges, ExecutorService executor)
       throws IOException {
     if (t != null) {
       BytesRef term;
       TermsEnum termsEnum;
-      PostingsEnum postingsEnum = null;
       String segmentName = "segment" + lrc.ord;
       int segmentNumber = lrc.parent.leaves().size();
       // loop over termvectors
@@ -3224,160 +4087,81 @@ public class CodecCollector {
           if (termVector.full) {
             termVector.subComponentFunction.dataCollector.setWithTotal();
           }
+          CodecAutomatonCache.Automata automata = CodecAutomatonCache.getInstance().get(termVector.prefix,
+              termVector.regexp, termVector.list, termVector.listRegexp, termVector.ignoreRegexp,
+              termVector.ignoreList, termVector.ignoreListRegexp);
+          // list of literal values: seek terms in a single pass without automaton
+          BytesRef[] literalTerms = automata.getLiteralTerms();
           List<CompiledAutomaton> listAutomata;
-          Map<String, Automaton> automatonMap;
-          if (termVector.list == null) {
-            listAutomata = new ArrayList<>();
-            CompiledAutomaton compiledAutomaton;
-            Automaton automaton;
-            if ((termVector.regexp == null) || (termVector.regexp.isEmpty())) {
-              RegExp re = new RegExp(termVector.prefix + MtasToken.DELIMITER + ".*");
-              automaton = re.toAutomaton();
-            } else {
-              RegExp re = new RegExp(termVector.prefix + MtasToken.DELIMITER + termVector.regexp + "\u0000*");
-              automaton = re.toAutomaton();
-            }
-            compiledAutomaton = new CompiledAutomaton(automaton);
-            listAutomata.add(compiledAutomaton);
+          if (literalTerms != null) {
+            listAutomata = Collections.singletonList((CompiledAutomaton) null);
+          } else if (termVector.list == null && getDistanceAutomaton(termVector) != null) {
+            // only terms within maximum distance
+            listAutomata = Collections.singletonList(termVector.distanceAutomaton);
           } else {
-            automatonMap = MtasToken.createAutomatonMap(termVector.prefix, new ArrayList<String>(termVector.list),
-                termVector.listRegexp ? false : true);
-            listAutomata = MtasToken.createAutomata(termVector.prefix, termVector.regexp, automatonMap);
-          }
-          List<ByteRunAutomaton> ignoreByteRunAutomatonList = null;
-          if ((termVector.ignoreRegexp != null) && (!termVector.ignoreRegexp.isEmpty())) {
-            ignoreByteRunAutomatonList = new ArrayList<>();
-            RegExp re = new RegExp(termVector.prefix + MtasToken.DELIMITER + termVector.ignoreRegexp + "\u0000*");
-            ignoreByteRunAutomatonList.add(new ByteRunAutomaton(re.toAutomaton()));
-          }
-          if (termVector.ignoreList != null) {
-            if (ignoreByteRunAutomatonList == null) {
-              ignoreByteRunAutomatonList = new ArrayList<>();
-            }
-            Map<String, Automaton> list = MtasToken.createAutomatonMap(termVector.prefix,
-                new ArrayList<String>(termVector.ignoreList), termVector.ignoreListRegexp ? false : true);
-            for (Automaton automaton : list.values()) {
-              ignoreByteRunAutomatonList.add(new ByteRunAutomaton(automaton));
-            }
+            listAutomata = automata.getCompiledAutomata();
           }
+          List<ByteRunAutomaton> ignoreByteRunAutomatonList = automata.getIgnoreByteRunAutomata();
+          // already computed while collecting the segment
+          TermvectorFullRange computedRange = termvectorRanges != null ? termvectorRanges.get(termVector) : null;
+          // small set of documents: use forward index
+          TermvectorDocTerms docTerms = termVector.list == null && computedRange == null
+              ? createTermvectorDocTerms(termVector.prefix, termVector.docCostFactor, docSet, t, lrc, mtasCodecInfo,
+                  field)
+              : null;
           for (CompiledAutomaton compiledAutomaton : listAutomata) {
-            if (!compiledAutomaton.type.equals(CompiledAutomaton.AUTOMATON_TYPE.NORMAL)) {
+            if (compiledAutomaton != null && !compiledAutomaton.type.equals(CompiledAutomaton.AUTOMATON_TYPE.NORMAL)) {
               if (compiledAutomaton.type.equals(CompiledAutomaton.AUTOMATON_TYPE.NONE)) {
                 // do nothing
               } else {
                 throw new IOException("compiledAutomaton is " + compiledAutomaton.type);
               }
             } else {
-              termsEnum = t.intersect(compiledAutomaton, null);
+              // ranges of terms concurrently, start value is updated while validating
+              boolean partitioned = executor != null && termVector.partitions > 1 && docTerms == null
+                  && compiledAutomaton != null && termVector.startValue == null && computedRange == null;
+              if (compiledAutomaton == null) {
+                termsEnum = new CodecLiteralTermsEnum(t.iterator(), literalTerms);
+              } else {
+                termsEnum = docTerms == null && !partitioned && computedRange == null
+                    ? t.intersect(compiledAutomaton, null)
+                    : null;
+              }
               int initSize = Math.min((int) t.size(), 1000);
               termVector.subComponentFunction.dataCollector.initNewList(initSize, segmentName, segmentNumber,
                   termVector.boundary);
-              boolean doBasic = termVector.subComponentFunction.dataCollector.getStatsType()
-                  .equals(CodecUtil.STATS_BASIC);
               if (termVector.functions != null) {
                 for (SubComponentFunction function : termVector.functions) {
                   function.dataCollector.initNewList(initSize);
-                  doBasic = doBasic
-                      ? (function.parserFunction.sumRule() && !function.parserFunction.needPositions()
-                          && function.dataCollector.getStatsType().equals(CodecUtil.STATS_BASIC))
-                      : doBasic;
                 }
               }
+              boolean doBasic = isTermvectorBasic(termVector);
               // only if documents
-              if (!docSet.isEmpty()) {
-                int termDocId;
-                boolean acceptedTerm;
-                String key;
+              if (docSet.isEmpty()) {
+                // do nothing
+              } else if (computedRange != null) {
+                computedRange.register(termVector);
+              } else if (partitioned) {
+                createTermvectorFullPartitioned(termVector, compiledAutomaton, ignoreByteRunAutomatonList, doBasic,
+                    positionsData, docSet, t, r, lrc, executor);
+              } else {
                 // loop over terms
-                while ((term = termsEnum.next()) != null) {
-                  if (validateTermWithStartValue(term, termVector) && validateTermWithDistance(term, termVector)) {
-                    termDocId = -1;
-                    acceptedTerm = true;
-                    if (ignoreByteRunAutomatonList != null) {
-                      for (ByteRunAutomaton ignoreByteRunAutomaton : ignoreByteRunAutomatonList) {
-                        if (ignoreByteRunAutomaton.run(term.bytes, term.offset, term.length)) {
-                          acceptedTerm = false;
-                          break;
-                        }
+                while ((term = docTerms == null ? termsEnum.next() : docTerms.next(compiledAutomaton)) != null) {
+                  if (acceptTermvectorTerm(term, termVector, ignoreByteRunAutomatonList)) {
+                    if (doBasic) {
+                      // compute numbers;
+                      TermvectorNumberBasic numberBasic = docTerms != null ? docTerms.numberBasic()
+                          : computeTermvectorNumberBasic(intersection, termsEnum, r);
+                      // register
+                      if (numberBasic.docNumber > 0) {
+                        registerTermvectorFull(termVector, MtasToken.getPostfixFromValue(term), numberBasic);
                       }
-                    }
-                    if (acceptedTerm) {
-                      if (doBasic) {
-                        // compute numbers;
-                        TermvectorNumberBasic numberBasic = computeTermvectorNumberBasic(docSet, termDocId, termsEnum,
-                            r, lrc, postingsEnum);
-                        // register
-                        if (numberBasic.docNumber > 0) {
-                          long valueLong = 0;
-                          key = MtasToken.getPostfixFromValue(term);
-                          try {
-                            valueLong = termVector.subComponentFunction.parserFunction
-                                .getValueLong(numberBasic.valueSum, new long[] {numberBasic.docNumber}, 1, numberBasic.docNumber);
-                          } catch (IOException e) {
-                            log.debug(e);
-                            termVector.subComponentFunction.dataCollector.error(MtasToken.getPostfixFromValue(term),
-                                e.getMessage(), 1);
-                          }
-                          termVector.subComponentFunction.dataCollector.add(key, valueLong, numberBasic.docNumber);
-                          if (termVector.functions != null) {
-                            for (SubComponentFunction function : termVector.functions) {
-                              if (function.dataType.equals(CodecUtil.DATA_TYPE_LONG)) {
-                                long valueFunction = function.parserFunction.getValueLong(numberBasic.valueSum, new long[] {numberBasic.docNumber}, 0, numberBasic.docNumber);
-                                function.dataCollector.add(key, valueFunction, numberBasic.docNumber);
-                              } else if (function.dataType.equals(CodecUtil.DATA_TYPE_DOUBLE)) {
-                                double valueFunction = function.parserFunction.getValueDouble(numberBasic.valueSum, new long[] {numberBasic.docNumber}, 0, numberBasic.docNumber);
-                                function.dataCollector.add(key, valueFunction, numberBasic.docNumber);
-                              }
-                            }
-                          }
-                        }
-                      } else {
-                        TermvectorNumberFull numberFull = computeTermvectorNumberFull(docSet, termDocId, termsEnum, lrc,
-                            postingsEnum, positionsData);
-                        if (numberFull.docNumber > 0) {
-                          long[] valuesLong = new long[numberFull.docNumber];
-                          key = MtasToken.getPostfixFromValue(term);
-                          for (int i = 0; i < numberFull.docNumber; i++) {
-                            try {
-                              valuesLong[i] = termVector.subComponentFunction.parserFunction
-                                  .getValueLong(new long[] { numberFull.args[i] }, new long[] {1}, numberFull.positions[i], 1);
-                            } catch (IOException e) {
-                              log.debug(e);
-                              termVector.subComponentFunction.dataCollector.error(key, e.getMessage(), 1);
-                            }
-                          }
-                          termVector.subComponentFunction.dataCollector.add(key, valuesLong, valuesLong.length);
-                          if (termVector.functions != null) {
-                            for (SubComponentFunction function : termVector.functions) {
-                              if (function.dataType.equals(CodecUtil.DATA_TYPE_LONG)) {
-                                valuesLong = new long[numberFull.docNumber];
-                                for (int i = 0; i < numberFull.docNumber; i++) {
-                                  try {
-                                    valuesLong[i] = function.parserFunction
-                                        .getValueLong(new long[] { numberFull.args[i] }, new long[] {1}, numberFull.positions[i], 1);
-                                  } catch (IOException e) {
-                                    log.debug(e);
-                                    function.dataCollector.error(key, e.getMessage(), 1);
-                                  }
-                                }
-                                function.dataCollector.add(key, valuesLong, valuesLong.length);
-                              } else if (function.dataType.equals(CodecUtil.DATA_TYPE_DOUBLE)) {
-                                double[] valuesDouble = new double[numberFull.docNumber];
-                                for (int i = 0; i < numberFull.docNumber; i++) {
-                                  try {
-                                    valuesDouble[i] = function.parserFunction
-                                        .getValueDouble(new long[] { numberFull.args[i] }, new long[] {1}, numberFull.positions[i], 1);
-                                  } catch (IOException e) {
-                                    log.debug(e);
-                                    function.dataCollector.error(key, e.getMessage(), 1);
-                                  }
-                                }
-                                function.dataCollector.add(key, valuesDouble, valuesDouble.length);
-                              }
-                            }
-                          }
-                        }
-
+                    } else {
+                      TermvectorNumberFull numberFull = docTerms != null
+                          ? docTerms.numberFull(docSet, positionsData)
+                          : computeTermvectorNumberFull(intersection, termsEnum, positionsData);
+                      if (numberFull.docNumber > 0) {
+                        registerTermvectorFull(termVector, MtasToken.getPostfixFromValue(term), numberFull);
                       }
                     }
                   }
@@ -3396,6 +4180,524 @@ public class CodecCollector {
     }
   }
 
+  /**
+   * Accept a term for a termvector: validate start value and distances, and
+   * check the ignore automata.
+   *
+   * @param term
+   *          the term
+   * @param termVector
+   *          the term vector
+   * @param ignoreByteRunAutomatonList
+   *          the ignore byte run automaton list
+   * @return true, if successful
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static boolean acceptTermvectorTerm(BytesRef term, ComponentTermVector termVector,
+      List<ByteRunAutomaton> ignoreByteRunAutomatonList) throws IOException {
+    if (validateTermWithStartValue(term, termVector) && validateTermWithDistance(term, termVector)) {
+      if (ignoreByteRunAutomatonList != null) {
+        for (ByteRunAutomaton ignoreByteRunAutomaton : ignoreByteRunAutomatonList) {
+          if (ignoreByteRunAutomaton.run(term.bytes, term.offset, term.length)) {
+            return false;
+          }
+        }
+      }
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Register the basic numbers of a term for a full termvector.
+   *
+   * @param termVector
+   *          the term vector
+   * @param key
+   *          the key
+   * @param numberBasic
+   *          the number basic
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static void registerTermvectorFull(ComponentTermVector termVector, String key,
+      TermvectorNumberBasic numberBasic) throws IOException {
+    long valueLong = 0;
+    try {
+      valueLong = termVector.subComponentFunction.parserFunction.getValueLong(numberBasic.valueSum,
+          new long[] { numberBasic.docNumber }, 1, numberBasic.docNumber);
+    } catch (IOException e) {
+      log.debug(e);
+      termVector.subComponentFunction.dataCollector.error(key, e.getMessage(), 1);
+    }
+    termVector.subComponentFunction.dataCollector.add(key, valueLong, numberBasic.docNumber);
+    if (termVector.functions != null) {
+      for (SubComponentFunction function : termVector.functions) {
+        if (function.dataType.equals(CodecUtil.DATA_TYPE_LONG)) {
+          long valueFunction = function.parserFunction.getValueLong(numberBasic.valueSum,
+              new long[] { numberBasic.docNumber }, 0, numberBasic.docNumber);
+          function.dataCollector.add(key, valueFunction, numberBasic.docNumber);
+        } else if (function.dataType.equals(CodecUtil.DATA_TYPE_DOUBLE)) {
+          double valueFunction = function.parserFunction.getValueDouble(numberBasic.valueSum,
+              new long[] { numberBasic.docNumber }, 0, numberBasic.docNumber);
+          function.dataCollector.add(key, valueFunction, numberBasic.docNumber);
+        }
+      }
+    }
+  }
+
+  /**
+   * Register the full numbers of a term for a full termvector.
+   *
+   * @param termVector
+   *          the term vector
+   * @param key
+   *          the key
+   * @param numberFull
+   *          the number full
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static void registerTermvectorFull(ComponentTermVector termVector, String key,
+      TermvectorNumberFull numberFull) throws IOException {
+    long[] valuesLong = new long[numberFull.docNumber];
+    for (int i = 0; i < numberFull.docNumber; i++) {
+      try {
+        valuesLong[i] = termVector.subComponentFunction.parserFunction
+            .getValueLong(new long[] { numberFull.args[i] }, new long[] { 1 }, numberFull.positions[i], 1);
+      } catch (IOException e) {
+        log.debug(e);
+        termVector.subComponentFunction.dataCollector.error(key, e.getMessage(), 1);
+      }
+    }
+    termVector.subComponentFunction.dataCollector.add(key, valuesLong, valuesLong.length);
+    if (termVector.functions != null) {
+      for (SubComponentFunction function : termVector.functions) {
+        if (function.dataType.equals(CodecUtil.DATA_TYPE_LONG)) {
+          valuesLong = new long[numberFull.docNumber];
+          for (int i = 0; i < numberFull.docNumber; i++) {
+            try {
+              valuesLong[i] = function.parserFunction.getValueLong(new long[] { numberFull.args[i] },
+                  new long[] { 1 }, numberFull.positions[i], 1);
+            } catch (IOException e) {
+              log.debug(e);
+              function.dataCollector.error(key, e.getMessage(), 1);
+            }
+          }
+          function.dataCollector.add(key, valuesLong, valuesLong.length);
+        } else if (function.dataType.equals(CodecUtil.DATA_TYPE_DOUBLE)) {
+          double[] valuesDouble = new double[numberFull.docNumber];
+          for (int i = 0; i < numberFull.docNumber; i++) {
+            try {
+              valuesDouble[i] = function.parserFunction.getValueDouble(new long[] { numberFull.args[i] },
+                  new long[] { 1 }, numberFull.positions[i], 1);
+            } catch (IOException e) {
+              log.debug(e);
+              function.dataCollector.error(key, e.getMessage(), 1);
+            }
+          }
+          function.dataCollector.add(key, valuesDouble, valuesDouble.length);
+        }
+      }
+    }
+  }
+
+  /**
+   * Checks if only basic numbers are needed for the terms of a termvector.
+   *
+   * @param termVector
+   *          the term vector
+   * @return true, if successful
+   */
+  private static boolean isTermvectorBasic(ComponentTermVector termVector) {
+    boolean doBasic = termVector.subComponentFunction.dataCollector.getStatsType().equals(CodecUtil.STATS_BASIC);
+    if (termVector.functions != null) {
+      for (SubComponentFunction function : termVector.functions) {
+        doBasic = doBasic
+            ? (function.parserFunction.sumRule() && !function.parserFunction.needPositions()
+                && function.dataCollector.getStatsType().equals(CodecUtil.STATS_BASIC))
+            : doBasic;
+      }
+    }
+    return doBasic;
+  }
+
+  /**
+   * Prepare termvectors to be used concurrently: create the distances and the
+   * automata for the terms within the maximum distances.
+   *
+   * @param termVectorList
+   *          the term vector list
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static void prepareTermvectors(List<ComponentTermVector> termVectorList) throws IOException {
+    for (ComponentTermVector termVector : termVectorList) {
+      if (termVector.distances != null) {
+        for (SubComponentDistance item : termVector.distances) {
+          item.getDistance();
+        }
+      }
+      getDistanceAutomaton(termVector);
+    }
+  }
+
+  /**
+   * Compute the terms of the full termvectors for a segment, to be registered
+   * in segment order when the segment is finished. Can be called concurrently
+   * for different segments, after
+   * {@link #prepareTermvectors(List)}. Only for full termvectors without list
+   * or start value that are not split into ranges, and with a single
+   * automaton.
+   *
+   * @param termVectorList
+   *          the term vector list
+   * @param positionsData
+   *          the positions data
+   * @param docSet
+   *          the doc set
+   * @param t
+   *          the t
+   * @param r
+   *          the r
+   * @param lrc
+   *          the lrc
+   * @param mtasCodecInfo
+   *          the mtas codec info
+   * @param field
+   *          the field
+   * @return the terms for each termvector, null if none are computed
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static Map<ComponentTermVector, TermvectorFullRange> computeTermvectorFullSegment(
+      List<ComponentTermVector> termVectorList, CodecDocColumn positionsData, List<Integer> docSet, Terms t,
+      LeafReader r, LeafReaderContext lrc, CodecInfo mtasCodecInfo, String field) throws IOException {
+    Map<ComponentTermVector, TermvectorFullRange> termvectorRanges = null;
+    Queue<CodecDocSetIntersection> intersections = null;
+    for (ComponentTermVector termVector : termVectorList) {
+      if (termVector.full && termVector.list == null && termVector.startValue == null
+          && termVector.partitions <= 1) {
+        CodecAutomatonCache.Automata automata = CodecAutomatonCache.getInstance().get(termVector.prefix,
+            termVector.regexp, termVector.list, termVector.listRegexp, termVector.ignoreRegexp,
+            termVector.ignoreList, termVector.ignoreListRegexp);
+        List<CompiledAutomaton> listAutomata = termVector.distanceAutomaton != null
+            ? Collections.singletonList(termVector.distanceAutomaton)
+            : automata.getCompiledAutomata();
+        if (listAutomata.size() != 1
+            || !listAutomata.get(0).type.equals(CompiledAutomaton.AUTOMATON_TYPE.NORMAL)) {
+          continue;
+        }
+        CompiledAutomaton compiledAutomaton = listAutomata.get(0);
+        List<ByteRunAutomaton> ignoreByteRunAutomatonList = automata.getIgnoreByteRunAutomata();
+        boolean doBasic = isTermvectorBasic(termVector);
+        TermvectorFullRange range;
+        // small set of documents: use forward index
+        TermvectorDocTerms docTerms = createTermvectorDocTerms(termVector.prefix, termVector.docCostFactor, docSet,
+            t, lrc, mtasCodecInfo, field);
+        if (docTerms == null) {
+          if (intersections == null) {
+            intersections = new ArrayDeque<>();
+          }
+          range = computeTermvectorFullRange(termVector, compiledAutomaton, null, null, ignoreByteRunAutomatonList,
+              doBasic, positionsData, docSet, t, r, lrc, intersections);
+        } else {
+          range = new TermvectorFullRange();
+          BytesRef term;
+          while ((term = docTerms.next(compiledAutomaton)) != null) {
+            if (acceptTermvectorTerm(term, termVector, ignoreByteRunAutomatonList)) {
+              if (doBasic) {
+                TermvectorNumberBasic numberBasic = docTerms.numberBasic();
+                if (numberBasic.docNumber > 0) {
+                  range.add(MtasToken.getPostfixFromValue(term), numberBasic);
+                }
+              } else {
+                TermvectorNumberFull numberFull = docTerms.numberFull(docSet, positionsData);
+                if (numberFull.docNumber > 0) {
+                  range.add(MtasToken.getPostfixFromValue(term), numberFull);
+                }
+              }
+            }
+          }
+        }
+        if (termvectorRanges == null) {
+          termvectorRanges = new HashMap<>();
+        }
+        termvectorRanges.put(termVector, range);
+      }
+    }
+    return termvectorRanges;
+  }
+
+  /**
+   * Creates the termvector full for a segment by splitting the terms into
+   * contiguous ranges. The boundaries are found by seeking, the numbers for
+   * each range are computed concurrently, and the ranges are registered in term
+   * order, so the collectors receive exactly the same terms in the same order
+   * as when computed serially.
+   *
+   * @param termVector
+   *          the term vector
+   * @param compiledAutomaton
+   *          the compiled automaton
+   * @param ignoreByteRunAutomatonList
+   *          the ignore byte run automaton list
+   * @param doBasic
+   *          compute basic numbers
+   * @param positionsData
+   *          the positions data
+   * @param docSet
+   *          the doc set
+   * @param t
+   *          the t
+   * @param r
+   *          the r
+   * @param lrc
+   *          the lrc
+   * @param executor
+   *          the executor
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static void createTermvectorFullPartitioned(ComponentTermVector termVector,
+      CompiledAutomaton compiledAutomaton, List<ByteRunAutomaton> ignoreByteRunAutomatonList, boolean doBasic,
+      CodecDocColumn positionsData, List<Integer> docSet, Terms t, LeafReader r, LeafReaderContext lrc,
+      ExecutorService executor) throws IOException {
+    // create distances before they are used concurrently
+    if (termVector.distances != null) {
+      for (SubComponentDistance item : termVector.distances) {
+        item.getDistance();
+      }
+    }
+    int maximumQueued = (executor instanceof ThreadPoolExecutor)
+        ? Math.max(2, 2 * ((ThreadPoolExecutor) executor).getMaximumPoolSize())
+        : Integer.MAX_VALUE;
+    List<BytesRef> boundaries = createTermvectorRangeBoundaries(termVector.prefix, compiledAutomaton, t,
+        termVector.partitions);
+    // intersections are reused by the ranges
+    Queue<CodecDocSetIntersection> intersections = new ConcurrentLinkedQueue<>();
+    ArrayDeque<Future<TermvectorFullRange>> futures = new ArrayDeque<>();
+    AtomicBoolean aborted = new AtomicBoolean(false);
+    try {
+      for (int i = 0; i <= boundaries.size(); i++) {
+        // range after from, up to and including to
+        final BytesRef rangeFrom = i > 0 ? boundaries.get(i - 1) : null;
+        final BytesRef rangeTo = i < boundaries.size() ? boundaries.get(i) : null;
+        futures.add(submit(executor, () -> computeTermvectorFullRange(termVector, compiledAutomaton, rangeFrom,
+            rangeTo, ignoreByteRunAutomatonList, doBasic, positionsData, docSet, t, r, lrc, intersections),
+            aborted));
+        while (!futures.isEmpty() && (rangeTo == null || futures.size() >= maximumQueued)) {
+          getTermvectorFullRange(futures.poll()).register(termVector);
+        }
+      }
+    } finally {
+      abortAndWait(futures, aborted);
+    }
+  }
+
+  /**
+   * Creates the boundaries of ranges of terms with a prefix. The first bytes of
+   * the postfixes of the first and last term are found by seeking, this
+   * interval is split into equal parts, and each split is moved to the next
+   * term accepted by the automaton. Ranges will only contain comparable numbers
+   * of terms if the terms are not too unevenly distributed, so more ranges than
+   * threads should be used.
+   *
+   * @param prefix
+   *          the prefix
+   * @param compiledAutomaton
+   *          the compiled automaton
+   * @param t
+   *          the t
+   * @param number
+   *          the maximum number of ranges
+   * @return the sorted boundaries, each the last term of a range
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static List<BytesRef> createTermvectorRangeBoundaries(String prefix, CompiledAutomaton compiledAutomaton,
+      Terms t, int number) throws IOException {
+    List<BytesRef> boundaries = new ArrayList<>();
+    BytesRef prefixRef = new BytesRef(prefix + MtasToken.DELIMITER);
+    TermsEnum termsEnum = t.iterator();
+    if (number < 2 || termsEnum.seekCeil(prefixRef) == TermsEnum.SeekStatus.END
+        || !StringHelper.startsWith(termsEnum.term(), prefixRef)) {
+      return boundaries;
+    }
+    // first bytes of the first term
+    BytesRef term = termsEnum.term();
+    long first = 0;
+    for (int d = 0; d < TERMVECTOR_PARTITION_DEPTH; d++) {
+      int i = prefixRef.length + d;
+      first = (first << 8) | (i < term.length ? term.bytes[term.offset + i] & 0xFF : 0);
+    }
+    // first bytes of the last term: for each byte the largest value for which
+    // a term exists starting with the bytes found so far
+    BytesRefBuilder key = new BytesRefBuilder();
+    key.copyBytes(prefixRef);
+    long last = 0;
+    for (int d = 0; d < TERMVECTOR_PARTITION_DEPTH; d++) {
+      BytesRef start = BytesRef.deepCopyOf(key.get());
+      int value = 0;
+      int low = 0;
+      int high = 255;
+      while (low <= high) {
+        int mid = (low + high) >>> 1;
+        key.copyBytes(start);
+        key.append((byte) mid);
+        if (termsEnum.seekCeil(key.get()) != TermsEnum.SeekStatus.END
+            && termsEnum.term().length > start.length && StringHelper.startsWith(termsEnum.term(), start)) {
+          value = mid;
+          low = mid + 1;
+        } else {
+          high = mid - 1;
+        }
+      }
+      key.copyBytes(start);
+      key.append((byte) value);
+      last = (last << 8) | value;
+    }
+    // move each split to the first accepted term before the next split
+    for (int i = 1; i < number && first < last; i++) {
+      BytesRef split = createTermvectorRangeKey(prefixRef, first + (last - first) * i / number);
+      BytesRef nextSplit = i + 1 < number
+          ? createTermvectorRangeKey(prefixRef, first + (last - first) * (i + 1) / number)
+          : null;
+      if (termsEnum.seekCeil(split) == TermsEnum.SeekStatus.END) {
+        break;
+      }
+      term = termsEnum.term();
+      while (term != null && StringHelper.startsWith(term, prefixRef)
+          && (nextSplit == null || term.compareTo(nextSplit) < 0)
+          && !compiledAutomaton.runAutomaton.run(term.bytes, term.offset, term.length)) {
+        term = termsEnum.next();
+      }
+      if (term == null || !StringHelper.startsWith(term, prefixRef)) {
+        break;
+      } else if ((nextSplit == null || term.compareTo(nextSplit) < 0)
+          && (boundaries.isEmpty() || term.compareTo(boundaries.get(boundaries.size() - 1)) > 0)) {
+        boundaries.add(BytesRef.deepCopyOf(term));
+      }
+    }
+    return boundaries;
+  }
+
+  /**
+   * Creates a key for the boundaries of ranges of terms.
+   *
+   * @param prefixRef
+   *          the prefix, including the delimiter
+   * @param value
+   *          the first bytes of the postfix
+   * @return the key
+   */
+  private static BytesRef createTermvectorRangeKey(BytesRef prefixRef, long value) {
+    BytesRefBuilder key = new BytesRefBuilder();
+    key.copyBytes(prefixRef);
+    for (int d = TERMVECTOR_PARTITION_DEPTH - 1; d >= 0; d--) {
+      key.append((byte) (value >>> (8 * d)));
+    }
+    return key.toBytesRef();
+  }
+
+  /**
+   * Compute the numbers for the terms of a full termvector within a range.
+   * Can be called concurrently for different ranges.
+   *
+   * @param termVector
+   *          the term vector
+   * @param compiledAutomaton
+   *          the compiled automaton
+   * @param from
+   *          the term before the range, null to start with the first term
+   * @param to
+   *          the last term of the range, null to end with the last term
+   * @param ignoreByteRunAutomatonList
+   *          the ignore byte run automaton list
+   * @param doBasic
+   *          compute basic numbers
+   * @param positionsData
+   *          the positions data
+   * @param docSet
+   *          the doc set
+   * @param t
+   *          the t
+   * @param r
+   *          the r
+   * @param lrc
+   *          the lrc
+   * @param intersections
+   *          the intersections to reuse
+   * @return the termvector full range
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static TermvectorFullRange computeTermvectorFullRange(ComponentTermVector termVector,
+      CompiledAutomaton compiledAutomaton, BytesRef from, BytesRef to,
+      List<ByteRunAutomaton> ignoreByteRunAutomatonList, boolean doBasic, CodecDocColumn positionsData,
+      List<Integer> docSet, Terms t, LeafReader r, LeafReaderContext lrc,
+      Queue<CodecDocSetIntersection> intersections) throws IOException {
+    TermvectorFullRange range = new TermvectorFullRange();
+    CodecDocSetIntersection intersection = intersections.poll();
+    if (intersection == null) {
+      intersection = new CodecDocSetIntersection(docSet, lrc);
+    }
+    try {
+      TermsEnum termsEnum = t.intersect(compiledAutomaton, from);
+      BytesRef term;
+      while ((term = termsEnum.next()) != null && (to == null || term.compareTo(to) <= 0)) {
+        if (acceptTermvectorTerm(term, termVector, ignoreByteRunAutomatonList)) {
+          if (doBasic) {
+            TermvectorNumberBasic numberBasic = computeTermvectorNumberBasic(intersection, termsEnum, r);
+            if (numberBasic.docNumber > 0) {
+              range.add(MtasToken.getPostfixFromValue(term), numberBasic);
+            }
+          } else {
+            TermvectorNumberFull numberFull = computeTermvectorNumberFull(intersection, termsEnum, positionsData);
+            if (numberFull.docNumber > 0) {
+              range.add(MtasToken.getPostfixFromValue(term), numberFull);
+            }
+          }
+        }
+      }
+    } finally {
+      intersections.add(intersection);
+    }
+    return range;
+  }
+
+  /**
+   * Gets the termvector full range from a concurrent computation.
+   *
+   * @param future
+   *          the future
+   * @return the termvector full range
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static TermvectorFullRange getTermvectorFullRange(Future<TermvectorFullRange> future)
+      throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("interrupted while computing termvector", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      } else {
+        throw new IOException(cause);
+      }
+    }
+  }
+
   /**
    * Creates the termvector first round.
    *
@@ -3411,47 +4713,38 @@ public class CodecCollector {
    *          the r
    * @param lrc
    *          the lrc
+   * @param intersection
+   *          the intersection of the doc set with postings
+   * @param mtasCodecInfo
+   *          the mtas codec info
+   * @param field
+   *          the field
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
   private static void createTermvectorFirstRound(List<ComponentTermVector> termVectorList,
-      Map<Integer, Integer> positionsData, List<Integer> docSet, Terms t, LeafReader r, LeafReaderContext lrc)
-      throws IOException {
+      CodecDocColumn positionsData, List<Integer> docSet, Terms t, LeafReader r, LeafReaderContext lrc,
+      CodecDocSetIntersection intersection, CodecInfo mtasCodecInfo, String field) throws IOException {
     if (t != null) {
       BytesRef term;
       TermsEnum termsEnum;
-      PostingsEnum postingsEnum = null;
       String segmentName = "segment" + lrc.ord;
       String[] mutableKey = new String[1];
       int segmentNumber = lrc.parent.leaves().size();
-      // loop over termvectors
-      for (ComponentTermVector termVector : termVectorList) {
-        CompiledAutomaton compiledAutomaton;
-        if ((termVector.regexp == null) || (termVector.regexp.isEmpty())) {
-          RegExp re = new RegExp(termVector.prefix + MtasToken.DELIMITER + ".*");
-          compiledAutomaton = new CompiledAutomaton(re.toAutomaton());
-        } else {
-          RegExp re = new RegExp(termVector.prefix + MtasToken.DELIMITER + termVector.regexp + "\u0000*");
-          compiledAutomaton = new CompiledAutomaton(re.toAutomaton());
-        }
-        List<ByteRunAutomaton> ignoreByteRunAutomatonList = null;
-        if ((termVector.ignoreRegexp != null) && (!termVector.ignoreRegexp.isEmpty())) {
-          ignoreByteRunAutomatonList = new ArrayList<>();
-          RegExp re = new RegExp(termVector.prefix + MtasToken.DELIMITER + termVector.ignoreRegexp + "\u0000*");
-          ignoreByteRunAutomatonList.add(new ByteRunAutomaton(re.toAutomaton()));
-        }
-        if (termVector.ignoreList != null) {
-          if (ignoreByteRunAutomatonList == null) {
-            ignoreByteRunAutomatonList = new ArrayList<>();
-          }
-          Map<String, Automaton> list = MtasToken.createAutomatonMap(termVector.prefix,
-              new ArrayList<String>(termVector.ignoreList), termVector.ignoreListRegexp ? false : true);
-          for (Automaton automaton : list.values()) {
-            ignoreByteRunAutomatonList.add(new ByteRunAutomaton(automaton));
-          }
-        }
+      // loop over termvectors
+      for (ComponentTermVector termVector : termVectorList) {
         if (!termVector.full && termVector.list == null) {
-          termsEnum = t.intersect(compiledAutomaton, null);
+          CodecAutomatonCache.Automata automata = CodecAutomatonCache.getInstance().get(termVector.prefix,
+              termVector.regexp, null, false, termVector.ignoreRegexp, termVector.ignoreList,
+              termVector.ignoreListRegexp);
+          // only terms within maximum distance, if available
+          CompiledAutomaton compiledAutomaton = getDistanceAutomaton(termVector) != null
+              ? termVector.distanceAutomaton : automata.getCompiledAutomata().get(0);
+          List<ByteRunAutomaton> ignoreByteRunAutomatonList = automata.getIgnoreByteRunAutomata();
+          // small set of documents: use forward index
+          TermvectorDocTerms docTerms = createTermvectorDocTerms(termVector.prefix, termVector.docCostFactor, docSet,
+              t, lrc, mtasCodecInfo, field);
+          termsEnum = docTerms == null ? t.intersect(compiledAutomaton, null) : null;
           int initSize = Math.min((int) t.size(), 1000);
           termVector.subComponentFunction.dataCollector.initNewList(initSize, segmentName, segmentNumber,
               termVector.boundary);
@@ -3462,9 +4755,9 @@ public class CodecCollector {
           }
           // only if documents
           if (!docSet.isEmpty()) {
-            int termDocId;
             int termNumberMaximum = termVector.number;
-            HashMap<BytesRef, RegisterStatus> computeFullList = new HashMap<>();
+            // terms to compute full, by ordinal within the enumeration
+            TermvectorFullCandidates computeFullList = new TermvectorFullCandidates();
             RegisterStatus registerStatus;
             // basic, don't need full values
             if (termVector.subComponentFunction.sortType.equals(CodecUtil.SORT_TERM)
@@ -3474,14 +4767,15 @@ public class CodecCollector {
 
               boolean continueAfterPreliminaryCheck;
               boolean preliminaryCheck = false;
-              if (r.getLiveDocs() == null && (docSet.size() != r.numDocs())) {
+              if (docTerms == null && r.getLiveDocs() == null && (docSet.size() != r.numDocs())) {
                 preliminaryCheck = true;
               }
               // loop over terms
               boolean acceptedTerm;
-              while ((term = termsEnum.next()) != null) {
+              int termOrdinal = -1;
+              while ((term = docTerms == null ? termsEnum.next() : docTerms.next(compiledAutomaton)) != null) {
+                termOrdinal++;
                 if (validateTermWithStartValue(term, termVector) && validateTermWithDistance(term, termVector)) {
-                  termDocId = -1;
                   acceptedTerm = true;
                   if (ignoreByteRunAutomatonList != null) {
                     for (ByteRunAutomaton ignoreByteRunAutomaton : ignoreByteRunAutomatonList) {
@@ -3510,15 +4804,15 @@ public class CodecCollector {
                     }
                     if (continueAfterPreliminaryCheck) {
                       // compute numbers;
-                      TermvectorNumberBasic numberBasic = computeTermvectorNumberBasic(docSet, termDocId, termsEnum, r,
-                          lrc, postingsEnum);
+                      TermvectorNumberBasic numberBasic = docTerms != null ? docTerms.numberBasic()
+                          : computeTermvectorNumberBasic(intersection, termsEnum, r);
                       // register
                       if (numberBasic.docNumber > 0) {
                         termCounter++;
                         registerStatus = registerValue(term, termVector, numberBasic, termNumberMaximum, segmentNumber,
                             false, mutableKey);
                         if (registerStatus != null) {
-                          computeFullList.put(BytesRef.deepCopyOf(term), registerStatus);
+                          computeFullList.add(termOrdinal, registerStatus);
                         }
                       }
                     }
@@ -3531,33 +4825,39 @@ public class CodecCollector {
                   }
                 }
               }
-              // rerun for full
+              // rerun for full, same enumeration so same ordinals
               if (computeFullList.size() > 0) {
-                termsEnum = t.intersect(compiledAutomaton, null);
-                while ((term = termsEnum.next()) != null) {
-                  if (validateTermWithStartValue(term, termVector) && validateTermWithDistance(term, termVector)) {
-                    termDocId = -1;
+                if (docTerms == null) {
+                  termsEnum = t.intersect(compiledAutomaton, null);
+                } else {
+                  docTerms.reset();
+                }
+                termOrdinal = -1;
+                int candidate = 0;
+                // terms were validated in the first pass, stop after the last candidate
+                while (candidate < computeFullList.size()
+                    && (term = docTerms == null ? termsEnum.next() : docTerms.next(compiledAutomaton)) != null) {
+                  termOrdinal++;
+                  if (termOrdinal == computeFullList.ordinal(candidate)) {
                     mutableKey[0] = null;
-                    // only if (probably) needed
-                    if (computeFullList.containsKey(term)) {
-                      registerStatus = computeFullList.get(term);
-                      boolean doAdd;
-                      doAdd = termVector.subComponentFunction.sortType.equals(CodecUtil.SORT_TERM);
-                      doAdd |= termVector.subComponentFunction.sortDirection.equals(CodecUtil.SORT_ASC);
-                      doAdd |= termVector.list != null;
-                      doAdd |= termVector.boundaryRegistration;
-                      doAdd |= registerStatus.force;
-                      doAdd |= termVector.subComponentFunction.dataCollector
-                          .validateSegmentBoundary(registerStatus.sortValue);
-                      if (doAdd) {
-                        TermvectorNumberFull numberFull = computeTermvectorNumberFull(docSet, termDocId, termsEnum, lrc,
-                            postingsEnum, positionsData);
-                        if (numberFull.docNumber > 0) {
-                          termCounter++;
-                          registerValue(term, termVector, numberFull, mutableKey);
-                        }
+                    boolean doAdd;
+                    doAdd = termVector.subComponentFunction.sortType.equals(CodecUtil.SORT_TERM);
+                    doAdd |= termVector.subComponentFunction.sortDirection.equals(CodecUtil.SORT_ASC);
+                    doAdd |= termVector.list != null;
+                    doAdd |= termVector.boundaryRegistration;
+                    doAdd |= computeFullList.force(candidate);
+                    doAdd |= termVector.subComponentFunction.dataCollector
+                        .validateSegmentBoundary(computeFullList.sortValue(candidate));
+                    if (doAdd) {
+                      TermvectorNumberFull numberFull = docTerms != null
+                          ? docTerms.numberFull(docSet, positionsData)
+                          : computeTermvectorNumberFull(intersection, termsEnum, positionsData);
+                      if (numberFull.docNumber > 0) {
+                        termCounter++;
+                        registerValue(term, termVector, numberFull, mutableKey);
                       }
                     }
+                    candidate++;
                   }
                 }
                 computeFullList.clear();
@@ -3585,6 +4885,84 @@ public class CodecCollector {
     }
   }
 
+  /**
+   * Creates the terms with a prefix from the forward index, counting the terms
+   * document by document, for a termvector or the term statistics of
+   * documents. Only if the number of objects in the documents times the factor
+   * is below the number of terms with the prefix, otherwise these are computed
+   * term by term from the postings. The terms with the prefix are only counted
+   * up to this threshold.
+   *
+   * @param prefix
+   *          the prefix
+   * @param factor
+   *          the factor, 0 to always use the forward index and
+   *          {@link Integer#MAX_VALUE} to always use the postings
+   * @param docSet
+   *          the doc set
+   * @param t
+   *          the t
+   * @param lrc
+   *          the lrc
+   * @param mtasCodecInfo
+   *          the mtas codec info
+   * @param field
+   *          the field
+   * @return the termvector doc terms, null if not used
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static TermvectorDocTerms createTermvectorDocTerms(String prefix, int factor, List<Integer> docSet,
+      Terms t, LeafReaderContext lrc, CodecInfo mtasCodecInfo, String field) throws IOException {
+    // the number of terms in the field is an upper bound for the prefix
+    long termNumber = t.size();
+    factor = Math.max(0, factor);
+    if (mtasCodecInfo == null || docSet.isEmpty() || termNumber < 0
+        || (long) docSet.size() * factor >= termNumber) {
+      return null;
+    }
+    // estimate costs
+    IndexDoc[] docs = new IndexDoc[docSet.size()];
+    long objectNumber = 0;
+    for (int i = 0; i < docs.length; i++) {
+      docs[i] = mtasCodecInfo.getDoc(field, docSet.get(i) - lrc.docBase);
+      if (docs[i] != null) {
+        objectNumber += docs[i].size;
+        if (objectNumber * factor >= termNumber) {
+          return null;
+        }
+      }
+    }
+    // count the terms with the prefix, up to the costs
+    long threshold = objectNumber * factor;
+    BytesRef prefixRef = new BytesRef(prefix + MtasToken.DELIMITER);
+    TermsEnum termsEnum = t.iterator();
+    long prefixTermNumber = 0;
+    if (termsEnum.seekCeil(prefixRef) != TermsEnum.SeekStatus.END) {
+      BytesRef term = termsEnum.term();
+      while (term != null && StringHelper.startsWith(term, prefixRef) && prefixTermNumber <= threshold) {
+        prefixTermNumber++;
+        term = termsEnum.next();
+      }
+    }
+    if (prefixTermNumber <= threshold) {
+      return null;
+    }
+    Map<String, Integer> prefixIds = mtasCodecInfo.getPrefixesIds(field, Arrays.asList(prefix));
+    if (prefixIds == null || !prefixIds.containsKey(prefix)) {
+      return null;
+    }
+    int prefixId = prefixIds.get(prefix);
+    CodecTermRefCounter counter = new CodecTermRefCounter();
+    for (int i = 0; i < docs.length; i++) {
+      if (docs[i] != null) {
+        counter.startDoc(i);
+        mtasCodecInfo.collectTermRefsByPrefixId(field, docs[i].docId, prefixId, counter);
+      }
+    }
+    return new TermvectorDocTerms(counter, mtasCodecInfo);
+  }
+
   /**
    * Creates the termvector second round.
    *
@@ -3600,18 +4978,20 @@ public class CodecCollector {
    *          the r
    * @param lrc
    *          the lrc
+   * @param intersection
+   *          the intersection of the doc set with postings, from the first
+   *          round
    * @param status
    *          the status
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
   private static void createTermvectorSecondRound(List<ComponentTermVector> termVectorList,
-      Map<Integer, Integer> positionsData, List<Integer> docSet, Terms t, LeafReader r, LeafReaderContext lrc,
-      Status status) throws IOException {
+      CodecDocColumn positionsData, List<Integer> docSet, Terms t, LeafReader r, LeafReaderContext lrc,
+      CodecDocSetIntersection intersection, Status status) throws IOException {
     if (t != null) {
       BytesRef term;
       TermsEnum termsEnum;
-      PostingsEnum postingsEnum = null;
       String segmentName = "segment" + lrc.ord;
       int segmentNumber = lrc.parent.leaves().size();
       String[] mutableKey = new String[1];
@@ -3622,13 +5002,21 @@ public class CodecCollector {
           Set<String> recomputeKeyList = termVector.subComponentFunction.dataCollector.segmentRecomputeKeyList
               .get(segmentName);
           if (!recomputeKeyList.isEmpty()) {
-            Map<String, Automaton> automatonMap = MtasToken.createAutomatonMap(termVector.prefix,
-                new ArrayList<String>(recomputeKeyList), true);
-            List<CompiledAutomaton> listCompiledAutomata = MtasToken.createAutomata(termVector.prefix,
-                termVector.regexp, automatonMap);
+            // keys of literal values: seek terms in a single pass without automaton
+            BytesRef[] literalTerms = (termVector.regexp == null || termVector.regexp.isEmpty())
+                ? CodecAutomatonCache.createLiteralTerms(termVector.prefix, recomputeKeyList) : null;
+            List<CompiledAutomaton> listCompiledAutomata;
+            if (literalTerms == null) {
+              Map<String, Automaton> automatonMap = MtasToken.createAutomatonMap(termVector.prefix,
+                  new ArrayList<String>(recomputeKeyList), true);
+              listCompiledAutomata = MtasToken.createAutomata(termVector.prefix, termVector.regexp, automatonMap);
+            } else {
+              listCompiledAutomata = Collections.singletonList((CompiledAutomaton) null);
+            }
             for (CompiledAutomaton compiledAutomaton : listCompiledAutomata) {
-              if (!compiledAutomaton.type.equals(CompiledAutomaton.AUTOMATON_TYPE.NONE)) {
-                termsEnum = t.intersect(compiledAutomaton, null);
+              if (compiledAutomaton == null || !compiledAutomaton.type.equals(CompiledAutomaton.AUTOMATON_TYPE.NONE)) {
+                termsEnum = compiledAutomaton == null ? new CodecLiteralTermsEnum(t.iterator(), literalTerms)
+                    : t.intersect(compiledAutomaton, null);
                 termVector.subComponentFunction.dataCollector.initNewList(
                     termVector.subComponentFunction.dataCollector.segmentKeys.size(), segmentName, segmentNumber,
                     termVector.boundary);
@@ -3639,20 +5027,16 @@ public class CodecCollector {
                   }
                 }
                 if (!docSet.isEmpty()) {
-                  int termDocId;
                   while ((term = termsEnum.next()) != null) {
                     if (validateTermWithStartValue(term, termVector)) {
-                      termDocId = -1;
                       mutableKey[0] = null;
                       // compute numbers;
-                      TermvectorNumberBasic numberBasic = computeTermvectorNumberBasic(docSet, termDocId, termsEnum, r,
-                          lrc, postingsEnum);
+                      TermvectorNumberBasic numberBasic = computeTermvectorNumberBasic(intersection, termsEnum, r);
                       if (numberBasic.docNumber > 0) {
                         registerStatus = registerValue(term, termVector, numberBasic, 0, segmentNumber, true,
                             mutableKey);
                         if (registerStatus != null) {
-                          TermvectorNumberFull numberFull = computeTermvectorNumberFull(docSet, termDocId, termsEnum,
-                              lrc, postingsEnum, positionsData);
+                          TermvectorNumberFull numberFull = computeTermvectorNumberFull(intersection, termsEnum, positionsData);
                           if (numberFull.docNumber > 0) {
                             registerValue(term, termVector, numberFull, mutableKey);
                           }
@@ -3709,6 +5093,52 @@ public class CodecCollector {
     return false;
   }
 
+  /**
+   * Gets the automaton for the terms of a termvector within the maximum
+   * distances, created once for the termvector. Only the terms accepted by
+   * this automaton have to be validated with the distances.
+   *
+   * @param termVector
+   *          the term vector
+   * @return the compiled automaton, null if not available
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  private static CompiledAutomaton getDistanceAutomaton(ComponentTermVector termVector) throws IOException {
+    if (!termVector.distanceAutomatonCreated) {
+      termVector.distanceAutomatonCreated = true;
+      if (termVector.distances != null && !termVector.distances.isEmpty()) {
+        Automaton automaton = null;
+        for (SubComponentDistance item : termVector.distances) {
+          if (item.maximum != null) {
+            Automaton itemAutomaton = item.getDistance().createMaximumAutomaton();
+            if (itemAutomaton != null) {
+              automaton = automaton == null ? itemAutomaton : Operations.intersection(automaton, itemAutomaton);
+            }
+          }
+        }
+        if (automaton != null) {
+          RegExp re;
+          if ((termVector.regexp == null) || (termVector.regexp.isEmpty())) {
+            re = new RegExp(termVector.prefix + MtasToken.DELIMITER + ".*");
+          } else {
+            re = new RegExp(termVector.prefix + MtasToken.DELIMITER + termVector.regexp + "\u0000*");
+          }
+          try {
+            CompiledAutomaton compiledAutomaton = new CompiledAutomaton(
+                Operations.intersection(automaton, re.toAutomaton()));
+            if (compiledAutomaton.type.equals(CompiledAutomaton.AUTOMATON_TYPE.NORMAL)) {
+              termVector.distanceAutomaton = compiledAutomaton;
+            }
+          } catch (TooComplexToDeterminizeException e) {
+            log.debug(e);
+          }
+        }
+      }
+    }
+    return termVector.distanceAutomaton;
+  }
+
   /**
    * Validate term with distance.
    *
@@ -3748,6 +5178,26 @@ public class CodecCollector {
     }
   }
 
+  /**
+   * Checks if a termvector may need a second round: only sorted or bounded
+   * registrations over segments are checked for missing keys.
+   *
+   * @param termVector
+   *          the term vector
+   * @return true, if a second round may be needed
+   */
+  private static boolean mayNeedSecondRoundTermvector(ComponentTermVector termVector) {
+    if (!termVector.full && termVector.list == null && termVector.number > 0) {
+      String segmentRegistration = termVector.subComponentFunction.dataCollector.segmentRegistration;
+      return segmentRegistration != null && (segmentRegistration.equals(MtasDataCollector.SEGMENT_SORT_ASC)
+          || segmentRegistration.equals(MtasDataCollector.SEGMENT_SORT_DESC)
+          || segmentRegistration.equals(MtasDataCollector.SEGMENT_BOUNDARY_ASC)
+          || segmentRegistration.equals(MtasDataCollector.SEGMENT_BOUNDARY_DESC));
+    } else {
+      return false;
+    }
+  }
+
   /**
    * Need second round termvector.
    *
@@ -3760,32 +5210,132 @@ public class CodecCollector {
   private static boolean needSecondRoundTermvector(List<ComponentTermVector> termVectorList) throws IOException {
     boolean needSecondRound = false;
     for (ComponentTermVector termVector : termVectorList) {
-      if (!termVector.full && termVector.list == null) {
-        boolean doCheck;
-        doCheck = termVector.subComponentFunction.dataCollector.segmentRegistration != null
-            && (termVector.subComponentFunction.dataCollector.segmentRegistration
-                .equals(MtasDataCollector.SEGMENT_SORT_ASC)
-                || termVector.subComponentFunction.dataCollector.segmentRegistration
-                    .equals(MtasDataCollector.SEGMENT_SORT_DESC))
-            && termVector.number > 0;
-        doCheck |= termVector.subComponentFunction.dataCollector.segmentRegistration != null
-            && (termVector.subComponentFunction.dataCollector.segmentRegistration
-                .equals(MtasDataCollector.SEGMENT_BOUNDARY_ASC)
-                || termVector.subComponentFunction.dataCollector.segmentRegistration
-                    .equals(MtasDataCollector.SEGMENT_BOUNDARY_DESC))
-            && termVector.number > 0;
-        if (doCheck) {
-          termVector.subComponentFunction.dataCollector.recomputeSegmentKeys();
-          if (!termVector.subComponentFunction.dataCollector.checkExistenceNecessaryKeys()) {
-            needSecondRound = true;
-          }
-          termVector.subComponentFunction.dataCollector.reduceToSegmentKeys();
+      if (mayNeedSecondRoundTermvector(termVector)) {
+        termVector.subComponentFunction.dataCollector.recomputeSegmentKeys();
+        if (!termVector.subComponentFunction.dataCollector.checkExistenceNecessaryKeys()) {
+          needSecondRound = true;
         }
+        termVector.subComponentFunction.dataCollector.reduceToSegmentKeys();
       }
     }
     return needSecondRound;
   }
 
+  /**
+   * The Class SegmentData.
+   *
+   * Data computed for a single segment, before it is added to the collectors.
+   */
+  private static class SegmentData {
+
+    /** The lrc. */
+    final LeafReaderContext lrc;
+
+    /** The t. */
+    final Terms t;
+
+    /** The mtas codec info. */
+    final CodecInfo mtasCodecInfo;
+
+    /** The field infos. */
+    final FieldInfos fieldInfos;
+
+    /** The doc set. */
+    final CodecDocSet docSet;
+
+    /** The doc list. */
+    final CodecDocSet docList;
+
+    /** The positions data. */
+    final CodecDocColumn positionsData;
+
+    /** The tokens data. */
+    final CodecDocColumn tokensData;
+
+    /** The spans number data. */
+    final Map<MtasSpanQuery, CodecDocColumn> spansNumberData;
+
+    /** The spans match data. */
+    final Map<MtasSpanQuery, CodecMatchStore> spansMatchData;
+
+    /** The facet data. */
+    final Map<String, SortedMap<String, int[]>> facetData;
+
+    /**
+     * The terms of full termvectors computed while collecting the segment,
+     * null if not computed.
+     */
+    Map<ComponentTermVector, TermvectorFullRange> termvectorRanges = null;
+
+    /**
+     * Instantiates a new segment data.
+     *
+     * @param lrc the lrc
+     * @param t the t
+     * @param mtasCodecInfo the mtas codec info
+     * @param fieldInfos the field infos
+     * @param docSet the doc set
+     * @param docList the doc list
+     * @param positionsData the positions data
+     * @param tokensData the tokens data
+     * @param spansNumberData the spans number data
+     * @param spansMatchData the spans match data
+     * @param facetData the facet data
+     */
+    SegmentData(LeafReaderContext lrc, Terms t, CodecInfo mtasCodecInfo, FieldInfos fieldInfos,
+        CodecDocSet docSet, CodecDocSet docList, CodecDocColumn positionsData,
+        CodecDocColumn tokensData, Map<MtasSpanQuery, CodecDocColumn> spansNumberData,
+        Map<MtasSpanQuery, CodecMatchStore> spansMatchData,
+        Map<String, SortedMap<String, int[]>> facetData) {
+      this.lrc = lrc;
+      this.t = t;
+      this.mtasCodecInfo = mtasCodecInfo;
+      this.fieldInfos = fieldInfos;
+      this.docSet = docSet;
+      this.docList = docList;
+      this.positionsData = positionsData;
+      this.tokensData = tokensData;
+      this.spansNumberData = spansNumberData;
+      this.spansMatchData = spansMatchData;
+      this.facetData = facetData;
+    }
+  }
+
+  /**
+   * The Class TermvectorSegmentState.
+   *
+   * State of a segment from the first termvector round, kept for the second
+   * round, so only the missing keys have to be seeked: the terms, the doc set
+   * with its intersection (and bitset), and the positions.
+   */
+  private static class TermvectorSegmentState {
+
+    /** The t. */
+    final Terms t;
+
+    /** The doc set. */
+    final CodecDocSet docSet;
+
+    /** The positions data, null if not computed. */
+    final CodecDocColumn positionsData;
+
+    /** The intersection. */
+    final CodecDocSetIntersection intersection;
+
+    /**
+     * Instantiates a new termvector segment state.
+     *
+     * @param segmentData
+     *          the segment data
+     */
+    TermvectorSegmentState(SegmentData segmentData) {
+      t = segmentData.t;
+      docSet = segmentData.docSet;
+      positionsData = segmentData.positionsData;
+      intersection = new CodecDocSetIntersection(docSet, segmentData.lrc);
+    }
+  }
+
   /**
    * The Class TermvectorNumberBasic.
    */
@@ -3833,6 +5383,214 @@ public class CodecCollector {
     }
   }
 
+  /**
+   * The Class TermvectorFullRange.
+   *
+   * The numbers for the accepted terms within a range of a full termvector, in
+   * term order, computed concurrently and registered afterwards.
+   */
+  private static class TermvectorFullRange {
+
+    /** The keys. */
+    private final List<String> keys;
+
+    /** The basic numbers, null if full numbers. */
+    private List<TermvectorNumberBasic> numbersBasic;
+
+    /** The full numbers, null if basic numbers. */
+    private List<TermvectorNumberFull> numbersFull;
+
+    /**
+     * Instantiates a new termvector full range.
+     */
+    TermvectorFullRange() {
+      keys = new ArrayList<>();
+      numbersBasic = null;
+      numbersFull = null;
+    }
+
+    /**
+     * Adds the basic numbers for a term.
+     *
+     * @param key
+     *          the key
+     * @param numberBasic
+     *          the number basic
+     */
+    void add(String key, TermvectorNumberBasic numberBasic) {
+      if (numbersBasic == null) {
+        numbersBasic = new ArrayList<>();
+      }
+      keys.add(key);
+      numbersBasic.add(numberBasic);
+    }
+
+    /**
+     * Adds the full numbers for a term.
+     *
+     * @param key
+     *          the key
+     * @param numberFull
+     *          the number full
+     */
+    void add(String key, TermvectorNumberFull numberFull) {
+      if (numbersFull == null) {
+        numbersFull = new ArrayList<>();
+      }
+      keys.add(key);
+      numbersFull.add(numberFull);
+    }
+
+    /**
+     * Register the terms of the range.
+     *
+     * @param termVector
+     *          the term vector
+     * @throws IOException
+     *           Signals that an I/O exception has occurred.
+     */
+    void register(ComponentTermVector termVector) throws IOException {
+      for (int i = 0; i < keys.size(); i++) {
+        if (numbersBasic != null) {
+          registerTermvectorFull(termVector, keys.get(i), numbersBasic.get(i));
+        } else {
+          registerTermvectorFull(termVector, keys.get(i), numbersFull.get(i));
+        }
+      }
+    }
+  }
+
+  /**
+   * The Class TermvectorDocTerms.
+   *
+   * Terms with their numbers for a set of documents, collected from the
+   * forward index and iterated in term order, as an alternative for a terms
+   * enum with postings.
+   */
+  private static class TermvectorDocTerms {
+
+    /** The counter. */
+    private final CodecTermRefCounter counter;
+
+    /** The indexes of the terms in the counter, in term order. */
+    private final int[] order;
+
+    /** The terms, in term order. */
+    private final BytesRef[] terms;
+
+    /** The position. */
+    private int position;
+
+    /**
+     * Instantiates a new termvector doc terms.
+     *
+     * @param counter
+     *          the counter
+     * @param mtasCodecInfo
+     *          the mtas codec info
+     * @throws IOException
+     *           Signals that an I/O exception has occurred.
+     */
+    TermvectorDocTerms(CodecTermRefCounter counter, CodecInfo mtasCodecInfo) throws IOException {
+      this.counter = counter;
+      // terms are stored in term order
+      order = counter.sortedByRef();
+      terms = new BytesRef[order.length];
+      for (int i = 0; i < order.length; i++) {
+        terms[i] = new BytesRef(mtasCodecInfo.getTerm(counter.ref(order[i])));
+      }
+      position = -1;
+    }
+
+    /**
+     * Reset to the first term.
+     */
+    void reset() {
+      position = -1;
+    }
+
+    /**
+     * Next term accepted by the automaton.
+     *
+     * @param compiledAutomaton
+     *          the compiled automaton
+     * @return the term, null if no more terms
+     */
+    BytesRef next(CompiledAutomaton compiledAutomaton) {
+      while (++position < terms.length) {
+        BytesRef term = terms[position];
+        if (compiledAutomaton.runAutomaton.run(term.bytes, term.offset, term.length)) {
+          return term;
+        }
+      }
+      return null;
+    }
+
+    /**
+     * Number basic for the current term.
+     *
+     * @return the termvector number basic
+     */
+    TermvectorNumberBasic numberBasic() {
+      TermvectorNumberBasic result = new TermvectorNumberBasic();
+      result.docNumber = counter.docNumber(order[position]);
+      result.valueSum[0] = counter.sum(order[position]);
+      return result;
+    }
+
+    /**
+     * Number of docs with the current term.
+     *
+     * @return the int
+     */
+    int docNumber() {
+      return counter.docNumber(order[position]);
+    }
+
+    /**
+     * Index in the doc set of the n-th doc with the current term.
+     *
+     * @param n
+     *          the n
+     * @return the int
+     */
+    int docIndex(int n) {
+      return counter.docIndex(order[position], n);
+    }
+
+    /**
+     * Number of occurrences of the current term in the n-th doc with this term.
+     *
+     * @param n
+     *          the n
+     * @return the int
+     */
+    int docCount(int n) {
+      return counter.docCount(order[position], n);
+    }
+
+    /**
+     * Number full for the current term.
+     *
+     * @param docSet
+     *          the doc set
+     * @param positionsData
+     *          the positions data
+     * @return the termvector number full
+     */
+    TermvectorNumberFull numberFull(List<Integer> docSet, CodecDocColumn positionsData) {
+      int termIndex = order[position];
+      TermvectorNumberFull result = new TermvectorNumberFull(counter.docNumber(termIndex));
+      for (int i = 0; i < result.args.length; i++) {
+        result.args[i] = counter.docCount(termIndex, i);
+        result.positions[i] = (positionsData == null) ? 0
+            : positionsData.get(docSet.get(counter.docIndex(termIndex, i)));
+        result.docNumber++;
+      }
+      return result;
+    }
+  }
+
   private static class IntervalTreeItem implements Comparable<IntervalTreeItem> {
 
     private int max;
@@ -4035,6 +5793,112 @@ public class CodecCollector {
     }
   }
 
+  /**
+   * The Class TermvectorFullCandidates.
+   *
+   * Terms of a termvector for which the full values have to be computed,
+   * identified by their ordinal within the enumeration of the terms in a
+   * segment. Ordinals are added in increasing order, so a second enumeration
+   * of the same terms can find the candidates without copying or hashing the
+   * terms.
+   */
+  private static class TermvectorFullCandidates {
+
+    /** The ordinals. */
+    private int[] ordinals;
+
+    /** The sort values. */
+    private long[] sortValues;
+
+    /** The forces. */
+    private boolean[] forces;
+
+    /** The size. */
+    private int size;
+
+    /**
+     * Instantiates a new termvector full candidates.
+     */
+    TermvectorFullCandidates() {
+      ordinals = new int[16];
+      sortValues = new long[16];
+      forces = new boolean[16];
+      size = 0;
+    }
+
+    /**
+     * Adds a candidate.
+     *
+     * @param ordinal
+     *          the ordinal, larger than the ordinals already added
+     * @param registerStatus
+     *          the register status
+     */
+    void add(int ordinal, RegisterStatus registerStatus) {
+      assert size == 0 || ordinals[size - 1] < ordinal : "ordinals not increasing";
+      if (size == ordinals.length) {
+        // equal lengths, oversize depends on the element size
+        int newSize = ArrayUtil.oversize(size + 1, Long.BYTES);
+        ordinals = Arrays.copyOf(ordinals, newSize);
+        sortValues = Arrays.copyOf(sortValues, newSize);
+        forces = Arrays.copyOf(forces, newSize);
+      }
+      ordinals[size] = ordinal;
+      sortValues[size] = registerStatus.sortValue;
+      forces[size] = registerStatus.force;
+      size++;
+    }
+
+    /**
+     * Number of candidates.
+     *
+     * @return the int
+     */
+    int size() {
+      return size;
+    }
+
+    /**
+     * Ordinal of the n-th candidate.
+     *
+     * @param n
+     *          the n
+     * @return the int
+     */
+    int ordinal(int n) {
+      return ordinals[n];
+    }
+
+    /**
+     * Sort value of the n-th candidate.
+     *
+     * @param n
+     *          the n
+     * @return the long
+     */
+    long sortValue(int n) {
+      return sortValues[n];
+    }
+
+    /**
+     * Force of the n-th candidate.
+     *
+     * @param n
+     *          the n
+     * @return true, if forced
+     */
+    boolean force(int n) {
+      return forces[n];
+    }
+
+    /**
+     * Clear.
+     */
+    void clear() {
+      size = 0;
+    }
+  }
+
   /**
    * Register value.
    *
@@ -4326,27 +6190,21 @@ public class CodecCollector {
   /**
    * Compute termvector number basic.
    *
-   * @param docSet
-   *          the doc set
-   * @param termDocId
-   *          the term doc id
+   * @param intersection
+   *          the intersection
    * @param termsEnum
    *          the terms enum
    * @param r
    *          the r
-   * @param lrc
-   *          the lrc
-   * @param postingsEnum
-   *          the postings enum
    * @return the termvector number basic
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
-  private static TermvectorNumberBasic computeTermvectorNumberBasic(List<Integer> docSet, int termDocId,
-      TermsEnum termsEnum, LeafReader r, LeafReaderContext lrc, PostingsEnum postingsEnum) throws IOException {
+  private static TermvectorNumberBasic computeTermvectorNumberBasic(CodecDocSetIntersection intersection,
+      TermsEnum termsEnum, LeafReader r) throws IOException {
     TermvectorNumberBasic result = new TermvectorNumberBasic();
     boolean hasDeletedDocuments = (r.getLiveDocs() != null);
-    if ((docSet.size() == r.numDocs()) && !hasDeletedDocuments) {
+    if ((intersection.getDocSet().size() == r.numDocs()) && !hasDeletedDocuments) {
       try {
         return computeTermvectorNumberBasic(termsEnum, r);
       } catch (IOException e) {
@@ -4354,60 +6212,31 @@ public class CodecCollector {
         // problem
       }
     }
-    result.docNumber = 0;
-    result.valueSum[0] = 0;
-    int localTermDocId = termDocId;
-    Iterator<Integer> docIterator = docSet.iterator();
-    postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.FREQS);
-    int docId;
-    while (docIterator.hasNext()) {
-      docId = docIterator.next() - lrc.docBase;
-      if (docId >= localTermDocId
-          && ((docId == localTermDocId) || ((localTermDocId = postingsEnum.advance(docId)) == docId))) {
-        result.docNumber++;
-        result.valueSum[0] += postingsEnum.freq();
-      }
-      if (localTermDocId == DocIdSetIterator.NO_MORE_DOCS) {
-        break;
-      }
-    }
+    result.docNumber = intersection.intersect(termsEnum, true);
+    result.valueSum[0] = intersection.freqSum();
     return result;
   }
 
   /**
    * Compute termvector number full.
    *
-   * @param docSet
-   *          the doc set
-   * @param termDocId
-   *          the term doc id
+   * @param intersection
+   *          the intersection
    * @param termsEnum
    *          the terms enum
-   * @param lrc
-   *          the lrc
-   * @param postingsEnum
-   *          the postings enum
    * @param positionsData
    *          the positions data
    * @return the termvector number full
    * @throws IOException
    *           Signals that an I/O exception has occurred.
    */
-  private static TermvectorNumberFull computeTermvectorNumberFull(List<Integer> docSet, int termDocId,
-      TermsEnum termsEnum, LeafReaderContext lrc, PostingsEnum postingsEnum, Map<Integer, Integer> positionsData)
-      throws IOException {
-    TermvectorNumberFull result = new TermvectorNumberFull(docSet.size());
-    Iterator<Integer> docIterator = docSet.iterator();
-    int localTermDocId = termDocId;
-    postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.FREQS);
-    while (docIterator.hasNext()) {
-      int docId = docIterator.next() - lrc.docBase;
-      if (docId >= localTermDocId
-          && ((docId == localTermDocId) || ((localTermDocId = postingsEnum.advance(docId)) == docId))) {
-        result.args[result.docNumber] = postingsEnum.freq();
-        result.positions[result.docNumber] = (positionsData == null) ? 0 : positionsData.get(docId + lrc.docBase);
-        result.docNumber++;
-      }
+  private static TermvectorNumberFull computeTermvectorNumberFull(CodecDocSetIntersection intersection,
+      TermsEnum termsEnum, CodecDocColumn positionsData) throws IOException {
+    TermvectorNumberFull result = new TermvectorNumberFull(intersection.intersect(termsEnum, true));
+    for (int i = 0; i < result.args.length; i++) {
+      result.args[i] = intersection.freq(i);
+      result.positions[i] = (positionsData == null) ? 0 : positionsData.get(intersection.docId(i));
+      result.docNumber++;
     }
     return result;
   }
@@ -46,6 +46,7 @@ import mtas.parser.function.util.MtasFunctionParserFunctionDefault;
 import mtas.search.spans.util.MtasSpanQuery;
 import org.apache.lucene.spatial.prefix.PrefixTreeStrategy;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
 import org.locationtech.spatial4j.shape.Shape;
 import org.noggit.JSONParser;
 import org.noggit.ObjectBuilder;
@@ -393,6 +394,13 @@ public class CodecComponent {
     /** The stats list. */
     public Map<Integer, MtasDataCollector<?, ?>> statsList;
 
+    /**
+     * The doc cost factor: the term statistics are computed document at a time
+     * from the forward index if the number of objects in the documents times
+     * this factor is below the number of terms with the prefix.
+     */
+    public int docCostFactor = CodecCollector.DEFAULT_TERMVECTOR_DOC_COST_FACTOR;
+
     /**
      * Instantiates a new component document.
      *
@@ -682,6 +690,36 @@ public class CodecComponent {
     /** The Constant LIST_OUTPUT_HIT. */
     public static final String LIST_OUTPUT_HIT = "hit";
 
+    /** The Constant CURSOR_START, cursor before the first hit. */
+    public static final String CURSOR_START = "*";
+
+    /** The Constant CURSOR_SEPARATOR. */
+    private static final String CURSOR_SEPARATOR = ":";
+
+    /** The cursor, null if not used. */
+    public String cursor;
+
+    /** The shard of the cursor. */
+    public int cursorShard;
+
+    /** The version of the index of the cursor, -1 if before the first hit. */
+    public long cursorVersion;
+
+    /** The doc id of the hit at the cursor, -1 if before the first hit. */
+    public int cursorDocId;
+
+    /** The position of the hit at the cursor within its document. */
+    public int cursorDocPosition;
+
+    /** The number of hits within the shard up to and including the cursor. */
+    public int cursorPosition;
+
+    /** The next cursor, after the last hit in the list. */
+    public String nextCursor;
+
+    /** The version of the index the hits are listed from, -1 if unknown. */
+    public long indexVersion;
+
     /**
      * Instantiates a new component list.
      *
@@ -723,6 +761,56 @@ public class CodecComponent {
     public ComponentList(MtasSpanQuery spanQuery, String field, String queryValue, String queryType, String queryPrefix,
         Map<String, String[]> queryVariables, String queryIgnore, String queryMaximumIgnoreLength, String key,
         String fieldList, String prefix, int start, int number, int left, int right, String output) throws IOException {
+      this(spanQuery, field, queryValue, queryType, queryPrefix, queryVariables, queryIgnore, queryMaximumIgnoreLength,
+          key, fieldList, prefix, start, number, left, right, output, null);
+    }
+
+    /**
+     * Instantiates a new component list, continuing after a cursor. With a
+     * cursor, hits are listed from the hit after the cursor, and the start is
+     * ignored.
+     *
+     * @param spanQuery
+     *          the span query
+     * @param field
+     *          the field
+     * @param queryValue
+     *          the query value
+     * @param queryType
+     *          the query type
+     * @param queryPrefix
+     *          the query prefix
+     * @param queryVariables
+     *          the query variables
+     * @param queryIgnore
+     *          the query ignore
+     * @param queryMaximumIgnoreLength
+     *          the query maximum ignore length
+     * @param key
+     *          the key
+     * @param fieldList
+     *          the field list
+     * @param prefix
+     *          the prefix
+     * @param start
+     *          the start
+     * @param number
+     *          the number
+     * @param left
+     *          the left
+     * @param right
+     *          the right
+     * @param output
+     *          the output
+     * @param cursor
+     *          the cursor, null if not used
+     * @throws IOException
+     *           Signals that an I/O exception has occurred.
+     */
+    public ComponentList(MtasSpanQuery spanQuery, String field, String queryValue, String queryType, String queryPrefix,
+        Map<String, String[]> queryVariables, String queryIgnore, String queryMaximumIgnoreLength, String key,
+        String fieldList, String prefix, int start, int number, int left, int right, String output, String cursor)
+        throws IOException {
       this.spanQuery = spanQuery;
       this.field = field;
       this.queryValue = queryValue;
@@ -777,6 +865,104 @@ public class CodecComponent {
           && !this.output.equals(ComponentList.LIST_OUTPUT_TOKEN)) {
         throw new IOException("unrecognized output '" + this.output + "'");
       }
+      // check cursor
+      this.cursor = cursor;
+      nextCursor = cursor;
+      cursorShard = 0;
+      cursorVersion = -1;
+      cursorDocId = -1;
+      cursorDocPosition = -1;
+      cursorPosition = 0;
+      indexVersion = -1;
+      if (cursor != null) {
+        this.start = 0;
+        if (!cursor.equals(CURSOR_START)) {
+          String[] parts = cursor.split(Pattern.quote(CURSOR_SEPARATOR));
+          try {
+            if (parts.length != 5) {
+              throw new NumberFormatException();
+            }
+            cursorShard = Integer.parseInt(parts[0]);
+            cursorVersion = Long.parseLong(parts[1]);
+            cursorDocId = Integer.parseInt(parts[2]);
+            cursorDocPosition = Integer.parseInt(parts[3]);
+            cursorPosition = Integer.parseInt(parts[4]);
+          } catch (NumberFormatException e) {
+            throw new IOException("invalid cursor '" + cursor + "'");
+          }
+          if (cursorShard < 0 || cursorVersion < -1 || cursorDocId < 0 || cursorDocPosition < 0
+              || cursorPosition < 1) {
+            throw new IOException("invalid cursor '" + cursor + "'");
+          }
+        }
+      }
+    }
+
+    /**
+     * Sets the version of the index the hits are listed from. Doc ids in a
+     * cursor are only valid for the version of the index the cursor was created
+     * with, so a cursor is rejected after the index changed, or if another
+     * replica with a different version handles the request.
+     *
+     * @param version
+     *          the version, -1 if unknown
+     * @throws IOException
+     *           Signals that the cursor is no longer valid.
+     */
+    public void setIndexVersion(long version) throws IOException {
+      if (cursor != null && cursorDocId >= 0 && (version < 0 || version != cursorVersion)) {
+        throw new IOException("cursor '" + cursor + "' expired, index version " + version + " instead of "
+            + cursorVersion);
+      }
+      indexVersion = version;
+    }
+
+    /**
+     * Checks if a hit is after the cursor.
+     *
+     * @param docId
+     *          the doc id
+     * @param docPosition
+     *          the position of the hit within the document
+     * @return true, if no cursor is used or the hit is after the cursor
+     */
+    public boolean afterCursor(int docId, int docPosition) {
+      return cursor == null || docId > cursorDocId || (docId == cursorDocId && docPosition > cursorDocPosition);
+    }
+
+    /**
+     * Update the next cursor for a listed hit, if a cursor is used.
+     *
+     * @param docId
+     *          the doc id
+     * @param docPosition
+     *          the position of the hit within the document
+     */
+    public void updateNextCursor(int docId, int docPosition) {
+      if (cursor != null) {
+        nextCursor = createCursor(cursorShard, indexVersion, docId, docPosition,
+            cursorPosition + hits.size() + tokens.size());
+      }
+    }
+
+    /**
+     * Creates a cursor.
+     *
+     * @param shard
+     *          the shard
+     * @param version
+     *          the version of the index of the shard
+     * @param docId
+     *          the doc id of the hit
+     * @param docPosition
+     *          the position of the hit within the document
+     * @param position
+     *          the number of hits within the shard up to and including the hit
+     * @return the cursor
+     */
+    public static String createCursor(int shard, long version, int docId, int docPosition, int position) {
+      return shard + CURSOR_SEPARATOR + version + CURSOR_SEPARATOR + docId + CURSOR_SEPARATOR + docPosition
+          + CURSOR_SEPARATOR + position;
     }
   }
 
@@ -1100,6 +1286,9 @@ public class CodecComponent {
    */
   public static class ComponentGroup implements BasicComponent {
 
+    /** The Constant DEFAULT_CAPACITY. */
+    public static final int DEFAULT_CAPACITY = 10000;
+
     /** The span query. */
     public MtasSpanQuery spanQuery;
 
@@ -1130,6 +1319,18 @@ public class CodecComponent {
     /** The data collector. */
     public MtasDataCollector<?, ?> dataCollector;
 
+    /** The approximate. */
+    public boolean approximate;
+
+    /** The capacity, the maximum number of groups kept in approximate mode. */
+    public int capacity;
+
+    /** The approximation error, an upper bound for the undercount of a group. */
+    public long approximationError;
+
+    /** The approximation, combining the segments in approximate mode. */
+    CodecFrequentItems<String> approximation;
+
     /** The prefixes. */
     ArrayList<String> prefixes;
 
@@ -1200,6 +1401,64 @@ public class CodecComponent {
         String[] groupingHitLeftPosition, String[] groupingHitLeftPrefixes, String[] groupingHitRightPosition,
         String[] groupingHitRightPrefixes, String[] groupingLeftPosition, String[] groupingLeftPrefixes,
         String[] groupingRightPosition, String[] groupingRightPrefixes) throws IOException {
+      this(spanQuery, key, number, start, groupingHitInsidePrefixes, groupingHitInsideLeftPosition,
+          groupingHitInsideLeftPrefixes, groupingHitInsideRightPosition, groupingHitInsideRightPrefixes,
+          groupingHitLeftPosition, groupingHitLeftPrefixes, groupingHitRightPosition, groupingHitRightPrefixes,
+          groupingLeftPosition, groupingLeftPrefixes, groupingRightPosition, groupingRightPrefixes, false, null);
+    }
+
+    /**
+     * Instantiates a new component group, optionally approximating the groups
+     * with a bounded number of kept groups.
+     *
+     * @param spanQuery
+     *          the span query
+     * @param key
+     *          the key
+     * @param number
+     *          the number
+     * @param start
+     *          the start
+     * @param groupingHitInsidePrefixes
+     *          the grouping hit inside prefixes
+     * @param groupingHitInsideLeftPosition
+     *          the grouping hit inside left position
+     * @param groupingHitInsideLeftPrefixes
+     *          the grouping hit inside left prefixes
+     * @param groupingHitInsideRightPosition
+     *          the grouping hit inside right position
+     * @param groupingHitInsideRightPrefixes
+     *          the grouping hit inside right prefixes
+     * @param groupingHitLeftPosition
+     *          the grouping hit left position
+     * @param groupingHitLeftPrefixes
+     *          the grouping hit left prefixes
+     * @param groupingHitRightPosition
+     *          the grouping hit right position
+     * @param groupingHitRightPrefixes
+     *          the grouping hit right prefixes
+     * @param groupingLeftPosition
+     *          the grouping left position
+     * @param groupingLeftPrefixes
+     *          the grouping left prefixes
+     * @param groupingRightPosition
+     *          the grouping right position
+     * @param groupingRightPrefixes
+     *          the grouping right prefixes
+     * @param approximate
+     *          the approximate
+     * @param capacity
+     *          the capacity, null for the default
+     * @throws IOException
+     *           Signals that an I/O exception has occurred.
+     */
+    public ComponentGroup(MtasSpanQuery spanQuery, String key, int number, int start, String groupingHitInsidePrefixes,
+        String[] groupingHitInsideLeftPosition, String[] groupingHitInsideLeftPrefixes,
+        String[] groupingHitInsideRightPosition, String[] groupingHitInsideRightPrefixes,
+        String[] groupingHitLeftPosition, String[] groupingHitLeftPrefixes, String[] groupingHitRightPosition,
+        String[] groupingHitRightPrefixes, String[] groupingLeftPosition, String[] groupingLeftPrefixes,
+        String[] groupingRightPosition, String[] groupingRightPrefixes, boolean approximate, Integer capacity)
+        throws IOException {
       this.spanQuery = spanQuery;
       this.key = key;
       this.dataType = CodecUtil.DATA_TYPE_LONG;
@@ -1232,6 +1491,17 @@ public class CodecComponent {
       left = createPositionedPrefixes(tmpPrefixes, groupingLeftPosition, groupingLeftPrefixes);
       right = createPositionedPrefixes(tmpPrefixes, groupingRightPosition, groupingRightPrefixes);
       prefixes = new ArrayList<>(tmpPrefixes);
+      // approximation
+      this.approximate = approximate;
+      if (capacity == null) {
+        this.capacity = Math.max(DEFAULT_CAPACITY, start + number);
+      } else if (capacity < start + number) {
+        throw new IOException("capacity " + capacity + " below start + number");
+      } else {
+        this.capacity = capacity;
+      }
+      approximationError = 0;
+      approximation = null;
       // datacollector
       dataCollector = DataCollector.getCollector(DataCollector.COLLECTOR_TYPE_LIST, this.dataType, this.statsType,
           this.statsItems, this.sortType, this.sortDirection, this.start, this.number, null, null);
@@ -1675,6 +1945,26 @@ public class CodecComponent {
     /** The sort direction. */
     public String sortDirection;
 
+    /** The automaton for the terms within the maximum distances. */
+    public CompiledAutomaton distanceAutomaton = null;
+
+    /** The distance automaton created. */
+    public boolean distanceAutomatonCreated = false;
+
+    /**
+     * The doc cost factor: the termvector is computed document at a time from
+     * the forward index if the number of objects in the documents times this
+     * factor is below the number of terms with the prefix.
+     */
+    public int docCostFactor = CodecCollector.DEFAULT_TERMVECTOR_DOC_COST_FACTOR;
+
+    /**
+     * The number of ranges of terms a full termvector is split into within a
+     * segment, to be computed concurrently if an executor is provided; 0 or 1
+     * to compute serially.
+     */
+    public int partitions = 0;
+
     /**
      * Instantiates a new component term vector.
      *
@@ -1919,6 +2209,12 @@ public class CodecComponent {
     /** The get number of segments. */
     public boolean getNumberOfSegments;
 
+    /** The get match cache. */
+    public boolean getMatchCache;
+
+    /** The match cache. */
+    public Map<String, Object> matchCache;
+
     /**
      * Instantiates a new component status.
      *
@@ -1943,6 +2239,8 @@ public class CodecComponent {
       handler = null;
       numberOfDocuments = null;
       numberOfSegments = null;
+      getMatchCache = false;
+      matchCache = null;
     }
 
   }
@@ -2960,6 +3258,15 @@ public class CodecComponent {
     /** The key right. */
     private String keyRight;
 
+    /** The term refs hit, aligned with the data hit. */
+    private long[][] refsHit;
+
+    /** The term refs left, aligned with the data left. */
+    private long[][] refsLeft;
+
+    /** The term refs right, aligned with the data right. */
+    private long[][] refsRight;
+
     /** The data hit. */
     public List<String>[] dataHit;
 
@@ -2987,6 +3294,9 @@ public class CodecComponent {
     /** The unknown right. */
     public Set<String>[] unknownRight;
 
+    /** The Constant EMPTY_REFS. */
+    private static final long[] EMPTY_REFS = new long[0];
+
     /** The Constant KEY_START. */
     public static final String KEY_START = MtasToken.DELIMITER + "grouphit" + MtasToken.DELIMITER;
 
@@ -3042,50 +3352,53 @@ public class CodecComponent {
       int rightRangeLength = Math.max(0, 1 + rightRangeEnd - rightRangeStart);
       // create initial arrays
       if (leftRangeLength > 0) {
-        keyLeft = "";
         dataLeft = (ArrayList<String>[]) new ArrayList[leftRangeLength];
+        refsLeft = new long[leftRangeLength][];
         missingLeft = (HashSet<String>[]) new HashSet[leftRangeLength];
         unknownLeft = (HashSet<String>[]) new HashSet[leftRangeLength];
         for (int p = 0; p < leftRangeLength; p++) {
           dataLeft[p] = new ArrayList<>();
+          refsLeft[p] = EMPTY_REFS;
           missingLeft[p] = new HashSet<>();
           unknownLeft[p] = new HashSet<>();
         }
       } else {
-        keyLeft = null;
         dataLeft = null;
+        refsLeft = null;
         missingLeft = null;
         unknownLeft = null;
       }
       if (hitLength > 0) {
-        keyHit = "";
         dataHit = (ArrayList<String>[]) new ArrayList[hitLength];
+        refsHit = new long[hitLength][];
         missingHit = (HashSet<String>[]) new HashSet[hitLength];
         unknownHit = (HashSet<String>[]) new HashSet[hitLength];
         for (int p = 0; p < hitLength; p++) {
           dataHit[p] = new ArrayList<>();
+          refsHit[p] = EMPTY_REFS;
           missingHit[p] = new HashSet<>();
           unknownHit[p] = new HashSet<>();
         }
       } else {
-        keyHit = null;
         dataHit = null;
+        refsHit = null;
         missingHit = null;
         unknownHit = null;
       }
       if (rightRangeLength > 0) {
-        keyRight = "";
         dataRight = (ArrayList<String>[]) new ArrayList[rightRangeLength];
+        refsRight = new long[rightRangeLength][];
         missingRight = (HashSet<String>[]) new HashSet[rightRangeLength];
         unknownRight = (HashSet<String>[]) new HashSet[rightRangeLength];
         for (int p = 0; p < rightRangeLength; p++) {
           dataRight[p] = new ArrayList<>();
+          refsRight[p] = EMPTY_REFS;
           missingRight[p] = new HashSet<>();
           unknownRight[p] = new HashSet<>();
         }
       } else {
-        keyRight = null;
         dataRight = null;
+        refsRight = null;
         missingRight = null;
         unknownRight = null;
       }
@@ -3159,7 +3472,7 @@ public class CodecComponent {
         // inside hit
         if (group.hitInside != null && hit.idData != null && group.hitInside.contains(hit.idData)) {
           for (int p = Math.max(hitStart, hit.startPosition); p <= Math.min(hitEnd, hit.endPosition); p++) {
-            dataHit[p - hitStart].add(hit.refData);
+            addData(dataHit, refsHit, p - hitStart, hit);
             missingHit[p - hitStart].remove(MtasToken.getPrefixFromValue(hit.refData));
           }
         } else if ((group.hitInsideLeft != null || group.hitLeft != null || group.hitInsideRight != null
@@ -3170,20 +3483,20 @@ public class CodecComponent {
             if (group.hitInsideLeft != null && pHitLeft <= (group.hitInsideLeft.length - 1)
                 && group.hitInsideLeft[pHitLeft] != null && group.hitInsideLeft[pHitLeft].contains(hit.idData)) {
               // keyHit += hit.refData;
-              dataHit[p - hitStart].add(hit.refData);
+              addData(dataHit, refsHit, p - hitStart, hit);
               missingHit[p - hitStart].remove(MtasToken.getPrefixFromValue(hit.refData));
             } else if (group.hitLeft != null && pHitLeft <= (group.hitLeft.length - 1)
                 && group.hitLeft[pHitLeft] != null && group.hitLeft[pHitLeft].contains(hit.idData)) {
               // keyHit += hit.refData;
-              dataHit[p - hitStart].add(hit.refData);
+              addData(dataHit, refsHit, p - hitStart, hit);
               missingHit[p - hitStart].remove(MtasToken.getPrefixFromValue(hit.refData));
             } else if (group.hitInsideRight != null && pHitRight <= (group.hitInsideRight.length - 1)
                 && group.hitInsideRight[pHitRight] != null && group.hitInsideRight[pHitRight].contains(hit.idData)) {
-              dataHit[p - hitStart].add(hit.refData);
+              addData(dataHit, refsHit, p - hitStart, hit);
               missingHit[p - hitStart].remove(MtasToken.getPrefixFromValue(hit.refData));
             } else if (group.hitRight != null && pHitRight <= (group.hitRight.length - 1)
                 && group.hitRight[pHitRight] != null && group.hitRight[pHitRight].contains(hit.idData)) {
-              dataHit[p - hitStart].add(hit.refData);
+              addData(dataHit, refsHit, p - hitStart, hit);
               missingHit[p - hitStart].remove(MtasToken.getPrefixFromValue(hit.refData));
             }
           }
@@ -3197,11 +3510,11 @@ public class CodecComponent {
               int pHitRight = hitEnd - p;
               if (group.left != null && pLeft <= (group.left.length - 1) && group.left[pLeft] != null
                   && group.left[pLeft].contains(hit.idData)) {
-                dataLeft[hitStart - 1 - p].add(hit.refData);
+                addData(dataLeft, refsLeft, hitStart - 1 - p, hit);
                 missingLeft[hitStart - 1 - p].remove(MtasToken.getPrefixFromValue(hit.refData));
               } else if (group.hitRight != null && pHitRight <= (group.hitRight.length - 1)
                   && group.hitRight[pHitRight] != null && group.hitRight[pHitRight].contains(hit.idData)) {
-                dataLeft[hitStart - 1 - p].add(hit.refData);
+                addData(dataLeft, refsLeft, hitStart - 1 - p, hit);
                 missingLeft[hitStart - 1 - p].remove(MtasToken.getPrefixFromValue(hit.refData));
               }
             }
@@ -3216,11 +3529,11 @@ public class CodecComponent {
               int pHitLeft = p - hitStart;
               if (group.right != null && pRight <= (group.right.length - 1) && group.right[pRight] != null
                   && group.right[pRight].contains(hit.idData)) {
-                dataRight[p - rightRangeStart].add(hit.refData);
+                addData(dataRight, refsRight, p - rightRangeStart, hit);
                 missingRight[p - rightRangeStart].remove(MtasToken.getPrefixFromValue(hit.refData));
               } else if (group.hitLeft != null && pHitLeft <= (group.hitLeft.length - 1)
                   && group.hitLeft[pHitLeft] != null && group.hitLeft[pHitLeft].contains(hit.idData)) {
-                dataRight[p - rightRangeStart].add(hit.refData);
+                addData(dataRight, refsRight, p - rightRangeStart, hit);
                 missingRight[p - rightRangeStart].remove(MtasToken.getPrefixFromValue(hit.refData));
               }
             }
@@ -3255,33 +3568,57 @@ public class CodecComponent {
           }
         }
       }
-      // construct keys
-      keyLeft = dataToString(dataLeft, missingLeft, true);
-      keyHit = dataToString(dataHit, missingHit, false);
-      keyRight = dataToString(dataRight, missingRight, false);
-      key = KEY_START;
-      if (keyLeft != null) {
-        key += keyLeft;
-        hashLeft = keyLeft.hashCode();
-      } else {
-        hashLeft = 1;
-      }
-      key += "|";
-      if (keyHit != null) {
-        key += keyHit;
-        hashHit = keyHit.hashCode();
-      } else {
-        hashHit = 1;
+      // compute hash, the key is only constructed when needed
+      key = null;
+      hashLeft = refsHashCode(dataLeft, refsLeft);
+      hashHit = refsHashCode(dataHit, refsHit);
+      hashRight = refsHashCode(dataRight, refsRight);
+      hash = hashHit * (hashLeft ^ 3) * (hashRight ^ 5);
+    }
+
+    /**
+     * Adds the term of a hit to the data, and its term ref to the refs.
+     *
+     * @param data
+     *          the data
+     * @param refs
+     *          the refs
+     * @param p
+     *          the position in the data
+     * @param hit
+     *          the hit
+     */
+    private static void addData(List<String>[] data, long[][] refs, int p, MtasTreeHit<String> hit) {
+      int size = data[p].size();
+      data[p].add(hit.refData);
+      if (refs[p].length == size) {
+        refs[p] = Arrays.copyOf(refs[p], Math.max(4, 2 * size));
       }
-      key += "|";
-      if (keyRight != null) {
-        key += keyRight;
-        hashRight = keyRight.hashCode();
+      refs[p][size] = hit.additionalRef;
+    }
+
+    /**
+     * Hash code of the term refs.
+     *
+     * @param data
+     *          the data
+     * @param refs
+     *          the refs
+     * @return the int
+     */
+    private static int refsHashCode(List<String>[] data, long[][] refs) {
+      if (data == null) {
+        return 1;
       } else {
-        hashRight = 1;
+        int result = 1;
+        for (int i = 0; i < data.length; i++) {
+          result = 31 * result + data[i].size();
+          for (int j = 0; j < data[i].size(); j++) {
+            result = 31 * result + Long.hashCode(refs[i][j]);
+          }
+        }
+        return result;
       }
-      // compute hash
-      hash = hashHit * (hashLeft ^ 3) * (hashRight ^ 5);
     }
 
     /*
@@ -3295,17 +3632,20 @@ public class CodecComponent {
     }
 
     /**
-     * Data equals.
+     * Data equals, comparing the term refs. Term refs identify terms within a
+     * segment, and group hits are only compared within a segment.
      *
      * @param d1
      *          the d 1
+     * @param r1
+     *          the refs 1
      * @param d2
      *          the d 2
+     * @param r2
+     *          the refs 2
      * @return true, if successful
      */
-    private boolean dataEquals(List<String>[] d1, List<String>[] d2) {
-      List<String> a1;
-      List<String> a2;
+    private static boolean dataEquals(List<String>[] d1, long[][] r1, List<String>[] d2, long[][] r2) {
       if (d1 == null && d2 == null) {
         return true;
       } else if (d1 == null || d2 == null) {
@@ -3313,11 +3653,10 @@ public class CodecComponent {
       } else {
         if (d1.length == d2.length) {
           for (int i = 0; i < d1.length; i++) {
-            a1 = d1[i];
-            a2 = d2[i];
-            if (a1 != null && a2 != null && a1.size() == a2.size()) {
-              for (int j = 0; j < a1.size(); j++) {
-                if (!a1.get(j).equals(a2.get(j))) {
+            int size = d1[i].size();
+            if (size == d2[i].size()) {
+              for (int j = 0; j < size; j++) {
+                if (r1[i][j] != r2[i][j]) {
                   return false;
                 }
               }
@@ -3348,11 +3687,11 @@ public class CodecComponent {
       GroupHit other = (GroupHit) obj;
       if (hashCode() != other.hashCode())
         return false;
-      if (!dataEquals(dataHit, other.dataHit))
+      if (!dataEquals(dataHit, refsHit, other.dataHit, other.refsHit))
         return false;
-      if (!dataEquals(dataLeft, other.dataLeft))
+      if (!dataEquals(dataLeft, refsLeft, other.dataLeft, other.refsLeft))
         return false;
-      if (!dataEquals(dataRight, other.dataRight))
+      if (!dataEquals(dataRight, refsRight, other.dataRight, other.refsRight))
         return false;
       return true;
     }
@@ -3367,11 +3706,8 @@ public class CodecComponent {
      * @param reverse
      *          the reverse
      * @return the string
-     * @throws UnsupportedEncodingException
-     *           the unsupported encoding exception
      */
-    private String dataToString(List<String>[] data, Set<String>[] missing, boolean reverse)
-        throws UnsupportedEncodingException {
+    private String dataToString(List<String>[] data, Set<String>[] missing, boolean reverse) {
       StringBuilder text = null;
       Encoder encoder = Base64.getEncoder();
       String prefix;
@@ -3424,6 +3760,24 @@ public class CodecComponent {
      * @see java.lang.Object#toString()
      */
     public String toString() {
+      if (key == null) {
+        keyLeft = dataToString(dataLeft, missingLeft, true);
+        keyHit = dataToString(dataHit, missingHit, false);
+        keyRight = dataToString(dataRight, missingRight, false);
+        StringBuilder newKey = new StringBuilder(KEY_START);
+        if (keyLeft != null) {
+          newKey.append(keyLeft);
+        }
+        newKey.append("|");
+        if (keyHit != null) {
+          newKey.append(keyHit);
+        }
+        newKey.append("|");
+        if (keyRight != null) {
+          newKey.append(keyRight);
+        }
+        key = newKey.toString();
+      }
       return key;
     }
 
@@ -0,0 +1,104 @@
+package mtas.codec.util;
+
+/**
+ * The Class CodecDocColumn.
+ *
+ * Column of int values for the documents of a segment, aligned with a
+ * {@link CodecDocSet}: the value for the n-th document of the set is stored at
+ * index n. Documents without a value, or not in the set, have value 0. Loops
+ * over the set of the column read the values without lookup.
+ */
+public class CodecDocColumn {
+
+  /** The doc set. */
+  private final CodecDocSet docSet;
+
+  /** The values. */
+  private final int[] values;
+
+  /**
+   * Instantiates a new codec doc column.
+   *
+   * @param docSet the doc set
+   */
+  public CodecDocColumn(CodecDocSet docSet) {
+    this.docSet = docSet;
+    values = new int[docSet.size()];
+  }
+
+  /**
+   * Gets the doc set.
+   *
+   * @return the doc set
+   */
+  public CodecDocSet getDocSet() {
+    return docSet;
+  }
+
+  /**
+   * Size.
+   *
+   * @return the int
+   */
+  public int size() {
+    return values.length;
+  }
+
+  /**
+   * Value at an index of the doc set of the column.
+   *
+   * @param index the index
+   * @return the int
+   */
+  public int valueAt(int index) {
+    return values[index];
+  }
+
+  /**
+   * Sets the value at an index of the doc set of the column.
+   *
+   * @param index the index
+   * @param value the value
+   */
+  public void setValueAt(int index, int value) {
+    values[index] = value;
+  }
+
+  /**
+   * Value for a doc id.
+   *
+   * @param docId the doc id
+   * @return the value, 0 if the doc is not in the set
+   */
+  public int get(int docId) {
+    int index = docSet.indexOfDoc(docId);
+    return index < 0 ? 0 : values[index];
+  }
+
+  /**
+   * Value for the n-th document of a doc set, without lookup if that set is
+   * the set of the column.
+   *
+   * @param otherDocSet the other doc set
+   * @param index the index in the other doc set
+   * @return the value
+   */
+  public int get(CodecDocSet otherDocSet, int index) {
+    return (otherDocSet == docSet) ? values[index]
+        : get(otherDocSet.getInt(index));
+  }
+
+  /**
+   * Sets the value for a doc id, ignored if the doc is not in the set.
+   *
+   * @param docId the doc id
+   * @param value the value
+   */
+  public void set(int docId, int value) {
+    int index = docSet.indexOfDoc(docId);
+    if (index >= 0) {
+      values[index] = value;
+    }
+  }
+
+}
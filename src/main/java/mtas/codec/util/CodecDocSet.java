@@ -0,0 +1,313 @@
+package mtas.codec.util;
+
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.Bits;
+
+/**
+ * The Class CodecDocSet.
+ *
+ * Immutable sorted set of document ids, stored as a slice of a primitive int
+ * array. The set is a read-only {@link List} of increasing document ids, so it
+ * can be used wherever the collector expects a docSet or docList, while the
+ * subset for a segment is a view found by binary search instead of a filtered
+ * copy of the whole list.
+ */
+public class CodecDocSet extends AbstractList<Integer>
+    implements RandomAccess {
+
+  /** The Constant EMPTY. */
+  private static final int[] EMPTY = new int[0];
+
+  /** The doc ids. */
+  private final int[] docIds;
+
+  /** The offset of the first doc id. */
+  private final int from;
+
+  /** The offset after the last doc id. */
+  private final int to;
+
+  /**
+   * Instantiates a new codec doc set.
+   *
+   * @param docIds the sorted and unique doc ids
+   * @param from the offset of the first doc id
+   * @param to the offset after the last doc id
+   */
+  private CodecDocSet(int[] docIds, int from, int to) {
+    this.docIds = docIds;
+    this.from = from;
+    this.to = to;
+  }
+
+  /**
+   * Create a doc set from the doc ids in the first positions of an array.
+   *
+   * @param docIds the doc ids, the array is owned by the doc set afterwards
+   * @param size the number of doc ids
+   * @return the codec doc set
+   */
+  public static CodecDocSet of(int[] docIds, int size) {
+    if (!isSortedAndUnique(docIds, 0, size)) {
+      Arrays.sort(docIds, 0, size);
+      int newSize = 0;
+      for (int i = 0; i < size; i++) {
+        if (newSize == 0 || docIds[newSize - 1] != docIds[i]) {
+          docIds[newSize++] = docIds[i];
+        }
+      }
+      size = newSize;
+    }
+    return new CodecDocSet(docIds, 0, size);
+  }
+
+  /**
+   * Create a doc set from a list of doc ids.
+   *
+   * @param list the list, null allowed
+   * @return the codec doc set, or null if the list is null
+   */
+  public static CodecDocSet fromList(List<Integer> list) {
+    if (list == null || list instanceof CodecDocSet) {
+      return (CodecDocSet) list;
+    } else {
+      int[] docIds = new int[list.size()];
+      int size = 0;
+      for (Integer docId : list) {
+        docIds[size++] = docId;
+      }
+      return of(docIds, size);
+    }
+  }
+
+  /**
+   * Create a doc set from an iterator.
+   *
+   * @param iterator the iterator
+   * @return the codec doc set
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public static CodecDocSet fromIterator(DocIdSetIterator iterator)
+      throws IOException {
+    int[] docIds = new int[(int) Math.min(Math.max(iterator.cost(), 16),
+        ArrayUtil.MAX_ARRAY_LENGTH)];
+    int size = 0;
+    int docId;
+    while ((docId = iterator.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+      if (size == docIds.length) {
+        docIds = ArrayUtil.grow(docIds, size + 1);
+      }
+      docIds[size++] = docId;
+    }
+    return of(docIds, size);
+  }
+
+  /**
+   * Checks if a range of doc ids is sorted and unique.
+   *
+   * @param docIds the doc ids
+   * @param from the from
+   * @param to the to
+   * @return true, if is sorted and unique
+   */
+  private static boolean isSortedAndUnique(int[] docIds, int from, int to) {
+    for (int i = from + 1; i < to; i++) {
+      if (docIds[i - 1] >= docIds[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Offset of the first doc id not below the target.
+   *
+   * @param target the target
+   * @return the offset
+   */
+  private int lowerBound(int target) {
+    int low = from;
+    int high = to;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (docIds[mid] < target) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  /**
+   * The doc ids within a segment, ignoring deleted documents if live docs are
+   * provided. Without deleted documents in the range, the result is a view.
+   *
+   * @param lrc the lrc
+   * @param liveDocs the live docs, null if not checked
+   * @return the codec doc set
+   */
+  public CodecDocSet segment(LeafReaderContext lrc, Bits liveDocs) {
+    int segmentFrom = lowerBound(lrc.docBase);
+    int segmentTo = lowerBound(lrc.docBase + lrc.reader().maxDoc());
+    if (liveDocs != null) {
+      for (int i = segmentFrom; i < segmentTo; i++) {
+        if (!liveDocs.get(docIds[i] - lrc.docBase)) {
+          // copy the live documents
+          int[] liveDocIds = new int[segmentTo - segmentFrom];
+          int size = i - segmentFrom;
+          System.arraycopy(docIds, segmentFrom, liveDocIds, 0, size);
+          for (int j = i + 1; j < segmentTo; j++) {
+            if (liveDocs.get(docIds[j] - lrc.docBase)) {
+              liveDocIds[size++] = docIds[j];
+            }
+          }
+          return new CodecDocSet(liveDocIds, 0, size);
+        }
+      }
+    }
+    return new CodecDocSet(docIds, segmentFrom, segmentTo);
+  }
+
+  /**
+   * Iterator over the doc ids relative to a doc base.
+   *
+   * @param docBase the doc base
+   * @return the doc id set iterator
+   */
+  public DocIdSetIterator iterator(final int docBase) {
+    return new DocIdSetIterator() {
+      private int offset = from - 1;
+      private int docId = -1;
+
+      @Override
+      public int docID() {
+        return docId;
+      }
+
+      @Override
+      public int nextDoc() {
+        offset++;
+        return docId = (offset < to) ? docIds[offset] - docBase : NO_MORE_DOCS;
+      }
+
+      @Override
+      public int advance(int target) {
+        offset = Math.max(offset + 1, lowerBound(target + docBase));
+        return docId = (offset < to) ? docIds[offset] - docBase : NO_MORE_DOCS;
+      }
+
+      @Override
+      public long cost() {
+        return (long) to - from;
+      }
+    };
+  }
+
+  /**
+   * Copy of the doc ids.
+   *
+   * @return the int[]
+   */
+  public int[] toIntArray() {
+    return from == to ? EMPTY : Arrays.copyOfRange(docIds, from, to);
+  }
+
+  /**
+   * Gets the doc id at an index.
+   *
+   * @param index the index
+   * @return the doc id
+   */
+  public int getInt(int index) {
+    if (index < 0 || index >= to - from) {
+      throw new IndexOutOfBoundsException(
+          "index " + index + ", size " + (to - from));
+    }
+    return docIds[from + index];
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.util.AbstractList#get(int)
+   */
+  @Override
+  public Integer get(int index) {
+    return getInt(index);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.util.AbstractCollection#size()
+   */
+  @Override
+  public int size() {
+    return to - from;
+  }
+
+  /**
+   * Index of the first doc id not below a doc id.
+   *
+   * @param docId the doc id
+   * @return the index, equal to the size if all doc ids are below
+   */
+  public int ceilingIndexOfDoc(int docId) {
+    return lowerBound(docId) - from;
+  }
+
+  /**
+   * Index of a doc id.
+   *
+   * @param docId the doc id
+   * @return the index, or -1 if not in the set
+   */
+  public int indexOfDoc(int docId) {
+    int offset = lowerBound(docId);
+    if (offset < to && docIds[offset] == docId) {
+      return offset - from;
+    } else {
+      return -1;
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.util.AbstractList#indexOf(java.lang.Object)
+   */
+  @Override
+  public int indexOf(Object o) {
+    return (o instanceof Integer) ? indexOfDoc((Integer) o) : -1;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.util.AbstractList#lastIndexOf(java.lang.Object)
+   */
+  @Override
+  public int lastIndexOf(Object o) {
+    return indexOf(o);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see java.util.AbstractCollection#contains(java.lang.Object)
+   */
+  @Override
+  public boolean contains(Object o) {
+    return indexOf(o) >= 0;
+  }
+
+}
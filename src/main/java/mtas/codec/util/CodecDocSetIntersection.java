@@ -0,0 +1,247 @@
+package mtas.codec.util;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BitSet;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.SparseFixedBitSet;
+
+/**
+ * The Class CodecDocSetIntersection.
+ *
+ * Intersection of the documents of a segment within a {@link CodecDocSet} with
+ * the postings of terms. For a rare term, the postings are iterated and each
+ * document is probed in a bitset of the doc set; otherwise the doc set is
+ * iterated and the postings are advanced to each document. The documents and
+ * frequencies of the last intersection are stored in primitive arrays, which
+ * are reused for all terms.
+ */
+public class CodecDocSetIntersection {
+
+  /**
+   * The Constant ADVANCE_COST_FACTOR, the cost of advancing the postings to a
+   * document relative to the cost of reading the next document.
+   */
+  private static final int ADVANCE_COST_FACTOR = 4;
+
+  /** The doc set. */
+  private final CodecDocSet docSet;
+
+  /** The doc base. */
+  private final int docBase;
+
+  /** The max doc. */
+  private final int maxDoc;
+
+  /** The bitset with the doc set, relative to the doc base. */
+  private BitSet bitSet;
+
+  /** The postings enum. */
+  private PostingsEnum postingsEnum;
+
+  /** The doc ids of the last intersection. */
+  private final int[] docIds;
+
+  /** The freqs of the last intersection. */
+  private final int[] freqs;
+
+  /** The number of docs in the last intersection. */
+  private int docNumber;
+
+  /** The sum of the freqs of the last intersection. */
+  private long freqSum;
+
+  /**
+   * Instantiates a new codec doc set intersection.
+   *
+   * @param docSet the doc set
+   * @param lrc the lrc
+   */
+  public CodecDocSetIntersection(List<Integer> docSet, LeafReaderContext lrc) {
+    this.docSet = CodecDocSet.fromList(docSet).segment(lrc, null);
+    docBase = lrc.docBase;
+    maxDoc = lrc.reader().maxDoc();
+    bitSet = null;
+    postingsEnum = null;
+    docIds = new int[this.docSet.size()];
+    freqs = new int[this.docSet.size()];
+    docNumber = 0;
+    freqSum = 0;
+  }
+
+  /**
+   * Gets the doc set.
+   *
+   * @return the doc set
+   */
+  public CodecDocSet getDocSet() {
+    return docSet;
+  }
+
+  /**
+   * Checks if the postings are iterated for a term.
+   *
+   * @param termsEnum the terms enum, positioned on the term
+   * @return true, if the postings are iterated
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private boolean usePostings(TermsEnum termsEnum) throws IOException {
+    if ((long) termsEnum.docFreq() < (long) docSet.size()
+        * ADVANCE_COST_FACTOR) {
+      if (bitSet == null) {
+        // sparse if on average less than one doc for each long
+        bitSet = (docSet.size() < (maxDoc >>> 6)) ? new SparseFixedBitSet(maxDoc)
+            : new FixedBitSet(maxDoc);
+        for (int i = 0; i < docSet.size(); i++) {
+          bitSet.set(docSet.getInt(i) - docBase);
+        }
+      }
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Intersect the doc set with the postings of the current term, storing the
+   * doc ids and, if requested, the freqs.
+   *
+   * @param termsEnum the terms enum, positioned on the term
+   * @param withFreqs with freqs
+   * @return the number of docs
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public int intersect(TermsEnum termsEnum, boolean withFreqs)
+      throws IOException {
+    docNumber = 0;
+    freqSum = 0;
+    if (docSet.isEmpty()) {
+      return 0;
+    }
+    postingsEnum = termsEnum.postings(postingsEnum,
+        withFreqs ? PostingsEnum.FREQS : PostingsEnum.NONE);
+    int docId;
+    if (usePostings(termsEnum)) {
+      while ((docId = postingsEnum
+          .nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+        if (bitSet.get(docId)) {
+          register(docId, withFreqs);
+        }
+      }
+    } else {
+      int termDocId = -1;
+      for (int i = 0; i < docSet.size(); i++) {
+        docId = docSet.getInt(i) - docBase;
+        if (termDocId < docId) {
+          termDocId = postingsEnum.advance(docId);
+          if (termDocId == DocIdSetIterator.NO_MORE_DOCS) {
+            break;
+          }
+        }
+        if (termDocId == docId) {
+          register(docId, withFreqs);
+        }
+      }
+    }
+    return docNumber;
+  }
+
+  /**
+   * Register a doc of the intersection.
+   *
+   * @param docId the doc id, relative to the doc base
+   * @param withFreqs with freqs
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private void register(int docId, boolean withFreqs) throws IOException {
+    docIds[docNumber] = docId + docBase;
+    if (withFreqs) {
+      freqs[docNumber] = postingsEnum.freq();
+      freqSum += freqs[docNumber];
+    }
+    docNumber++;
+  }
+
+  /**
+   * Checks if a doc of the doc set has the current term.
+   *
+   * @param termsEnum the terms enum, positioned on the term
+   * @return true, if successful
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public boolean intersects(TermsEnum termsEnum) throws IOException {
+    if (docSet.isEmpty()) {
+      return false;
+    }
+    postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.NONE);
+    int docId;
+    if (usePostings(termsEnum)) {
+      while ((docId = postingsEnum
+          .nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+        if (bitSet.get(docId)) {
+          return true;
+        }
+      }
+    } else {
+      DocIdSetIterator docIterator = docSet.iterator(docBase);
+      int termDocId = -1;
+      docId = docIterator.nextDoc();
+      while (docId != DocIdSetIterator.NO_MORE_DOCS) {
+        if (termDocId < docId) {
+          termDocId = postingsEnum.advance(docId);
+        }
+        if (termDocId == docId) {
+          return true;
+        } else if (termDocId == DocIdSetIterator.NO_MORE_DOCS) {
+          break;
+        }
+        docId = docIterator.advance(termDocId);
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Number of docs in the last intersection.
+   *
+   * @return the int
+   */
+  public int docNumber() {
+    return docNumber;
+  }
+
+  /**
+   * Doc id of the n-th doc in the last intersection.
+   *
+   * @param n the n
+   * @return the doc id
+   */
+  public int docId(int n) {
+    return docIds[n];
+  }
+
+  /**
+   * Freq of the n-th doc in the last intersection.
+   *
+   * @param n the n
+   * @return the freq
+   */
+  public int freq(int n) {
+    return freqs[n];
+  }
+
+  /**
+   * Sum of the freqs in the last intersection.
+   *
+   * @return the long
+   */
+  public long freqSum() {
+    return freqSum;
+  }
+
+}
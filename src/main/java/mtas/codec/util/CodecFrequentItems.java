@@ -0,0 +1,146 @@
+package mtas.codec.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * The Class CodecFrequentItems.
+ *
+ * Bounded summary of the most frequent items, using the Misra-Gries algorithm
+ * (the mergeable counterpart of space-saving). If the number of items grows
+ * beyond the capacity, all sums are decreased by the sum of the item just below
+ * the capacity, and items without remaining sum are dropped. The sums are lower
+ * bounds, and the exact sum of any item, also a dropped one, exceeds its sum in
+ * the summary by at most the error. Summaries are merged by adding sums and
+ * errors.
+ *
+ * @param <T> the generic type
+ */
+public class CodecFrequentItems<T> {
+
+  /** The capacity. */
+  private final int capacity;
+
+  /** The sums. */
+  private final Map<T, Long> sums;
+
+  /** The numbers. */
+  private final Map<T, Long> numbers;
+
+  /** The error. */
+  private long error;
+
+  /**
+   * Instantiates a new codec frequent items.
+   *
+   * @param capacity the capacity
+   */
+  public CodecFrequentItems(int capacity) {
+    this.capacity = capacity;
+    sums = new HashMap<>();
+    numbers = new HashMap<>();
+    error = 0;
+  }
+
+  /**
+   * Adds an item.
+   *
+   * @param item the item
+   * @param sum the sum
+   * @param number the number
+   */
+  public void add(T item, long sum, long number) {
+    sums.merge(item, sum, Long::sum);
+    numbers.merge(item, number, Long::sum);
+    // reduce in batches, so the amortized costs stay logarithmic
+    if (sums.size() >= 2 * capacity) {
+      reduce();
+    }
+  }
+
+  /**
+   * Adds an error, e.g. the error of a merged summary.
+   *
+   * @param error the error
+   */
+  public void addError(long error) {
+    this.error += error;
+  }
+
+  /**
+   * Reduce to the capacity.
+   */
+  public void reduce() {
+    error += reduce(sums, numbers, capacity);
+  }
+
+  /**
+   * Gets the sums.
+   *
+   * @return the sums
+   */
+  public Map<T, Long> getSums() {
+    return sums;
+  }
+
+  /**
+   * Gets the number.
+   *
+   * @param item the item
+   * @return the number
+   */
+  public long getNumber(T item) {
+    Long number = numbers.get(item);
+    return number == null ? 0 : number;
+  }
+
+  /**
+   * Gets the error.
+   *
+   * @return the error
+   */
+  public long getError() {
+    return error;
+  }
+
+  /**
+   * Reduce a map of sums, and the map of numbers for the same items, to at
+   * most capacity items.
+   *
+   * @param <K> the key type
+   * @param sums the sums
+   * @param numbers the numbers
+   * @param capacity the capacity
+   * @return the decrease of the sums, to be added to the error
+   */
+  public static <K> long reduce(Map<K, Long> sums,
+      Map<K, ? extends Number> numbers, int capacity) {
+    if (sums.size() <= capacity) {
+      return 0;
+    } else {
+      long[] values = new long[sums.size()];
+      int i = 0;
+      for (Long value : sums.values()) {
+        values[i++] = value;
+      }
+      Arrays.sort(values);
+      long decrease = values[values.length - capacity - 1];
+      Iterator<Entry<K, Long>> iterator = sums.entrySet().iterator();
+      while (iterator.hasNext()) {
+        Entry<K, Long> entry = iterator.next();
+        long value = entry.getValue() - decrease;
+        if (value > 0) {
+          entry.setValue(value);
+        } else {
+          numbers.remove(entry.getKey());
+          iterator.remove();
+        }
+      }
+      return decrease;
+    }
+  }
+
+}
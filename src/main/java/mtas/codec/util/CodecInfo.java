@@ -4,12 +4,15 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import mtas.analysis.token.MtasToken;
 import mtas.analysis.token.MtasTokenString;
@@ -46,6 +49,9 @@ public class CodecInfo {
   /** The prefix references. */
   private HashMap<String, LinkedHashMap<String, Long>> prefixReferences;
 
+  /** The doc position ranges, possibly shared for the segment. */
+  private Map<String, IndexDocPositionRange> docPositionRanges;
+
   /**
    * Instantiates a new codec info.
    *
@@ -61,9 +67,32 @@ public class CodecInfo {
   public CodecInfo(HashMap<String, IndexInput> indexInputList,
       HashMap<String, Long> indexInputOffsetList, int version)
       throws IOException {
+    this(indexInputList, indexInputOffsetList, version, null);
+  }
+
+  /**
+   * Instantiates a new codec info.
+   *
+   * @param indexInputList
+   *          the index input list
+   * @param indexInputOffsetList
+   *          the index input offset list
+   * @param version
+   *          the version
+   * @param docPositionRanges
+   *          the doc position ranges shared for the segment, or null
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public CodecInfo(HashMap<String, IndexInput> indexInputList,
+      HashMap<String, Long> indexInputOffsetList, int version,
+      Map<String, IndexDocPositionRange> docPositionRanges)
+      throws IOException {
     this.indexInputList = indexInputList;
     this.indexInputOffsetList = indexInputOffsetList;
     this.version = version;
+    this.docPositionRanges = docPositionRanges != null ? docPositionRanges
+        : new ConcurrentHashMap<>();
     init();
   }
 
@@ -82,6 +111,7 @@ public class CodecInfo {
       HashMap<String, IndexInput> indexInputList = null;
       HashMap<String, Long> indexInputOffsetList = null;
       Object version = null;
+      Map<String, IndexDocPositionRange> docPositionRanges = null;
       Method[] methods = t.getClass().getMethods();
       Object[] emptyArgs = null;
       for (Method m : methods) {
@@ -91,6 +121,9 @@ public class CodecInfo {
           indexInputOffsetList = (HashMap<String, Long>) m.invoke(t, emptyArgs);
         } else if (m.getName().equals("getVersion")) {
           version = m.invoke(t, emptyArgs);
+        } else if (m.getName().equals("getDocPositionRanges")) {
+          docPositionRanges = (Map<String, IndexDocPositionRange>) m.invoke(t,
+              emptyArgs);
         }
       }
       if (indexInputList == null || indexInputOffsetList == null
@@ -98,7 +131,7 @@ public class CodecInfo {
         throw new IOException("Reader doesn't provide MtasFieldsProducer");
       } else {
         return new CodecInfo(indexInputList, indexInputOffsetList,
-            (int) version);
+            (int) version, docPositionRanges);
       }
     } catch (IllegalAccessException | InvocationTargetException e) {
       throw new IOException("Can't get codecInfo", e);
@@ -447,6 +480,55 @@ public class CodecInfo {
     }
   }
 
+  /**
+   * Count the terms with a prefix in a document, using the refs of the terms
+   * from a single search over all positions of the document. Since terms are
+   * stored in term order, the refs are ordered like the terms. A token with a
+   * set of positions is stored as several nodes in the tree, but is counted
+   * once, like in the postings.
+   *
+   * @param field
+   *          the field
+   * @param docId
+   *          the doc id
+   * @param prefixId
+   *          the prefix id
+   * @param counter
+   *          the counter
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public void collectTermRefsByPrefixId(String field, int docId, int prefixId,
+      CodecTermRefCounter counter) throws IOException {
+    IndexDoc doc = getDoc(field, docId);
+    IndexInput inIndexObjectPosition = indexInputList
+        .get("indexObjectPosition");
+    if (doc != null && doc.minPosition <= doc.maxPosition) {
+      ArrayList<MtasTreeHit<?>> hits = CodecSearchTree.searchMtasTree(
+          doc.minPosition, doc.maxPosition, inIndexObjectPosition,
+          doc.fpIndexObjectPosition, doc.smallestObjectFilepointer);
+      Set<Long> objectRefs = new HashSet<>();
+      for (MtasTreeHit<?> hit : hits) {
+        if (hit.additionalId == prefixId && objectRefs.add(hit.ref)) {
+          counter.add(hit.additionalRef);
+        }
+      }
+    }
+  }
+
+  /**
+   * Gets the term.
+   *
+   * @param ref
+   *          the ref
+   * @return the term
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public String getTerm(long ref) throws IOException {
+    return MtasCodecPostingsFormat.getTerm(indexInputList.get("term"), ref);
+  }
+
   /**
    * Gets the objects.
    *
@@ -597,6 +679,32 @@ public class CodecInfo {
     return null;
   }
 
+  /**
+   * Gets the minimum and maximum position for all documents, computed once and
+   * shared for the segment.
+   *
+   * @param field
+   *          the field
+   * @return the doc position range
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public IndexDocPositionRange getDocPositionRange(String field)
+      throws IOException {
+    IndexDocPositionRange range = docPositionRanges.get(field);
+    if (range == null) {
+      range = new IndexDocPositionRange(
+          // use a clone, this range can be shared between threads
+          indexInputList.get("doc").clone(), fieldReferences.get(field));
+      IndexDocPositionRange existingRange = docPositionRanges
+          .putIfAbsent(field, range);
+      if (existingRange != null) {
+        range = existingRange;
+      }
+    }
+    return range;
+  }
+
   /**
    * Gets the next doc.
    *
@@ -740,6 +848,58 @@ public class CodecInfo {
     return numbers;
   }
 
+  /**
+   * Fill a column with the number of positions for its documents.
+   *
+   * @param field
+   *          the field
+   * @param docBase
+   *          the doc base
+   * @param column
+   *          the column
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public void fillNumberOfPositions(String field, int docBase,
+      CodecDocColumn column) throws IOException {
+    if (fieldReferences.containsKey(field) && column.size() > 0) {
+      FieldReferences fr = fieldReferences.get(field);
+      IndexInput inIndexDoc = indexInputList.get("doc");
+      inIndexDoc.seek(fr.refIndexDoc);
+      IndexDoc doc;
+      for (int i = 0; i < fr.numberOfDocs; i++) {
+        doc = new IndexDoc(null);
+        column.set(doc.docId + docBase, 1 + doc.maxPosition - doc.minPosition);
+      }
+    }
+  }
+
+  /**
+   * Fill a column with the number of tokens for its documents.
+   *
+   * @param field
+   *          the field
+   * @param docBase
+   *          the doc base
+   * @param column
+   *          the column
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public void fillNumberOfTokens(String field, int docBase,
+      CodecDocColumn column) throws IOException {
+    if (fieldReferences.containsKey(field) && column.size() > 0) {
+      FieldReferences fr = fieldReferences.get(field);
+      IndexInput inIndexDoc = indexInputList.get("doc");
+      inIndexDoc.seek(fr.refIndexDoc);
+      IndexDoc doc;
+      for (int i = 0; i < fr.numberOfDocs; i++) {
+        doc = new IndexDoc(null);
+        column.set(doc.docId + docBase, doc.size);
+      }
+    }
+  }
+
   /**
    * The Class IndexDoc.
    */
@@ -810,6 +970,97 @@ public class CodecInfo {
     }
   }
 
+  /**
+   * The Class IndexDocPositionRange.
+   */
+  public static class IndexDocPositionRange {
+
+    /** The min positions by docId, -1 if no document. */
+    private int[] minPositions;
+
+    /** The max positions by docId, -1 if no document. */
+    private int[] maxPositions;
+
+    /**
+     * Instantiates a new index doc position range.
+     *
+     * @param inIndexDoc
+     *          the in index doc
+     * @param fr
+     *          the field references, or null
+     * @throws IOException
+     *           Signals that an I/O exception has occurred.
+     */
+    private IndexDocPositionRange(IndexInput inIndexDoc, FieldReferences fr)
+        throws IOException {
+      int size = 0;
+      minPositions = new int[0];
+      maxPositions = new int[0];
+      if (fr != null) {
+        inIndexDoc.seek(fr.refIndexDoc);
+        int[] docIds = new int[fr.numberOfDocs];
+        int[] docMinPositions = new int[fr.numberOfDocs];
+        int[] docMaxPositions = new int[fr.numberOfDocs];
+        for (int i = 0; i < fr.numberOfDocs; i++) {
+          docIds[i] = inIndexDoc.readVInt(); // docId
+          inIndexDoc.readVLong(); // ref indexObjectId
+          inIndexDoc.readVLong(); // ref indexObjectPosition
+          inIndexDoc.readVLong(); // ref indexObjectParent
+          inIndexDoc.readVLong(); // offset
+          inIndexDoc.readVInt(); // slope
+          inIndexDoc.readZLong(); // offset
+          inIndexDoc.readByte(); // flag
+          inIndexDoc.readVInt(); // number of objects
+          docMinPositions[i] = inIndexDoc.readVInt(); // minimum position
+          docMaxPositions[i] = inIndexDoc.readVInt(); // maximum position
+          size = Math.max(size, docIds[i] + 1);
+        }
+        minPositions = new int[size];
+        maxPositions = new int[size];
+        Arrays.fill(minPositions, -1);
+        Arrays.fill(maxPositions, -1);
+        for (int i = 0; i < fr.numberOfDocs; i++) {
+          minPositions[docIds[i]] = docMinPositions[i];
+          maxPositions[docIds[i]] = docMaxPositions[i];
+        }
+      }
+    }
+
+    /**
+     * Checks for doc.
+     *
+     * @param docId
+     *          the doc id
+     * @return true, if successful
+     */
+    public boolean hasDoc(int docId) {
+      return docId >= 0 && docId < minPositions.length
+          && minPositions[docId] >= 0;
+    }
+
+    /**
+     * Gets the min position.
+     *
+     * @param docId
+     *          the doc id
+     * @return the min position, -1 if no document
+     */
+    public int getMinPosition(int docId) {
+      return hasDoc(docId) ? minPositions[docId] : -1;
+    }
+
+    /**
+     * Gets the max position.
+     *
+     * @param docId
+     *          the doc id
+     * @return the max position, -1 if no document
+     */
+    public int getMaxPosition(int docId) {
+      return hasDoc(docId) ? maxPositions[docId] : -1;
+    }
+  }
+
   /**
    * The Class FieldReferences.
    */
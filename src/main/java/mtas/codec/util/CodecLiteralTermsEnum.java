@@ -0,0 +1,100 @@
+package mtas.codec.util;
+
+import org.apache.lucene.index.FilteredTermsEnum;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * The Class CodecLiteralTermsEnum.
+ *
+ * Terms enum over the terms equal to one of a sorted list of literal terms,
+ * optionally followed by null characters, like the terms accepted by the
+ * automata for a list of literal values (see
+ * {@link mtas.analysis.token.MtasToken#createAutomatonMap}). Instead of
+ * intersecting with an automaton, the enum seeks to each literal term in
+ * order.
+ */
+public class CodecLiteralTermsEnum extends FilteredTermsEnum {
+
+  /** The sorted and unique literal terms. */
+  private final BytesRef[] literalTerms;
+
+  /** The index of the current literal term. */
+  private int position;
+
+  /**
+   * Instantiates a new codec literal terms enum.
+   *
+   * @param tenum the terms enum for all terms
+   * @param literalTerms the sorted and unique literal terms
+   */
+  public CodecLiteralTermsEnum(TermsEnum tenum, BytesRef[] literalTerms) {
+    super(tenum, true);
+    this.literalTerms = literalTerms;
+    position = 0;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.apache.lucene.index.FilteredTermsEnum#nextSeekTerm(org.apache.lucene.
+   * util.BytesRef)
+   */
+  @Override
+  protected BytesRef nextSeekTerm(BytesRef currentTerm) {
+    // literal terms not after the current term have been handled
+    while (currentTerm != null && position < literalTerms.length
+        && literalTerms[position].compareTo(currentTerm) <= 0) {
+      position++;
+    }
+    return position < literalTerms.length ? literalTerms[position] : null;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.apache.lucene.index.FilteredTermsEnum#accept(org.apache.lucene.util.
+   * BytesRef)
+   */
+  @Override
+  protected AcceptStatus accept(BytesRef term) {
+    while (position < literalTerms.length) {
+      BytesRef literalTerm = literalTerms[position];
+      if (matches(term, literalTerm)) {
+        return AcceptStatus.YES;
+      } else if (literalTerm.compareTo(term) > 0) {
+        return AcceptStatus.NO_AND_SEEK;
+      }
+      position++;
+    }
+    return AcceptStatus.END;
+  }
+
+  /**
+   * Checks if a term equals a literal term followed by null characters only.
+   *
+   * @param term the term
+   * @param literalTerm the literal term
+   * @return true, if successful
+   */
+  private static boolean matches(BytesRef term, BytesRef literalTerm) {
+    if (term.length < literalTerm.length) {
+      return false;
+    }
+    for (int i = 0; i < literalTerm.length; i++) {
+      if (term.bytes[term.offset + i] != literalTerm.bytes[literalTerm.offset
+          + i]) {
+        return false;
+      }
+    }
+    for (int i = literalTerm.length; i < term.length; i++) {
+      if (term.bytes[term.offset + i] != 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
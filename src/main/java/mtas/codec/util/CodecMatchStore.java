@@ -0,0 +1,480 @@
+package mtas.codec.util;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.IntroSorter;
+
+import mtas.codec.util.CodecComponent.Match;
+
+/**
+ * The Class CodecMatchStore.
+ *
+ * Matches of a span query within a segment, stored as parallel int arrays.
+ * Documents are appended in increasing order, and matches within a document in
+ * span order, so the matches of a document are sorted on start position
+ * without sorting. Matches are read through a {@link Cursor}.
+ *
+ * Optionally, only the matches within a window are stored for each doc (see
+ * {@link #setWindow(Integer, Integer, Integer)}), while the total number of
+ * matches is still counted. Also, a range of docs can be set (see
+ * {@link #setRange(int, Integer)}), so collecting matches can start at the
+ * first doc of the range and stop when enough matches are stored.
+ */
+public class CodecMatchStore {
+
+  /** The Constant INITIAL_SIZE. */
+  private static final int INITIAL_SIZE = 16;
+
+  /** The doc ids. */
+  private int[] docIds;
+
+  /** The offset of the first match for each doc. */
+  private int[] docStarts;
+
+  /** The offset after the last match for each doc. */
+  private int[] docEnds;
+
+  /** The total number of added matches for each doc. */
+  private int[] docTotals;
+
+  /** The number of docs. */
+  private int docNumber;
+
+  /** The start positions. */
+  private int[] startPositions;
+
+  /** The end positions. */
+  private int[] endPositions;
+
+  /** The number of matches. */
+  private int matchNumber;
+
+  /** The start position of the last added match. */
+  private int lastStartPosition;
+
+  /** Whether the matches of the current doc are sorted. */
+  private boolean currentDocSorted;
+
+  /** The maximum number of stored matches for each doc. */
+  private int windowLimit;
+
+  /** The first position of the window. */
+  private int windowStart;
+
+  /** The last position of the window. */
+  private int windowEnd;
+
+  /** The first doc id of the range. */
+  private int rangeFirstDocId;
+
+  /** The number of matches after which no more docs are needed. */
+  private int rangeLimit;
+
+  /** The sorter. */
+  private final IntroSorter sorter;
+
+  /**
+   * Instantiates a new codec match store.
+   */
+  public CodecMatchStore() {
+    docIds = new int[INITIAL_SIZE];
+    docStarts = new int[INITIAL_SIZE];
+    docEnds = new int[INITIAL_SIZE];
+    docTotals = new int[INITIAL_SIZE];
+    docNumber = 0;
+    startPositions = new int[INITIAL_SIZE];
+    endPositions = new int[INITIAL_SIZE];
+    matchNumber = 0;
+    windowLimit = Integer.MAX_VALUE;
+    windowStart = Integer.MIN_VALUE;
+    windowEnd = Integer.MAX_VALUE;
+    rangeFirstDocId = -1;
+    rangeLimit = Integer.MAX_VALUE;
+    sorter = new IntroSorter() {
+      private int pivotStartPosition;
+      private int pivotEndPosition;
+
+      @Override
+      protected void swap(int i, int j) {
+        int tmp = startPositions[i];
+        startPositions[i] = startPositions[j];
+        startPositions[j] = tmp;
+        tmp = endPositions[i];
+        endPositions[i] = endPositions[j];
+        endPositions[j] = tmp;
+      }
+
+      @Override
+      protected int compare(int i, int j) {
+        return CodecMatchStore.compare(startPositions[i], endPositions[i],
+            startPositions[j], endPositions[j]);
+      }
+
+      @Override
+      protected void setPivot(int i) {
+        pivotStartPosition = startPositions[i];
+        pivotEndPosition = endPositions[i];
+      }
+
+      @Override
+      protected int comparePivot(int j) {
+        return CodecMatchStore.compare(pivotStartPosition, pivotEndPosition,
+            startPositions[j], endPositions[j]);
+      }
+    };
+  }
+
+  /**
+   * Compare.
+   *
+   * @param startPosition1 the start position 1
+   * @param endPosition1 the end position 1
+   * @param startPosition2 the start position 2
+   * @param endPosition2 the end position 2
+   * @return the int
+   */
+  private static int compare(int startPosition1, int endPosition1,
+      int startPosition2, int endPosition2) {
+    if (startPosition1 != startPosition2) {
+      return Integer.compare(startPosition1, startPosition2);
+    } else {
+      return Integer.compare(endPosition1, endPosition2);
+    }
+  }
+
+  /**
+   * Restrict the stored matches for each doc to the first matches covering a
+   * position within the page. Matches must be added in order of start
+   * position, other matches are only counted.
+   *
+   * @param limit the maximum number of stored matches for each doc, null if
+   *          not limited
+   * @param pageStart the first position of the page, null if no page
+   * @param pageEnd the last position of the page, null if no page
+   */
+  public void setWindow(Integer limit, Integer pageStart, Integer pageEnd) {
+    assert matchNumber == 0 : "window set after adding matches";
+    windowLimit = limit == null ? Integer.MAX_VALUE : limit;
+    windowStart = (pageStart == null || pageEnd == null) ? Integer.MIN_VALUE
+        : pageStart;
+    windowEnd = (pageStart == null || pageEnd == null) ? Integer.MAX_VALUE
+        : pageEnd;
+  }
+
+  /**
+   * Sets the range of docs for which matches are needed: docs before the first
+   * doc id are not needed, and after the doc in which the number of stored
+   * matches reaches the limit, no more docs are needed.
+   *
+   * @param firstDocId the first doc id
+   * @param limit the limit, null if not limited
+   */
+  public void setRange(int firstDocId, Integer limit) {
+    rangeFirstDocId = firstDocId;
+    rangeLimit = limit == null ? Integer.MAX_VALUE : limit;
+  }
+
+  /**
+   * Gets the first doc id of the range.
+   *
+   * @return the first doc id, -1 if no range is set
+   */
+  public int getRangeFirstDocId() {
+    return rangeFirstDocId;
+  }
+
+  /**
+   * Checks if enough matches are stored for the range.
+   *
+   * @return true, if no more docs are needed
+   */
+  public boolean isRangeComplete() {
+    return matchNumber >= rangeLimit;
+  }
+
+  /**
+   * Start a new doc, doc ids must be increasing.
+   *
+   * @param docId the doc id
+   */
+  public void startDoc(int docId) {
+    assert docNumber == 0
+        || docIds[docNumber - 1] < docId : "doc ids not increasing";
+    finishDoc();
+    if (docNumber == docIds.length) {
+      docIds = ArrayUtil.grow(docIds, docNumber + 1);
+      docStarts = ArrayUtil.grow(docStarts, docNumber + 1);
+      docEnds = ArrayUtil.grow(docEnds, docNumber + 1);
+      docTotals = ArrayUtil.grow(docTotals, docNumber + 1);
+    }
+    docIds[docNumber] = docId;
+    docStarts[docNumber] = matchNumber;
+    docEnds[docNumber] = matchNumber;
+    docTotals[docNumber] = 0;
+    docNumber++;
+    lastStartPosition = Integer.MIN_VALUE;
+    currentDocSorted = true;
+  }
+
+  /**
+   * Adds a match to the current doc.
+   *
+   * @param startPosition the start position
+   * @param endPosition the end position
+   */
+  public void add(int startPosition, int endPosition) {
+    assert docNumber > 0 : "no doc started";
+    docTotals[docNumber - 1]++;
+    if (endPosition - 1 < windowStart || startPosition > windowEnd
+        || docEnds[docNumber - 1] - docStarts[docNumber - 1] >= windowLimit) {
+      // outside window, only counted
+      return;
+    }
+    if (matchNumber == startPositions.length) {
+      startPositions = ArrayUtil.grow(startPositions, matchNumber + 1);
+      endPositions = ArrayUtil.grow(endPositions, matchNumber + 1);
+    }
+    startPositions[matchNumber] = startPosition;
+    endPositions[matchNumber] = endPosition;
+    matchNumber++;
+    docEnds[docNumber - 1] = matchNumber;
+    if (startPosition < lastStartPosition) {
+      currentDocSorted = false;
+    }
+    lastStartPosition = startPosition;
+  }
+
+  /**
+   * Checks if the maximum number of matches is stored for the current doc.
+   *
+   * @return true, if further matches for the current doc are only counted
+   */
+  public boolean isDocWindowComplete() {
+    return docNumber > 0
+        && docEnds[docNumber - 1] - docStarts[docNumber - 1] >= windowLimit;
+  }
+
+  /**
+   * Adds matches to the current doc that are only counted.
+   *
+   * @param number the number of matches
+   */
+  public void addCounted(int number) {
+    assert docNumber > 0 : "no doc started";
+    docTotals[docNumber - 1] += number;
+  }
+
+  /**
+   * Finish the current doc, sorting its matches only if they were not added
+   * in order.
+   */
+  public void finishDoc() {
+    if (!currentDocSorted && docNumber > 0) {
+      sorter.sort(docStarts[docNumber - 1], docEnds[docNumber - 1]);
+    }
+    currentDocSorted = true;
+  }
+
+  /**
+   * Number of docs.
+   *
+   * @return the int
+   */
+  public int docNumber() {
+    return docNumber;
+  }
+
+  /**
+   * Index of a doc.
+   *
+   * @param docId the doc id
+   * @return the index, or -1 if the doc is not stored
+   */
+  private int docIndex(int docId) {
+    int low = 0;
+    int high = docNumber - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      if (docIds[mid] < docId) {
+        low = mid + 1;
+      } else if (docIds[mid] > docId) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Creates a cursor.
+   *
+   * @return the cursor
+   */
+  public Cursor cursor() {
+    finishDoc();
+    return new Cursor();
+  }
+
+  /**
+   * The Class Cursor.
+   *
+   * Cursor over the matches of a single doc. After {@link #seek(int)}, the
+   * matches can be iterated with {@link #next()} or accessed by index.
+   */
+  public class Cursor {
+
+    /** The doc index, -1 if not positioned. */
+    private int docIndex;
+
+    /** The offset of the first match. */
+    private int from;
+
+    /** The offset after the last match. */
+    private int to;
+
+    /** The offset of the current match. */
+    private int position;
+
+    /**
+     * Instantiates a new cursor.
+     */
+    private Cursor() {
+      docIndex = -1;
+      from = 0;
+      to = 0;
+      position = -1;
+    }
+
+    /**
+     * Position the cursor before the first match of a doc.
+     *
+     * @param docId the doc id
+     * @return true, if the doc is stored
+     */
+    public boolean seek(int docId) {
+      docIndex = docIndex(docId);
+      if (docIndex >= 0) {
+        from = docStarts[docIndex];
+        to = docEnds[docIndex];
+      } else {
+        from = 0;
+        to = 0;
+      }
+      position = from - 1;
+      return docIndex >= 0;
+    }
+
+    /**
+     * Number of matches of the doc.
+     *
+     * @return the int
+     */
+    public int size() {
+      return to - from;
+    }
+
+    /**
+     * Total number of added matches of the doc, including those not stored
+     * because of the window.
+     *
+     * @return the int
+     */
+    public int total() {
+      return docIndex >= 0 ? docTotals[docIndex] : 0;
+    }
+
+    /**
+     * Move to the next match.
+     *
+     * @return true, if successful
+     */
+    public boolean next() {
+      if (position + 1 < to) {
+        position++;
+        return true;
+      } else {
+        return false;
+      }
+    }
+
+    /**
+     * Index of the current match within the doc.
+     *
+     * @return the int
+     */
+    public int index() {
+      return position - from;
+    }
+
+    /**
+     * Start position of the current match.
+     *
+     * @return the int
+     */
+    public int startPosition() {
+      return startPositions[position];
+    }
+
+    /**
+     * End position of the current match.
+     *
+     * @return the int
+     */
+    public int endPosition() {
+      return endPositions[position];
+    }
+
+    /**
+     * Start position of a match of the doc.
+     *
+     * @param index the index
+     * @return the int
+     */
+    public int startPosition(int index) {
+      return startPositions[from + index];
+    }
+
+    /**
+     * End position of a match of the doc.
+     *
+     * @param index the index
+     * @return the int
+     */
+    public int endPosition(int index) {
+      return endPositions[from + index];
+    }
+
+    /**
+     * Creates a match object for the current match.
+     *
+     * @return the match
+     */
+    public Match match() {
+      return new Match(startPositions[position], endPositions[position]);
+    }
+
+    /**
+     * Remove the matches of the doc that are flagged, keeping the order of the
+     * others. The cursor is positioned before the first remaining match.
+     *
+     * @param removed the removed flags, indexed within the doc
+     */
+    public void remove(boolean[] removed) {
+      if (docIndex >= 0) {
+        int newTo = from;
+        for (int i = from; i < to; i++) {
+          if (!removed[i - from]) {
+            startPositions[newTo] = startPositions[i];
+            endPositions[newTo] = endPositions[i];
+            newTo++;
+          }
+        }
+        to = newTo;
+        docEnds[docIndex] = newTo;
+        position = from - 1;
+      }
+    }
+
+  }
+
+}
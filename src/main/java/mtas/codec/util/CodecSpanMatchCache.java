@@ -0,0 +1,623 @@
+package mtas.codec.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Objects;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.RoaringDocIdSet;
+import org.apache.lucene.util.packed.PackedInts;
+import org.apache.lucene.util.packed.PackedLongValues;
+
+import mtas.search.spans.util.MtasSpanQuery;
+
+/**
+ * The Class CodecSpanMatchCache.
+ *
+ * Memory bounded cache of span matches, keyed by segment core, field and
+ * query. For each segment the matches of the collected documents are stored
+ * in packed arrays, together with the set of documents that have been
+ * collected. Entries are evicted in least recently used order based on their
+ * size in bytes, and are invalidated when the segment core is closed.
+ */
+public class CodecSpanMatchCache {
+
+  /** The Constant log. */
+  private static final Log log = LogFactory.getLog(CodecSpanMatchCache.class);
+
+  /**
+   * The Constant DEFAULT_MAXIMUM_SIZE, the cache is disabled unless a maximum
+   * size is configured.
+   */
+  public static final long DEFAULT_MAXIMUM_SIZE = 0;
+
+  /** The Constant NAME_HITS. */
+  public static final String NAME_HITS = "hits";
+
+  /** The Constant NAME_MISSES. */
+  public static final String NAME_MISSES = "misses";
+
+  /** The Constant NAME_HITRATE. */
+  public static final String NAME_HITRATE = "hitRate";
+
+  /** The Constant NAME_EVICTIONS. */
+  public static final String NAME_EVICTIONS = "evictions";
+
+  /** The Constant NAME_INVALIDATIONS. */
+  public static final String NAME_INVALIDATIONS = "invalidations";
+
+  /** The Constant NAME_NUMBER. */
+  public static final String NAME_NUMBER = "number";
+
+  /** The Constant NAME_SIZE. */
+  public static final String NAME_SIZE = "size";
+
+  /** The Constant NAME_MAXIMUM_SIZE. */
+  public static final String NAME_MAXIMUM_SIZE = "maximumSize";
+
+  /** The instance. */
+  private static final CodecSpanMatchCache instance = new CodecSpanMatchCache(
+      DEFAULT_MAXIMUM_SIZE);
+
+  /** The entries, in access order. */
+  private final LinkedHashMap<MatchKey, Matches> entries;
+
+  /** The registered segment cores. */
+  private final Map<IndexReader.CacheKey, Boolean> registeredCores;
+
+  /** The maximum size in bytes. */
+  private long maximumSize;
+
+  /** The size in bytes. */
+  private long size;
+
+  /** The hits. */
+  private long hits;
+
+  /** The misses. */
+  private long misses;
+
+  /** The evictions. */
+  private long evictions;
+
+  /** The invalidations. */
+  private long invalidations;
+
+  /**
+   * Instantiates a new codec span match cache.
+   *
+   * @param maximumSize the maximum size in bytes
+   */
+  public CodecSpanMatchCache(long maximumSize) {
+    this.maximumSize = Math.max(0, maximumSize);
+    entries = new LinkedHashMap<>(16, 0.75f, true);
+    registeredCores = new IdentityHashMap<>();
+    size = 0;
+  }
+
+  /**
+   * Gets the shared instance.
+   *
+   * @return the instance
+   */
+  public static CodecSpanMatchCache getInstance() {
+    return instance;
+  }
+
+  /**
+   * Sets the maximum size in bytes, 0 disables the cache.
+   *
+   * @param maximumSize the new maximum size
+   */
+  public synchronized void setMaximumSize(long maximumSize) {
+    this.maximumSize = Math.max(0, maximumSize);
+    evict();
+  }
+
+  /**
+   * Checks if enabled.
+   *
+   * @return true, if is enabled
+   */
+  public synchronized boolean isEnabled() {
+    return maximumSize > 0;
+  }
+
+  /**
+   * Gets the core key for the segment, and make sure entries are invalidated
+   * when the segment core is closed.
+   *
+   * @param reader the leaf reader
+   * @return the core key, or null if not available
+   */
+  public IndexReader.CacheKey getCoreKey(LeafReader reader) {
+    IndexReader.CacheHelper cacheHelper = reader.getCoreCacheHelper();
+    if (cacheHelper == null) {
+      return null;
+    } else {
+      IndexReader.CacheKey coreKey = cacheHelper.getKey();
+      synchronized (this) {
+        if (!registeredCores.containsKey(coreKey)) {
+          registeredCores.put(coreKey, Boolean.TRUE);
+          cacheHelper.addClosedListener(this::invalidate);
+        }
+      }
+      return coreKey;
+    }
+  }
+
+  /**
+   * Gets the matches if all provided documents are covered.
+   *
+   * @param coreKey the core key
+   * @param field the field
+   * @param query the query
+   * @param docIds the sorted segment doc ids
+   * @param docBase the doc base to subtract from the doc ids
+   * @return the matches, or null
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  public Matches get(IndexReader.CacheKey coreKey, String field,
+      MtasSpanQuery query, List<Integer> docIds, int docBase)
+      throws IOException {
+    Matches matches;
+    synchronized (this) {
+      if (maximumSize <= 0) {
+        // no statistics if the cache is disabled
+        return null;
+      }
+      matches = entries.get(new MatchKey(coreKey, field, query));
+    }
+    if (matches != null && matches.covers(docIds, docBase)) {
+      synchronized (this) {
+        hits++;
+      }
+      return matches;
+    } else {
+      synchronized (this) {
+        misses++;
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Put matches.
+   *
+   * @param coreKey the core key
+   * @param field the field
+   * @param query the query
+   * @param matches the matches
+   */
+  public synchronized void put(IndexReader.CacheKey coreKey, String field,
+      MtasSpanQuery query, Matches matches) {
+    if (matches != null && maximumSize > 0
+        && matches.ramBytesUsed() <= maximumSize / 2
+        && registeredCores.containsKey(coreKey)) {
+      Matches oldMatches = entries.put(new MatchKey(coreKey, field, query),
+          matches);
+      if (oldMatches != null) {
+        size -= oldMatches.ramBytesUsed();
+      }
+      size += matches.ramBytesUsed();
+      evict();
+    }
+  }
+
+  /**
+   * Invalidate all entries for a segment core.
+   *
+   * @param coreKey the core key
+   */
+  public synchronized void invalidate(IndexReader.CacheKey coreKey) {
+    registeredCores.remove(coreKey);
+    Iterator<Entry<MatchKey, Matches>> it = entries.entrySet().iterator();
+    while (it.hasNext()) {
+      Entry<MatchKey, Matches> entry = it.next();
+      if (entry.getKey().coreKey == coreKey) {
+        size -= entry.getValue().ramBytesUsed();
+        invalidations++;
+        it.remove();
+      }
+    }
+  }
+
+  /**
+   * Clear.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    size = 0;
+  }
+
+  /**
+   * Evict least recently used entries until size is below maximum.
+   */
+  private void evict() {
+    Iterator<Entry<MatchKey, Matches>> it = entries.entrySet().iterator();
+    while (size > maximumSize && it.hasNext()) {
+      Entry<MatchKey, Matches> entry = it.next();
+      size -= entry.getValue().ramBytesUsed();
+      evictions++;
+      it.remove();
+    }
+  }
+
+  /**
+   * Gets the status.
+   *
+   * @return the status
+   */
+  public synchronized Map<String, Object> getStatus() {
+    Map<String, Object> status = new LinkedHashMap<>();
+    status.put(NAME_NUMBER, entries.size());
+    status.put(NAME_SIZE, size);
+    status.put(NAME_MAXIMUM_SIZE, maximumSize);
+    status.put(NAME_HITS, hits);
+    status.put(NAME_MISSES, misses);
+    status.put(NAME_HITRATE,
+        (hits + misses) > 0 ? (double) hits / (hits + misses) : 0.0);
+    status.put(NAME_EVICTIONS, evictions);
+    status.put(NAME_INVALIDATIONS, invalidations);
+    return Collections.unmodifiableMap(status);
+  }
+
+  /**
+   * Create a builder for matches, or null if the cache is disabled.
+   *
+   * @param maxDoc the max doc of the segment
+   * @return the matches builder
+   */
+  public synchronized MatchesBuilder createBuilder(int maxDoc) {
+    return maximumSize > 0 ? new MatchesBuilder(maxDoc, maximumSize / 2)
+        : null;
+  }
+
+  /**
+   * The Class MatchKey.
+   */
+  private static class MatchKey {
+
+    /** The core key. */
+    private final IndexReader.CacheKey coreKey;
+
+    /** The field. */
+    private final String field;
+
+    /** The query. */
+    private final MtasSpanQuery query;
+
+    /** The hash. */
+    private final int hash;
+
+    /**
+     * Instantiates a new match key.
+     *
+     * @param coreKey the core key
+     * @param field the field
+     * @param query the query
+     */
+    MatchKey(IndexReader.CacheKey coreKey, String field, MtasSpanQuery query) {
+      this.coreKey = Objects.requireNonNull(coreKey, "no core key");
+      this.field = Objects.requireNonNull(field, "no field");
+      this.query = Objects.requireNonNull(query, "no query");
+      hash = Objects.hash(System.identityHashCode(coreKey), field, query);
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    /*
+     * (non-Javadoc)
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null)
+        return false;
+      if (getClass() != obj.getClass())
+        return false;
+      MatchKey other = (MatchKey) obj;
+      return coreKey == other.coreKey && field.equals(other.field)
+          && query.equals(other.query);
+    }
+  }
+
+  /**
+   * The Class Matches.
+   *
+   * Matches for the collected documents of a segment: doc ids with at least
+   * one match, offsets into the packed start positions and widths, and the
+   * set of all collected documents.
+   */
+  public static class Matches {
+
+    /** The collected docs. */
+    private final RoaringDocIdSet collectedDocs;
+
+    /** The doc ids with matches, sorted. */
+    private final int[] docIds;
+
+    /** The offsets, one more than the number of doc ids. */
+    private final PackedLongValues offsets;
+
+    /** The start positions. */
+    private final PackedLongValues startPositions;
+
+    /** The widths. */
+    private final PackedLongValues widths;
+
+    /**
+     * Instantiates a new matches.
+     *
+     * @param collectedDocs the collected docs
+     * @param docIds the doc ids
+     * @param offsets the offsets
+     * @param startPositions the start positions
+     * @param widths the widths
+     */
+    private Matches(RoaringDocIdSet collectedDocs, int[] docIds,
+        PackedLongValues offsets, PackedLongValues startPositions,
+        PackedLongValues widths) {
+      this.collectedDocs = collectedDocs;
+      this.docIds = docIds;
+      this.offsets = offsets;
+      this.startPositions = startPositions;
+      this.widths = widths;
+    }
+
+    /**
+     * Checks if all documents have been collected.
+     *
+     * @param docList the sorted doc ids
+     * @param docBase the doc base to subtract from the doc ids
+     * @return true, if successful
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    boolean covers(List<Integer> docList, int docBase) throws IOException {
+      if (docList.isEmpty()) {
+        return true;
+      }
+      DocIdSetIterator it = collectedDocs.iterator();
+      if (it == null) {
+        return false;
+      }
+      for (int docId : docList) {
+        int segmentDocId = docId - docBase;
+        if (it.docID() < segmentDocId) {
+          it.advance(segmentDocId);
+        }
+        if (it.docID() != segmentDocId) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Index of the segment doc id, negative if no matches.
+     *
+     * @param docId the segment doc id
+     * @return the index
+     */
+    public int docIndex(int docId) {
+      return Arrays.binarySearch(docIds, docId);
+    }
+
+    /**
+     * Number of matches for the doc at the index.
+     *
+     * @param docIndex the doc index
+     * @return the number
+     */
+    public int number(int docIndex) {
+      return (int) (offsets.get(docIndex + 1L) - offsets.get(docIndex));
+    }
+
+    /**
+     * Offset of the first match for the doc at the index.
+     *
+     * @param docIndex the doc index
+     * @return the offset
+     */
+    public int offset(int docIndex) {
+      return (int) offsets.get(docIndex);
+    }
+
+    /**
+     * Start position of the match.
+     *
+     * @param matchIndex the match index
+     * @return the start position
+     */
+    public int startPosition(int matchIndex) {
+      return (int) startPositions.get(matchIndex);
+    }
+
+    /**
+     * End position of the match.
+     *
+     * @param matchIndex the match index
+     * @return the end position
+     */
+    public int endPosition(int matchIndex) {
+      return (int) (startPositions.get(matchIndex) + widths.get(matchIndex));
+    }
+
+    /**
+     * Ram bytes used.
+     *
+     * @return the long
+     */
+    public long ramBytesUsed() {
+      return collectedDocs.ramBytesUsed() + RamUsageEstimator.sizeOf(docIds)
+          + offsets.ramBytesUsed() + startPositions.ramBytesUsed()
+          + widths.ramBytesUsed();
+    }
+  }
+
+  /**
+   * The Class MatchesBuilder.
+   *
+   * Collects matches in span order, documents in increasing order. Collection
+   * is silently abandoned when the estimated size exceeds the limit.
+   */
+  public static class MatchesBuilder {
+
+    /** The max doc. */
+    private final int maxDoc;
+
+    /** The doc ids. */
+    private int[] docIds;
+
+    /** The number of doc ids. */
+    private int docNumber;
+
+    /** The offsets. */
+    private PackedLongValues.Builder offsets;
+
+    /** The start positions. */
+    private PackedLongValues.Builder startPositions;
+
+    /** The widths. */
+    private PackedLongValues.Builder widths;
+
+    /** The current doc id. */
+    private int currentDocId;
+
+    /** The number of matches. */
+    private long matchNumber;
+
+    /** The maximum size. */
+    private final long maximumSize;
+
+    /** The overflow. */
+    private boolean overflow;
+
+    /**
+     * Instantiates a new matches builder.
+     *
+     * @param maxDoc the max doc
+     * @param maximumSize the maximum size in bytes
+     */
+    MatchesBuilder(int maxDoc, long maximumSize) {
+      this.maximumSize = maximumSize;
+      this.maxDoc = maxDoc;
+      docIds = new int[16];
+      docNumber = 0;
+      offsets = PackedLongValues.monotonicBuilder(PackedInts.COMPACT);
+      startPositions = PackedLongValues.deltaPackedBuilder(PackedInts.COMPACT);
+      widths = PackedLongValues.packedBuilder(PackedInts.COMPACT);
+      currentDocId = -1;
+      matchNumber = 0;
+      overflow = false;
+    }
+
+    /**
+     * Set the current document for the next matches, in increasing order.
+     *
+     * @param docId the segment doc id
+     */
+    public void collectDoc(int docId) {
+      if (!overflow && docId > currentDocId) {
+        currentDocId = docId;
+      }
+    }
+
+    /**
+     * Adds a match for the current document, in span order.
+     *
+     * @param startPosition the start position
+     * @param endPosition the end position
+     */
+    public void addMatch(int startPosition, int endPosition) {
+      if (!overflow) {
+        if (docNumber == 0 || docIds[docNumber - 1] != currentDocId) {
+          if (docNumber == docIds.length) {
+            docIds = ArrayUtil.grow(docIds, docNumber + 1);
+          }
+          docIds[docNumber++] = currentDocId;
+          offsets.add(matchNumber);
+        }
+        startPositions.add(startPosition);
+        widths.add((long) endPosition - startPosition);
+        matchNumber++;
+        // check size now and then
+        if ((matchNumber & 0x3FFF) == 0 && (startPositions.ramBytesUsed()
+            + widths.ramBytesUsed() + offsets.ramBytesUsed()) > maximumSize) {
+          abandon();
+        }
+      }
+    }
+
+    /**
+     * Abandon collection.
+     */
+    private void abandon() {
+      overflow = true;
+      docIds = null;
+      offsets = null;
+      startPositions = null;
+      widths = null;
+      log.debug("too many matches to cache");
+    }
+
+    /**
+     * Builds the matches.
+     *
+     * @param docList the collected doc ids, including those without matches
+     * @param docBase the doc base to subtract from the doc ids
+     * @return the matches, or null if abandoned
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    public Matches build(List<Integer> docList, int docBase)
+        throws IOException {
+      if (overflow) {
+        return null;
+      } else {
+        FixedBitSet docBits = new FixedBitSet(maxDoc);
+        for (int docId : docList) {
+          docBits.set(docId - docBase);
+        }
+        RoaringDocIdSet.Builder collectedDocs = new RoaringDocIdSet.Builder(
+            maxDoc);
+        int docId = maxDoc > 0 ? docBits.nextSetBit(0)
+            : DocIdSetIterator.NO_MORE_DOCS;
+        while (docId != DocIdSetIterator.NO_MORE_DOCS) {
+          collectedDocs.add(docId);
+          docId = docId + 1 < maxDoc ? docBits.nextSetBit(docId + 1)
+              : DocIdSetIterator.NO_MORE_DOCS;
+        }
+        offsets.add(matchNumber);
+        return new Matches(collectedDocs.build(),
+            Arrays.copyOf(docIds, docNumber), offsets.build(),
+            startPositions.build(), widths.build());
+      }
+    }
+  }
+
+}
@@ -0,0 +1,262 @@
+package mtas.codec.util;
+
+import java.util.Arrays;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.IntroSorter;
+
+/**
+ * The Class CodecTermRefCounter.
+ *
+ * Counts the occurrences of terms, identified by their ref in the forward
+ * index, document by document. Terms are stored in an open addressing hash on
+ * primitive arrays, and for each term the number of documents, the total
+ * number of occurrences and the number of occurrences for each document are
+ * kept.
+ */
+public class CodecTermRefCounter {
+
+  /** The Constant INITIAL_SIZE. */
+  private static final int INITIAL_SIZE = 64;
+
+  /** The Constant EMPTY. */
+  private static final int EMPTY = -1;
+
+  /** The hash table, with the index of the term or EMPTY. */
+  private int[] table;
+
+  /** The term refs. */
+  private long[] refs;
+
+  /** The doc numbers. */
+  private int[] docNumbers;
+
+  /** The sums. */
+  private long[] sums;
+
+  /** The doc indexes for each term. */
+  private int[][] docIndexes;
+
+  /** The doc counts for each term. */
+  private int[][] docCounts;
+
+  /** The number of terms. */
+  private int size;
+
+  /** The current doc index. */
+  private int currentDocIndex;
+
+  /**
+   * Instantiates a new codec term ref counter.
+   */
+  public CodecTermRefCounter() {
+    table = new int[2 * INITIAL_SIZE];
+    Arrays.fill(table, EMPTY);
+    refs = new long[INITIAL_SIZE];
+    docNumbers = new int[INITIAL_SIZE];
+    sums = new long[INITIAL_SIZE];
+    docIndexes = new int[INITIAL_SIZE][];
+    docCounts = new int[INITIAL_SIZE][];
+    size = 0;
+    currentDocIndex = -1;
+  }
+
+  /**
+   * Start a doc, doc indexes must be increasing.
+   *
+   * @param docIndex the doc index
+   */
+  public void startDoc(int docIndex) {
+    assert docIndex > currentDocIndex : "doc indexes not increasing";
+    currentDocIndex = docIndex;
+  }
+
+  /**
+   * Adds an occurrence of a term in the current doc.
+   *
+   * @param ref the term ref
+   */
+  public void add(long ref) {
+    int term = findOrAdd(ref);
+    sums[term]++;
+    int[] termDocIndexes = docIndexes[term];
+    int number = docNumbers[term];
+    if (number > 0 && termDocIndexes[number - 1] == currentDocIndex) {
+      docCounts[term][number - 1]++;
+    } else {
+      if (termDocIndexes == null) {
+        docIndexes[term] = termDocIndexes = new int[4];
+        docCounts[term] = new int[4];
+      } else if (number == termDocIndexes.length) {
+        docIndexes[term] = termDocIndexes = ArrayUtil.grow(termDocIndexes,
+            number + 1);
+        docCounts[term] = ArrayUtil.grow(docCounts[term], number + 1);
+      }
+      termDocIndexes[number] = currentDocIndex;
+      docCounts[term][number] = 1;
+      docNumbers[term]++;
+    }
+  }
+
+  /**
+   * Find or add a term.
+   *
+   * @param ref the ref
+   * @return the index of the term
+   */
+  private int findOrAdd(long ref) {
+    int mask = table.length - 1;
+    int slot = hash(ref) & mask;
+    while (table[slot] != EMPTY) {
+      if (refs[table[slot]] == ref) {
+        return table[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (size == refs.length) {
+      int newSize = ArrayUtil.oversize(size + 1, Long.BYTES);
+      refs = Arrays.copyOf(refs, newSize);
+      docNumbers = Arrays.copyOf(docNumbers, newSize);
+      sums = Arrays.copyOf(sums, newSize);
+      docIndexes = Arrays.copyOf(docIndexes, newSize);
+      docCounts = Arrays.copyOf(docCounts, newSize);
+    }
+    refs[size] = ref;
+    table[slot] = size;
+    size++;
+    // keep load factor at most one half
+    if (2 * size > table.length) {
+      rehash(2 * table.length);
+    }
+    return size - 1;
+  }
+
+  /**
+   * Rehash.
+   *
+   * @param tableSize the table size
+   */
+  private void rehash(int tableSize) {
+    table = new int[tableSize];
+    Arrays.fill(table, EMPTY);
+    int mask = tableSize - 1;
+    for (int term = 0; term < size; term++) {
+      int slot = hash(refs[term]) & mask;
+      while (table[slot] != EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      table[slot] = term;
+    }
+  }
+
+  /**
+   * Hash.
+   *
+   * @param ref the ref
+   * @return the int
+   */
+  private static int hash(long ref) {
+    long h = ref * 0x9E3779B97F4A7C15L;
+    return (int) (h ^ (h >>> 32));
+  }
+
+  /**
+   * Number of terms.
+   *
+   * @return the int
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The indexes of the terms, sorted on ref.
+   *
+   * @return the int[]
+   */
+  public int[] sortedByRef() {
+    final int[] order = new int[size];
+    for (int term = 0; term < size; term++) {
+      order[term] = term;
+    }
+    new IntroSorter() {
+      private long pivotRef;
+
+      @Override
+      protected void swap(int i, int j) {
+        int tmp = order[i];
+        order[i] = order[j];
+        order[j] = tmp;
+      }
+
+      @Override
+      protected int compare(int i, int j) {
+        return Long.compare(refs[order[i]], refs[order[j]]);
+      }
+
+      @Override
+      protected void setPivot(int i) {
+        pivotRef = refs[order[i]];
+      }
+
+      @Override
+      protected int comparePivot(int j) {
+        return Long.compare(pivotRef, refs[order[j]]);
+      }
+    }.sort(0, size);
+    return order;
+  }
+
+  /**
+   * Ref of a term.
+   *
+   * @param term the index of the term
+   * @return the long
+   */
+  public long ref(int term) {
+    return refs[term];
+  }
+
+  /**
+   * Number of docs with a term.
+   *
+   * @param term the index of the term
+   * @return the int
+   */
+  public int docNumber(int term) {
+    return docNumbers[term];
+  }
+
+  /**
+   * Number of occurrences of a term.
+   *
+   * @param term the index of the term
+   * @return the long
+   */
+  public long sum(int term) {
+    return sums[term];
+  }
+
+  /**
+   * Doc index of the n-th doc with a term.
+   *
+   * @param term the index of the term
+   * @param n the n
+   * @return the int
+   */
+  public int docIndex(int term, int n) {
+    return docIndexes[term][n];
+  }
+
+  /**
+   * Number of occurrences of a term in the n-th doc with this term.
+   *
+   * @param term the index of the term
+   * @param n the n
+   * @return the int
+   */
+  public int docCount(int term, int n) {
+    return docCounts[term][n];
+  }
+
+}
@@ -9,12 +9,14 @@ import java.util.List;
 import java.util.Set;
 import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import mtas.analysis.token.MtasToken;
 import mtas.codec.MtasCodecPostingsFormat;
 import mtas.parser.function.util.MtasFunctionParserFunction;
 import mtas.search.spans.util.MtasSpanQuery;
+import mtas.search.spans.util.MtasSpanSharedSearcher;
 import mtas.codec.util.CodecComponent.ComponentField;
 import mtas.codec.util.CodecComponent.ComponentCollection;
 
@@ -247,20 +249,62 @@ public class CodecUtil {
       ArrayList<Integer> fullDocSet, ComponentField fieldStats, Status status)
       throws IllegalAccessException, IllegalArgumentException,
       InvocationTargetException, IOException {
+    collectField(field, searcher, rawReader, fullDocList, fullDocSet,
+        fieldStats, status, null);
+  }
+
+  /**
+   * Collect field, collecting the segments with the executor if provided.
+   *
+   * @param field
+   *          the field
+   * @param searcher
+   *          the searcher
+   * @param rawReader
+   *          the raw reader
+   * @param fullDocList
+   *          the full doc list
+   * @param fullDocSet
+   *          the full doc set
+   * @param fieldStats
+   *          the field stats
+   * @param status
+   *          the status
+   * @param executor
+   *          the executor for segment collection, or null
+   * @throws IllegalAccessException
+   *           the illegal access exception
+   * @throws IllegalArgumentException
+   *           the illegal argument exception
+   * @throws InvocationTargetException
+   *           the invocation target exception
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  public static void collectField(String field, IndexSearcher searcher,
+      IndexReader rawReader, List<Integer> fullDocList,
+      List<Integer> fullDocSet, ComponentField fieldStats, Status status,
+      ExecutorService executor) throws IllegalAccessException,
+      IllegalArgumentException, InvocationTargetException, IOException {
     if (fieldStats != null) {
       IndexReader reader = searcher.getIndexReader();
       HashMap<MtasSpanQuery, SpanWeight> spansQueryWeight = new HashMap<>();
       // only if spanQueryList is not empty
       if (fieldStats.spanQueryList.size() > 0) {
         final float boost = 0;
+        // equal subqueries are shared between all span queries
+        MtasSpanSharedSearcher sharedSearcher = new MtasSpanSharedSearcher(
+            searcher);
         for (MtasSpanQuery sq : fieldStats.spanQueryList) {
           spansQueryWeight.put(sq, ((MtasSpanQuery) sq.rewrite(reader))
-              .createWeight(searcher, ScoreMode.COMPLETE_NO_SCORES, boost));
+              .createWeight(sharedSearcher, ScoreMode.COMPLETE_NO_SCORES,
+                  boost));
         }
       }
       // collect
       CodecCollector.collectField(field, searcher, reader, rawReader,
-          fullDocList, fullDocSet, fieldStats, spansQueryWeight, status);
+          fullDocList, fullDocSet, fieldStats, spansQueryWeight, status,
+          executor);
     }
   }
 
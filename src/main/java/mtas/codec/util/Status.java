@@ -1,6 +1,7 @@
 package mtas.codec.util;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
@@ -59,7 +60,7 @@ public class Status {
    * @param numberOfSegments the number of segments
    * @throws IOException Signals that an I/O exception has occurred.
    */
-  public void init(long numberOfDocuments, int numberOfSegments) throws IOException {
+  public synchronized void init(long numberOfDocuments, int numberOfSegments) throws IOException {
     if (numberDocumentsTotal == null) {
       numberDocumentsTotal = numberOfDocuments;
     } else if (numberDocumentsTotal != numberOfDocuments) {
@@ -88,7 +89,7 @@ public class Status {
    *
    * @param subItems the sub items
    */
-  public void addSubs(Set<String> subItems) {
+  public synchronized void addSubs(Set<String> subItems) {
     for (String subItem : subItems) {
       addSub(subItem);
     }
@@ -99,7 +100,7 @@ public class Status {
    *
    * @param subItem the sub item
    */
-  public void addSub(String subItem) {
+  public synchronized void addSub(String subItem) {
     if (!subNumberSegmentsFinished.containsKey(subItem)) {
       subNumberSegmentsFinished.put(subItem, 0);
       if (numberSegmentsTotal != null) {
@@ -114,4 +115,36 @@ public class Status {
     }
   }
 
+  /**
+   * Update the number of documents found, if larger.
+   *
+   * @param numberOfDocumentsFound the number of documents found
+   */
+  public synchronized void updateNumberDocumentsFound(long numberOfDocumentsFound) {
+    if (numberDocumentsFound == null || numberDocumentsFound < numberOfDocumentsFound) {
+      numberDocumentsFound = numberOfDocumentsFound;
+    }
+  }
+
+  /**
+   * Register a finished segment for the sub item.
+   *
+   * @param subItem the sub item
+   * @param numberOfDocuments the number of documents in the segment
+   */
+  public synchronized void finishSegment(String subItem, long numberOfDocuments) {
+    Integer segmentNumber;
+    Long documentNumber;
+    if ((segmentNumber = subNumberSegmentsFinished.get(subItem)) != null) {
+      subNumberSegmentsFinished.put(subItem, segmentNumber + 1);
+      subNumberSegmentsFinishedTotal++;
+      numberSegmentsFinished = Collections.max(subNumberSegmentsFinished.values());
+    }
+    if ((documentNumber = subNumberDocumentsFinished.get(subItem)) != null) {
+      subNumberDocumentsFinished.put(subItem, documentNumber + numberOfDocuments);
+      subNumberDocumentsFinishedTotal += numberOfDocuments;
+      numberDocumentsFinished = Collections.max(subNumberDocumentsFinished.values());
+    }
+  }
+
 }
@@ -145,11 +145,11 @@ abstract class MtasDataAdvanced<T1 extends Number & Comparable<T1>, T2 extends N
       newAdvancedValueNList[newPosition] = 0;
     }
     newErrorNumber[newPosition]+=number;
-    if (newErrorList[newPosition].containsKey(error)) {
-      newErrorList[newPosition].put(error,
-          newErrorList[newPosition].get(error) + number);
+    HashMap<String, Integer> item = newErrorListItem(newPosition);
+    if (item.containsKey(error)) {
+      item.put(error, item.get(error) + number);
     } else {
-      newErrorList[newPosition].put(error, number);
+      item.put(error, number);
     }
   }
 
@@ -402,12 +402,18 @@ abstract class MtasDataAdvanced<T1 extends Number & Comparable<T1>, T2 extends N
     for (int i = 0; i < mapping.length; i++) {
       for (int j = 0; j < mapping[i].length; j++) {
         if (j == 0) {
-          setValue(i, originalAdvancedValueSumList[mapping[i][j]],
-              originalAdvancedValueSumOfLogsList[mapping[i][j]],
-              originalAdvancedValueSumOfSquaresList[mapping[i][j]],
-              originalAdvancedValueMinList[mapping[i][j]],
-              originalAdvancedValueMaxList[mapping[i][j]],
-              originalAdvancedValueNList[mapping[i][j]], false);
+          // assign directly, setValue ignores keys with only errors
+          newAdvancedValueSumList[i] =
+              originalAdvancedValueSumList[mapping[i][j]];
+          newAdvancedValueSumOfLogsList[i] =
+              originalAdvancedValueSumOfLogsList[mapping[i][j]];
+          newAdvancedValueSumOfSquaresList[i] =
+              originalAdvancedValueSumOfSquaresList[mapping[i][j]];
+          newAdvancedValueMinList[i] =
+              originalAdvancedValueMinList[mapping[i][j]];
+          newAdvancedValueMaxList[i] =
+              originalAdvancedValueMaxList[mapping[i][j]];
+          newAdvancedValueNList[i] = originalAdvancedValueNList[mapping[i][j]];
         } else {
           setValue(i, originalAdvancedValueSumList[mapping[i][j]],
               originalAdvancedValueSumOfLogsList[mapping[i][j]],
@@ -118,11 +118,11 @@ abstract class MtasDataBasic<T1 extends Number & Comparable<T1>, T2 extends Numb
       newBasicValueNList[newPosition] = 0;
     }
     newErrorNumber[newPosition]+=number;
-    if (newErrorList[newPosition].containsKey(error)) {
-      newErrorList[newPosition].put(error,
-          newErrorList[newPosition].get(error) + number);
+    HashMap<String, Integer> item = newErrorListItem(newPosition);
+    if (item.containsKey(error)) {
+      item.put(error, item.get(error) + number);
     } else {
-      newErrorList[newPosition].put(error, number);
+      item.put(error, number);
     }
   }
 
@@ -296,8 +296,9 @@ abstract class MtasDataBasic<T1 extends Number & Comparable<T1>, T2 extends Numb
     for (int i = 0; i < mapping.length; i++) {
       for (int j = 0; j < mapping[i].length; j++) {
         if (j == 0) {
-          setValue(i, originalBasicValueSumList[mapping[i][j]],
-              originalBasicValueNList[mapping[i][j]], false);
+          // assign directly, setValue ignores keys with only errors
+          newBasicValueSumList[i] = originalBasicValueSumList[mapping[i][j]];
+          newBasicValueNList[i] = originalBasicValueNList[mapping[i][j]];
         } else {
           setValue(i, originalBasicValueSumList[mapping[i][j]],
               originalBasicValueNList[mapping[i][j]], true);
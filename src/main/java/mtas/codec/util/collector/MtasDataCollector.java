@@ -4,18 +4,18 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.SortedMap;
 import java.util.SortedSet;
 import java.util.TreeMap;
 import java.util.Map.Entry;
 
+import org.apache.lucene.util.IntroSorter;
+
 import mtas.codec.util.DataCollector;
 import mtas.solr.handler.component.util.MtasSolrMtasResult;
 
@@ -55,6 +55,9 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
   /** The Constant SEGMENT_POSSIBLE_KEY. */
   public static final String SEGMENT_POSSIBLE_KEY = "possible_key";
 
+  /** The Constant NEW_KEY_TABLE_EMPTY. */
+  private static final int NEW_KEY_TABLE_EMPTY = -1;
+
   /** The size. */
   protected int size;
 
@@ -189,9 +192,15 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
   /** The new error number. */
   protected transient int[] newErrorNumber;
 
-  /** The new error list. */
+  /** The new error list, with null for keys without errors. */
   protected transient HashMap<String, Integer>[] newErrorList;
 
+  /**
+   * The open addressing hash table from keys in the new key list to their
+   * position, or NEW_KEY_TABLE_EMPTY.
+   */
+  private transient int[] newKeyTable = null;
+
   /** The new known key found in segment. */
   public transient Set<String> newKnownKeyFoundInSegment;
 
@@ -490,6 +499,11 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
       if (hasSub) {
         newSubCollectorListNextLevel = new MtasDataCollector[newSize];
       }
+      if (collectorType.equals(DataCollector.COLLECTOR_TYPE_LIST)) {
+        rehashNewKeyTable(newSize);
+      } else {
+        newKeyTable = null;
+      }
     } else {
       throw new IOException("already closed");
     }
@@ -529,6 +543,78 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
     }
   }
 
+  /**
+   * Rebuild the hash table for the keys in the new key list, with room for at
+   * least the provided number of keys.
+   *
+   * @param minimumNumber the minimum number of keys
+   */
+  private void rehashNewKeyTable(int minimumNumber) {
+    // keep load factor at most one half
+    int tableSize = 16;
+    while (tableSize < 2 * minimumNumber) {
+      tableSize <<= 1;
+    }
+    newKeyTable = new int[tableSize];
+    Arrays.fill(newKeyTable, NEW_KEY_TABLE_EMPTY);
+    int mask = tableSize - 1;
+    for (int i = 0; i < newPosition; i++) {
+      int slot = newKeyHash(newKeyList[i]) & mask;
+      while (newKeyTable[slot] != NEW_KEY_TABLE_EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      newKeyTable[slot] = i;
+    }
+  }
+
+  /**
+   * Find a key in the new key list.
+   *
+   * @param key the key
+   * @return the position, or -1 if not found
+   */
+  private int findNewKey(String key) {
+    int mask = newKeyTable.length - 1;
+    int slot = newKeyHash(key) & mask;
+    int i;
+    while ((i = newKeyTable[slot]) != NEW_KEY_TABLE_EMPTY) {
+      if (newKeyList[i].equals(key)) {
+        return i;
+      }
+      slot = (slot + 1) & mask;
+    }
+    return -1;
+  }
+
+  /**
+   * Register the key at the last position of the new key list in the hash
+   * table.
+   */
+  private void registerNewKey() {
+    if (2 * newPosition > newKeyTable.length) {
+      rehashNewKeyTable(newPosition);
+    } else {
+      int mask = newKeyTable.length - 1;
+      int slot = newKeyHash(newKeyList[newPosition - 1]) & mask;
+      while (newKeyTable[slot] != NEW_KEY_TABLE_EMPTY) {
+        slot = (slot + 1) & mask;
+      }
+      newKeyTable[slot] = newPosition - 1;
+    }
+  }
+
+  /**
+   * Hash of a key for the new key table.
+   *
+   * @param key the key
+   * @return the int
+   */
+  private static int newKeyHash(String key) {
+    int h = key.hashCode();
+    // spread higher bits, the table size is a power of two
+    return h ^ (h >>> 16);
+  }
+
   /**
    * Adds the.
    *
@@ -566,7 +652,7 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
           newKeyList[0] = DataCollector.COLLECTOR_TYPE_DATA;
           newSourceNumberList[0] = 1;
           newErrorNumber[0] = 0;
-          newErrorList[0] = new HashMap<>();
+          newErrorList[0] = null;
           newPosition = 1;
           newCurrentPosition = newPosition - 1;
           newCurrentExisting = false;
@@ -607,22 +693,16 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
       } else if (key == null) {
         throw new IOException("key shouldn't be null");
       } else {
-        // check previous added
-        if ((newPosition > 0)
-            && newKeyList[(newPosition - 1)].compareTo(key) >= 0) {
-          int i = newPosition;
-          do {
-            i--;
-            if (newKeyList[i].equals(key)) {
-              newCurrentPosition = i;
-              newCurrentExisting = true;
-              if (subDataTypes != null) {
-                return newSubCollectorListNextLevel[newCurrentPosition];
-              } else {
-                return null;
-              }
-            }
-          } while ((i > 0) && (newKeyList[i].compareTo(key) > 0));
+        // check previous added, keys can arrive in any order
+        int i = findNewKey(key);
+        if (i >= 0) {
+          newCurrentPosition = i;
+          newCurrentExisting = true;
+          if (subDataTypes != null) {
+            return newSubCollectorListNextLevel[newCurrentPosition];
+          } else {
+            return null;
+          }
         }
         // move position in old list
         if (position < getSize()) {
@@ -642,6 +722,7 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
             copyToNew(position, newPosition);
             newPosition++;
             position++;
+            registerNewKey();
             // check if added key from list is right key
             if (newKeyList[(newPosition - 1)].equals(key)) {
               if (increaseSourceNumber) {
@@ -671,8 +752,9 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
         newKeyList[newPosition] = key;
         newSourceNumberList[newPosition] = 1;
         newErrorNumber[newPosition] = 0;
-        newErrorList[newPosition] = new HashMap<>();
+        newErrorList[newPosition] = null;
         newPosition++;
+        registerNewKey();
         newCurrentPosition = newPosition - 1;
         newCurrentExisting = false;
         // ready, only handle sub
@@ -716,7 +798,7 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
       newKeyList[newPosition] = key;
       newSourceNumberList[newPosition] = 1;
       newErrorNumber[newPosition] = 0;
-      newErrorList[newPosition] = new HashMap<>();
+      newErrorList[newPosition] = null;
       newCurrentPosition = newPosition - 1;
       newCurrentExisting = false;
       // ready, only handle sub
@@ -1091,13 +1173,15 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
     if (!closed) {
       if (currentExisting) {
         newErrorNumber[newPosition] += errorNumberItem;
-        HashMap<String, Integer> item = newErrorList[newPosition];
-        for (Entry<String, Integer> entry : errorListItem.entrySet()) {
-          if (item.containsKey(entry.getKey())) {
-            item.put(entry.getKey(),
-                item.get(entry.getKey()) + entry.getValue());
-          } else {
-            item.put(entry.getKey(), entry.getValue());
+        if (errorListItem != null && !errorListItem.isEmpty()) {
+          HashMap<String, Integer> item = newErrorListItem(newPosition);
+          for (Entry<String, Integer> entry : errorListItem.entrySet()) {
+            if (item.containsKey(entry.getKey())) {
+              item.put(entry.getKey(),
+                  item.get(entry.getKey()) + entry.getValue());
+            } else {
+              item.put(entry.getKey(), entry.getValue());
+            }
           }
         }
       } else {
@@ -1109,6 +1193,20 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
     }
   }
 
+  /**
+   * The error list item at a position in the new list, created if not
+   * available.
+   *
+   * @param newPosition the new position
+   * @return the hash map
+   */
+  protected final HashMap<String, Integer> newErrorListItem(int newPosition) {
+    if (newErrorList[newPosition] == null) {
+      newErrorList[newPosition] = new HashMap<>();
+    }
+    return newErrorList[newPosition];
+  }
+
   /**
    * Sorted and unique.
    *
@@ -1139,25 +1237,62 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
    * @return the int[][]
    * @throws IOException Signals that an I/O exception has occurred.
    */
-  private int[][] computeSortAndUniqueMapping(String[] keyList, int size)
-      throws IOException {
+  private int[][] computeSortAndUniqueMapping(final String[] keyList,
+      int size) throws IOException {
     if (!closed) {
       if (size > 0) {
-        SortedMap<String, int[]> sortedMap = new TreeMap<>();
+        // sort positions on key, equal keys on position
+        final int[] order = new int[size];
         for (int i = 0; i < size; i++) {
-          if (sortedMap.containsKey(keyList[i])) {
-            int[] previousList = sortedMap.get(keyList[i]);
-            int[] newList = new int[previousList.length + 1];
-            System.arraycopy(previousList, 0, newList, 0, previousList.length);
-            newList[previousList.length] = i;
-            sortedMap.put(keyList[i], newList);
-          } else {
-            sortedMap.put(keyList[i], new int[] { i });
+          order[i] = i;
+        }
+        new IntroSorter() {
+          private String pivotKey;
+          private int pivotPosition;
+
+          @Override
+          protected void swap(int i, int j) {
+            int tmp = order[i];
+            order[i] = order[j];
+            order[j] = tmp;
+          }
+
+          @Override
+          protected int compare(int i, int j) {
+            int c = keyList[order[i]].compareTo(keyList[order[j]]);
+            return c != 0 ? c : Integer.compare(order[i], order[j]);
+          }
+
+          @Override
+          protected void setPivot(int i) {
+            pivotKey = keyList[order[i]];
+            pivotPosition = order[i];
+          }
+
+          @Override
+          protected int comparePivot(int j) {
+            int c = pivotKey.compareTo(keyList[order[j]]);
+            return c != 0 ? c : Integer.compare(pivotPosition, order[j]);
+          }
+        }.sort(0, size);
+        // group positions with equal keys
+        int number = 1;
+        for (int i = 1; i < size; i++) {
+          if (!keyList[order[i]].equals(keyList[order[i - 1]])) {
+            number++;
+          }
+        }
+        int[][] result = new int[number][];
+        int groupStart = 0;
+        number = 0;
+        for (int i = 1; i <= size; i++) {
+          if (i == size
+              || !keyList[order[i]].equals(keyList[order[groupStart]])) {
+            result[number++] = Arrays.copyOfRange(order, groupStart, i);
+            groupStart = i;
           }
         }
-        Collection<int[]> values = sortedMap.values();
-        int[][] result = new int[sortedMap.size()][];
-        return values.toArray(result);
+        return result;
       } else {
         return null;
       }
@@ -1190,13 +1325,18 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
             newErrorList[i] = errorList[mapping[i][j]];
           } else {
             newErrorNumber[i] += errorNumber[mapping[i][j]];
-            for (Entry<String, Integer> entry : errorList[mapping[i][j]]
-                .entrySet()) {
-              if (newErrorList[i].containsKey(entry.getKey())) {
-                newErrorList[i].put(entry.getKey(),
-                    newErrorList[i].get(entry.getKey()) + entry.getValue());
-              } else {
-                newErrorList[i].put(entry.getKey(), entry.getValue());
+            if (errorList[mapping[i][j]] != null) {
+              if (newErrorList[i] == null) {
+                newErrorList[i] = new HashMap<>();
+              }
+              for (Entry<String, Integer> entry : errorList[mapping[i][j]]
+                  .entrySet()) {
+                if (newErrorList[i].containsKey(entry.getKey())) {
+                  newErrorList[i].put(entry.getKey(),
+                      newErrorList[i].get(entry.getKey()) + entry.getValue());
+                } else {
+                  newErrorList[i].put(entry.getKey(), entry.getValue());
+                }
               }
             }
           }
@@ -1267,6 +1407,7 @@ public abstract class MtasDataCollector<T1 extends Number & Comparable<T1>, T2 e
           remapData(computeSortAndUniqueMapping(keyList, getSize()));
         }
       }
+      newKeyTable = null;
       position = 0;
       newSize = 0;
       newPosition = 0;
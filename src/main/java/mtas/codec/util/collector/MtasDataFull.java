@@ -110,11 +110,11 @@ abstract class MtasDataFull<T1 extends Number & Comparable<T1>, T2 extends Numbe
       newFullValueList[newPosition] = operations.createVector1(0);
     }
     newErrorNumber[newPosition]+=number;
-    if (newErrorList[newPosition].containsKey(error)) {
-      newErrorList[newPosition].put(error,
-          newErrorList[newPosition].get(error) + number);
+    HashMap<String, Integer> item = newErrorListItem(newPosition);
+    if (item.containsKey(error)) {
+      item.put(error, item.get(error) + number);
     } else {
-      newErrorList[newPosition].put(error, number);
+      item.put(error, number);
     }
   }
 
@@ -262,8 +262,8 @@ abstract class MtasDataFull<T1 extends Number & Comparable<T1>, T2 extends Numbe
     for (int i = 0; i < mapping.length; i++) {
       for (int j = 0; j < mapping[i].length; j++) {
         if (j == 0) {
-          setValue(i, originalFullValueList[mapping[i][j]],
-              originalFullValueList[mapping[i][j]].length, false);
+          // assign directly, setValue ignores keys with only errors
+          newFullValueList[i] = originalFullValueList[mapping[i][j]];
         } else {
           setValue(i, originalFullValueList[mapping[i][j]],
               originalFullValueList[mapping[i][j]].length, true);
@@ -292,7 +292,7 @@ abstract class MtasDataFull<T1 extends Number & Comparable<T1>, T2 extends Numbe
       segmentRegistration = null;
       @SuppressWarnings("unchecked")
       MtasDataFull<T1, T2> newMtasDataFull = (MtasDataFull<T1, T2>) newDataCollector;
-      closeNewList();
+      newMtasDataFull.closeNewList();
       initNewList(newMtasDataFull.getSize());
       newDataCollector.mergedInto = this;
       if (collectorType.equals(DataCollector.COLLECTOR_TYPE_LIST)) {
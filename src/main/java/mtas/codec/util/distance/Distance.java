@@ -1,9 +1,14 @@
 package mtas.codec.util.distance;
 
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
 
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.Automata;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+import org.apache.lucene.util.automaton.Operations;
 
 import mtas.analysis.token.MtasToken;
 
@@ -98,4 +103,74 @@ public abstract class Distance {
    */
   public abstract boolean validateMinimum(BytesRef term);
 
+  /**
+   * The end of the part of the term after the prefix that is compared, which
+   * stops at the first null character.
+   *
+   * @param term the term
+   * @return the end offset
+   */
+  protected int termEnd(BytesRef term) {
+    int end = term.offset + term.length;
+    for (int i = term.offset + prefixOffset; i < end; i++) {
+      if (term.bytes[i] == 0x00) {
+        return i;
+      }
+    }
+    return end;
+  }
+
+  /**
+   * Creates an automaton accepting at least all terms within the maximum
+   * distance, so only for these terms the distance has to be computed.
+   *
+   * @return the automaton, null if not available
+   */
+  public Automaton createMaximumAutomaton() {
+    return null;
+  }
+
+  /**
+   * Creates a levenshtein automaton for the base, for terms with the prefix.
+   * Terms are compared byte by byte, so this is only an automaton accepting
+   * at least all terms within the number of edits if prefix and base are
+   * ascii, otherwise null is returned.
+   *
+   * @param edits the maximum number of edits
+   * @param transpositions if transpositions are single edits
+   * @return the automaton, null if not available
+   */
+  protected Automaton createLevenshteinAutomaton(int edits,
+      boolean transpositions) {
+    if (edits < 0 || edits > LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE
+        || !isAscii(prefix) || !isAscii(base)) {
+      return null;
+    } else {
+      Automaton automaton = new LevenshteinAutomata(base, transpositions)
+          .toAutomaton(edits);
+      // the distance ignores everything after a null character
+      Automaton tail = Operations.union(Automata.makeEmptyString(),
+          Operations.concatenate(Automata.makeChar(0x00),
+              Automata.makeAnyString()));
+      return Operations.concatenate(
+          Arrays.asList(Automata.makeString(prefix + MtasToken.DELIMITER),
+              automaton, tail));
+    }
+  }
+
+  /**
+   * Checks if is ascii.
+   *
+   * @param text the text
+   * @return true, if is ascii
+   */
+  private static boolean isAscii(String text) {
+    for (int i = 0; i < text.length(); i++) {
+      if (text.charAt(i) > 0x7F) {
+        return false;
+      }
+    }
+    return true;
+  }
+
 }
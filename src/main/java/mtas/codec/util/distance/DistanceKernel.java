@@ -0,0 +1,347 @@
+package mtas.codec.util.distance;
+
+/**
+ * The Class DistanceKernel.
+ *
+ * Weighted edit distance between a fixed pattern and a sequence of characters
+ * that is fed character by character, optionally with transpositions of
+ * adjacent characters (optimal string alignment). The state is kept in a
+ * reusable evaluator for each thread, so no arrays are allocated for each
+ * compared term. If all weights are one and the pattern has at most 64
+ * characters, the bit-parallel algorithm of Myers and Hyyro is used, with
+ * integer scores; otherwise the rows of the dynamic programming matrix are
+ * computed with the configured weights.
+ */
+public final class DistanceKernel {
+
+  /** The Constant MAXIMUM_BIT_PARALLEL_LENGTH. */
+  private static final int MAXIMUM_BIT_PARALLEL_LENGTH = 64;
+
+  /** The Constant EVALUATOR. */
+  private static final ThreadLocal<Evaluator> EVALUATOR = ThreadLocal
+      .withInitial(Evaluator::new);
+
+  /** The pattern. */
+  private final char[] pattern;
+
+  /** The deletion distance. */
+  private final double deletionDistance;
+
+  /** The insertion distance. */
+  private final double insertionDistance;
+
+  /** The replace distance. */
+  private final double replaceDistance;
+
+  /** The transposition distance. */
+  private final double transpositionDistance;
+
+  /** The transpositions. */
+  private final boolean transpositions;
+
+  /** The initial state. */
+  private final double[] initialState;
+
+  /**
+   * The bit masks of the pattern positions for each byte value, null if not
+   * bit-parallel.
+   */
+  private final long[] byteMasks;
+
+  /**
+   * Instantiates a new distance kernel without transpositions.
+   *
+   * @param pattern the pattern
+   * @param deletionDistance the deletion distance
+   * @param insertionDistance the insertion distance
+   * @param replaceDistance the replace distance
+   */
+  public DistanceKernel(String pattern, double deletionDistance,
+      double insertionDistance, double replaceDistance) {
+    this(pattern, deletionDistance, insertionDistance, replaceDistance, 0,
+        false);
+  }
+
+  /**
+   * Instantiates a new distance kernel with transpositions.
+   *
+   * @param pattern the pattern
+   * @param deletionDistance the deletion distance
+   * @param insertionDistance the insertion distance
+   * @param replaceDistance the replace distance
+   * @param transpositionDistance the transposition distance
+   */
+  public DistanceKernel(String pattern, double deletionDistance,
+      double insertionDistance, double replaceDistance,
+      double transpositionDistance) {
+    this(pattern, deletionDistance, insertionDistance, replaceDistance,
+        transpositionDistance, true);
+  }
+
+  /**
+   * Instantiates a new distance kernel.
+   *
+   * @param pattern the pattern
+   * @param deletionDistance the deletion distance
+   * @param insertionDistance the insertion distance
+   * @param replaceDistance the replace distance
+   * @param transpositionDistance the transposition distance
+   * @param transpositions the transpositions
+   */
+  private DistanceKernel(String pattern, double deletionDistance,
+      double insertionDistance, double replaceDistance,
+      double transpositionDistance, boolean transpositions) {
+    this.pattern = pattern.toCharArray();
+    this.deletionDistance = deletionDistance;
+    this.insertionDistance = insertionDistance;
+    this.replaceDistance = replaceDistance;
+    this.transpositionDistance = transpositionDistance;
+    this.transpositions = transpositions;
+    initialState = new double[this.pattern.length + 1];
+    for (int i = 0; i <= this.pattern.length; i++) {
+      initialState[i] = i * insertionDistance;
+    }
+    if (this.pattern.length > 0
+        && this.pattern.length <= MAXIMUM_BIT_PARALLEL_LENGTH
+        && deletionDistance == 1.0 && insertionDistance == 1.0
+        && replaceDistance == 1.0
+        && (!transpositions || transpositionDistance == 1.0)) {
+      byteMasks = new long[256];
+      for (int i = 0; i < this.pattern.length; i++) {
+        char ch = this.pattern[i];
+        // only these characters are equal to a byte cast to a character
+        if (ch < 0x80 || ch >= 0xFF80) {
+          byteMasks[ch & 0xFF] |= 1L << i;
+        }
+      }
+    } else {
+      byteMasks = null;
+    }
+  }
+
+  /**
+   * Checks if the bit-parallel algorithm is used.
+   *
+   * @return true, if is bit parallel
+   */
+  public boolean isBitParallel() {
+    return byteMasks != null;
+  }
+
+  /**
+   * Start the computation of a distance, resetting the evaluator for the
+   * current thread. The evaluator is valid until the next start on the same
+   * thread.
+   *
+   * @return the evaluator
+   */
+  public Evaluator start() {
+    Evaluator evaluator = EVALUATOR.get();
+    evaluator.reset(this);
+    return evaluator;
+  }
+
+  /**
+   * The bit mask of the pattern positions equal to a character.
+   *
+   * @param ch the character
+   * @return the long
+   */
+  private long mask(char ch) {
+    if (ch < 0x80 || ch >= 0xFF80) {
+      return byteMasks[ch & 0xFF];
+    } else {
+      long mask = 0;
+      for (int i = 0; i < pattern.length; i++) {
+        if (pattern[i] == ch) {
+          mask |= 1L << i;
+        }
+      }
+      return mask;
+    }
+  }
+
+  /**
+   * The Class Evaluator.
+   *
+   * Reusable state for the computation of a distance with a kernel.
+   */
+  public static final class Evaluator {
+
+    /** The kernel. */
+    private DistanceKernel kernel;
+
+    /** The row before the previous row. */
+    private double[] state0;
+
+    /** The previous row. */
+    private double[] state1;
+
+    /** The current row. */
+    private double[] state2;
+
+    /** The previous character. */
+    private char previous;
+
+    /** The vertical positive deltas. */
+    private long vp;
+
+    /** The vertical negative deltas. */
+    private long vn;
+
+    /** The diagonal zero deltas. */
+    private long d0;
+
+    /** The mask of the previous character. */
+    private long previousMask;
+
+    /** The bit of the last pattern position. */
+    private long lastBit;
+
+    /** The score. */
+    private int score;
+
+    /**
+     * Instantiates a new evaluator.
+     */
+    private Evaluator() {
+      state0 = new double[0];
+      state1 = state0;
+      state2 = state0;
+    }
+
+    /**
+     * Reset.
+     *
+     * @param kernel the kernel
+     */
+    private void reset(DistanceKernel kernel) {
+      this.kernel = kernel;
+      previous = 0x00;
+      if (kernel.byteMasks != null) {
+        int length = kernel.pattern.length;
+        vp = length == 64 ? -1L : (1L << length) - 1;
+        vn = 0;
+        d0 = 0;
+        previousMask = 0;
+        lastBit = 1L << (length - 1);
+        score = length;
+      } else {
+        int length = kernel.initialState.length;
+        if (state2.length < length) {
+          state0 = new double[length];
+          state1 = new double[length];
+          state2 = new double[length];
+        }
+        System.arraycopy(kernel.initialState, 0, state2, 0, length);
+      }
+    }
+
+    /**
+     * Step with the next character.
+     *
+     * @param ch the character
+     */
+    public void step(char ch) {
+      if (kernel.byteMasks != null) {
+        stepBitParallel(ch);
+      } else {
+        stepWeighted(ch);
+      }
+      previous = ch;
+    }
+
+    /**
+     * Step with the bit-parallel algorithm.
+     *
+     * @param ch the character
+     */
+    private void stepBitParallel(char ch) {
+      long mask = kernel.mask(ch);
+      long d = (((mask & vp) + vp) ^ vp) | mask | vn;
+      if (kernel.transpositions) {
+        d |= (((~d0) & mask) << 1) & previousMask;
+        previousMask = mask;
+      }
+      d0 = d;
+      long hp = vn | ~(d | vp);
+      long hn = d & vp;
+      if ((hp & lastBit) != 0) {
+        score++;
+      } else if ((hn & lastBit) != 0) {
+        score--;
+      }
+      hp = (hp << 1) | 1L;
+      hn = hn << 1;
+      vp = hn | ~(d | hp);
+      vn = hp & d;
+    }
+
+    /**
+     * Step with the weights.
+     *
+     * @param ch the character
+     */
+    private void stepWeighted(char ch) {
+      char[] pattern = kernel.pattern;
+      double cost;
+      double value;
+      double[] tmpState = state0;
+      state0 = state1;
+      state1 = state2;
+      state2 = tmpState;
+      state2[0] = state1[0] + kernel.deletionDistance;
+      for (int i = 0; i < pattern.length; i++) {
+        cost = (pattern[i] == ch) ? 0 : kernel.replaceDistance;
+        value = Math.min(state2[i] + kernel.insertionDistance,
+            state1[i] + cost);
+        value = Math.min(value, state1[i + 1] + kernel.deletionDistance);
+        if (kernel.transpositions && i > 0 && previous != 0x00
+            && pattern[i - 1] == ch && pattern[i] == previous) {
+          value = Math.min(value,
+              state0[i - 1] + kernel.transpositionDistance);
+        }
+        state2[i + 1] = value;
+      }
+    }
+
+    /**
+     * Checks if the distance can still be below the maximum.
+     *
+     * @param maximum the maximum
+     * @param remaining the number of remaining characters
+     * @return true, if successful
+     */
+    public boolean canMatch(double maximum, int remaining) {
+      if (kernel.byteMasks != null) {
+        // each remaining character decreases the score at most by one
+        return score - remaining < maximum;
+      } else {
+        // a transposition in the next step continues from the previous row
+        int length = kernel.initialState.length;
+        for (int i = 0; i < length; i++) {
+          if (state2[i] < maximum || (kernel.transpositions
+              && previous != 0x00 && state1[i] < maximum)) {
+            return true;
+          }
+        }
+        return false;
+      }
+    }
+
+    /**
+     * Distance.
+     *
+     * @return the double
+     */
+    public double distance() {
+      if (kernel.byteMasks != null) {
+        return score;
+      } else {
+        return state2[kernel.initialState.length - 1];
+      }
+    }
+
+  }
+
+}
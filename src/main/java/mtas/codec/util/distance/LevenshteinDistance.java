@@ -1,18 +1,18 @@
 package mtas.codec.util.distance;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.Map;
 import java.util.Map.Entry;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.Automaton;
 
 /**
  * The Class LevenshteinDistance.
  */
 public class LevenshteinDistance extends Distance {
 
-  /** The initial state. */
-  protected final double[] initialState;
+  /** The kernel. */
+  protected DistanceKernel kernel;
 
   /** The Constant defaultDeletionDistance. */
   protected final static double defaultDeletionDistance = 1.0;
@@ -70,10 +70,8 @@ public class LevenshteinDistance extends Distance {
     if (deletionDistance < 0 || insertionDistance < 0 || replaceDistance < 0) {
       throw new IOException("distances should be zero or positive");
     }
-    initialState = new double[base.length() + 1];
-    for (int i = 0; i <= base.length(); i++) {
-      initialState[i] = i * insertionDistance;
-    }
+    kernel = new DistanceKernel(base, deletionDistance, insertionDistance,
+        replaceDistance);
   }
 
   /*
@@ -82,24 +80,20 @@ public class LevenshteinDistance extends Distance {
    * @see
    * mtas.codec.util.distance.Distance#validate(org.apache.lucene.util.BytesRef)
    */
+  @Override
   public boolean validateMaximum(BytesRef term) {
     if (maximum == null) {
       return true;
     } else {
-      double[][] state = _start();
-      char ch1;
-      int i = term.offset + prefixOffset;
-      for (; i < term.length; i++) {
-        ch1 = (char) term.bytes[i];
-        if (ch1 == 0x00) {
-          break;
-        }
-        state = _step(state, ch1);
-        if (!_can_match(state)) {
+      DistanceKernel.Evaluator evaluator = kernel.start();
+      int end = termEnd(term);
+      for (int i = term.offset + prefixOffset; i < end; i++) {
+        evaluator.step((char) term.bytes[i]);
+        if (!evaluator.canMatch(maximum, end - i - 1)) {
           return false;
         }
       }
-      return _is_match(state);
+      return evaluator.distance() < maximum;
     }
   }
   
@@ -112,115 +106,73 @@ public class LevenshteinDistance extends Distance {
     }
   }
   
-  @Override
-  public double compute(BytesRef term) {
-    double[][] state = _start();
-    char ch1;
-    int i = term.offset + prefixOffset;
-    for (; i < term.length; i++) {
-      ch1 = (char) term.bytes[i];
-      if (ch1 == 0x00) {
-        break;
-      }
-      state = _step(state, ch1);
-    }
-    return _distance(state);
-  }
-  
   /*
    * (non-Javadoc)
    * 
-   * @see mtas.codec.util.distance.Distance#compute(java.lang.String)
+   * @see mtas.codec.util.distance.Distance#createMaximumAutomaton()
    */
   @Override
-  public double compute(String key) {
-    double[][] state = _start();
-    for (char ch1 : key.toCharArray()) {
-      if (ch1 == 0x00) {
-        break;
-      }
-      state = _step(state, ch1);
-    }
-    return _distance(state);
-  }
-
-  /**
-   * Start.
-   *
-   * @return the double[][]
-   */
-  private double[][] _start() {
-    double[][] startState = new double[2][];
-    startState[0] = new double[initialState.length];
-    startState[1] = Arrays.copyOf(initialState, initialState.length);
-    return startState;
+  public Automaton createMaximumAutomaton() {
+    return createMaximumAutomaton(Math.min(deletionDistance,
+        Math.min(insertionDistance, replaceDistance)), false);
   }
 
   /**
-   * Step.
+   * Creates an automaton accepting at least all terms within the maximum
+   * distance, given the minimum cost of an edit.
    *
-   * @param state the state
-   * @param ch1 the ch 1
-   * @return the double[][]
+   * @param minimumCost the minimum cost of an edit
+   * @param transpositions if transpositions are single edits
+   * @return the automaton, null if not available
    */
-  private double[][] _step(double[][] state, char ch1) {
-    double cost;
-    _shift(state);
-    state[1][0] = state[0][0] + deletionDistance;
-    for (int i = 0; i < base.length(); i++) {
-      cost = (base.charAt(i) == ch1) ? 0 : replaceDistance;
-      state[1][i + 1] = Math.min(state[1][i] + insertionDistance,
-          state[0][i] + cost);
-      state[1][i + 1] = Math.min(state[1][i + 1],
-          state[0][i + 1] + deletionDistance);
+  protected Automaton createMaximumAutomaton(double minimumCost,
+      boolean transpositions) {
+    if (maximum == null || minimumCost <= 0) {
+      return null;
+    } else {
+      // each edit adds at least the minimum cost, and the distance has to be
+      // strictly below the maximum
+      double edits = Math.ceil(maximum / minimumCost) - 1;
+      // don't lose terms by rounding of the division
+      while (edits < Integer.MAX_VALUE && (edits + 1) * minimumCost < maximum) {
+        edits++;
+      }
+      return edits > Integer.MAX_VALUE ? null
+          : createLevenshteinAutomaton((int) edits, transpositions);
     }
-    return state;
   }
 
-  /**
-   * Shift.
-   *
-   * @param state the state
-   */
-  private void _shift(double[][] state) {
-    double[] tmpState = state[0];
-    state[0] = state[1];
-    state[1] = tmpState;
-  }
-
-  /**
-   * Checks if is match.
-   *
-   * @param state the state
-   * @return true, if successful
+  /*
+   * (non-Javadoc)
+   * 
+   * @see
+   * mtas.codec.util.distance.Distance#compute(org.apache.lucene.util.BytesRef)
    */
-  private boolean _is_match(double[][] state) {
-    return state[1][state[1].length - 1] < maximum;
+  @Override
+  public double compute(BytesRef term) {
+    DistanceKernel.Evaluator evaluator = kernel.start();
+    int end = termEnd(term);
+    for (int i = term.offset + prefixOffset; i < end; i++) {
+      evaluator.step((char) term.bytes[i]);
+    }
+    return evaluator.distance();
   }
-
-  /**
-   * Can match.
-   *
-   * @param state the state
-   * @return true, if successful
+  
+  /*
+   * (non-Javadoc)
+   * 
+   * @see mtas.codec.util.distance.Distance#compute(java.lang.String)
    */
-  private boolean _can_match(double[][] state) {
-    for (double d : state[1]) {
-      if (d < maximum) {
-        return true;
+  @Override
+  public double compute(String key) {
+    DistanceKernel.Evaluator evaluator = kernel.start();
+    for (char ch1 : key.toCharArray()) {
+      if (ch1 == 0x00) {
+        break;
       }
+      evaluator.step(ch1);
     }
-    return false;
-  }
-
-  /**
-   * Distance.
-   *
-   * @param state the state
-   * @return the double
-   */
-  private double _distance(double[][] state) {
-    return state[1][state[1].length - 1];
+    return evaluator.distance();
   }
 
 }
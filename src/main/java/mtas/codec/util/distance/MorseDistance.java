@@ -1,7 +1,6 @@
 package mtas.codec.util.distance;
 
 import java.io.IOException;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -16,8 +15,8 @@ import mtas.analysis.token.MtasToken;
  */
 public class MorseDistance extends Distance {
 
-  /** The initial state. */
-  protected final double[] initialState;
+  /** The kernel, null if the base has no morse code. */
+  protected final DistanceKernel kernel;
 
   /** The Constant defaultDeletionDistance. */
   protected final static double defaultDeletionDistance = 1.0;
@@ -101,6 +100,15 @@ public class MorseDistance extends Distance {
     ALPHABET_MORSE = Collections.unmodifiableMap(m);
   }
 
+  /** The Constant MORSE_CODES, the morse code with separator for each byte. */
+  private static final char[][] MORSE_CODES = new char[256][];
+  static {
+    for (Entry<Byte, String> entry : ALPHABET_MORSE.entrySet()) {
+      MORSE_CODES[entry.getKey() & 0xFF] = (entry.getValue() + " ")
+          .toCharArray();
+    }
+  }
+
   /**
    * Instantiates a new morse distance.
    *
@@ -135,10 +143,9 @@ public class MorseDistance extends Distance {
       throw new IOException("distances should be zero or positive");
     }
     morseBase = computeMorse(new BytesRef(prefix + MtasToken.DELIMITER + base));
-    initialState = new double[morseBase.length() + 1];
-    for (int i = 0; i <= morseBase.length(); i++) {
-      initialState[i] = i * insertionDistance;
-    }
+    kernel = morseBase == null ? null
+        : new DistanceKernel(morseBase, deletionDistance, insertionDistance,
+            replaceDistance, transpositionDistance);
   }
 
   /*
@@ -149,35 +156,32 @@ public class MorseDistance extends Distance {
    */
   @Override
   public boolean validateMaximum(BytesRef term) {
-    if (morseBase == null) {
+    if (kernel == null) {
       return false;
     } else if (maximum == null) {
       return true;
     } else {
-      double[][] state = _start();
-      byte b0;
-      String morse;
-      char ch2 = 0x00;
-      int i = term.offset + prefixOffset;
-      for (; i < term.length; i++) {
-        b0 = term.bytes[i];    
-        if (b0 == 0x00) {
-          break;
+      int end = termEnd(term);
+      int remaining = 0;
+      char[] code;
+      for (int i = term.offset + prefixOffset; i < end; i++) {
+        code = MORSE_CODES[term.bytes[i] & 0xFF];
+        if (code == null) {
+          return false;
         }
-        if (ALPHABET_MORSE.containsKey(b0)) {
-          morse = ALPHABET_MORSE.get(b0)+" ";
-          for (char ch1 : morse.toCharArray()) {            
-            state = _step(state, ch1, ch2);
-            if (!_can_match(state)) {
-              return false;
-            }
-            ch2 = ch1;
+        remaining += code.length;
+      }
+      DistanceKernel.Evaluator evaluator = kernel.start();
+      for (int i = term.offset + prefixOffset; i < end; i++) {
+        for (char ch1 : MORSE_CODES[term.bytes[i] & 0xFF]) {
+          evaluator.step(ch1);
+          remaining--;
+          if (!evaluator.canMatch(maximum, remaining)) {
+            return false;
           }
-        } else {
-          return false;
-        }        
+        }
       }
-      return _is_match(state);      
+      return evaluator.distance() < maximum;
     }
   }
   
@@ -190,130 +194,54 @@ public class MorseDistance extends Distance {
     }
   }
   
+  /*
+   * (non-Javadoc)
+   * 
+   * @see
+   * mtas.codec.util.distance.Distance#compute(org.apache.lucene.util.BytesRef)
+   */
   @Override
   public double compute(BytesRef term) {
-    String morseKey = computeMorse(term);
-    if(morseKey==null) {
+    if (kernel == null) {
       return Double.MAX_VALUE;
-    } else {
-      double[][] state = _start();
-      char ch2 = 0x00;
-      for (char ch1 : morseKey.toCharArray()) {
-        if (ch1 == 0x00) {
-          break;
-        }
-        state = _step(state, ch1, ch2);
-        ch2 = ch1;
+    }
+    DistanceKernel.Evaluator evaluator = kernel.start();
+    int end = termEnd(term);
+    char[] code;
+    for (int i = term.offset + prefixOffset; i < end; i++) {
+      code = MORSE_CODES[term.bytes[i] & 0xFF];
+      if (code == null) {
+        return Double.MAX_VALUE;
       }
-      return _distance(state);
-    }  
+      for (char ch1 : code) {
+        evaluator.step(ch1);
+      }
+    }
+    return evaluator.distance();
   }
 
-  
+  /*
+   * (non-Javadoc)
+   * 
+   * @see mtas.codec.util.distance.Distance#compute(java.lang.String)
+   */
   @Override
   public double compute(String key) {
-    String morseKey = computeMorse(key);
-    if(morseKey==null) {
+    if (kernel == null) {
       return Double.MAX_VALUE;
-    } else {
-      double[][] state = _start();
-      char ch2 = 0x00;
-      for (char ch1 : morseKey.toCharArray()) {
-        if (ch1 == 0x00) {
-          break;
-        }
-        state = _step(state, ch1, ch2);
-        ch2 = ch1;
-      }
-      return _distance(state);
-    }  
-  }
-
-  /**
-   * Start.
-   *
-   * @return the double[][]
-   */
-  private double[][] _start() {
-    double[][] startState = new double[3][];
-    startState[0] = new double[initialState.length];
-    startState[1] = new double[initialState.length];
-    startState[2] = Arrays.copyOf(initialState, initialState.length);
-    return startState;
-  }
-
-  /**
-   * Step.
-   *
-   * @param state the state
-   * @param ch1 the ch 1
-   * @param ch2 the ch 2
-   * @return the double[][]
-   */
-  private double[][] _step(double[][] state, char ch1, char ch2) {
-    double cost;
-    _shift(state);
-    state[2][0] = state[1][0] + deletionDistance;
-    for (int i = 0; i < morseBase.length(); i++) {
-      cost = (morseBase.charAt(i) == ch1) ? 0 : replaceDistance;
-      state[2][i + 1] = Math.min(state[2][i] + insertionDistance,
-          state[1][i] + cost);
-      state[2][i + 1] = Math.min(state[2][i + 1],
-          state[1][i + 1] + deletionDistance);
-      if (i > 0 && ch2 != 0x00 && (morseBase.charAt(i - 1) == ch1)
-          && (morseBase.charAt(i) == ch2)) {
-        state[2][i + 1] = Math.min(state[2][i + 1],
-            state[0][i - 1] + transpositionDistance);
-      }
     }
-    return state;
-  }
-
-  /**
-   * Shift.
-   *
-   * @param state the state
-   */
-  private void _shift(double[][] state) {
-    double[] tmpState = state[0];
-    state[0] = state[1];
-    state[1] = state[2];
-    state[2] = tmpState;
-  }
-
-  /**
-   * Checks if is match.
-   *
-   * @param state the state
-   * @return true, if successful
-   */
-  private boolean _is_match(double[][] state) {
-    return state[2][state[2].length - 1] < maximum;
-  }
-
-  /**
-   * Can match.
-   *
-   * @param state the state
-   * @return true, if successful
-   */
-  private boolean _can_match(double[][] state) {
-    for (double d : state[2]) {
-      if (d < maximum) {
-        return true;
+    DistanceKernel.Evaluator evaluator = kernel.start();
+    char[] code;
+    for (char ch : key.toCharArray()) {
+      code = MORSE_CODES[((byte) ch) & 0xFF];
+      if (code == null) {
+        return Double.MAX_VALUE;
+      }
+      for (char ch1 : code) {
+        evaluator.step(ch1);
       }
     }
-    return false;
-  }
-
-  /**
-   * Distance.
-   *
-   * @param state the state
-   * @return the double
-   */
-  private double _distance(double[][] state) {
-    return state[2][state[2].length - 1];
+    return evaluator.distance();
   }
 
   /**
@@ -324,29 +252,14 @@ public class MorseDistance extends Distance {
    */
   private String computeMorse(BytesRef term) {
     StringBuilder stringBuilder = new StringBuilder();
-    int i = term.offset + prefixOffset;
-    for (; i < term.length; i++) {
-      if (ALPHABET_MORSE.containsKey(term.bytes[i])) {
-        stringBuilder.append(ALPHABET_MORSE.get(term.bytes[i]) + " ");
-      } else if(term.bytes[i]!=0x00){
+    int end = termEnd(term);
+    char[] code;
+    for (int i = term.offset + prefixOffset; i < end; i++) {
+      code = MORSE_CODES[term.bytes[i] & 0xFF];
+      if (code == null) {
         return null;
-      } else {
-        break;
       }
-    }
-    return stringBuilder.toString();
-  }
-  
-  private String computeMorse(String key) {
-    StringBuilder stringBuilder = new StringBuilder();
-    Byte b;
-    for (char ch : key.toCharArray()) {
-      b = (byte) ch;
-      if (ALPHABET_MORSE.containsKey(b)) {
-        stringBuilder.append(ALPHABET_MORSE.get(b) + " ");
-      } else {
-        return null;
-      } 
+      stringBuilder.append(code);
     }
     return stringBuilder.toString();
   }
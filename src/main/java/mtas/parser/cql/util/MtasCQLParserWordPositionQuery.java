@@ -73,11 +73,11 @@ public class MtasCQLParserWordPositionQuery extends MtasSpanQuery {
    * (non-Javadoc)
    * 
    * @see
-   * org.apache.lucene.search.spans.SpanQuery#createWeight(org.apache.lucene.
+   * mtas.search.spans.util.MtasSpanQuery#createMtasWeight(org.apache.lucene.
    * search.IndexSearcher, boolean)
    */
   @Override
-  public SpanWeight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost)
+  protected SpanWeight createMtasWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost)
       throws IOException {
     return query.createWeight(searcher, scoreMode, boost);
   }
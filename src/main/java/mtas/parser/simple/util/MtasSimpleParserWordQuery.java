@@ -96,11 +96,11 @@ public class MtasSimpleParserWordQuery extends MtasSpanQuery {
   /*
    * (non-Javadoc)
    * 
-   * @see org.apache.lucene.search.spans.SpanQuery#createWeight(org.apache.lucene.
+   * @see mtas.search.spans.util.MtasSpanQuery#createMtasWeight(org.apache.lucene.
    * search.IndexSearcher, boolean)
    */
   @Override
-  public SpanWeight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+  protected SpanWeight createMtasWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
     return query.createWeight(searcher, scoreMode, boost);
   }
 
@@ -87,11 +87,11 @@ public class MtasSpanEndQuery extends MtasSpanQuery {
    * (non-Javadoc)
    * 
    * @see
-   * org.apache.lucene.search.spans.SpanQuery#createWeight(org.apache.lucene.
+   * mtas.search.spans.util.MtasSpanQuery#createMtasWeight(org.apache.lucene.
    * search.IndexSearcher, boolean)
    */
   @Override
-  public MtasSpanWeight createWeight(IndexSearcher searcher,
+  protected MtasSpanWeight createMtasWeight(IndexSearcher searcher,
       ScoreMode scoreMode, float boost) throws IOException {
     SpanWeight spanWeight = ((SpanQuery) searcher.rewrite(clause))
         .createWeight(searcher, scoreMode, boost);
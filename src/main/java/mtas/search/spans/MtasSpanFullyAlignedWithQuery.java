@@ -70,11 +70,11 @@ public class MtasSpanFullyAlignedWithQuery extends MtasSpanQuery {
    * (non-Javadoc)
    * 
    * @see
-   * org.apache.lucene.search.spans.SpanQuery#createWeight(org.apache.lucene.
+   * mtas.search.spans.util.MtasSpanQuery#createMtasWeight(org.apache.lucene.
    * search.IndexSearcher, boolean)
    */
   @Override
-  public MtasSpanWeight createWeight(IndexSearcher searcher,
+  protected MtasSpanWeight createMtasWeight(IndexSearcher searcher,
       ScoreMode scoreMode, float boost) throws IOException {
     if (q1 == null || q2 == null) {
       return null;
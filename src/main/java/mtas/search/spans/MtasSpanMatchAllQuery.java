@@ -74,11 +74,11 @@ public class MtasSpanMatchAllQuery extends MtasSpanQuery {
    * (non-Javadoc)
    * 
    * @see
-   * org.apache.lucene.search.spans.SpanQuery#createWeight(org.apache.lucene.
+   * mtas.search.spans.util.MtasSpanQuery#createMtasWeight(org.apache.lucene.
    * search.IndexSearcher, boolean)
    */
   @Override
-  public MtasSpanWeight createWeight(IndexSearcher searcher,
+  protected MtasSpanWeight createMtasWeight(IndexSearcher searcher,
       ScoreMode scoreMode, float boost) throws IOException {
     // keep things simple
     return new SpanAllWeight(searcher, null, boost);
@@ -75,11 +75,11 @@ public class MtasSpanNotQuery extends MtasSpanQuery {
    * (non-Javadoc)
    * 
    * @see
-   * mtas.search.spans.util.MtasSpanQuery#createWeight(org.apache.lucene.search.
+   * mtas.search.spans.util.MtasSpanQuery#createMtasWeight(org.apache.lucene.search.
    * IndexSearcher, boolean)
    */
   @Override
-  public MtasSpanWeight createWeight(IndexSearcher searcher,
+  protected MtasSpanWeight createMtasWeight(IndexSearcher searcher,
       ScoreMode scoreMode, float boost) throws IOException {
     // return baseQuery.createWeight(searcher, needsScores);
     if (q1 == null || q2 == null) {
@@ -190,11 +190,11 @@ public class MtasSpanOperatorQuery extends MtasSpanQuery {
 	/*
 	 * (non-Javadoc)
 	 * 
-	 * @see org.apache.lucene.search.spans.SpanQuery#createWeight(org.apache.lucene.
+	 * @see mtas.search.spans.util.MtasSpanQuery#createMtasWeight(org.apache.lucene.
 	 * search.IndexSearcher, org.apache.lucene.search.ScoreMode, float)
 	 */
 	@Override
-	public SpanWeight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
+	protected SpanWeight createMtasWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost) throws IOException {
 		return ((SpanQuery) searcher.rewrite(query)).createWeight(searcher, scoreMode, boost);
 	}
 
@@ -74,11 +74,11 @@ public class MtasSpanOrQuery extends MtasSpanQuery {
    * (non-Javadoc)
    * 
    * @see
-   * mtas.search.spans.util.MtasSpanQuery#createWeight(org.apache.lucene.search.
+   * mtas.search.spans.util.MtasSpanQuery#createMtasWeight(org.apache.lucene.search.
    * IndexSearcher, boolean)
    */
   @Override
-  public SpanWeight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost)
+  protected SpanWeight createMtasWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost)
       throws IOException {
     return baseQuery.createWeight(searcher, scoreMode, boost);
   }
@@ -71,11 +71,11 @@ public class MtasSpanPrecededByQuery extends MtasSpanQuery {
    * (non-Javadoc)
    * 
    * @see
-   * mtas.search.spans.util.MtasSpanQuery#createWeight(org.apache.lucene.search.
+   * mtas.search.spans.util.MtasSpanQuery#createMtasWeight(org.apache.lucene.search.
    * IndexSearcher, boolean)
    */
   @Override
-  public MtasSpanWeight createWeight(IndexSearcher searcher,
+  protected MtasSpanWeight createMtasWeight(IndexSearcher searcher,
       ScoreMode scoreMode, float boost) throws IOException {
     if (q1 == null || q2 == null) {
       return null;
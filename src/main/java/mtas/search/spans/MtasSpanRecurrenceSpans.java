@@ -1,27 +1,30 @@
 package mtas.search.spans;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Set;
 
-import org.apache.commons.logging.Log;
-import org.apache.commons.logging.LogFactory;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.SpanCollector;
 import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.FixedBitSet;
 
 import mtas.search.spans.util.MtasIgnoreItem;
 import mtas.search.spans.util.MtasSpans;
 
 /**
  * The Class MtasSpanRecurrenceSpans.
+ *
+ * For each document, all sub spans are collected into sorted primitive arrays.
+ * Then, for each start position in increasing order, the set of end positions
+ * reachable with k successive sub spans (optionally separated by ignore spans)
+ * is computed with a bitset over the positions in the document, for k from 1
+ * up to the maximum recurrence. The union over the allowed recurrences
+ * provides the matches for that start position, in increasing end position.
  */
 public class MtasSpanRecurrenceSpans extends MtasSpans {
 
-  /** The log. */
-  private static Log log = LogFactory.getLog(MtasSpanRecurrenceSpans.class);
-
   /** The query. */
   private MtasSpanRecurrenceQuery query;
 
@@ -37,23 +40,68 @@ public class MtasSpanRecurrenceSpans extends MtasSpans {
   /** The maximum recurrence. */
   int maximumRecurrence;
 
-  /** The queue spans. */
-  List<Match> queueSpans;
+  /** The start positions of the collected sub spans. */
+  private int[] subStartPositions;
+
+  /** The end positions of the collected sub spans. */
+  private int[] subEndPositions;
+
+  /** The number of collected sub spans. */
+  private int subNumber;
+
+  /** The first sub span for each start position, relative to minimum. */
+  private int[] subOffsets;
+
+  /** The minimum start position of the collected sub spans. */
+  private int subMinimumStartPosition;
+
+  /** The maximum start position of the collected sub spans. */
+  private int subMaximumStartPosition;
+
+  /** The maximum end position of the collected sub spans. */
+  private int subMaximumEndPosition;
+
+  /** The next sub span to be used as start. */
+  private int subPosition;
+
+  /** The frontier: end positions reached with current recurrence. */
+  private FixedBitSet frontier;
 
-  /** The queue matches. */
-  List<Match> queueMatches;
+  /** The next frontier. */
+  private FixedBitSet nextFrontier;
 
-  /** The current match. */
-  Match currentMatch;
+  /** The end positions reached with an allowed recurrence. */
+  private FixedBitSet reachable;
 
-  /** The no more positions. */
-  boolean noMorePositions;
+  /** The minimum set bit of next frontier. */
+  private int nextFrontierMinimum;
 
-  /** The last start position. */
-  int lastStartPosition; // startPosition of last retrieved span
+  /** The maximum set bit of next frontier. */
+  private int nextFrontierMaximum;
 
-  /** The last span. */
-  boolean lastSpan; // last span for this document added to queue
+  /** The minimum set bit of reachable. */
+  private int reachableMinimum;
+
+  /** The maximum set bit of reachable. */
+  private int reachableMaximum;
+
+  /** The queue start position. */
+  private int queueStartPosition;
+
+  /** The queue end positions. */
+  private int[] queueEndPositions;
+
+  /** The queue size. */
+  private int queueSize;
+
+  /** The queue position. */
+  private int queuePosition;
+
+  /** The current start position. */
+  private int currentStartPosition;
+
+  /** The current end position. */
+  private int currentEndPosition;
 
   /**
    * Instantiates a new mtas span recurrence spans.
@@ -74,70 +122,58 @@ public class MtasSpanRecurrenceSpans extends MtasSpans {
     this.spans = spans;
     this.minimumRecurrence = minimumRecurrence;
     this.maximumRecurrence = maximumRecurrence;
-    queueSpans = new ArrayList<>();
-    queueMatches = new ArrayList<>();
+    subStartPositions = new int[16];
+    subEndPositions = new int[16];
+    subOffsets = new int[16];
+    queueEndPositions = new int[16];
+    frontier = new FixedBitSet(64);
+    nextFrontier = new FixedBitSet(64);
+    reachable = new FixedBitSet(64);
     ignoreItem = new MtasIgnoreItem(ignoreSpans, maximumIgnoreLength);
     resetQueue();
   }
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see org.apache.lucene.search.spans.Spans#nextStartPosition()
    */
   @Override
   public int nextStartPosition() throws IOException {
     if (findMatches()) {
-      currentMatch = queueMatches.get(0);
-      queueMatches.remove(0);
-      noMorePositions = false;
-      return currentMatch.startPosition();
+      currentStartPosition = queueStartPosition;
+      currentEndPosition = queueEndPositions[queuePosition];
+      queuePosition++;
     } else {
-      currentMatch = null;
-      noMorePositions = true;
-      return NO_MORE_POSITIONS;
+      currentStartPosition = NO_MORE_POSITIONS;
+      currentEndPosition = NO_MORE_POSITIONS;
     }
+    return currentStartPosition;
   }
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see org.apache.lucene.search.spans.Spans#startPosition()
    */
   @Override
   public int startPosition() {
-    if (currentMatch == null) {
-      if (noMorePositions) {
-        return NO_MORE_POSITIONS;
-      } else {
-        return -1;
-      }
-    } else {
-      return currentMatch.startPosition();
-    }
+    return currentStartPosition;
   }
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see org.apache.lucene.search.spans.Spans#endPosition()
    */
   @Override
   public int endPosition() {
-    if (currentMatch == null) {
-      if (noMorePositions) {
-        return NO_MORE_POSITIONS;
-      } else {
-        return -1;
-      }
-    } else {
-      return currentMatch.endPosition();
-    }
+    return currentEndPosition;
   }
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see org.apache.lucene.search.spans.Spans#width()
    */
   @Override
@@ -147,7 +183,7 @@ public class MtasSpanRecurrenceSpans extends MtasSpans {
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see
    * org.apache.lucene.search.spans.Spans#collect(org.apache.lucene.search.spans
    * .SpanCollector)
@@ -159,7 +195,7 @@ public class MtasSpanRecurrenceSpans extends MtasSpans {
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see org.apache.lucene.search.DocIdSetIterator#docID()
    */
   @Override
@@ -169,7 +205,7 @@ public class MtasSpanRecurrenceSpans extends MtasSpans {
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see org.apache.lucene.search.DocIdSetIterator#nextDoc()
    */
   @Override
@@ -180,7 +216,7 @@ public class MtasSpanRecurrenceSpans extends MtasSpans {
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see org.apache.lucene.search.DocIdSetIterator#advance(int)
    */
   @Override
@@ -194,12 +230,12 @@ public class MtasSpanRecurrenceSpans extends MtasSpans {
    * Reset queue.
    */
   void resetQueue() {
-    queueSpans.clear();
-    queueMatches.clear();
-    lastStartPosition = 0;
-    lastSpan = false;
-    currentMatch = null;
-    noMorePositions = false;
+    subNumber = 0;
+    subPosition = 0;
+    queueSize = 0;
+    queuePosition = 0;
+    currentStartPosition = -1;
+    currentEndPosition = -1;
   }
 
   /**
@@ -210,6 +246,7 @@ public class MtasSpanRecurrenceSpans extends MtasSpans {
    */
   int toMatchDoc() throws IOException {
     while (true) {
+      collectSpans();
       if (findMatches()) {
         return docID();
       }
@@ -221,22 +258,48 @@ public class MtasSpanRecurrenceSpans extends MtasSpans {
   }
 
   /**
-   * Collect span.
+   * Collect all sub spans for the current document, and index them by start
+   * position.
    *
-   * @return true, if successful
    * @throws IOException Signals that an I/O exception has occurred.
    */
-  // try to get something in the queue of spans
-  private boolean collectSpan() throws IOException {
-    if (lastSpan) {
-      return false;
-    } else if (spans.nextStartPosition() == NO_MORE_POSITIONS) {
-      lastSpan = true;
-      return false;
-    } else {
-      queueSpans.add(new Match(spans.startPosition(), spans.endPosition()));
-      lastStartPosition = spans.startPosition();
-      return true;
+  private void collectSpans() throws IOException {
+    subNumber = 0;
+    subPosition = 0;
+    subMaximumEndPosition = -1;
+    while (spans.nextStartPosition() != NO_MORE_POSITIONS) {
+      if (subNumber == subStartPositions.length) {
+        subStartPositions = ArrayUtil.grow(subStartPositions, subNumber + 1);
+        subEndPositions = ArrayUtil.grow(subEndPositions, subNumber + 1);
+      }
+      subStartPositions[subNumber] = spans.startPosition();
+      subEndPositions[subNumber] = spans.endPosition();
+      subMaximumEndPosition = Math.max(subMaximumEndPosition,
+          spans.endPosition());
+      subNumber++;
+    }
+    if (subNumber > 0) {
+      subMinimumStartPosition = subStartPositions[0];
+      subMaximumStartPosition = subStartPositions[subNumber - 1];
+      // offsets: first sub span with start >= position
+      int range = subMaximumStartPosition - subMinimumStartPosition + 2;
+      if (subOffsets.length < range) {
+        subOffsets = ArrayUtil.grow(subOffsets, range);
+      }
+      int index = 0;
+      for (int i = 0; i < range; i++) {
+        while (index < subNumber
+            && subStartPositions[index] < subMinimumStartPosition + i) {
+          index++;
+        }
+        subOffsets[i] = index;
+      }
+      // bitsets over all possible end positions
+      int numBits = subMaximumEndPosition - subMinimumStartPosition + 1;
+      frontier = FixedBitSet.ensureCapacity(frontier, numBits);
+      nextFrontier = FixedBitSet.ensureCapacity(nextFrontier, numBits);
+      reachable = FixedBitSet.ensureCapacity(reachable, numBits);
+      ignoreItem.advanceToDoc(spans.docID());
     }
   }
 
@@ -248,200 +311,115 @@ public class MtasSpanRecurrenceSpans extends MtasSpans {
    */
   private boolean findMatches() throws IOException {
     // check for something in queue of matches
-    if (!queueMatches.isEmpty()) {
+    if (queuePosition < queueSize) {
       return true;
     } else {
-      ignoreItem.advanceToDoc(spans.docID());
-      while (true) {
-        // try to get something in queue of spans
-        if (queueSpans.isEmpty() && !collectSpan()) {
-          return false;
-        }
-        // try to get matches with first span in queue
-        Match firstMatch = queueSpans.remove(0);
-        // create a list of matches with same startPosition as firstMatch
-        List<Match> matches = new ArrayList<>();
-        matches.add(firstMatch);
-        // matches.addAll(expandWithIgnoreItem(spans.docID(), firstMatch));
-        // try to collect spans until lastStartPosition not equal to
-        // startPosition of firstMatch
-        while (!lastSpan && (lastStartPosition == firstMatch.startPosition())) {
-          collectSpan();
-        }
-        while (!queueSpans.isEmpty() && (queueSpans.get(0)
-            .startPosition() == firstMatch.startPosition())) {
-          Match additionalMatch = queueSpans.remove(0);
-          matches.add(additionalMatch);
-          matches.addAll(expandWithIgnoreItem(spans.docID(), additionalMatch));
-        }
-        // construct all matches for this startPosition
-        for (Match match : matches) {
-          for (int n = (minimumRecurrence - 1); n <= (maximumRecurrence
-              - 1); n++) {
-            findMatches(match, n);
-          }
-        }
-        // check for something in queue of matches
-        if (!queueMatches.isEmpty()) {
-          ignoreItem.removeBefore(spans.docID(),
-              queueMatches.get(0).startPosition());
+      queueSize = 0;
+      queuePosition = 0;
+      while (subPosition < subNumber) {
+        queueStartPosition = subStartPositions[subPosition];
+        ignoreItem.removeBefore(spans.docID(), queueStartPosition);
+        computeMatches(queueStartPosition);
+        // skip all sub spans with this start position
+        subPosition = subOffsets[queueStartPosition - subMinimumStartPosition
+            + 1];
+        if (queueSize > 0) {
           return true;
         }
       }
+      return false;
     }
   }
 
   /**
-   * Find matches.
+   * Compute all end positions for matches with the provided start position,
+   * and put them in the queue.
    *
-   * @param match the match
-   * @param n the n
+   * @param startPosition the start position
    * @throws IOException Signals that an I/O exception has occurred.
    */
-  private void findMatches(Match match, int n) throws IOException {
-    if (n > 0) {
-      int largestMatchingEndPosition = match.endPosition();
-      Set<Integer> list = ignoreItem.getFullEndPositionList(spans.docID(),
-          match.endPosition());
-      // try to find matches with existing queue
-      if (!queueSpans.isEmpty()) {
-        Match span;
-        for (int i = 0; i < queueSpans.size(); i++) {
-          span = queueSpans.get(i);
-          if (match.endPosition() == span.startPosition()
-              || (list != null && list.contains(span.startPosition()))) {
-            findMatches(new Match(match.startPosition(), span.endPosition()),
-                (n - 1));
-            largestMatchingEndPosition = Math.max(largestMatchingEndPosition,
-                span.endPosition());
+  private void computeMatches(int startPosition) throws IOException {
+    int docId = spans.docID();
+    reachableMinimum = Integer.MAX_VALUE;
+    reachableMaximum = -1;
+    // recurrence 1
+    nextFrontierMinimum = Integer.MAX_VALUE;
+    nextFrontierMaximum = -1;
+    addEndPositions(startPosition, minimumRecurrence <= 1);
+    for (int recurrence = 2; recurrence <= maximumRecurrence
+        && nextFrontierMaximum >= 0; recurrence++) {
+      // swap frontiers
+      FixedBitSet tmpFrontier = frontier;
+      frontier = nextFrontier;
+      nextFrontier = tmpFrontier;
+      int frontierMinimum = nextFrontierMinimum;
+      int frontierMaximum = nextFrontierMaximum;
+      nextFrontierMinimum = Integer.MAX_VALUE;
+      nextFrontierMaximum = -1;
+      boolean register = recurrence >= minimumRecurrence;
+      for (int bit = frontier.nextSetBit(
+          frontierMinimum); bit <= frontierMaximum; bit = (bit
+              + 1 < frontier.length()) ? frontier.nextSetBit(bit + 1)
+                  : DocIdSetIterator.NO_MORE_DOCS) {
+        int endPosition = bit + subMinimumStartPosition;
+        addEndPositions(endPosition, register);
+        Set<Integer> ignoreList = ignoreItem.getFullEndPositionList(docId,
+            endPosition);
+        if (ignoreList != null) {
+          for (int ignoreEndPosition : ignoreList) {
+            addEndPositions(ignoreEndPosition, register);
           }
         }
       }
-      // extend queue if necessary and possible
-      while (!lastSpan && (largestMatchingEndPosition >= lastStartPosition)) {
-        if (spans.nextStartPosition() == NO_MORE_POSITIONS) {
-          lastSpan = true;
-        } else {
-          Match span = new Match(spans.startPosition(), spans.endPosition());
-          queueSpans.add(span);
-          lastStartPosition = spans.startPosition();
-          // check if this provides new match
-          if (match.endPosition() == span.startPosition()
-              || (list != null && list.contains(span.startPosition()))) {
-            findMatches(new Match(match.startPosition(), span.endPosition()),
-                (n - 1));
-            largestMatchingEndPosition = Math.max(largestMatchingEndPosition,
-                span.endPosition());
-          }
-        }
+      frontier.clear(frontierMinimum, frontierMaximum + 1);
+    }
+    if (nextFrontierMaximum >= 0) {
+      nextFrontier.clear(nextFrontierMinimum, nextFrontierMaximum + 1);
+    }
+    // fill queue
+    if (reachableMaximum >= 0) {
+      int size = reachableMaximum - reachableMinimum + 1;
+      if (queueEndPositions.length < size) {
+        queueEndPositions = ArrayUtil.grow(queueEndPositions, size);
       }
-    } else {
-      // only unique spans
-      if (!queueMatches.contains(match)) {
-        queueMatches.add(match);
+      for (int bit = reachable.nextSetBit(
+          reachableMinimum); bit <= reachableMaximum; bit = (bit
+              + 1 < reachable.length()) ? reachable.nextSetBit(bit + 1)
+                  : DocIdSetIterator.NO_MORE_DOCS) {
+        queueEndPositions[queueSize++] = bit + subMinimumStartPosition;
       }
+      reachable.clear(reachableMinimum, reachableMaximum + 1);
     }
   }
 
   /**
-   * Expand with ignore item.
+   * Add the end positions of all sub spans starting at the provided position
+   * to the next frontier, and if necessary to the reachable end positions.
    *
-   * @param docId the doc id
-   * @param match the match
-   * @return the list
+   * @param position the position
+   * @param register register as reachable
    */
-  private List<Match> expandWithIgnoreItem(int docId, Match match) {
-    List<Match> list = new ArrayList<>();
-    try {
-      Set<Integer> ignoreList = ignoreItem.getFullEndPositionList(docId,
-          match.endPosition);
-      if (ignoreList != null) {
-        for (Integer endPosition : ignoreList) {
-          list.add(new Match(match.startPosition, endPosition));
+  private void addEndPositions(int position, boolean register) {
+    if (position >= subMinimumStartPosition
+        && position <= subMaximumStartPosition) {
+      int offset = position - subMinimumStartPosition;
+      for (int i = subOffsets[offset]; i < subOffsets[offset + 1]; i++) {
+        int bit = subEndPositions[i] - subMinimumStartPosition;
+        nextFrontier.set(bit);
+        nextFrontierMinimum = Math.min(nextFrontierMinimum, bit);
+        nextFrontierMaximum = Math.max(nextFrontierMaximum, bit);
+        if (register) {
+          reachable.set(bit);
+          reachableMinimum = Math.min(reachableMinimum, bit);
+          reachableMaximum = Math.max(reachableMaximum, bit);
         }
       }
-    } catch (IOException e) {
-      log.debug(e);
     }
-    return list;
-  }
-
-  /**
-   * The Class Match.
-   */
-  private static class Match {
-
-    /** The start position. */
-    private int startPosition;
-
-    /** The end position. */
-    private int endPosition;
-
-    /**
-     * Instantiates a new match.
-     *
-     * @param startPosition the start position
-     * @param endPosition the end position
-     */
-    Match(int startPosition, int endPosition) {
-      this.startPosition = startPosition;
-      this.endPosition = endPosition;
-    }
-
-    /**
-     * Start position.
-     *
-     * @return the int
-     */
-    public int startPosition() {
-      return startPosition;
-    }
-
-    /**
-     * End position.
-     *
-     * @return the int
-     */
-    public int endPosition() {
-      return endPosition;
-    }
-
-    /*
-     * (non-Javadoc)
-     * 
-     * @see java.lang.Object#equals(java.lang.Object)
-     */
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj)
-        return true;
-      if (obj == null)
-        return false;
-      if (getClass() != obj.getClass())
-        return false;
-      final Match that = (Match) obj;
-      return startPosition == that.startPosition
-          && endPosition == that.endPosition;
-    }
-
-    /*
-     * (non-Javadoc)
-     * 
-     * @see java.lang.Object#hashCode()
-     */
-    @Override
-    public int hashCode() {
-      int h = this.getClass().getSimpleName().hashCode();
-      h = (h * 5) ^ startPosition;
-      h = (h * 7) ^ endPosition;
-      return h;
-    }
-
   }
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see org.apache.lucene.search.DocIdSetIterator#cost()
    */
   @Override
@@ -451,7 +429,7 @@ public class MtasSpanRecurrenceSpans extends MtasSpans {
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see org.apache.lucene.search.spans.Spans#positionsCost()
    */
   @Override
@@ -461,7 +439,7 @@ public class MtasSpanRecurrenceSpans extends MtasSpans {
 
   /*
    * (non-Javadoc)
-   * 
+   *
    * @see mtas.search.spans.util.MtasSpans#asTwoPhaseIterator()
    */
   @Override
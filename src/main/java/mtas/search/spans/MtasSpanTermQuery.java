@@ -53,11 +53,11 @@ public class MtasSpanTermQuery extends MtasSpanQuery {
    * (non-Javadoc)
    * 
    * @see
-   * org.apache.lucene.search.spans.SpanTermQuery#createWeight(org.apache.lucene
+   * mtas.search.spans.util.MtasSpanQuery#createMtasWeight(org.apache.lucene
    * .search.IndexSearcher, boolean)
    */
   @Override
-  public SpanWeight createWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost)
+  protected SpanWeight createMtasWeight(IndexSearcher searcher, ScoreMode scoreMode, float boost)
       throws IOException {
     return baseQuery.createWeight(searcher, scoreMode, boost);
   }
@@ -36,11 +36,11 @@ public class MtasDisabledTwoPhaseIteratorSpanQuery extends MtasSpanQuery {
    * (non-Javadoc)
    * 
    * @see
-   * mtas.search.spans.util.MtasSpanQuery#createWeight(org.apache.lucene.search.
+   * mtas.search.spans.util.MtasSpanQuery#createMtasWeight(org.apache.lucene.search.
    * IndexSearcher, boolean)
    */
   @Override
-  public MtasSpanWeight createWeight(IndexSearcher searcher,
+  protected MtasSpanWeight createMtasWeight(IndexSearcher searcher,
       ScoreMode scoreMode, float boost) throws IOException {
     SpanWeight subWeight = subQuery.createWeight(searcher, scoreMode, boost);
     return new MtasDisabledTwoPhaseIteratorWeight(subWeight, searcher,
@@ -1,17 +1,13 @@
 package mtas.search.spans.util;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.SpanCollector;
 import org.apache.lucene.search.spans.Spans;
 
 import mtas.codec.util.CodecInfo;
-import mtas.codec.util.CodecInfo.IndexDoc;
+import mtas.codec.util.CodecInfo.IndexDocPositionRange;
 
 /**
  * The Class MtasExpandSpans.
@@ -36,6 +32,9 @@ public class MtasExpandSpans extends MtasSpans {
   /** The mtas codec info. */
   CodecInfo mtasCodecInfo;
 
+  /** The doc position range. */
+  IndexDocPositionRange docPositionRange;
+
   /** The start position. */
   int startPosition;
 
@@ -43,7 +42,7 @@ public class MtasExpandSpans extends MtasSpans {
   int endPosition;
 
   /** The collected positions. */
-  SortedMap<Integer, List<Integer>> collectedPositions;
+  MtasSpanMatchBuffer collectedPositions;
 
   /** The last collected start position. */
   int lastCollectedStartPosition;
@@ -70,7 +69,7 @@ public class MtasExpandSpans extends MtasSpans {
     this.mtasCodecInfo = mtasCodecInfo;
     this.query = query;
     docId = -1;
-    collectedPositions = new TreeMap<>();
+    collectedPositions = new MtasSpanMatchBuffer();
     reset();
   }
 
@@ -192,14 +191,7 @@ public class MtasExpandSpans extends MtasSpans {
       if (docId == NO_MORE_DOCS) {
         return docId;
       } else {
-        IndexDoc doc = mtasCodecInfo.getDoc(field, docId);
-        if (doc != null) {
-          minPosition = doc.minPosition;
-          maxPosition = doc.maxPosition;
-        } else {
-          minPosition = NO_MORE_POSITIONS;
-          maxPosition = NO_MORE_POSITIONS;
-        }
+        computeDocPositions();
         if (goToNextStartPosition()) {
           return docId;
         } else {
@@ -259,14 +251,7 @@ public class MtasExpandSpans extends MtasSpans {
     if (docId != subSpans.docID()) {
       reset();
       docId = subSpans.docID();
-      IndexDoc doc = mtasCodecInfo.getDoc(field, docId);
-      if (doc != null) {
-        minPosition = doc.minPosition;
-        maxPosition = doc.maxPosition;
-      } else {
-        minPosition = NO_MORE_POSITIONS;
-        maxPosition = NO_MORE_POSITIONS;
-      }
+      computeDocPositions();
     }
     if (docId == NO_MORE_DOCS) {
       return false;
@@ -275,6 +260,24 @@ public class MtasExpandSpans extends MtasSpans {
     }
   }
 
+  /**
+   * Compute min and max position for the current doc.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private void computeDocPositions() throws IOException {
+    if (docPositionRange == null) {
+      docPositionRange = mtasCodecInfo.getDocPositionRange(field);
+    }
+    if (docPositionRange.hasDoc(docId)) {
+      minPosition = docPositionRange.getMinPosition(docId);
+      maxPosition = docPositionRange.getMaxPosition(docId);
+    } else {
+      minPosition = NO_MORE_POSITIONS;
+      maxPosition = NO_MORE_POSITIONS;
+    }
+  }
+
   /**
    * Go to next doc.
    *
@@ -294,14 +297,7 @@ public class MtasExpandSpans extends MtasSpans {
         maxPosition = NO_MORE_POSITIONS;
         return true;
       } else {
-        IndexDoc doc = mtasCodecInfo.getDoc(field, docId);
-        if (doc != null) {
-          minPosition = doc.minPosition;
-          maxPosition = doc.maxPosition;
-        } else {
-          minPosition = NO_MORE_POSITIONS;
-          maxPosition = NO_MORE_POSITIONS;
-        }
+        computeDocPositions();
         if (goToNextStartPosition()) {
           return true;
         } else {
@@ -326,11 +322,12 @@ public class MtasExpandSpans extends MtasSpans {
     if (docId == -1 || docId == NO_MORE_DOCS) {
       throw new IOException("no document");
     } else {
-      if (lastCollectedStartPosition < NO_MORE_POSITIONS
-          && (collectedPositions.isEmpty()
-              || (collectedPositions.firstKey() >= (lastCollectedStartPosition
-                  - query.maximumLeft)))) {
+      while (!collectedPositions.hasNext()) {
+        if (lastCollectedStartPosition == NO_MORE_POSITIONS) {
+          return false;
+        }
         // collect new positions
+        collectedPositions.compact();
         while ((lastCollectedStartPosition = subSpans
             .nextStartPosition()) != NO_MORE_POSITIONS) {
           basicEndPosition = subSpans.endPosition();
@@ -343,28 +340,26 @@ public class MtasExpandSpans extends MtasSpans {
               basicEndPosition + query.maximumRight);
           for (int cLeft = basicStartPositionMin; cLeft <= basicStartPositionMax; cLeft++) {
             for (int cRight = basicEndPositionMin; cRight <= basicEndPositionMax; cRight++) {
-              if (!collectedPositions.containsKey(cLeft)) {
-                collectedPositions.put(cLeft, new ArrayList<Integer>());
-              }
-              collectedPositions.get(cLeft).add(cRight);
+              collectedPositions.add(cLeft, cRight);
             }
           }
-          if (!collectedPositions.isEmpty() && (collectedPositions
-              .firstKey() < (lastCollectedStartPosition - query.maximumLeft))) {
+          // no new positions can start before this threshold
+          if (collectedPositions.minimumPendingStartPosition() < (lastCollectedStartPosition - query.maximumLeft)) {
             break;
           }
         }
-      }
-      if (collectedPositions.isEmpty()) {
-        return false;
-      } else {
-        startPosition = collectedPositions.firstKey();
-        endPosition = collectedPositions.get(startPosition).remove(0);
-        if (collectedPositions.get(startPosition).isEmpty()) {
-          collectedPositions.remove(startPosition);
+        collectedPositions.sortAndUnique();
+        if (lastCollectedStartPosition == NO_MORE_POSITIONS) {
+          collectedPositions.releaseAll();
+        } else {
+          collectedPositions
+              .release(lastCollectedStartPosition - query.maximumLeft);
         }
-        return true;
       }
+      collectedPositions.next();
+      startPosition = collectedPositions.startPosition();
+      endPosition = collectedPositions.endPosition();
+      return true;
     }
   }
 
@@ -7,7 +7,7 @@ import org.apache.lucene.search.spans.SpanCollector;
 import org.apache.lucene.search.spans.Spans;
 
 import mtas.codec.util.CodecInfo;
-import mtas.codec.util.CodecInfo.IndexDoc;
+import mtas.codec.util.CodecInfo.IndexDocPositionRange;
 
 /**
  * The Class MtasMaximumExpandSpans.
@@ -32,12 +32,21 @@ public class MtasMaximumExpandSpans extends MtasSpans {
   /** The mtas codec info. */
   CodecInfo mtasCodecInfo;
 
+  /** The doc position range. */
+  IndexDocPositionRange docPositionRange;
+
   /** The start position. */
   int startPosition;
 
   /** The end position. */
   int endPosition;
 
+  /** The collected positions. */
+  MtasSpanMatchBuffer collectedPositions;
+
+  /** The last collected (expanded) start position. */
+  int lastCollectedStartPosition;
+
   /** The called next start position. */
   private boolean calledNextStartPosition;
 
@@ -60,6 +69,7 @@ public class MtasMaximumExpandSpans extends MtasSpans {
     this.mtasCodecInfo = mtasCodecInfo;
     this.query = query;
     docId = -1;
+    collectedPositions = new MtasSpanMatchBuffer();
     reset();
   }
 
@@ -181,14 +191,7 @@ public class MtasMaximumExpandSpans extends MtasSpans {
       if (docId == NO_MORE_DOCS) {
         return docId;
       } else {
-        IndexDoc doc = mtasCodecInfo.getDoc(field, docId);
-        if (doc != null) {
-          minPosition = doc.minPosition;
-          maxPosition = doc.maxPosition;
-        } else {
-          minPosition = NO_MORE_POSITIONS;
-          maxPosition = NO_MORE_POSITIONS;
-        }
+        computeDocPositions();
         if (goToNextStartPosition()) {
           return docId;
         } else {
@@ -249,14 +252,7 @@ public class MtasMaximumExpandSpans extends MtasSpans {
     if (docId != subSpans.docID()) {
       reset();
       docId = subSpans.docID();
-      IndexDoc doc = mtasCodecInfo.getDoc(field, docId);
-      if (doc != null) {
-        minPosition = doc.minPosition;
-        maxPosition = doc.maxPosition;
-      } else {
-        minPosition = NO_MORE_POSITIONS;
-        maxPosition = NO_MORE_POSITIONS;
-      }
+      computeDocPositions();
     }
     if (docId == NO_MORE_DOCS) {
       return false;
@@ -265,6 +261,24 @@ public class MtasMaximumExpandSpans extends MtasSpans {
     }
   }
 
+  /**
+   * Compute min and max position for the current doc.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private void computeDocPositions() throws IOException {
+    if (docPositionRange == null) {
+      docPositionRange = mtasCodecInfo.getDocPositionRange(field);
+    }
+    if (docPositionRange.hasDoc(docId)) {
+      minPosition = docPositionRange.getMinPosition(docId);
+      maxPosition = docPositionRange.getMaxPosition(docId);
+    } else {
+      minPosition = NO_MORE_POSITIONS;
+      maxPosition = NO_MORE_POSITIONS;
+    }
+  }
+
   /**
    * Go to next doc.
    *
@@ -284,14 +298,7 @@ public class MtasMaximumExpandSpans extends MtasSpans {
         maxPosition = NO_MORE_POSITIONS;
         return true;
       } else {
-        IndexDoc doc = mtasCodecInfo.getDoc(field, docId);
-        if (doc != null) {
-          minPosition = doc.minPosition;
-          maxPosition = doc.maxPosition;
-        } else {
-          minPosition = NO_MORE_POSITIONS;
-          maxPosition = NO_MORE_POSITIONS;
-        }
+        computeDocPositions();
         if (goToNextStartPosition()) {
           return true;
         } else {
@@ -310,22 +317,50 @@ public class MtasMaximumExpandSpans extends MtasSpans {
   private boolean goToNextStartPosition() throws IOException {
     int basicStartPosition;
     int basicEndPosition;
+    int expandedStartPosition;
+    int expandedEndPosition;
     if (docId == -1 || docId == NO_MORE_DOCS) {
       throw new IOException("no document");
     } else {
-      while ((basicStartPosition = subSpans
-          .nextStartPosition()) != NO_MORE_POSITIONS) {
-        basicEndPosition = subSpans.endPosition();
-        startPosition = Math.max(minPosition,
-            (basicStartPosition - query.maximumLeft));
-        endPosition = Math.min(maxPosition + 1,
-            (basicEndPosition + query.maximumRight));
-        if (startPosition <= (basicStartPosition - query.minimumLeft)
-            && endPosition >= (basicEndPosition + query.minimumRight)) {
-          return true;
+      while (!collectedPositions.hasNext()) {
+        if (lastCollectedStartPosition == NO_MORE_POSITIONS) {
+          return false;
+        }
+        // collect new positions
+        collectedPositions.compact();
+        while ((basicStartPosition = subSpans
+            .nextStartPosition()) != NO_MORE_POSITIONS) {
+          basicEndPosition = subSpans.endPosition();
+          expandedStartPosition = Math.max(minPosition,
+              (basicStartPosition - query.maximumLeft));
+          expandedEndPosition = Math.min(maxPosition + 1,
+              (basicEndPosition + query.maximumRight));
+          lastCollectedStartPosition = expandedStartPosition;
+          if (expandedStartPosition <= (basicStartPosition - query.minimumLeft)
+              && expandedEndPosition >= (basicEndPosition
+                  + query.minimumRight)) {
+            collectedPositions.add(expandedStartPosition, expandedEndPosition);
+          }
+          // expanded start positions are non-decreasing
+          if (collectedPositions
+              .minimumPendingStartPosition() < expandedStartPosition) {
+            break;
+          }
+        }
+        if (basicStartPosition == NO_MORE_POSITIONS) {
+          lastCollectedStartPosition = NO_MORE_POSITIONS;
+        }
+        collectedPositions.sortAndUnique();
+        if (lastCollectedStartPosition == NO_MORE_POSITIONS) {
+          collectedPositions.releaseAll();
+        } else {
+          collectedPositions.release(lastCollectedStartPosition);
         }
       }
-      return false;
+      collectedPositions.next();
+      startPosition = collectedPositions.startPosition();
+      endPosition = collectedPositions.endPosition();
+      return true;
     }
   }
 
@@ -338,6 +373,8 @@ public class MtasMaximumExpandSpans extends MtasSpans {
     maxPosition = 0;
     startPosition = -1;
     endPosition = -1;
+    collectedPositions.clear();
+    lastCollectedStartPosition = -1;
   }
 
   /*
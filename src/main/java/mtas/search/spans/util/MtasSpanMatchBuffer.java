@@ -0,0 +1,274 @@
+package mtas.search.spans.util;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.IntroSorter;
+
+/**
+ * The Class MtasSpanMatchBuffer.
+ *
+ * Reusable buffer of matches stored as parallel int arrays. Matches are added
+ * in arbitrary order, sorted on start and end position and deduplicated in
+ * place, and released for iteration up to a provided threshold. Released
+ * matches that have been consumed can be removed with {@link #compact()}, so
+ * spans can use the buffer to stream matches within a document.
+ */
+public class MtasSpanMatchBuffer {
+
+  /** The Constant INITIAL_SIZE. */
+  private static final int INITIAL_SIZE = 16;
+
+  /** The start positions. */
+  private int[] startPositions;
+
+  /** The end positions. */
+  private int[] endPositions;
+
+  /** The number of matches. */
+  private int size;
+
+  /** The number of matches released for iteration. */
+  private int readySize;
+
+  /** The number of matches sorted and deduplicated. */
+  private int sortedSize;
+
+  /** The position of the current match, -1 if none. */
+  private int position;
+
+  /** The minimum start position of the matches not released. */
+  private int minimumPendingStartPosition;
+
+  /** The sorter. */
+  private final IntroSorter sorter;
+
+  /**
+   * Instantiates a new mtas span match buffer.
+   */
+  public MtasSpanMatchBuffer() {
+    startPositions = new int[INITIAL_SIZE];
+    endPositions = new int[INITIAL_SIZE];
+    sorter = new IntroSorter() {
+      private int pivotStartPosition;
+      private int pivotEndPosition;
+
+      @Override
+      protected void swap(int i, int j) {
+        int tmp = startPositions[i];
+        startPositions[i] = startPositions[j];
+        startPositions[j] = tmp;
+        tmp = endPositions[i];
+        endPositions[i] = endPositions[j];
+        endPositions[j] = tmp;
+      }
+
+      @Override
+      protected int compare(int i, int j) {
+        return MtasSpanMatchBuffer.compare(startPositions[i], endPositions[i],
+            startPositions[j], endPositions[j]);
+      }
+
+      @Override
+      protected void setPivot(int i) {
+        pivotStartPosition = startPositions[i];
+        pivotEndPosition = endPositions[i];
+      }
+
+      @Override
+      protected int comparePivot(int j) {
+        return MtasSpanMatchBuffer.compare(pivotStartPosition,
+            pivotEndPosition, startPositions[j], endPositions[j]);
+      }
+    };
+    clear();
+  }
+
+  /**
+   * Compare.
+   *
+   * @param startPosition1 the start position 1
+   * @param endPosition1 the end position 1
+   * @param startPosition2 the start position 2
+   * @param endPosition2 the end position 2
+   * @return the int
+   */
+  private static int compare(int startPosition1, int endPosition1,
+      int startPosition2, int endPosition2) {
+    if (startPosition1 != startPosition2) {
+      return Integer.compare(startPosition1, startPosition2);
+    } else {
+      return Integer.compare(endPosition1, endPosition2);
+    }
+  }
+
+  /**
+   * Clear.
+   */
+  public void clear() {
+    size = 0;
+    readySize = 0;
+    sortedSize = 0;
+    position = -1;
+    minimumPendingStartPosition = Integer.MAX_VALUE;
+  }
+
+  /**
+   * Adds the match.
+   *
+   * @param startPosition the start position
+   * @param endPosition the end position
+   */
+  public void add(int startPosition, int endPosition) {
+    if (size == startPositions.length) {
+      startPositions = ArrayUtil.grow(startPositions, size + 1);
+      endPositions = ArrayUtil.grow(endPositions, size + 1);
+    }
+    startPositions[size] = startPosition;
+    endPositions[size] = endPosition;
+    size++;
+    minimumPendingStartPosition = Math.min(minimumPendingStartPosition,
+        startPosition);
+  }
+
+  /**
+   * Size, including matches already consumed.
+   *
+   * @return the int
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Checks if there are matches not yet released.
+   *
+   * @return true, if successful
+   */
+  public boolean hasPending() {
+    return readySize < size;
+  }
+
+  /**
+   * Minimum start position of the matches not yet released.
+   *
+   * @return the int
+   */
+  public int minimumPendingStartPosition() {
+    return minimumPendingStartPosition;
+  }
+
+  /**
+   * Removes all consumed matches.
+   */
+  public void compact() {
+    int offset = position + 1;
+    if (offset > 0) {
+      int remaining = size - offset;
+      System.arraycopy(startPositions, offset, startPositions, 0, remaining);
+      System.arraycopy(endPositions, offset, endPositions, 0, remaining);
+      size = remaining;
+      readySize -= offset;
+      sortedSize -= offset;
+      position = -1;
+    }
+  }
+
+  /**
+   * Sort the matches not yet released on start and end position, and remove
+   * duplicates.
+   */
+  public void sortAndUnique() {
+    if (sortedSize < size) {
+      // check if sorting is necessary
+      int from = readySize;
+      boolean sorted = true;
+      for (int i = Math.max(from + 1, sortedSize); i < size; i++) {
+        if (compare(startPositions[i - 1], endPositions[i - 1],
+            startPositions[i], endPositions[i]) > 0) {
+          sorted = false;
+          break;
+        }
+      }
+      if (!sorted) {
+        sorter.sort(from, size);
+      }
+      // remove duplicates, never compare with released matches
+      int newSize = from;
+      for (int i = from; i < size; i++) {
+        if (newSize == from || startPositions[newSize - 1] != startPositions[i]
+            || endPositions[newSize - 1] != endPositions[i]) {
+          startPositions[newSize] = startPositions[i];
+          endPositions[newSize] = endPositions[i];
+          newSize++;
+        }
+      }
+      size = newSize;
+      sortedSize = size;
+    }
+  }
+
+  /**
+   * Release all sorted matches with start position below the threshold for
+   * iteration.
+   *
+   * @param threshold the threshold
+   */
+  public void release(int threshold) {
+    assert sortedSize == size : "matches not sorted";
+    while (readySize < size && startPositions[readySize] < threshold) {
+      readySize++;
+    }
+    minimumPendingStartPosition = readySize < size
+        ? startPositions[readySize] : Integer.MAX_VALUE;
+  }
+
+  /**
+   * Release all matches for iteration.
+   */
+  public void releaseAll() {
+    assert sortedSize == size : "matches not sorted";
+    readySize = size;
+    minimumPendingStartPosition = Integer.MAX_VALUE;
+  }
+
+  /**
+   * Checks for next released match.
+   *
+   * @return true, if successful
+   */
+  public boolean hasNext() {
+    return position + 1 < readySize;
+  }
+
+  /**
+   * Move to the next released match.
+   *
+   * @return true, if successful
+   */
+  public boolean next() {
+    if (position + 1 < readySize) {
+      position++;
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  /**
+   * Start position of the current match.
+   *
+   * @return the int
+   */
+  public int startPosition() {
+    return startPositions[position];
+  }
+
+  /**
+   * End position of the current match.
+   *
+   * @return the int
+   */
+  public int endPosition() {
+    return endPositions[position];
+  }
+
+}
@@ -3,7 +3,10 @@ package mtas.search.spans.util;
 import java.io.IOException;
 
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreMode;
 import org.apache.lucene.search.spans.SpanQuery;
+import org.apache.lucene.search.spans.SpanWeight;
 import mtas.search.spans.MtasSpanMatchNoneQuery;
 
 /**
@@ -62,8 +65,41 @@ public abstract class MtasSpanQuery extends SpanQuery {
     singlePositionQuery = spanWidth != null && spanWidth.equals(1);
   }
 
-  // public abstract MtasSpanWeight createWeight(IndexSearcher searcher,
-  // boolean needsScores) throws IOException;
+  /**
+   * Creates the weight. Within a {@link MtasSpanSharedSearcher}, equal
+   * (sub)queries share a single weight, created with
+   * {@link #createMtasWeight(IndexSearcher, ScoreMode, float)}, which
+   * subclasses implement instead of this method.
+   *
+   * @param searcher the searcher
+   * @param scoreMode the score mode
+   * @param boost the boost
+   * @return the span weight
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @Override
+  public final SpanWeight createWeight(IndexSearcher searcher,
+      ScoreMode scoreMode, float boost) throws IOException {
+    if (searcher instanceof MtasSpanSharedSearcher) {
+      // equal (sub)queries share a single weight within the searcher
+      return ((MtasSpanSharedSearcher) searcher).createSharedWeight(this,
+          scoreMode, boost);
+    } else {
+      return createMtasWeight(searcher, scoreMode, boost);
+    }
+  }
+
+  /**
+   * Creates the weight for this query, without sharing.
+   *
+   * @param searcher the searcher
+   * @param scoreMode the score mode
+   * @param boost the boost
+   * @return the span weight
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  protected abstract SpanWeight createMtasWeight(IndexSearcher searcher,
+      ScoreMode scoreMode, float boost) throws IOException;
 
   /*
    * (non-Javadoc)
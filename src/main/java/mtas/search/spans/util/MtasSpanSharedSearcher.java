@@ -0,0 +1,99 @@
+package mtas.search.spans.util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.spans.SpanWeight;
+
+import mtas.search.spans.MtasSpanMatchAllQuery;
+import mtas.search.spans.MtasSpanMatchNoneQuery;
+import mtas.search.spans.MtasSpanTermQuery;
+
+/**
+ * The Class MtasSpanSharedSearcher.
+ *
+ * Searcher used to plan the span queries of a single request. Weights are
+ * created through this searcher, and equal (sub)queries are hash-consed into
+ * a single {@link MtasSpanSharedWeight}. A weight that is referenced more than
+ * once evaluates its query only once per document and segment, and every
+ * parent reads the materialized matches.
+ */
+public class MtasSpanSharedSearcher extends IndexSearcher {
+
+  /** The shared weights. */
+  private final Map<MtasSpanQuery, MtasSpanSharedWeight> sharedWeights;
+
+  /**
+   * Instantiates a new mtas span shared searcher.
+   *
+   * @param searcher the searcher
+   */
+  public MtasSpanSharedSearcher(IndexSearcher searcher) {
+    super(searcher.getTopReaderContext());
+    setSimilarity(searcher.getSimilarity());
+    setQueryCache(null);
+    sharedWeights = new HashMap<>();
+  }
+
+  /**
+   * Creates the shared weight.
+   *
+   * @param query the query
+   * @param scoreMode the score mode
+   * @param boost the boost
+   * @return the span weight
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  synchronized SpanWeight createSharedWeight(MtasSpanQuery query,
+      ScoreMode scoreMode, float boost) throws IOException {
+    MtasSpanSharedWeight sharedWeight = sharedWeights.get(query);
+    if (sharedWeight != null) {
+      sharedWeight.addReference();
+      return sharedWeight;
+    }
+    SpanWeight weight = query.createMtasWeight(this, scoreMode, boost);
+    if (weight == null || weight instanceof MtasSpanSharedWeight
+        || !isShareable(query)) {
+      return weight;
+    } else {
+      sharedWeight = new MtasSpanSharedWeight(query, this, weight, boost);
+      sharedWeights.put(query, sharedWeight);
+      return sharedWeight;
+    }
+  }
+
+  /**
+   * Checks if the query is worth sharing: reading postings for single terms is
+   * cheaper than materializing the matches.
+   *
+   * @param query the query
+   * @return true, if is shareable
+   */
+  private static boolean isShareable(MtasSpanQuery query) {
+    return !(query instanceof MtasSpanTermQuery
+        || query instanceof MtasSpanMatchAllQuery
+        || query instanceof MtasSpanMatchNoneQuery);
+  }
+
+  /**
+   * Release the materialized matches for a segment.
+   *
+   * @param context the context
+   */
+  public void release(LeafReaderContext context) {
+    List<MtasSpanSharedWeight> list;
+    synchronized (this) {
+      list = new ArrayList<>(sharedWeights.values());
+    }
+    for (MtasSpanSharedWeight sharedWeight : list) {
+      sharedWeight.release(context);
+    }
+  }
+
+}
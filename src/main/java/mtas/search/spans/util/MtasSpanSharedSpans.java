@@ -0,0 +1,289 @@
+package mtas.search.spans.util;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.TwoPhaseIterator;
+import org.apache.lucene.search.spans.SpanCollector;
+import org.apache.lucene.search.spans.SpanWeight;
+import org.apache.lucene.search.spans.Spans;
+
+import mtas.search.spans.util.MtasSpanSharedWeight.SharedMatches;
+
+/**
+ * The Class MtasSpanSharedSpans.
+ *
+ * Spans reading the shared matches of a sub query. If a document can't be
+ * answered from the shared matches, the spans fall back on their own sub spans
+ * for the remainder of the segment.
+ */
+public class MtasSpanSharedSpans extends MtasSpans {
+
+  /** The shared matches. */
+  private final SharedMatches sharedMatches;
+
+  /** The sub weight. */
+  private final SpanWeight subWeight;
+
+  /** The context. */
+  private final LeafReaderContext context;
+
+  /** The fallback spans, null if not used. */
+  private Spans fallbackSpans;
+
+  /** The sub spans used to collect, null if not used. */
+  private Spans collectSpans;
+
+  /** The number of matches of the current doc read from the collect spans. */
+  private int collectMatchNumber;
+
+  /** The doc id. */
+  private int docId;
+
+  /** The offset of the first match for the current doc. */
+  private int startMatchIndex;
+
+  /** The current match, offset in the shared matches. */
+  private int matchIndex;
+
+  /** The offset after the last match for the current doc. */
+  private int endMatchIndex;
+
+  /** The start position. */
+  private int startPosition;
+
+  /** The end position. */
+  private int endPosition;
+
+  /**
+   * Instantiates a new mtas span shared spans.
+   *
+   * @param sharedMatches the shared matches
+   * @param subWeight the sub weight
+   * @param context the context
+   */
+  MtasSpanSharedSpans(SharedMatches sharedMatches, SpanWeight subWeight,
+      LeafReaderContext context) {
+    super();
+    this.sharedMatches = sharedMatches;
+    this.subWeight = subWeight;
+    this.context = context;
+    fallbackSpans = null;
+    collectSpans = null;
+    collectMatchNumber = 0;
+    docId = -1;
+    resetPositions(-1, -1);
+  }
+
+  /**
+   * Reset positions.
+   *
+   * @param startMatchIndex the start match index
+   * @param endMatchIndex the end match index
+   */
+  private void resetPositions(int startMatchIndex, int endMatchIndex) {
+    this.startMatchIndex = startMatchIndex;
+    matchIndex = startMatchIndex;
+    this.endMatchIndex = endMatchIndex;
+    startPosition = -1;
+    endPosition = -1;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lucene.search.spans.Spans#nextStartPosition()
+   */
+  @Override
+  public int nextStartPosition() throws IOException {
+    if (fallbackSpans != null) {
+      return fallbackSpans.nextStartPosition();
+    } else if (matchIndex < endMatchIndex) {
+      startPosition = sharedMatches.startPosition(matchIndex);
+      endPosition = sharedMatches.endPosition(matchIndex);
+      matchIndex++;
+    } else {
+      startPosition = NO_MORE_POSITIONS;
+      endPosition = NO_MORE_POSITIONS;
+    }
+    return startPosition;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lucene.search.spans.Spans#startPosition()
+   */
+  @Override
+  public int startPosition() {
+    return fallbackSpans != null ? fallbackSpans.startPosition()
+        : startPosition;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lucene.search.spans.Spans#endPosition()
+   */
+  @Override
+  public int endPosition() {
+    return fallbackSpans != null ? fallbackSpans.endPosition() : endPosition;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lucene.search.spans.Spans#width()
+   */
+  @Override
+  public int width() {
+    return fallbackSpans != null ? fallbackSpans.width()
+        : endPosition - startPosition;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.apache.lucene.search.spans.Spans#collect(org.apache.lucene.search.spans
+   * .SpanCollector)
+   */
+  @Override
+  public void collect(SpanCollector collector) throws IOException {
+    // only positions are shared, so collect from own sub spans
+    if (fallbackSpans != null) {
+      fallbackSpans.collect(collector);
+    } else if (startPosition >= 0 && startPosition != NO_MORE_POSITIONS
+        && moveCollectSpans(matchIndex - 1 - startMatchIndex)) {
+      collectSpans.collect(collector);
+    }
+  }
+
+  /**
+   * Move the collect spans to the n-th match of the current doc. The shared
+   * matches of a doc are stored in the order of the sub spans.
+   *
+   * @param n the n
+   * @return true, if successful
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private boolean moveCollectSpans(int n) throws IOException {
+    if (collectSpans == null) {
+      collectSpans = subWeight.getSpans(context,
+          SpanWeight.Postings.POSITIONS);
+      if (collectSpans == null) {
+        return false;
+      }
+    }
+    if (collectSpans.docID() < docId) {
+      collectMatchNumber = 0;
+      if (collectSpans.advance(docId) != docId) {
+        return false;
+      }
+    } else if (collectSpans.docID() > docId) {
+      return false;
+    }
+    while (collectMatchNumber <= n) {
+      if (collectSpans.nextStartPosition() == NO_MORE_POSITIONS) {
+        return false;
+      }
+      collectMatchNumber++;
+    }
+    return collectMatchNumber == n + 1;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lucene.search.spans.Spans#positionsCost()
+   */
+  @Override
+  public float positionsCost() {
+    return sharedMatches.positionsCost();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lucene.search.DocIdSetIterator#docID()
+   */
+  @Override
+  public int docID() {
+    return docId;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lucene.search.DocIdSetIterator#nextDoc()
+   */
+  @Override
+  public int nextDoc() throws IOException {
+    return docId == NO_MORE_DOCS ? docId : advance(docId + 1);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lucene.search.DocIdSetIterator#advance(int)
+   */
+  @Override
+  public int advance(int target) throws IOException {
+    if (fallbackSpans == null) {
+      int docIndex = sharedMatches.nextDocIndex(target);
+      if (docIndex >= 0) {
+        if (sharedMatches.isNoMoreDocs(docIndex)) {
+          docId = NO_MORE_DOCS;
+          resetPositions(-1, -1);
+        } else {
+          docId = sharedMatches.docId(docIndex);
+          resetPositions(sharedMatches.startOffset(docIndex),
+              sharedMatches.endOffset(docIndex));
+        }
+        return docId;
+      } else {
+        // shared matches can't be used for this document
+        fallbackSpans = subWeight.getSpans(context,
+            SpanWeight.Postings.POSITIONS);
+        if (fallbackSpans == null) {
+          docId = NO_MORE_DOCS;
+          return docId;
+        }
+      }
+    }
+    docId = fallbackSpans.advance(target);
+    return docId;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lucene.search.spans.Spans#asTwoPhaseIterator()
+   */
+  @Override
+  public TwoPhaseIterator asTwoPhaseIterator() {
+    return null;
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lucene.search.DocIdSetIterator#cost()
+   */
+  @Override
+  public long cost() {
+    return sharedMatches.cost();
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lucene.search.spans.Spans#toString()
+   */
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + "(" + docId + ":"
+        + startPosition() + "-" + endPosition() + ")";
+  }
+
+}
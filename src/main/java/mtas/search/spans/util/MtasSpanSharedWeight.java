@@ -0,0 +1,416 @@
+package mtas.search.spans.util;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermStates;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.spans.SpanWeight;
+import org.apache.lucene.search.spans.Spans;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * The Class MtasSpanSharedWeight.
+ *
+ * Weight for a (sub)query that may be referenced by several parents within a
+ * request. If referenced more than once, the sub spans are evaluated once per
+ * segment and the matches of every visited document are stored, so all parents
+ * iterate over the stored matches with their own {@link MtasSpanSharedSpans}.
+ */
+public class MtasSpanSharedWeight extends MtasSpanWeight {
+
+  /** The sub weight. */
+  private final SpanWeight subWeight;
+
+  /** The searcher. */
+  private final MtasSpanSharedSearcher searcher;
+
+  /** The number of references. */
+  private int references;
+
+  /** The shared matches for each segment. */
+  private final Map<LeafReaderContext, SharedMatches> sharedMatchesList;
+
+  /**
+   * Instantiates a new mtas span shared weight.
+   *
+   * @param query the query
+   * @param searcher the searcher
+   * @param subWeight the sub weight
+   * @param boost the boost
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  MtasSpanSharedWeight(MtasSpanQuery query, MtasSpanSharedSearcher searcher,
+      SpanWeight subWeight, float boost) throws IOException {
+    super(query, searcher, null, boost);
+    this.subWeight = subWeight;
+    this.searcher = searcher;
+    references = 1;
+    sharedMatchesList = new HashMap<>();
+  }
+
+  /**
+   * Adds a reference.
+   */
+  synchronized void addReference() {
+    references++;
+  }
+
+  /**
+   * Checks if the weight is referenced more than once.
+   *
+   * @return true, if is shared
+   */
+  synchronized boolean isShared() {
+    return references > 1;
+  }
+
+  /**
+   * Release the shared matches for a segment.
+   *
+   * @param context the context
+   */
+  synchronized void release(LeafReaderContext context) {
+    sharedMatchesList.remove(context);
+  }
+
+  /**
+   * Release the shared matches of all weights in the request for a segment.
+   *
+   * @param context the context
+   */
+  public void releaseAll(LeafReaderContext context) {
+    searcher.release(context);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.apache.lucene.search.spans.SpanWeight#extractTermStates(java.util.Map)
+   */
+  @Override
+  public void extractTermStates(Map<Term, TermStates> contexts) {
+    subWeight.extractTermStates(contexts);
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see
+   * org.apache.lucene.search.spans.SpanWeight#getSpans(org.apache.lucene.index.
+   * LeafReaderContext, org.apache.lucene.search.spans.SpanWeight.Postings)
+   */
+  @Override
+  public Spans getSpans(LeafReaderContext context, Postings requiredPostings)
+      throws IOException {
+    SharedMatches sharedMatches;
+    synchronized (this) {
+      if (references < 2 || !requiredPostings.equals(Postings.POSITIONS)) {
+        sharedMatches = null;
+      } else if (sharedMatchesList.containsKey(context)) {
+        sharedMatches = sharedMatchesList.get(context);
+      } else {
+        sharedMatches = new SharedMatches(
+            subWeight.getSpans(context, requiredPostings),
+            context.reader().maxDoc());
+        sharedMatchesList.put(context, sharedMatches);
+      }
+    }
+    if (sharedMatches == null) {
+      return subWeight.getSpans(context, requiredPostings);
+    } else if (sharedMatches.isEmpty()) {
+      return null;
+    } else {
+      return new MtasSpanSharedSpans(sharedMatches, subWeight, context);
+    }
+  }
+
+  /*
+   * (non-Javadoc)
+   *
+   * @see org.apache.lucene.search.Weight#extractTerms(java.util.Set)
+   */
+  @Override
+  public void extractTerms(Set<Term> terms) {
+    subWeight.extractTerms(terms);
+  }
+
+  /**
+   * The Class SharedMatches.
+   *
+   * Matches of the sub spans for the visited documents of a segment, stored in
+   * increasing document order. The sub spans only move forward, so documents
+   * skipped by an advance are registered as unknown; parents that need such a
+   * document fall back on their own sub spans.
+   */
+  static class SharedMatches {
+
+    /** The maximum number of stored matches. */
+    private static final int MAXIMUM_MATCHES = 1 << 20;
+
+    /**
+     * The maximum number of stored matches for a doc, docs with more matches
+     * are registered as skipped.
+     */
+    private static final int MAXIMUM_DOC_MATCHES = 1 << 12;
+
+    /** The sub spans. */
+    private final Spans spans;
+
+    /** The max doc. */
+    private final int maxDoc;
+
+    /** The doc ids with matches. */
+    private int[] docIds;
+
+    /** The offsets of the matches for each doc id. */
+    private int[] offsets;
+
+    /** The number of doc ids. */
+    private int docNumber;
+
+    /** The start positions. */
+    private int[] startPositions;
+
+    /** The end positions. */
+    private int[] endPositions;
+
+    /** The number of matches. */
+    private int matchNumber;
+
+    /** The documents skipped by the sub spans. */
+    private FixedBitSet skippedDocs;
+
+    /** The last doc id visited by the sub spans. */
+    private int lastDocId;
+
+    /** The overflow. */
+    private boolean overflow;
+
+    /**
+     * Instantiates new shared matches.
+     *
+     * @param spans the spans
+     * @param maxDoc the max doc
+     */
+    SharedMatches(Spans spans, int maxDoc) {
+      this.spans = spans;
+      this.maxDoc = maxDoc;
+      docIds = new int[16];
+      offsets = new int[17];
+      docNumber = 0;
+      startPositions = new int[16];
+      endPositions = new int[16];
+      matchNumber = 0;
+      skippedDocs = null;
+      lastDocId = -1;
+      overflow = false;
+    }
+
+    /**
+     * Checks if the sub spans are empty.
+     *
+     * @return true, if is empty
+     */
+    boolean isEmpty() {
+      return spans == null;
+    }
+
+    /**
+     * Cost.
+     *
+     * @return the long
+     */
+    long cost() {
+      return spans.cost();
+    }
+
+    /**
+     * Positions cost.
+     *
+     * @return the float
+     */
+    float positionsCost() {
+      return spans.positionsCost();
+    }
+
+    /**
+     * Index of the first stored doc id not below the target, evaluating the
+     * sub spans if necessary.
+     *
+     * @param target the target
+     * @return the index, equal to the number of doc ids if no more docs, or -1
+     *         if the target can't be answered from the stored matches
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    synchronized int nextDocIndex(int target) throws IOException {
+      while (true) {
+        if (target <= lastDocId) {
+          int index = firstDocIndex(target);
+          int docId = (index < docNumber) ? docIds[index] : lastDocId;
+          if (skippedDocs != null && target < maxDoc) {
+            int skippedDocId = skippedDocs.nextSetBit(target);
+            // the last visited doc itself is skipped if it had too many
+            // matches
+            if (skippedDocId < docId
+                || (index == docNumber && skippedDocId == lastDocId)) {
+              // unknown documents before the next stored doc
+              return -1;
+            }
+          }
+          if (index < docNumber || lastDocId == DocIdSetIterator.NO_MORE_DOCS) {
+            return index;
+          }
+          // all documents up to the last visited doc are known
+          target = lastDocId + 1;
+        } else if (overflow) {
+          return -1;
+        } else {
+          if (target == lastDocId + 1) {
+            lastDocId = spans.nextDoc();
+          } else {
+            if (skippedDocs == null) {
+              skippedDocs = new FixedBitSet(maxDoc);
+            }
+            skippedDocs.set(lastDocId + 1, Math.min(target, maxDoc));
+            lastDocId = spans.advance(target);
+          }
+          if (lastDocId != DocIdSetIterator.NO_MORE_DOCS) {
+            collectDoc();
+          }
+        }
+      }
+    }
+
+    /**
+     * Collect all matches for the current doc of the sub spans.
+     *
+     * @throws IOException Signals that an I/O exception has occurred.
+     */
+    private void collectDoc() throws IOException {
+      int offset = matchNumber;
+      int startPosition;
+      while ((startPosition = spans
+          .nextStartPosition()) != Spans.NO_MORE_POSITIONS) {
+        if (matchNumber - offset == MAXIMUM_DOC_MATCHES) {
+          // don't store the matches of this doc
+          if (skippedDocs == null) {
+            skippedDocs = new FixedBitSet(maxDoc);
+          }
+          skippedDocs.set(lastDocId);
+          matchNumber = offset;
+          break;
+        } else if (matchNumber == startPositions.length) {
+          startPositions = ArrayUtil.grow(startPositions, matchNumber + 1);
+          endPositions = ArrayUtil.grow(endPositions, matchNumber + 1);
+        }
+        startPositions[matchNumber] = startPosition;
+        endPositions[matchNumber] = spans.endPosition();
+        matchNumber++;
+      }
+      if (matchNumber > offset) {
+        if (docNumber == docIds.length) {
+          docIds = ArrayUtil.grow(docIds, docNumber + 1);
+        }
+        if (docNumber + 1 >= offsets.length) {
+          offsets = ArrayUtil.grow(offsets, docNumber + 2);
+        }
+        docIds[docNumber] = lastDocId;
+        offsets[docNumber] = offset;
+        docNumber++;
+        offsets[docNumber] = matchNumber;
+      }
+      if (matchNumber > MAXIMUM_MATCHES) {
+        overflow = true;
+      }
+    }
+
+    /**
+     * Index of the first stored doc id not below the target.
+     *
+     * @param target the target
+     * @return the index
+     */
+    private int firstDocIndex(int target) {
+      int low = 0;
+      int high = docNumber;
+      while (low < high) {
+        int mid = (low + high) >>> 1;
+        if (docIds[mid] < target) {
+          low = mid + 1;
+        } else {
+          high = mid;
+        }
+      }
+      return low;
+    }
+
+    /**
+     * Checks if the doc index is beyond the last stored doc id.
+     *
+     * @param docIndex the doc index
+     * @return true, if no more docs
+     */
+    synchronized boolean isNoMoreDocs(int docIndex) {
+      return docIndex >= docNumber;
+    }
+
+    /**
+     * Doc id.
+     *
+     * @param docIndex the doc index
+     * @return the int
+     */
+    synchronized int docId(int docIndex) {
+      return docIds[docIndex];
+    }
+
+    /**
+     * Offset of the first match of the doc.
+     *
+     * @param docIndex the doc index
+     * @return the int
+     */
+    synchronized int startOffset(int docIndex) {
+      return offsets[docIndex];
+    }
+
+    /**
+     * Offset after the last match of the doc.
+     *
+     * @param docIndex the doc index
+     * @return the int
+     */
+    synchronized int endOffset(int docIndex) {
+      return offsets[docIndex + 1];
+    }
+
+    /**
+     * Start position.
+     *
+     * @param matchIndex the match index
+     * @return the int
+     */
+    synchronized int startPosition(int matchIndex) {
+      return startPositions[matchIndex];
+    }
+
+    /**
+     * End position.
+     *
+     * @param matchIndex the match index
+     * @return the int
+     */
+    synchronized int endPosition(int matchIndex) {
+      return endPositions[matchIndex];
+    }
+
+  }
+
+}
@@ -116,11 +116,11 @@ public class MtasSpanUniquePositionQuery extends MtasSpanQuery {
    * (non-Javadoc)
    * 
    * @see
-   * org.apache.lucene.search.spans.SpanQuery#createWeight(org.apache.lucene.
+   * mtas.search.spans.util.MtasSpanQuery#createMtasWeight(org.apache.lucene.
    * search.IndexSearcher, boolean)
    */
   @Override
-  public MtasSpanWeight createWeight(IndexSearcher searcher,
+  protected MtasSpanWeight createMtasWeight(IndexSearcher searcher,
       ScoreMode scoreMode, float boost) throws IOException {
     SpanWeight subWeight = clause.createWeight(searcher, ScoreMode.COMPLETE_NO_SCORES, boost);
     return new SpanUniquePositionWeight(subWeight, searcher,
@@ -1,8 +1,6 @@
 package mtas.search.spans.util;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
 import org.apache.lucene.search.TwoPhaseIterator;
 import org.apache.lucene.search.spans.SpanCollector;
@@ -19,14 +17,11 @@ public class MtasSpanUniquePositionSpans extends MtasSpans {
   /** The spans. */
   private Spans spans;
 
-  /** The queue spans. */
-  private List<Match> queueSpans;
-
   /** The queue matches. */
-  private List<Match> queueMatches;
+  private MtasSpanMatchBuffer queueMatches;
 
-  /** The current match. */
-  private Match currentMatch;
+  /** The current match available. */
+  private boolean currentMatch;
 
   /** The last start position. */
   private int lastStartPosition; // startPosition of last retrieved span
@@ -34,6 +29,9 @@ public class MtasSpanUniquePositionSpans extends MtasSpans {
   /** The last span. */
   private boolean lastSpan; // last span for this document added to queue
 
+  /** The doc id of the queue. */
+  private int queueDocId;
+
   /** The no more positions. */
   private boolean noMorePositions;
 
@@ -48,8 +46,7 @@ public class MtasSpanUniquePositionSpans extends MtasSpans {
     super();
     this.query = query;
     this.spans = spans;
-    queueSpans = new ArrayList<>();
-    queueMatches = new ArrayList<>();
+    queueMatches = new MtasSpanMatchBuffer();
     resetQueue();
   }
 
@@ -61,12 +58,12 @@ public class MtasSpanUniquePositionSpans extends MtasSpans {
   @Override
   public int nextStartPosition() throws IOException {
     if (findMatches()) {
-      currentMatch = queueMatches.get(0);
-      queueMatches.remove(0);
+      queueMatches.next();
+      currentMatch = true;
       noMorePositions = false;
-      return currentMatch.startPosition();
+      return queueMatches.startPosition();
     } else {
-      currentMatch = null;
+      currentMatch = false;
       noMorePositions = true;
       return NO_MORE_POSITIONS;
     }
@@ -79,14 +76,14 @@ public class MtasSpanUniquePositionSpans extends MtasSpans {
    */
   @Override
   public int startPosition() {
-    if (currentMatch == null) {
+    if (!currentMatch) {
       if (noMorePositions) {
         return NO_MORE_POSITIONS;
       } else {
         return -1;
       }
     } else {
-      return currentMatch.startPosition();
+      return queueMatches.startPosition();
     }
   }
 
@@ -97,14 +94,14 @@ public class MtasSpanUniquePositionSpans extends MtasSpans {
    */
   @Override
   public int endPosition() {
-    if (currentMatch == null) {
+    if (!currentMatch) {
       if (noMorePositions) {
         return NO_MORE_POSITIONS;
       } else {
         return -1;
       }
     } else {
-      return currentMatch.endPosition();
+      return queueMatches.endPosition();
     }
   }
 
@@ -184,11 +181,11 @@ public class MtasSpanUniquePositionSpans extends MtasSpans {
    * Reset queue.
    */
   void resetQueue() {
-    queueSpans.clear();
     queueMatches.clear();
+    queueDocId = spans.docID();
     lastStartPosition = 0;
     lastSpan = false;
-    currentMatch = null;
+    currentMatch = false;
   }
 
   /**
@@ -202,32 +199,13 @@ public class MtasSpanUniquePositionSpans extends MtasSpans {
       if (findMatches()) {
         return docID();
       }
+      resetQueue();
       if (spans.nextDoc() == NO_MORE_DOCS) {
         return NO_MORE_DOCS;
       }
     }
   }
 
-  /**
-   * Collect span.
-   *
-   * @return true, if successful
-   * @throws IOException Signals that an I/O exception has occurred.
-   */
-  // try to get something in the queue of spans
-  private boolean collectSpan() throws IOException {
-    if (lastSpan) {
-      return false;
-    } else if (spans.nextStartPosition() == NO_MORE_POSITIONS) {
-      lastSpan = true;
-      return false;
-    } else {
-      queueSpans.add(new Match(spans.startPosition(), spans.endPosition()));
-      lastStartPosition = spans.startPosition();
-      return true;
-    }
-  }
-
   /**
    * Find matches.
    *
@@ -235,117 +213,38 @@ public class MtasSpanUniquePositionSpans extends MtasSpans {
    * @throws IOException Signals that an I/O exception has occurred.
    */
   private boolean findMatches() throws IOException {
+    // queue could belong to previous document when using two phase iterator
+    if (queueDocId != spans.docID()) {
+      resetQueue();
+    }
     // check for something in queue of matches
-    if (!queueMatches.isEmpty()) {
-      return true;
-    } else {
+    while (!queueMatches.hasNext()) {
+      if (lastSpan) {
+        return false;
+      }
+      // collect spans until startPosition changes
+      queueMatches.compact();
       while (true) {
-        // try to get something in queue of spans
-        if (queueSpans.isEmpty() && !collectSpan()) {
-          return false;
-        }
-        // try to get matches with first span in queue
-        Match firstMatch = queueSpans.get(0);
-        queueSpans.remove(0);
-        // create a list of matches with same startposition as firstMatch
-        List<Match> matches = new ArrayList<>();
-        matches.add(firstMatch);
-        // try to collect spans until lastStartPosition not equal to
-        // startposition of firstMatch
-        while (!lastSpan && (lastStartPosition == firstMatch.startPosition())) {
-          collectSpan();
-        }
-        while (!queueSpans.isEmpty() && (queueSpans.get(0)
-            .startPosition() == firstMatch.startPosition())) {
-          matches.add(queueSpans.get(0));
-          queueSpans.remove(0);
-        }
-        // construct all matches for this startposition
-        for (Match match : matches) {
-          // only unique spans
-          if (!queueMatches.contains(match)) {
-            queueMatches.add(match);
+        if (spans.nextStartPosition() == NO_MORE_POSITIONS) {
+          lastSpan = true;
+          break;
+        } else {
+          queueMatches.add(spans.startPosition(), spans.endPosition());
+          lastStartPosition = spans.startPosition();
+          if (queueMatches.minimumPendingStartPosition() < lastStartPosition) {
+            break;
           }
         }
-        // check for something in queue of matches
-        if (!queueMatches.isEmpty()) {
-          return true;
-        }
+      }
+      // only unique spans
+      queueMatches.sortAndUnique();
+      if (lastSpan) {
+        queueMatches.releaseAll();
+      } else {
+        queueMatches.release(lastStartPosition);
       }
     }
-  }
-
-  /**
-   * The Class Match.
-   */
-  private static class Match {
-
-    /** The start position. */
-    private int startPosition;
-
-    /** The end position. */
-    private int endPosition;
-
-    /**
-     * Instantiates a new match.
-     *
-     * @param startPosition the start position
-     * @param endPosition the end position
-     */
-    Match(int startPosition, int endPosition) {
-      this.startPosition = startPosition;
-      this.endPosition = endPosition;
-    }
-
-    /**
-     * Start position.
-     *
-     * @return the int
-     */
-    public int startPosition() {
-      return startPosition;
-    }
-
-    /**
-     * End position.
-     *
-     * @return the int
-     */
-    public int endPosition() {
-      return endPosition;
-    }
-
-    /*
-     * (non-Javadoc)
-     * 
-     * @see java.lang.Object#equals(java.lang.Object)
-     */
-    @Override
-    public boolean equals(Object obj) {
-      if (this == obj)
-        return true;
-      if (obj == null)
-        return false;
-      if (getClass() != obj.getClass())
-        return false;
-      final Match that = (Match) obj;
-      return startPosition == that.startPosition
-          && endPosition == that.endPosition;
-    }
-
-    /*
-     * (non-Javadoc)
-     * 
-     * @see java.lang.Object#hashCode()
-     */
-    @Override
-    public int hashCode() {
-      int h = this.getClass().getSimpleName().hashCode();
-      h = (h * 5) ^ startPosition;
-      h = (h * 7) ^ endPosition;
-      return h;
-    }
-
+    return true;
   }
 
   /*
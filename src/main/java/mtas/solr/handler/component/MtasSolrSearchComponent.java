@@ -1,16 +1,33 @@
 package mtas.solr.handler.component;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import mtas.codec.util.CodecDocSet;
+import mtas.codec.util.CodecAutomatonCache;
+import mtas.codec.util.CodecCollector;
+import mtas.codec.util.CodecSpanMatchCache;
 import mtas.codec.util.CodecComponent.ComponentDocument;
 import mtas.codec.util.CodecComponent.ComponentFacet;
+import mtas.codec.util.CodecComponent.ComponentField;
 import mtas.codec.util.CodecComponent.ComponentFields;
 import mtas.codec.util.CodecComponent.ComponentGroup;
 import mtas.codec.util.CodecComponent.ComponentHeatmap;
@@ -57,6 +74,7 @@ import org.apache.solr.core.SolrInfoBean;
 import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.handler.component.SearchComponent;
 import org.apache.solr.handler.component.ShardRequest;
+import org.apache.solr.search.DocIterator;
 import org.apache.solr.search.DocList;
 import org.apache.solr.search.DocSet;
 import org.apache.solr.search.SolrIndexSearcher;
@@ -64,7 +82,7 @@ import org.apache.solr.search.SolrIndexSearcher;
 /**
  * The Class MtasSolrSearchComponent.
  */
-public class MtasSolrSearchComponent extends SearchComponent {
+public class MtasSolrSearchComponent extends SearchComponent implements Closeable {
 
 	/** The log. */
 	private static Log log = LogFactory.getLog(MtasSolrSearchComponent.class);
@@ -84,6 +102,36 @@ public class MtasSolrSearchComponent extends SearchComponent {
 	/** The Constant CONFIG_COLLECTION_MAXIMUM_OVERFLOW. */
 	public static final String CONFIG_COLLECTION_MAXIMUM_OVERFLOW = "collectionMaximumOverflow";
 
+	/** The Constant CONFIG_MATCH_CACHE_MAXIMUM_SIZE. */
+	public static final String CONFIG_MATCH_CACHE_MAXIMUM_SIZE = "matchCacheMaximumSize";
+
+	/** The Constant CONFIG_AUTOMATON_CACHE_MAXIMUM_NUMBER. */
+	public static final String CONFIG_AUTOMATON_CACHE_MAXIMUM_NUMBER = "automatonCacheMaximumNumber";
+
+	/** The Constant CONFIG_AUTOMATON_CACHE_MAXIMUM_SIZE. */
+	public static final String CONFIG_AUTOMATON_CACHE_MAXIMUM_SIZE = "automatonCacheMaximumSize";
+
+	/** The Constant CONFIG_TERMVECTOR_PARTITIONS. */
+	public static final String CONFIG_TERMVECTOR_PARTITIONS = "termvectorPartitions";
+
+	/** The Constant CONFIG_FIELD_THREADS. */
+	public static final String CONFIG_FIELD_THREADS = "fieldThreads";
+
+	/** The Constant CONFIG_REQUEST_CONCURRENCY. */
+	public static final String CONFIG_REQUEST_CONCURRENCY = "requestConcurrency";
+
+	/** The Constant DEFAULT_REQUEST_CONCURRENCY. */
+	private static final int DEFAULT_REQUEST_CONCURRENCY = 2;
+
+	/** The Constant CONFIG_SEGMENT_THREADS. */
+	public static final String CONFIG_SEGMENT_THREADS = "segmentThreads";
+
+	/**
+	 * The Constant EXECUTOR_QUEUE_FACTOR, the number of queued tasks for each
+	 * thread of an executor.
+	 */
+	private static final int EXECUTOR_QUEUE_FACTOR = 16;
+
 	/** The Constant NAME. */
 	public static final String NAME = "mtas";
 
@@ -174,6 +222,21 @@ public class MtasSolrSearchComponent extends SearchComponent {
 	/** The collection cache. */
 	private MtasSolrCollectionCache collectionCache = null;
 
+	/** The segment executor, null if segments are collected serially. */
+	private ExecutorService segmentExecutor = null;
+
+	/** The field executor, null if fields are collected serially. */
+	private ExecutorService fieldExecutor = null;
+
+	/**
+	 * The number of ranges of terms a full termvector is split into within a
+	 * segment, 0 to compute full termvectors serially within segments.
+	 */
+	private int termvectorPartitions = 0;
+
+	/** The maximum number of concurrent field and collection tasks for a request. */
+	private int requestConcurrency = DEFAULT_REQUEST_CONCURRENCY;
+
 	/** The request handler. */
 	private MtasRequestHandler requestHandler = null;
 
@@ -234,6 +297,185 @@ public class MtasSolrSearchComponent extends SearchComponent {
 		}
 		collectionCache = new MtasSolrCollectionCache(collectionCacheDirectory, collectionLifetime,
 				collectionMaximumNumber, collectionMaximumOverflow);
+		// init match cache
+		if (args.get(CONFIG_MATCH_CACHE_MAXIMUM_SIZE) != null
+				&& args.get(CONFIG_MATCH_CACHE_MAXIMUM_SIZE) instanceof Number) {
+			CodecSpanMatchCache.getInstance()
+					.setMaximumSize(((Number) args.get(CONFIG_MATCH_CACHE_MAXIMUM_SIZE)).longValue());
+		} else {
+			log.debug("no " + CONFIG_MATCH_CACHE_MAXIMUM_SIZE + " defined for " + this.getClass().getSimpleName()
+					+ ", span matches are not cached");
+		}
+		// init automaton cache
+		if (args.get(CONFIG_AUTOMATON_CACHE_MAXIMUM_NUMBER) != null
+				&& args.get(CONFIG_AUTOMATON_CACHE_MAXIMUM_NUMBER) instanceof Integer) {
+			CodecAutomatonCache.getInstance().setMaximumNumber((Integer) args.get(CONFIG_AUTOMATON_CACHE_MAXIMUM_NUMBER));
+		} else {
+			log.debug("no " + CONFIG_AUTOMATON_CACHE_MAXIMUM_NUMBER + " defined for " + this.getClass().getSimpleName()
+					+ ", using default");
+		}
+		if (args.get(CONFIG_AUTOMATON_CACHE_MAXIMUM_SIZE) != null
+				&& args.get(CONFIG_AUTOMATON_CACHE_MAXIMUM_SIZE) instanceof Number) {
+			CodecAutomatonCache.getInstance()
+					.setMaximumSize(((Number) args.get(CONFIG_AUTOMATON_CACHE_MAXIMUM_SIZE)).longValue());
+		} else {
+			log.debug("no " + CONFIG_AUTOMATON_CACHE_MAXIMUM_SIZE + " defined for " + this.getClass().getSimpleName()
+					+ ", using default");
+		}
+		// init termvector partitions
+		if (args.get(CONFIG_TERMVECTOR_PARTITIONS) != null
+				&& args.get(CONFIG_TERMVECTOR_PARTITIONS) instanceof Integer) {
+			termvectorPartitions = Math.max(0, (Integer) args.get(CONFIG_TERMVECTOR_PARTITIONS));
+		} else {
+			log.debug("no " + CONFIG_TERMVECTOR_PARTITIONS + " defined for " + this.getClass().getSimpleName()
+					+ ", computing full termvectors serially within segments");
+		}
+		// init segment executor
+		if (args.get(CONFIG_SEGMENT_THREADS) != null && args.get(CONFIG_SEGMENT_THREADS) instanceof Integer
+				&& (Integer) args.get(CONFIG_SEGMENT_THREADS) > 1) {
+			segmentExecutor = createExecutor("mtas-segment-", (Integer) args.get(CONFIG_SEGMENT_THREADS));
+		} else {
+			log.debug("no " + CONFIG_SEGMENT_THREADS + " defined for " + this.getClass().getSimpleName()
+					+ ", collecting segments serially");
+		}
+		// init field executor, separate from the segment executor because field
+		// tasks wait for segment tasks
+		if (args.get(CONFIG_FIELD_THREADS) != null && args.get(CONFIG_FIELD_THREADS) instanceof Integer
+				&& (Integer) args.get(CONFIG_FIELD_THREADS) > 1) {
+			fieldExecutor = createExecutor("mtas-field-", (Integer) args.get(CONFIG_FIELD_THREADS));
+		} else {
+			log.debug("no " + CONFIG_FIELD_THREADS + " defined for " + this.getClass().getSimpleName()
+					+ ", collecting fields serially");
+		}
+		if (args.get(CONFIG_REQUEST_CONCURRENCY) != null && args.get(CONFIG_REQUEST_CONCURRENCY) instanceof Integer
+				&& (Integer) args.get(CONFIG_REQUEST_CONCURRENCY) > 0) {
+			requestConcurrency = (Integer) args.get(CONFIG_REQUEST_CONCURRENCY);
+		} else {
+			log.debug("no " + CONFIG_REQUEST_CONCURRENCY + " defined for " + this.getClass().getSimpleName()
+					+ ", using default");
+		}
+	}
+
+	/**
+	 * Creates an executor with daemon threads and a bounded queue. If the queue
+	 * is full, a task is run by the submitting thread.
+	 *
+	 * @param prefix the prefix for the thread names
+	 * @param threads the number of threads
+	 * @return the executor service
+	 */
+	private static ExecutorService createExecutor(String prefix, int threads) {
+		final AtomicInteger threadNumber = new AtomicInteger(0);
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(EXECUTOR_QUEUE_FACTOR * threads), runnable -> {
+					Thread thread = new Thread(runnable, prefix + threadNumber.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}, (runnable, rejectingExecutor) -> {
+					if (rejectingExecutor.isShutdown()) {
+						throw new RejectedExecutionException(prefix + "executor is shut down");
+					} else {
+						runnable.run();
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 * 
+	 * @see java.io.Closeable#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		// running tasks finish, their requests are waiting for them
+		if (segmentExecutor != null) {
+			segmentExecutor.shutdown();
+		}
+		if (fieldExecutor != null) {
+			fieldExecutor.shutdown();
+		}
+		try {
+			super.close();
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Run the independent collect tasks of a request, with at most
+	 * {@link #requestConcurrency} tasks running at the same time. Without field
+	 * executor, the tasks are run serially.
+	 *
+	 * @param tasks the tasks
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void runTasks(List<Callable<Void>> tasks) throws IOException {
+		if (fieldExecutor == null || requestConcurrency < 2 || tasks.size() < 2) {
+			for (Callable<Void> task : tasks) {
+				callTask(task);
+			}
+		} else {
+			ArrayDeque<Future<Void>> futures = new ArrayDeque<>();
+			AtomicBoolean aborted = new AtomicBoolean(false);
+			Iterator<Callable<Void>> taskIterator = tasks.iterator();
+			try {
+				while (taskIterator.hasNext() || !futures.isEmpty()) {
+					while (taskIterator.hasNext() && futures.size() < requestConcurrency) {
+						futures.add(CodecCollector.submit(fieldExecutor, taskIterator.next(), aborted));
+					}
+					getTask(futures.poll());
+				}
+			} finally {
+				// no interrupts, these would close file channels of the searcher
+				CodecCollector.abortAndWait(futures, aborted);
+			}
+		}
+	}
+
+	/**
+	 * Call a task.
+	 *
+	 * @param task the task
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void callTask(Callable<Void> task) throws IOException {
+		try {
+			task.call();
+		} catch (IOException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Wait for a task, rethrowing its exception.
+	 *
+	 * @param future the future
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void getTask(Future<Void> future) throws IOException {
+		try {
+			future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException(e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			} else {
+				throw new IOException(cause);
+			}
+		}
 	}
 
 	/*
@@ -325,6 +567,11 @@ public class MtasSolrSearchComponent extends SearchComponent {
 				// get settings termvector
 				if (rb.req.getParams().getBool(MtasSolrComponentTermvector.PARAM_MTAS_TERMVECTOR, false)) {
 					searchTermvector.prepare(rb, mtasFields);
+					for (ComponentField field : mtasFields.list.values()) {
+						for (ComponentTermVector termVector : field.termVectorList) {
+							termVector.partitions = termvectorPartitions;
+						}
+					}
 				}
 				// get settings prefix
 				if (rb.req.getParams().getBool(MtasSolrComponentPrefix.PARAM_MTAS_PREFIX, false)) {
@@ -386,40 +633,54 @@ public class MtasSolrSearchComponent extends SearchComponent {
 								|| mtasFields.doTermVector || mtasFields.doPrefix || mtasFields.doStatus
 								|| mtasFields.doVersion) {
 							SolrIndexSearcher searcher = rb.req.getSearcher();
-							ArrayList<Integer> docSetList = null;
-							ArrayList<Integer> docListList = null;
-							// initialise docSetList
+							CodecDocSet docSetList = null;
+							CodecDocSet docListList = null;
+							// initialise docSetList, iterated in increasing order
 							if (docSet != null) {
-								docSetList = new ArrayList<>();
-								Iterator<Integer> docSetIterator = docSet.iterator();
-								while (docSetIterator.hasNext()) {
-									docSetList.add(docSetIterator.next());
+								int[] docSetIds = new int[docSet.size()];
+								int docSetSize = 0;
+								DocIterator docSetIterator = docSet.iterator();
+								while (docSetIterator.hasNext() && docSetSize < docSetIds.length) {
+									docSetIds[docSetSize++] = docSetIterator.nextDoc();
 								}
-								Collections.sort(docSetList);
+								docSetList = CodecDocSet.of(docSetIds, docSetSize);
 							}
 							// initialise docListList
 							if (docList != null) {
-								docListList = new ArrayList<>();
-								Iterator<Integer> docListIterator = docList.iterator();
-								while (docListIterator.hasNext()) {
-									docListList.add(docListIterator.next());
+								int[] docListIds = new int[docList.size()];
+								int docListSize = 0;
+								DocIterator docListIterator = docList.iterator();
+								while (docListIterator.hasNext() && docListSize < docListIds.length) {
+									docListIds[docListSize++] = docListIterator.nextDoc();
 								}
-								Collections.sort(docListList);
+								docListList = CodecDocSet.of(docListIds, docListSize);
 							}
 							solrStatus.status().addSubs(mtasFields.list.keySet());
+							// fields and collections are independent tasks
+							List<Callable<Void>> tasks = new ArrayList<>();
+							final CodecDocSet finalDocSetList = docSetList;
+							final CodecDocSet finalDocListList = docListList;
 							for (String field : mtasFields.list.keySet()) {
-								try {
-									CodecUtil.collectField(field, searcher, searcher.getRawReader(), docListList,
-											docSetList, mtasFields.list.get(field), solrStatus.status());
-								} catch (IllegalAccessException | IllegalArgumentException
-										| InvocationTargetException e) {
-									log.error(e);
-									throw new IOException(e);
-								}
+								tasks.add(() -> {
+									try {
+										CodecUtil.collectField(field, searcher, searcher.getRawReader(), finalDocListList,
+												finalDocSetList, mtasFields.list.get(field), solrStatus.status(),
+												segmentExecutor);
+									} catch (IllegalAccessException | IllegalArgumentException
+											| InvocationTargetException e) {
+										log.error(e);
+										throw new IOException(e);
+									}
+									return null;
+								});
 							}
 							for (ComponentCollection collection : mtasFields.collection) {
-								CodecUtil.collectCollection(searcher.getRawReader(), docSetList, collection);
+								tasks.add(() -> {
+									CodecUtil.collectCollection(searcher.getRawReader(), finalDocSetList, collection);
+									return null;
+								});
 							}
+							runTasks(tasks);
 							NamedList<Object> mtasResponse = new SimpleOrderedMap<>();
 							if (mtasFields.doVersion) {
 								SimpleOrderedMap<Object> versionResponse = searchVersion.create(mtasFields.version,
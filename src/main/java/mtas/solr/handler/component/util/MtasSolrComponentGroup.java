@@ -79,6 +79,12 @@ public class MtasSolrComponentGroup
   /** The Constant NAME_MTAS_GROUP_START. */
   public static final String NAME_MTAS_GROUP_START = "start";
 
+  /** The Constant NAME_MTAS_GROUP_APPROXIMATE. */
+  public static final String NAME_MTAS_GROUP_APPROXIMATE = "approximate";
+
+  /** The Constant NAME_MTAS_GROUP_CAPACITY. */
+  public static final String NAME_MTAS_GROUP_CAPACITY = "capacity";
+
   /** The Constant NAME_MTAS_GROUP_GROUPING_LEFT. */
   public static final String NAME_MTAS_GROUP_GROUPING_LEFT = "grouping.left";
 
@@ -142,6 +148,8 @@ public class MtasSolrComponentGroup
       String[] keys = new String[ids.size()];
       String[] numbers = new String[ids.size()];
       String[] starts = new String[ids.size()];
+      boolean[] approximates = new boolean[ids.size()];
+      String[] capacities = new String[ids.size()];
       String[][] groupingLeftPosition = new String[ids.size()][];
       String[][] groupingLeftPrefixes = new String[ids.size()][];
       String[][] groupingRightPosition = new String[ids.size()][];
@@ -166,6 +174,11 @@ public class MtasSolrComponentGroup
             PARAM_MTAS_GROUP + "." + id + "." + NAME_MTAS_GROUP_NUMBER, null);
         starts[tmpCounter] = rb.req.getParams().get(
             PARAM_MTAS_GROUP + "." + id + "." + NAME_MTAS_GROUP_START, null);
+        approximates[tmpCounter] = rb.req.getParams().getBool(
+            PARAM_MTAS_GROUP + "." + id + "." + NAME_MTAS_GROUP_APPROXIMATE,
+            false);
+        capacities[tmpCounter] = rb.req.getParams().get(
+            PARAM_MTAS_GROUP + "." + id + "." + NAME_MTAS_GROUP_CAPACITY, null);
         queryTypes[tmpCounter] = rb.req.getParams().get(
             PARAM_MTAS_GROUP + "." + id + "." + NAME_MTAS_GROUP_QUERY_TYPE,
             null);
@@ -324,6 +337,8 @@ public class MtasSolrComponentGroup
             ? DEFAULT_NUMBER : Integer.parseInt(numbers[i]);
         int start = (starts[i] == null) || (starts[i].isEmpty()) ? 0
             : Integer.parseInt(starts[i]);
+        Integer capacity = (capacities[i] == null) || (capacities[i].isEmpty())
+            ? null : Integer.parseInt(capacities[i]);
         mtasFields.list.get(fields[i]).groupList.add(new ComponentGroup(q, key,
             number, start, groupingHitInsidePrefixes[i],
             groupingHitInsideLeftPosition[i], groupingHitInsideLeftPrefixes[i],
@@ -332,7 +347,7 @@ public class MtasSolrComponentGroup
             groupingHitLeftPrefixes[i], groupingHitRightPosition[i],
             groupingHitRightPrefixes[i], groupingLeftPosition[i],
             groupingLeftPrefixes[i], groupingRightPosition[i],
-            groupingRightPrefixes[i]));
+            groupingRightPrefixes[i], approximates[i], capacity));
       }
     }
   }
@@ -349,6 +364,12 @@ public class MtasSolrComponentGroup
       throws IOException {
     SimpleOrderedMap<Object> mtasGroupResponse = new SimpleOrderedMap<>();
     mtasGroupResponse.add("key", group.key);
+    if (group.approximate) {
+      // sums are lower bounds, and exceeded by at most the error, summed over
+      // shards when merged
+      mtasGroupResponse.add("approximate", true);
+      mtasGroupResponse.add("error", group.approximationError);
+    }
     MtasSolrMtasResult data = new MtasSolrMtasResult(group.dataCollector,
         new String[] { group.dataType }, new String[] { group.statsType },
         new SortedSet[] { group.statsItems }, new List[] { null },
@@ -430,6 +451,10 @@ public class MtasSolrComponentGroup
               PARAM_MTAS_GROUP + "." + key + "." + NAME_MTAS_GROUP_NUMBER);
           sreq.params.remove(
               PARAM_MTAS_GROUP + "." + key + "." + NAME_MTAS_GROUP_START);
+          sreq.params.remove(PARAM_MTAS_GROUP + "." + key + "."
+              + NAME_MTAS_GROUP_APPROXIMATE);
+          sreq.params.remove(
+              PARAM_MTAS_GROUP + "." + key + "." + NAME_MTAS_GROUP_CAPACITY);
           sreq.params.remove(
               PARAM_MTAS_GROUP + "." + key + "." + NAME_MTAS_GROUP_QUERY_TYPE);
           sreq.params.remove(
@@ -9,6 +9,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -99,6 +100,9 @@ public class MtasSolrComponentList implements MtasSolrComponent<ComponentList> {
   /** The Constant NAME_MTAS_LIST_OUTPUT. */
   public static final String NAME_MTAS_LIST_OUTPUT = "output";
 
+  /** The Constant NAME_MTAS_LIST_CURSOR. */
+  public static final String NAME_MTAS_LIST_CURSOR = "cursor";
+
   /**
    * Instantiates a new mtas solr component list.
    *
@@ -137,6 +141,7 @@ public class MtasSolrComponentList implements MtasSolrComponent<ComponentList> {
       String[] lefts = new String[ids.size()];
       String[] rights = new String[ids.size()];
       String[] outputs = new String[ids.size()];
+      String[] cursors = new String[ids.size()];
       for (String id : ids) {
         fields[tmpCounter] = rb.req.getParams()
             .get(PARAM_MTAS_LIST + "." + id + "." + NAME_MTAS_LIST_FIELD, null);
@@ -209,6 +214,8 @@ public class MtasSolrComponentList implements MtasSolrComponent<ComponentList> {
             .get(PARAM_MTAS_LIST + "." + id + "." + NAME_MTAS_LIST_RIGHT, null);
         outputs[tmpCounter] = rb.req.getParams().get(
             PARAM_MTAS_LIST + "." + id + "." + NAME_MTAS_LIST_OUTPUT, null);
+        cursors[tmpCounter] = rb.req.getParams().get(
+            PARAM_MTAS_LIST + "." + id + "." + NAME_MTAS_LIST_CURSOR, null);
         tmpCounter++;
       }
       String uniqueKeyField = rb.req.getSchema().getUniqueKeyField().getName();
@@ -248,6 +255,8 @@ public class MtasSolrComponentList implements MtasSolrComponent<ComponentList> {
           NAME_MTAS_LIST_FIELD, false);
       MtasSolrResultUtil.compareAndCheck(outputs, fields, NAME_MTAS_LIST_OUTPUT,
           NAME_MTAS_LIST_FIELD, false);
+      MtasSolrResultUtil.compareAndCheck(cursors, fields, NAME_MTAS_LIST_CURSOR,
+          NAME_MTAS_LIST_FIELD, false);
       for (int i = 0; i < fields.length; i++) {
         ComponentField cf = mtasFields.list.get(fields[i]);
         Integer maximumIgnoreLength = (queryMaximumIgnoreLengths[i] == null)
@@ -276,10 +285,13 @@ public class MtasSolrComponentList implements MtasSolrComponent<ComponentList> {
         int right = (rights[i] == null) || rights[i].isEmpty() ? 0
             : Integer.parseInt(rights[i]);
         String output = outputs[i];
+        String cursor = (cursors[i] == null) || cursors[i].trim().isEmpty()
+            ? null : cursors[i].trim();
         mtasFields.list.get(fields[i]).listList.add(new ComponentList(q,
             fields[i], queryValues[i], queryTypes[i], queryPrefixes[i],
             queryVariables[i], queryIgnores[i], queryMaximumIgnoreLengths[i],
-            key, fieldList, prefix, start, number, left, right, output));
+            key, fieldList, prefix, start, number, left, right, output,
+            cursor));
       }
     }
   }
@@ -316,6 +328,8 @@ public class MtasSolrComponentList implements MtasSolrComponent<ComponentList> {
               .remove(PARAM_MTAS_LIST + "." + key + "." + NAME_MTAS_LIST_RIGHT);
           sreq.params.remove(
               PARAM_MTAS_LIST + "." + key + "." + NAME_MTAS_LIST_OUTPUT);
+          sreq.params.remove(
+              PARAM_MTAS_LIST + "." + key + "." + NAME_MTAS_LIST_CURSOR);
           // don't get data
           sreq.params.add(
               PARAM_MTAS_LIST + "." + key + "." + NAME_MTAS_LIST_NUMBER, "0");
@@ -360,6 +374,8 @@ public class MtasSolrComponentList implements MtasSolrComponent<ComponentList> {
               .remove(PARAM_MTAS_LIST + "." + key + "." + NAME_MTAS_LIST_RIGHT);
           sreq.params.remove(
               PARAM_MTAS_LIST + "." + key + "." + NAME_MTAS_LIST_OUTPUT);
+          sreq.params.remove(
+              PARAM_MTAS_LIST + "." + key + "." + NAME_MTAS_LIST_CURSOR);
         }
       }
     }
@@ -425,6 +441,23 @@ public class MtasSolrComponentList implements MtasSolrComponent<ComponentList> {
                 break;
               }
               int subTotal = totals.get(rb.shards[i]);
+              // with cursor, skip shards and hits before the cursor
+              String shardCursor = null;
+              if (list.cursor != null) {
+                if (list.cursorDocId < 0) {
+                  shardCursor = ComponentList.CURSOR_START;
+                } else if (i > list.cursorShard) {
+                  shardCursor = ComponentList.CURSOR_START;
+                  start = 0;
+                } else if (i == list.cursorShard) {
+                  shardCursor = ComponentList.createCursor(0,
+                      list.cursorVersion, list.cursorDocId,
+                      list.cursorDocPosition, list.cursorPosition);
+                  start = list.cursorPosition;
+                } else {
+                  continue;
+                }
+              }
               // System.out.println(i + " : " + rb.shards[i] + " : "
               // + totals.get(rb.shards[i]) + " - " + start + " " + number);
               if ((start >= 0) && (start < subTotal)) {
@@ -488,6 +521,11 @@ public class MtasSolrComponentList implements MtasSolrComponent<ComponentList> {
                     + NAME_MTAS_LIST_RIGHT, Integer.toString(list.right));
                 params.add(PARAM_MTAS_LIST + "." + requestId + "."
                     + NAME_MTAS_LIST_OUTPUT, list.output);
+                if (shardCursor != null) {
+                  // start is ignored by the shard
+                  params.add(PARAM_MTAS_LIST + "." + requestId + "."
+                      + NAME_MTAS_LIST_CURSOR, shardCursor);
+                }
                 number -= (subTotal - start);
                 start = 0;
               } else {
@@ -531,6 +569,10 @@ public class MtasSolrComponentList implements MtasSolrComponent<ComponentList> {
     if (list.number == 0) {
       mtasListResponse.add("total", list.total);
     }
+    // no next cursor after the last hit, as in the distributed response
+    if (list.cursor != null && (!list.hits.isEmpty() || !list.tokens.isEmpty())) {
+      mtasListResponse.add("nextCursor", list.nextCursor);
+    }
     if (list.output != null) {
       ArrayList<NamedList<Object>> mtasListItemResponses = new ArrayList<>();
       if (list.output.equals(ComponentList.LIST_OUTPUT_HIT)) {
@@ -663,6 +705,32 @@ public class MtasSolrComponentList implements MtasSolrComponent<ComponentList> {
     return mtasListResponse;
   }
 
+  /**
+   * Gets the list items with a next cursor from a shard response.
+   *
+   * @param response the response
+   * @return the items
+   */
+  @SuppressWarnings("unchecked")
+  private List<NamedList<Object>> getCursorItems(ShardResponse response) {
+    List<NamedList<Object>> items = new ArrayList<>();
+    try {
+      ArrayList<NamedList<Object>> data = (ArrayList<NamedList<Object>>) response
+          .getSolrResponse().getResponse().findRecursive("mtas", NAME);
+      if (data != null) {
+        for (NamedList<Object> dataItem : data) {
+          if (dataItem.get("key") instanceof String
+              && dataItem.get("nextCursor") instanceof String) {
+            items.add(dataItem);
+          }
+        }
+      }
+    } catch (ClassCastException e) {
+      log.debug(e);
+    }
+    return items;
+  }
+
   /*
    * (non-Javadoc)
    * 
@@ -674,10 +742,40 @@ public class MtasSolrComponentList implements MtasSolrComponent<ComponentList> {
     if (rb.req.getParams().getBool(MtasSolrSearchComponent.PARAM_MTAS, false)
         && rb.stage >= ResponseBuilder.STAGE_EXECUTE_QUERY
         && rb.stage < ResponseBuilder.STAGE_GET_FIELDS) {
+      // the next cursor is taken from the last shard with hits
+      HashMap<String, Integer> lastShards = new HashMap<>();
       for (ShardRequest sreq : rb.finished) {
         if (sreq.params.getBool(MtasSolrSearchComponent.PARAM_MTAS, false)
             && sreq.params.getBool(PARAM_MTAS_LIST, false)) {
-          // nothing to do
+          for (ShardResponse response : sreq.responses) {
+            int shard = Arrays.asList(rb.shards).indexOf(response.getShard());
+            for (NamedList<Object> item : getCursorItems(response)) {
+              Object number = item.get("number");
+              if (number instanceof Integer && (Integer) number > 0) {
+                lastShards.merge((String) item.get("key"), shard, Math::max);
+              }
+            }
+          }
+        }
+      }
+      for (ShardRequest sreq : rb.finished) {
+        if (sreq.params.getBool(MtasSolrSearchComponent.PARAM_MTAS, false)
+            && sreq.params.getBool(PARAM_MTAS_LIST, false)) {
+          for (ShardResponse response : sreq.responses) {
+            int shard = Arrays.asList(rb.shards).indexOf(response.getShard());
+            for (NamedList<Object> item : getCursorItems(response)) {
+              Integer lastShard = lastShards.get(item.get("key"));
+              String[] parts = ((String) item.get("nextCursor"))
+                  .split(Pattern.quote(":"));
+              item.removeAll("nextCursor");
+              if (lastShard != null && lastShard == shard && parts.length == 5) {
+                item.add("nextCursor",
+                    ComponentList.createCursor(shard, Long.parseLong(parts[1]),
+                        Integer.parseInt(parts[2]), Integer.parseInt(parts[3]),
+                        Integer.parseInt(parts[4])));
+              }
+            }
+          }
         }
       }
     }
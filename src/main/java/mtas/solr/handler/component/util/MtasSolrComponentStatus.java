@@ -1,6 +1,7 @@
 package mtas.solr.handler.component.util;
 
 import java.io.IOException;
+import java.util.Map.Entry;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.solr.common.util.SimpleOrderedMap;
@@ -8,6 +9,7 @@ import org.apache.solr.handler.component.ResponseBuilder;
 import org.apache.solr.handler.component.SearchComponent;
 import org.apache.solr.handler.component.ShardRequest;
 
+import mtas.codec.util.CodecSpanMatchCache;
 import mtas.codec.util.CodecComponent.ComponentFields;
 import mtas.codec.util.CodecComponent.ComponentStatus;
 import mtas.solr.handler.MtasRequestHandler.ShardInformation;
@@ -41,6 +43,9 @@ public class MtasSolrComponentStatus
   public static final String NAME_MTAS_STATUS_NUMBEROFSEGMENTS = "numberOfSegments";
   public static final String NAME_MTAS_STATUS_NUMBEROFDOCUMENTS = "numberOfDocuments";
 
+  /** The Constant NAME_MTAS_STATUS_MATCHCACHE. */
+  public static final String NAME_MTAS_STATUS_MATCHCACHE = "matchCache";
+
   /**
    * Instantiates a new mtas solr component status.
    *
@@ -80,6 +85,13 @@ public class MtasSolrComponentStatus
         .numDocs();
     mtasFields.status.numberOfSegments = rb.req.getSearcher().getRawReader()
         .leaves().size();
+    mtasFields.status.getMatchCache = rb.req.getParams()
+        .getBool(MtasSolrComponentStatus.PARAM_MTAS_STATUS + "."
+            + NAME_MTAS_STATUS_MATCHCACHE, false);
+    if (mtasFields.status.getMatchCache) {
+      mtasFields.status.matchCache = CodecSpanMatchCache.getInstance()
+          .getStatus();
+    }
   }
 
   /*
@@ -104,6 +116,14 @@ public class MtasSolrComponentStatus
       mtasStatusResponse.add(NAME_MTAS_STATUS_NUMBEROFSEGMENTS,
           status.numberOfSegments);
     }
+    if (status.getMatchCache && status.matchCache != null) {
+      SimpleOrderedMap<Object> mtasMatchCacheResponse = new SimpleOrderedMap<>();
+      for (Entry<String, Object> entry : status.matchCache.entrySet()) {
+        mtasMatchCacheResponse.add(entry.getKey(), entry.getValue());
+      }
+      mtasStatusResponse.add(NAME_MTAS_STATUS_MATCHCACHE,
+          mtasMatchCacheResponse);
+    }
     if(mtasStatusResponse.size()>0) {
       mtasStatusResponse.add(ShardInformation.NAME_NAME, status.name);
       if (status.key != null) {
@@ -35,6 +35,7 @@ import org.apache.solr.update.processor.UpdateRequestProcessor;
 import org.apache.solr.update.processor.UpdateRequestProcessorFactory;
 
 import mtas.analysis.MtasTokenizer;
+import mtas.analysis.token.MtasToken;
 import mtas.analysis.util.MtasCharFilterFactory;
 import mtas.analysis.util.MtasTokenizerFactory;
 import mtas.codec.util.CodecUtil;
@@ -371,11 +372,16 @@ class MtasUpdateRequestProcessor extends UpdateRequestProcessor {
                 Integer posIncr = null;
                 Integer flags = null;
                 BytesRef payload = null;
+                // n-gram tokens are not counted as tokens or prefixes
+                boolean ngram = false;
                 if (termAttribute != null) {
                   term = termAttribute.toString();
                   prefix = CodecUtil.termPrefix(term);
+                  ngram = MtasToken.isNgramPrefix(prefix);
                   prefixCount = prefixes.get(prefix);
-                  if(prefixCount!=null) {
+                  if (ngram) {
+                    // not counted
+                  } else if(prefixCount!=null) {
                 	  prefixes.put(prefix,  prefixCount+1);
                   } else {
                 	  prefixes.put(prefix,  1);
@@ -396,7 +402,9 @@ class MtasUpdateRequestProcessor extends UpdateRequestProcessor {
                 if (flagsAttribute != null) {
                   flags = flagsAttribute.getFlags();
                 }
-                numberOfTokens++;
+                if (!ngram) {
+                  numberOfTokens++;
+                }
                 numberOfPositions += posIncr;
                 result.addItem(term, offsetStart, offsetEnd, posIncr, payload,
                     flags);
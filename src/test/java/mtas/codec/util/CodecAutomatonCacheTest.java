@@ -0,0 +1,160 @@
+package mtas.codec.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * The Class CodecAutomatonCacheTest.
+ */
+public class CodecAutomatonCacheTest {
+
+  /**
+   * Gets the automata for a regexp.
+   *
+   * @param cache the cache
+   * @param regexp the regexp
+   * @return the automata
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static CodecAutomatonCache.Automata get(CodecAutomatonCache cache,
+      String regexp) throws IOException {
+    return cache.get("t", regexp, null, false, null, null, false);
+  }
+
+  /**
+   * Cache hits return the same automata and the size is the sum of the
+   * entries.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestSize() throws IOException {
+    CodecAutomatonCache cache = new CodecAutomatonCache(10,
+        CodecAutomatonCache.DEFAULT_MAXIMUM_SIZE);
+    CodecAutomatonCache.Automata a = get(cache, "a.*");
+    CodecAutomatonCache.Automata b = get(cache, "[bc]+d?");
+    assertSame("automata from cache", a, get(cache, "a.*"));
+    assertNotNull("compiled automata", a.getCompiledAutomata());
+    assertTrue("size of automata", a.ramBytesUsed() > 0);
+    Map<String, Object> status = cache.getStatus();
+    assertEquals("number", 2, status.get(CodecAutomatonCache.NAME_NUMBER));
+    assertEquals("size", a.ramBytesUsed() + b.ramBytesUsed(),
+        status.get(CodecAutomatonCache.NAME_SIZE));
+    assertEquals("hits", 1L, status.get(CodecAutomatonCache.NAME_HITS));
+    assertEquals("misses", 2L, status.get(CodecAutomatonCache.NAME_MISSES));
+    cache.clear();
+    assertEquals("size after clear", 0L,
+        cache.getStatus().get(CodecAutomatonCache.NAME_SIZE));
+  }
+
+  /**
+   * Least recently used entries are evicted by number and by size.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestEviction() throws IOException {
+    CodecAutomatonCache cache = new CodecAutomatonCache(2,
+        CodecAutomatonCache.DEFAULT_MAXIMUM_SIZE);
+    CodecAutomatonCache.Automata a = get(cache, "a.*");
+    get(cache, "b.*");
+    // a is used more recently than b
+    get(cache, "a.*");
+    CodecAutomatonCache.Automata c = get(cache, "c.*");
+    Map<String, Object> status = cache.getStatus();
+    assertEquals("number", 2, status.get(CodecAutomatonCache.NAME_NUMBER));
+    assertEquals("evictions", 1L,
+        status.get(CodecAutomatonCache.NAME_EVICTIONS));
+    assertEquals("size", a.ramBytesUsed() + c.ramBytesUsed(),
+        status.get(CodecAutomatonCache.NAME_SIZE));
+    assertSame("recently used automata kept", a, get(cache, "a.*"));
+    // only room for a single entry
+    cache.setMaximumSize(c.ramBytesUsed());
+    status = cache.getStatus();
+    assertEquals("number after resize", 1,
+        status.get(CodecAutomatonCache.NAME_NUMBER));
+    assertEquals("size after resize", a.ramBytesUsed(),
+        status.get(CodecAutomatonCache.NAME_SIZE));
+    // disabled
+    cache.setMaximumNumber(0);
+    assertEquals("number when disabled", 0,
+        cache.getStatus().get(CodecAutomatonCache.NAME_NUMBER));
+    assertNotNull("automata when disabled", get(cache, "a.*"));
+  }
+
+  /**
+   * Automata for a list, literal and with regular expressions.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestList() throws IOException {
+    CodecAutomatonCache cache = new CodecAutomatonCache(10,
+        CodecAutomatonCache.DEFAULT_MAXIMUM_SIZE);
+    CodecAutomatonCache.Automata literal = cache.get("t", null,
+        new HashSet<>(Arrays.asList("b", "a", "c")), false, null, null, false);
+    BytesRef[] terms = literal.getLiteralTerms();
+    assertNotNull("literal terms", terms);
+    assertEquals("number of literal terms", 3, terms.length);
+    assertTrue("sorted literal terms", terms[0].compareTo(terms[1]) < 0
+        && terms[1].compareTo(terms[2]) < 0);
+    assertEquals("list automata", 3, literal.getListByteRunAutomata().size());
+    CodecAutomatonCache.Automata regexp = cache.get("t", null,
+        new HashSet<>(Arrays.asList("a.*", "b")), true, null, null, false);
+    assertNull("no literal terms", regexp.getLiteralTerms());
+    assertEquals("list automata", 2, regexp.getListByteRunAutomata().size());
+    assertEquals("size", literal.ramBytesUsed() + regexp.ramBytesUsed(),
+        cache.getStatus().get(CodecAutomatonCache.NAME_SIZE));
+  }
+
+  /**
+   * Concurrent lookups keep the size consistent with the entries.
+   *
+   * @throws Exception the exception
+   */
+  @org.junit.Test
+  public void basicTestConcurrent() throws Exception {
+    int number = 8;
+    CodecAutomatonCache cache = new CodecAutomatonCache(number,
+        CodecAutomatonCache.DEFAULT_MAXIMUM_SIZE);
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<CodecAutomatonCache.Automata>> futures = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        final String regexp = "[a-" + (char) ('a' + (i % number)) + "]+x?";
+        futures.add(executor.submit(() -> get(cache, regexp)));
+      }
+      for (Future<CodecAutomatonCache.Automata> future : futures) {
+        assertNotNull("automata", future.get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+    // all entries fit, concurrently created automata replace each other
+    long hits = (Long) cache.getStatus().get(CodecAutomatonCache.NAME_HITS);
+    long size = 0;
+    for (int i = 0; i < number; i++) {
+      size += get(cache, "[a-" + (char) ('a' + i) + "]+x?").ramBytesUsed();
+    }
+    Map<String, Object> status = cache.getStatus();
+    assertEquals("hits", hits + number, status.get(CodecAutomatonCache.NAME_HITS));
+    assertEquals("number", number, status.get(CodecAutomatonCache.NAME_NUMBER));
+    assertEquals("size", size, status.get(CodecAutomatonCache.NAME_SIZE));
+  }
+
+}
@@ -0,0 +1,173 @@
+package mtas.codec.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import mtas.analysis.token.MtasToken;
+import mtas.codec.util.CodecComponent.ComponentGroup;
+import mtas.codec.util.CodecComponent.GroupHit;
+import mtas.codec.util.CodecSearchTree.MtasTreeHit;
+
+/**
+ * The Class CodecComponentGroupHitTest.
+ */
+public class CodecComponentGroupHitTest {
+
+  /** The Constant PREFIXES. */
+  private static final String[] PREFIXES = new String[] { "t", "pos" };
+
+  /** The Constant VALUES. */
+  private static final String[] VALUES = new String[] { "a", "b", "c" };
+
+  /** The generator. */
+  private final Random generator = new Random(1414);
+
+  /**
+   * Creates the group: terms inside the hit, the t term left of the hit and
+   * the pos term right of the hit.
+   *
+   * @return the component group
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static ComponentGroup createGroup() throws IOException {
+    return new ComponentGroup(null, "group", 10, 0, "t,pos", null, null, null,
+        null, null, null, null, null, new String[] { "0-1" },
+        new String[] { "t" }, new String[] { "0" }, new String[] { "pos" });
+  }
+
+  /**
+   * Term ref, unique for each term within a segment.
+   *
+   * @param segment the segment
+   * @param prefix the prefix
+   * @param value the value
+   * @return the long
+   */
+  private static long termRef(int segment, int prefix, int value) {
+    return 1000L * segment + 10L * prefix + value;
+  }
+
+  /**
+   * Random terms for the positions of a hit with context, in the order of the
+   * positions and prefixes, some positions without term for a prefix.
+   *
+   * @param segment the segment
+   * @param size the number of positions
+   * @return the list
+   */
+  private List<MtasTreeHit<String>> randomTerms(int segment, int size) {
+    List<MtasTreeHit<String>> list = new ArrayList<>();
+    for (int p = 0; p < size; p++) {
+      for (int i = 0; i < PREFIXES.length; i++) {
+        if (generator.nextInt(5) > 0) {
+          int value = generator.nextInt(VALUES.length);
+          list.add(createTerm(p, segment, i, value));
+        }
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Creates a term at a position.
+   *
+   * @param position the position
+   * @param segment the segment
+   * @param prefix the prefix
+   * @param value the value
+   * @return the mtas tree hit
+   */
+  private static MtasTreeHit<String> createTerm(int position, int segment,
+      int prefix, int value) {
+    MtasTreeHit<String> hit = new MtasTreeHit<>(position, position, 0, 0,
+        termRef(segment, prefix, value));
+    hit.idData = PREFIXES[prefix];
+    hit.refData = PREFIXES[prefix] + MtasToken.DELIMITER + VALUES[value];
+    return hit;
+  }
+
+  /**
+   * Group hits within a segment are equal if and only if their keys are equal,
+   * so hits are interned by hash lookup with the same groups as by key.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestEquals() throws IOException {
+    ComponentGroup group = createGroup();
+    Set<String> knownPrefixes = new HashSet<>(Arrays.asList(PREFIXES));
+    List<GroupHit> hits = new ArrayList<>();
+    for (int n = 0; n < 400; n++) {
+      // two positions left, two in the hit and one right
+      hits.add(new GroupHit(randomTerms(0, 5), 0, 4, 2, 3, group,
+          knownPrefixes));
+    }
+    Map<GroupHit, Integer> byHit = new HashMap<>();
+    Map<String, Integer> byKey = new HashMap<>();
+    for (GroupHit hit : hits) {
+      byHit.merge(hit, 1, Integer::sum);
+      byKey.merge(hit.toString(), 1, Integer::sum);
+    }
+    assertTrue("duplicate groups", byHit.size() < hits.size());
+    assertEquals("number of groups", byKey.size(), byHit.size());
+    for (Map.Entry<GroupHit, Integer> entry : byHit.entrySet()) {
+      assertEquals("occurrences of " + entry.getKey(),
+          byKey.get(entry.getKey().toString()), entry.getValue());
+    }
+    for (int i = 0; i < 100; i++) {
+      for (int j = 0; j < 100; j++) {
+        GroupHit hit1 = hits.get(i);
+        GroupHit hit2 = hits.get(j);
+        assertEquals("equals " + hit1 + " and " + hit2,
+            hit1.toString().equals(hit2.toString()), hit1.equals(hit2));
+        if (hit1.equals(hit2)) {
+          assertEquals("hash code " + hit1, hit1.hashCode(), hit2.hashCode());
+        }
+      }
+    }
+  }
+
+  /**
+   * The key is the same for the same terms in another segment, the equality
+   * within a segment depends on the term refs.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestSegments() throws IOException {
+    ComponentGroup group = createGroup();
+    Set<String> knownPrefixes = new HashSet<>(Arrays.asList(PREFIXES));
+    List<MtasTreeHit<String>> terms1 = new ArrayList<>();
+    List<MtasTreeHit<String>> terms2 = new ArrayList<>();
+    List<MtasTreeHit<String>> terms3 = new ArrayList<>();
+    for (int p = 0; p < 3; p++) {
+      terms1.add(createTerm(p, 1, 0, p));
+      terms2.add(createTerm(p, 1, 0, p));
+      terms3.add(createTerm(p, 2, 0, p));
+    }
+    GroupHit hit1 = new GroupHit(terms1, 0, 2, 1, 1, group, knownPrefixes);
+    GroupHit hit2 = new GroupHit(terms2, 0, 2, 1, 1, group, knownPrefixes);
+    GroupHit hit3 = new GroupHit(terms3, 0, 2, 1, 1, group, knownPrefixes);
+    assertEquals("same segment", hit1, hit2);
+    assertEquals("same hash code", hit1.hashCode(), hit2.hashCode());
+    assertEquals("same key", hit1.toString(), hit3.toString());
+    assertFalse("other segment", hit1.equals(hit3));
+    // an additional pos term inside the hit
+    terms2.add(createTerm(1, 1, 1, 0));
+    GroupHit hit4 = new GroupHit(terms2, 0, 2, 1, 1, group, knownPrefixes);
+    assertFalse("other term", hit1.equals(hit4));
+    assertFalse("other key", hit1.toString().equals(hit4.toString()));
+  }
+
+}
@@ -0,0 +1,56 @@
+package mtas.codec.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+/**
+ * The Class CodecDocColumnTest.
+ */
+public class CodecDocColumnTest {
+
+  /**
+   * Values by index and by doc id, zero for documents without a value or not
+   * in the set.
+   */
+  @org.junit.Test
+  public void basicTestColumn() {
+    CodecDocSet docSet = CodecDocSet.fromList(Arrays.asList(12, 3, 7, 20));
+    CodecDocColumn column = new CodecDocColumn(docSet);
+    assertSame("doc set", docSet, column.getDocSet());
+    assertEquals("size", 4, column.size());
+    column.set(7, 70);
+    column.setValueAt(3, 200);
+    column.set(8, 80);
+    assertEquals("value by doc id", 70, column.get(7));
+    assertEquals("value at index", 70, column.valueAt(1));
+    assertEquals("value by index", 200, column.get(20));
+    assertEquals("no value", 0, column.get(3));
+    assertEquals("not in the set", 0, column.get(8));
+    assertEquals("value at other index", 0, column.valueAt(0));
+  }
+
+  /**
+   * Values for the documents of the same and of another doc set.
+   */
+  @org.junit.Test
+  public void basicTestOtherDocSet() {
+    CodecDocSet docSet = CodecDocSet.fromList(Arrays.asList(1, 2, 4, 8, 16));
+    CodecDocColumn column = new CodecDocColumn(docSet);
+    for (int i = 0; i < docSet.size(); i++) {
+      column.setValueAt(i, 10 * docSet.getInt(i));
+    }
+    for (int i = 0; i < docSet.size(); i++) {
+      assertEquals("same doc set", 10 * docSet.getInt(i),
+          column.get(docSet, i));
+    }
+    CodecDocSet otherDocSet = CodecDocSet
+        .fromList(Arrays.asList(0, 2, 3, 16, 17));
+    int[] expected = new int[] { 0, 20, 0, 160, 0 };
+    for (int i = 0; i < otherDocSet.size(); i++) {
+      assertEquals("other doc set", expected[i], column.get(otherDocSet, i));
+    }
+  }
+
+}
@@ -0,0 +1,217 @@
+package mtas.codec.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+
+/**
+ * The Class CodecDocSetIntersectionTest.
+ */
+public class CodecDocSetIntersectionTest {
+
+  /** The Constant FIELD. */
+  private static final String FIELD = "field";
+
+  /** The Constant NUMBER, the number of documents. */
+  private static final int NUMBER = 2000;
+
+  /** The generator. */
+  private final Random generator = new Random(1618);
+
+  /**
+   * Creates an index with several segments, and terms from the most frequent
+   * t1 in all documents to the rare t1024.
+   *
+   * @param directory the directory
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private void createIndex(Directory directory) throws IOException {
+    IndexWriter writer = new IndexWriter(directory,
+        new IndexWriterConfig(new StandardAnalyzer())
+            .setMergePolicy(NoMergePolicy.INSTANCE));
+    for (int i = 0; i < NUMBER; i++) {
+      StringBuilder text = new StringBuilder();
+      for (int j = 1; j <= 1024; j *= 2) {
+        if (generator.nextInt(j) == 0) {
+          // several occurrences for the freqs
+          for (int k = generator.nextInt(3); k >= 0; k--) {
+            text.append(" t" + j);
+          }
+        }
+      }
+      Document document = new Document();
+      document.add(new TextField(FIELD, text.toString(), Field.Store.NO));
+      writer.addDocument(document);
+      if (i % 700 == 699) {
+        writer.commit();
+      }
+    }
+    writer.close();
+  }
+
+  /**
+   * Random doc set for the whole index.
+   *
+   * @param number the number
+   * @return the list
+   */
+  private List<Integer> randomDocSet(int number) {
+    List<Integer> list = new ArrayList<>();
+    for (int i = 0; i < number; i++) {
+      list.add(generator.nextInt(NUMBER));
+    }
+    return list;
+  }
+
+  /**
+   * Compare the intersection with the postings of each term, filtered on the
+   * doc set, for doc sets from a single document to all documents. The
+   * postings are iterated and probed in a sparse or dense bitset for rare terms
+   * or large doc sets, otherwise they are advanced to each document.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestIntersect() throws IOException {
+    Directory directory = new RAMDirectory();
+    createIndex(directory);
+    IndexReader indexReader = DirectoryReader.open(directory);
+    try {
+      assertTrue("several segments", indexReader.leaves().size() > 1);
+      for (int size : new int[] { 0, 1, 5, 20, 100, 500, 5000 }) {
+        List<Integer> list = randomDocSet(size);
+        CodecDocSet docSet = CodecDocSet.fromList(list);
+        for (LeafReaderContext lrc : indexReader.leaves()) {
+          CodecDocSet segmentDocSet = docSet.segment(lrc, null);
+          // from both a list and a doc set
+          CodecDocSetIntersection intersection = new CodecDocSetIntersection(
+              size % 2 == 0 ? list : docSet, lrc);
+          assertEquals("doc set", segmentDocSet, intersection.getDocSet());
+          TermsEnum termsEnum = lrc.reader().terms(FIELD).iterator();
+          PostingsEnum postingsEnum = null;
+          while (termsEnum.next() != null) {
+            String message = size + " docs, term "
+                + termsEnum.term().utf8ToString() + " in segment " + lrc.ord;
+            List<Integer> expectedDocIds = new ArrayList<>();
+            List<Integer> expectedFreqs = new ArrayList<>();
+            long expectedFreqSum = 0;
+            postingsEnum = termsEnum.postings(postingsEnum,
+                PostingsEnum.FREQS);
+            int docId;
+            while ((docId = postingsEnum
+                .nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+              if (segmentDocSet.contains(docId + lrc.docBase)) {
+                expectedDocIds.add(docId + lrc.docBase);
+                expectedFreqs.add(postingsEnum.freq());
+                expectedFreqSum += postingsEnum.freq();
+              }
+            }
+            assertEquals(message, expectedDocIds.size(),
+                intersection.intersect(termsEnum, true));
+            List<Integer> docIds = new ArrayList<>();
+            List<Integer> freqs = new ArrayList<>();
+            for (int n = 0; n < intersection.docNumber(); n++) {
+              docIds.add(intersection.docId(n));
+              freqs.add(intersection.freq(n));
+            }
+            assertEquals("doc ids for " + message, expectedDocIds, docIds);
+            assertEquals("freqs for " + message, expectedFreqs, freqs);
+            assertEquals("freq sum for " + message, expectedFreqSum,
+                intersection.freqSum());
+            // without freqs
+            assertEquals("without freqs " + message, expectedDocIds.size(),
+                intersection.intersect(termsEnum, false));
+            docIds.clear();
+            for (int n = 0; n < intersection.docNumber(); n++) {
+              docIds.add(intersection.docId(n));
+            }
+            assertEquals("doc ids without freqs for " + message,
+                expectedDocIds, docIds);
+            assertEquals("intersects " + message, !expectedDocIds.isEmpty(),
+                intersection.intersects(termsEnum));
+          }
+        }
+      }
+    } finally {
+      indexReader.close();
+      directory.close();
+    }
+  }
+
+  /**
+   * Doc sets with only documents before the first or after the last document
+   * of a term.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestNoIntersection() throws IOException {
+    Directory directory = new RAMDirectory();
+    createIndex(directory);
+    IndexReader indexReader = DirectoryReader.open(directory);
+    try {
+      for (LeafReaderContext lrc : indexReader.leaves()) {
+        int maxDoc = lrc.reader().maxDoc();
+        TermsEnum termsEnum = lrc.reader().terms(FIELD).iterator();
+        PostingsEnum postingsEnum = null;
+        while (termsEnum.next() != null) {
+          String message = "term " + termsEnum.term().utf8ToString()
+              + " in segment " + lrc.ord;
+          postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.NONE);
+          int firstDocId = postingsEnum.nextDoc();
+          int lastDocId = firstDocId;
+          int docId;
+          while ((docId = postingsEnum
+              .nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+            lastDocId = docId;
+          }
+          List<Integer> before = new ArrayList<>();
+          for (int i = 0; i < firstDocId; i++) {
+            before.add(lrc.docBase + i);
+          }
+          List<Integer> after = new ArrayList<>();
+          for (int i = lastDocId + 1; i < maxDoc; i++) {
+            after.add(lrc.docBase + i);
+          }
+          List<List<Integer>> lists = new ArrayList<>();
+          lists.add(before);
+          lists.add(after);
+          for (List<Integer> list : lists) {
+            CodecDocSetIntersection intersection = new CodecDocSetIntersection(
+                list, lrc);
+            assertEquals("no docs for " + message, 0,
+                intersection.intersect(termsEnum, true));
+            assertEquals("no freqs for " + message, 0, intersection.freqSum());
+            assertFalse("no intersection for " + message,
+                intersection.intersects(termsEnum));
+          }
+        }
+      }
+    } finally {
+      indexReader.close();
+      directory.close();
+    }
+  }
+
+}
@@ -0,0 +1,274 @@
+package mtas.codec.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NoMergePolicy;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
+
+/**
+ * The Class CodecDocSetTest.
+ */
+public class CodecDocSetTest {
+
+  /** The Constant FIELD. */
+  private static final String FIELD = "field";
+
+  /** The Constant ID. */
+  private static final String ID = "id";
+
+  /** The generator. */
+  private final Random generator = new Random(2718);
+
+  /**
+   * Random doc ids, unsorted and with duplicates.
+   *
+   * @param number the number
+   * @param from the minimum doc id
+   * @param to the maximum doc id, exclusive
+   * @return the list
+   */
+  private List<Integer> randomDocIds(int number, int from, int to) {
+    List<Integer> list = new ArrayList<>();
+    for (int i = 0; i < number; i++) {
+      list.add(from + generator.nextInt(to - from));
+    }
+    return list;
+  }
+
+  /**
+   * All doc ids from an iterator.
+   *
+   * @param iterator the iterator
+   * @return the list
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static List<Integer> collect(DocIdSetIterator iterator)
+      throws IOException {
+    List<Integer> list = new ArrayList<>();
+    int docId;
+    while ((docId = iterator.nextDoc()) != DocIdSetIterator.NO_MORE_DOCS) {
+      list.add(docId);
+    }
+    return list;
+  }
+
+  /**
+   * Leapfrog two iterators, each advanced to the current doc of the other.
+   *
+   * @param first the first
+   * @param second the second
+   * @return the common doc ids
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static List<Integer> leapfrog(DocIdSetIterator first,
+      DocIdSetIterator second) throws IOException {
+    List<Integer> list = new ArrayList<>();
+    int docId = first.nextDoc();
+    int otherDocId = -1;
+    while (docId != DocIdSetIterator.NO_MORE_DOCS) {
+      if (otherDocId < docId) {
+        otherDocId = second.advance(docId);
+      }
+      if (otherDocId == docId) {
+        list.add(docId);
+        docId = first.nextDoc();
+      } else if (otherDocId == DocIdSetIterator.NO_MORE_DOCS) {
+        break;
+      } else {
+        docId = first.advance(otherDocId);
+      }
+    }
+    return list;
+  }
+
+  /**
+   * Sorted and unique doc ids, as a list and in the primitive methods.
+   */
+  @org.junit.Test
+  public void basicTestList() {
+    CodecDocSet docSet = CodecDocSet
+        .fromList(Arrays.asList(7, 3, 3, 11, 0, 7, 5));
+    assertEquals("sorted and unique", Arrays.asList(0, 3, 5, 7, 11), docSet);
+    assertEquals("size", 5, docSet.size());
+    assertEquals("int at index", 7, docSet.getInt(3));
+    assertEquals("index of doc", 2, docSet.indexOfDoc(5));
+    assertEquals("index of missing doc", -1, docSet.indexOfDoc(6));
+    assertEquals("index of object", 4, docSet.indexOf(11));
+    assertEquals("index of other object", -1, docSet.indexOf("11"));
+    assertTrue("contains", docSet.contains(0));
+    assertFalse("not contains", docSet.contains(12));
+    assertEquals("ceiling index", 3, docSet.ceilingIndexOfDoc(6));
+    assertEquals("ceiling index of doc", 3, docSet.ceilingIndexOfDoc(7));
+    assertEquals("ceiling index after last", 5, docSet.ceilingIndexOfDoc(12));
+    assertTrue("int array",
+        Arrays.equals(new int[] { 0, 3, 5, 7, 11 }, docSet.toIntArray()));
+    assertSame("same doc set", docSet, CodecDocSet.fromList(docSet));
+    assertNull("null list", CodecDocSet.fromList(null));
+    // only the first positions of the array
+    CodecDocSet sorted = CodecDocSet.of(new int[] { 1, 2, 4, 8, -1 }, 4);
+    assertEquals("sorted array", Arrays.asList(1, 2, 4, 8), sorted);
+    assertTrue("empty", CodecDocSet.of(new int[0], 0).isEmpty());
+  }
+
+  /**
+   * Out of bounds index.
+   */
+  @org.junit.Test(expected = IndexOutOfBoundsException.class)
+  public void basicTestOutOfBounds() {
+    CodecDocSet.fromList(Arrays.asList(1, 2)).getInt(2);
+  }
+
+  /**
+   * Iterate, advance and leapfrog doc sets relative to a doc base.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestIterator() throws IOException {
+    for (int n = 0; n < 50; n++) {
+      int docBase = generator.nextInt(3) * 100;
+      CodecDocSet first = CodecDocSet.fromList(
+          randomDocIds(generator.nextInt(80), docBase, docBase + 300));
+      CodecDocSet second = CodecDocSet.fromList(
+          randomDocIds(generator.nextInt(80), docBase, docBase + 300));
+      List<Integer> expected = new ArrayList<>();
+      for (int docId : first) {
+        expected.add(docId - docBase);
+      }
+      assertEquals("iterator", expected, collect(first.iterator(docBase)));
+      assertEquals("cost", first.size(), first.iterator(docBase).cost());
+      // advance to random targets, never backwards
+      DocIdSetIterator iterator = first.iterator(docBase);
+      int target = 0;
+      int docId = -1;
+      while (docId != DocIdSetIterator.NO_MORE_DOCS) {
+        target = Math.max(target, docId + 1) + generator.nextInt(20);
+        docId = iterator.advance(target);
+        Integer ceiling = new TreeSet<>(expected).ceiling(target);
+        assertEquals("advance to " + target,
+            ceiling == null ? DocIdSetIterator.NO_MORE_DOCS : ceiling,
+            docId);
+        assertEquals("doc id", docId, iterator.docID());
+      }
+      List<Integer> intersection = new ArrayList<>(expected);
+      List<Integer> secondDocIds = collect(second.iterator(docBase));
+      intersection.retainAll(secondDocIds);
+      assertEquals("leapfrog", intersection,
+          leapfrog(first.iterator(docBase), second.iterator(docBase)));
+      assertEquals("leapfrog reversed", intersection,
+          leapfrog(second.iterator(docBase), first.iterator(docBase)));
+    }
+  }
+
+  /**
+   * Segments of a doc set in an index with several segments and deleted
+   * documents, and leapfrogging a segment against the postings.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestSegment() throws IOException {
+    Directory directory = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(directory,
+        new IndexWriterConfig(new StandardAnalyzer())
+            .setMergePolicy(NoMergePolicy.INSTANCE));
+    int number = 500;
+    for (int i = 0; i < number; i++) {
+      Document document = new Document();
+      document.add(new StringField(ID, Integer.toString(i), Field.Store.NO));
+      // frequent and rare terms
+      for (int j = 1; j < 64; j *= 2) {
+        if (generator.nextInt(j) == 0) {
+          document.add(new StringField(FIELD, "t" + j, Field.Store.NO));
+        }
+      }
+      writer.addDocument(document);
+      if (i % 64 == 63) {
+        writer.commit();
+      }
+    }
+    for (int i = 0; i < number; i += 1 + generator.nextInt(10)) {
+      writer.deleteDocuments(new Term(ID, Integer.toString(i)));
+    }
+    writer.close();
+    IndexReader indexReader = DirectoryReader.open(directory);
+    try {
+      assertTrue("several segments", indexReader.leaves().size() > 3);
+      assertTrue("deleted documents", indexReader.hasDeletions());
+      for (int n = 0; n < 10; n++) {
+        List<Integer> list = randomDocIds(generator.nextInt(number), 0,
+            indexReader.maxDoc());
+        CodecDocSet docSet = CodecDocSet.fromList(list);
+        List<Integer> total = new ArrayList<>();
+        for (LeafReaderContext lrc : indexReader.leaves()) {
+          Bits liveDocs = lrc.reader().getLiveDocs();
+          List<Integer> expected = new ArrayList<>();
+          List<Integer> expectedLive = new ArrayList<>();
+          for (int docId : new TreeSet<>(list)) {
+            if (docId >= lrc.docBase
+                && docId < lrc.docBase + lrc.reader().maxDoc()) {
+              expected.add(docId);
+              if (liveDocs == null || liveDocs.get(docId - lrc.docBase)) {
+                expectedLive.add(docId);
+              }
+            }
+          }
+          CodecDocSet segment = docSet.segment(lrc, null);
+          CodecDocSet liveSegment = docSet.segment(lrc, liveDocs);
+          assertEquals("segment", expected, segment);
+          assertEquals("live segment", expectedLive, liveSegment);
+          total.addAll(segment);
+          // leapfrog with the postings of each term
+          Terms terms = lrc.reader().terms(FIELD);
+          TermsEnum termsEnum = terms.iterator();
+          PostingsEnum postingsEnum = null;
+          while (termsEnum.next() != null) {
+            postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.NONE);
+            List<Integer> intersection = new ArrayList<>();
+            for (int docId : collect(postingsEnum)) {
+              if (segment.contains(docId + lrc.docBase)) {
+                intersection.add(docId);
+              }
+            }
+            postingsEnum = termsEnum.postings(postingsEnum, PostingsEnum.NONE);
+            assertEquals("leapfrog " + termsEnum.term().utf8ToString(),
+                intersection, leapfrog(segment.iterator(lrc.docBase),
+                    postingsEnum));
+          }
+        }
+        assertEquals("all segments", docSet, total);
+      }
+    } finally {
+      indexReader.close();
+      directory.close();
+    }
+  }
+
+}
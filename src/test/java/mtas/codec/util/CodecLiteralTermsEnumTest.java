@@ -0,0 +1,139 @@
+package mtas.codec.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MultiTerms;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CompiledAutomaton;
+
+import mtas.analysis.token.MtasToken;
+
+/**
+ * The Class CodecLiteralTermsEnumTest.
+ */
+public class CodecLiteralTermsEnumTest {
+
+  /** The Constant FIELD. */
+  private static final String FIELD = "field";
+
+  /** The Constant PREFIX. */
+  private static final String PREFIX = "t";
+
+  /** The Constant VALUES, indexed with the prefix. */
+  private static final String[] VALUES = new String[] { "a", "ab",
+      "ab\u0000", "ab\u0000\u0000", "ab\u0000x", "abc", "a.b", "a(b)", "b",
+      "ba", "c\u00e9", "d", "de", "dee", "e" };
+
+  /**
+   * Collect the terms.
+   *
+   * @param termsEnum the terms enum
+   * @return the list
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static List<BytesRef> collect(TermsEnum termsEnum)
+      throws IOException {
+    List<BytesRef> list = new ArrayList<>();
+    BytesRef term;
+    while ((term = termsEnum.next()) != null) {
+      list.add(BytesRef.deepCopyOf(term));
+    }
+    return list;
+  }
+
+  /**
+   * Compare the literal terms enum with the intersection with the automata
+   * for a list of literal values.
+   *
+   * @param terms the terms
+   * @param values the values
+   * @return the number of terms
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static int compare(Terms terms, String... values)
+      throws IOException {
+    List<String> list = Arrays.asList(values);
+    BytesRef[] literalTerms = CodecAutomatonCache.createLiteralTerms(PREFIX,
+        list);
+    assertNotNull("literal terms for " + list, literalTerms);
+    Map<String, Automaton> automatonMap = MtasToken.createAutomatonMap(PREFIX,
+        list, true);
+    List<BytesRef> expected = new ArrayList<>();
+    for (CompiledAutomaton compiledAutomaton : MtasToken.createAutomata(PREFIX,
+        null, automatonMap)) {
+      expected.addAll(collect(terms.intersect(compiledAutomaton, null)));
+    }
+    List<BytesRef> result = collect(
+        new CodecLiteralTermsEnum(terms.iterator(), literalTerms));
+    assertEquals("terms for " + list, expected, result);
+    return result.size();
+  }
+
+  /**
+   * Literal terms are found in a single pass, also when followed by null
+   * characters.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestLiteral() throws IOException {
+    Directory directory = new RAMDirectory();
+    IndexWriter writer = new IndexWriter(directory,
+        new IndexWriterConfig(new StandardAnalyzer()));
+    for (String prefix : new String[] { PREFIX, "u" }) {
+      for (String value : VALUES) {
+        Document document = new Document();
+        document.add(new StringField(FIELD,
+            prefix + MtasToken.DELIMITER + value, Field.Store.NO));
+        writer.addDocument(document);
+      }
+    }
+    writer.close();
+    IndexReader indexReader = DirectoryReader.open(directory);
+    try {
+      Terms terms = MultiTerms.getTerms(indexReader, FIELD);
+      assertEquals("padded terms", 3, compare(terms, "ab"));
+      assertEquals("all terms", VALUES.length, compare(terms, VALUES));
+      assertEquals("escaped characters", 2, compare(terms, "a.b", "a(b)"));
+      assertEquals("non ascii", 1, compare(terms, "c\u00e9"));
+      assertEquals("unsorted and duplicate values", 4,
+          compare(terms, "e", "de", "a", "e", "d"));
+      assertEquals("missing values", 1,
+          compare(terms, "0", "aa", "abb", "b", "bb", "f"));
+      assertEquals("no values", 0, compare(terms));
+      // wildcards are not literal
+      assertNull("wildcard", CodecAutomatonCache.createLiteralTerms(PREFIX,
+          Arrays.asList("a", "de*")));
+      assertNull("regexp prefix",
+          CodecAutomatonCache.createLiteralTerms("t.", Arrays.asList("a")));
+      assertNull("after last term", new CodecLiteralTermsEnum(terms.iterator(),
+          new BytesRef[] { new BytesRef(PREFIX + MtasToken.DELIMITER + "zz") })
+              .next());
+    } finally {
+      indexReader.close();
+      directory.close();
+    }
+  }
+
+}
@@ -0,0 +1,283 @@
+package mtas.codec.util.collector;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import mtas.codec.util.CodecUtil;
+import mtas.codec.util.DataCollector;
+
+/**
+ * The Class MtasDataCollectorTest.
+ */
+public class MtasDataCollectorTest {
+
+  /** The generator. */
+  private final Random generator = new Random(31);
+
+  /**
+   * An added value or error for a key.
+   */
+  private static class Event {
+
+    /** The key. */
+    final String key;
+
+    /** The value. */
+    final long value;
+
+    /** The error, null for a value. */
+    final String error;
+
+    /**
+     * Instantiates a new event.
+     *
+     * @param key the key
+     * @param value the value
+     * @param error the error
+     */
+    Event(String key, long value, String error) {
+      this.key = key;
+      this.value = value;
+      this.error = error;
+    }
+
+  }
+
+  /**
+   * Creates random events, with keys in random order and many duplicates. An
+   * error always directly follows a value for the same key, and both have an
+   * even number of events before them.
+   *
+   * @param number the number
+   * @param keys the number of keys
+   * @return the list
+   */
+  private List<Event> createEvents(int number, int keys) {
+    List<Event> events = new ArrayList<>();
+    for (int i = 0; i < number; i += 2) {
+      String key = "key" + generator.nextInt(keys);
+      events.add(new Event(key, generator.nextInt(100), null));
+      if (generator.nextInt(5) == 0) {
+        events.add(new Event(key, 0, "error" + generator.nextInt(3)));
+      } else {
+        events.add(new Event("key" + generator.nextInt(keys),
+            generator.nextInt(100), null));
+      }
+    }
+    return events;
+  }
+
+  /**
+   * Creates the collector.
+   *
+   * @param statsType the stats type
+   * @param statsItems the stats items
+   * @return the mtas data collector
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static MtasDataCollector<?, ?> createCollector(String statsType,
+      String... statsItems) throws IOException {
+    SortedSet<String> items = new TreeSet<>(Arrays.asList(statsItems));
+    return DataCollector.getCollector(DataCollector.COLLECTOR_TYPE_LIST,
+        CodecUtil.DATA_TYPE_LONG, statsType, items, CodecUtil.SORT_TERM,
+        CodecUtil.SORT_ASC, 0, Integer.MAX_VALUE, null, null);
+  }
+
+  /**
+   * Adds the events to the new list of the collector.
+   *
+   * @param collector the collector
+   * @param events the events
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static void add(MtasDataCollector<?, ?> collector,
+      List<Event> events) throws IOException {
+    for (Event event : events) {
+      if (event.error == null) {
+        collector.add(event.key, new long[] { event.value }, 1);
+      } else {
+        collector.error(event.key, event.error, 1);
+      }
+    }
+  }
+
+  /**
+   * The result of a closed collector.
+   *
+   * @param collector the collector
+   * @return the map
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static Map<String, Map<String, Object>> result(
+      MtasDataCollector<?, ?> collector) throws IOException {
+    collector.close();
+    Map<String, Map<String, Object>> result = new TreeMap<>();
+    for (Entry<String, ? extends MtasDataItem<?, ?>> entry : collector
+        .getResult().getList().entrySet()) {
+      result.put(entry.getKey(), entry.getValue().rewrite(false));
+    }
+    return result;
+  }
+
+  /**
+   * Collect the events in several new lists, in random order and with a
+   * small initial size, and merge with a second collector, compared with a
+   * single new list with the events sorted on key.
+   *
+   * @param statsType the stats type
+   * @param statsItems the stats items
+   * @return the result
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private Map<String, Map<String, Object>> compare(String statsType,
+      String... statsItems) throws IOException {
+    List<Event> events = createEvents(3000, 400);
+    List<Event> sortedEvents = new ArrayList<>(events);
+    Collections.sort(sortedEvents, Comparator.comparing(e -> e.key));
+    MtasDataCollector<?, ?> reference = createCollector(statsType, statsItems);
+    reference.initNewList(sortedEvents.size());
+    add(reference, sortedEvents);
+    // small initial size: the list grows and the key table is rehashed
+    MtasDataCollector<?, ?> collector = createCollector(statsType, statsItems);
+    collector.initNewList(1);
+    add(collector, events.subList(0, 1000));
+    collector.closeNewList();
+    // new keys before and after the keys from the previous list
+    collector.initNewList(1);
+    add(collector, events.subList(1000, 2000));
+    collector.closeNewList();
+    MtasDataCollector<?, ?> other = createCollector(statsType, statsItems);
+    other.initNewList(1);
+    add(other, events.subList(2000, 3000));
+    collector.merge(other, false);
+    Map<String, Map<String, Object>> expected = result(reference);
+    assertFalse("no keys", expected.isEmpty());
+    assertEquals(statsType + " collector", expected, result(collector));
+    return expected;
+  }
+
+  /**
+   * Basic statistics, also compared with sums, numbers and errors computed
+   * directly.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestBasic() throws IOException {
+    List<Event> events = createEvents(2000, 300);
+    Map<String, Map<String, Object>> expected = new TreeMap<>();
+    for (Event event : events) {
+      Map<String, Object> item = expected.computeIfAbsent(event.key, k -> {
+        Map<String, Object> newItem = new HashMap<>();
+        newItem.put(CodecUtil.STATS_TYPE_SUM, 0L);
+        newItem.put(CodecUtil.STATS_TYPE_N, 0L);
+        return newItem;
+      });
+      if (event.error == null) {
+        item.put(CodecUtil.STATS_TYPE_SUM,
+            (Long) item.get(CodecUtil.STATS_TYPE_SUM) + event.value);
+        item.put(CodecUtil.STATS_TYPE_N,
+            (Long) item.get(CodecUtil.STATS_TYPE_N) + 1);
+      } else {
+        item.merge("errorNumber", 1, (a, b) -> (Integer) a + (Integer) b);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> errorList = (Map<String, Object>) item
+            .computeIfAbsent("errorList", k -> new HashMap<String, Object>());
+        errorList.merge(event.error, 1, (a, b) -> (Integer) a + (Integer) b);
+      }
+    }
+    // keys in random order, several lists
+    MtasDataCollector<?, ?> collector = createCollector(CodecUtil.STATS_BASIC,
+        CodecUtil.STATS_TYPE_N, CodecUtil.STATS_TYPE_SUM);
+    for (int i = 0; i < events.size(); i += 500) {
+      collector.initNewList(10);
+      add(collector, events.subList(i, i + 500));
+      collector.closeNewList();
+    }
+    assertEquals("basic collector", expected, result(collector));
+    compare(CodecUtil.STATS_BASIC, CodecUtil.STATS_TYPE_N,
+        CodecUtil.STATS_TYPE_SUM);
+  }
+
+  /**
+   * Advanced statistics.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestAdvanced() throws IOException {
+    compare(CodecUtil.STATS_ADVANCED, CodecUtil.STATS_TYPE_N,
+        CodecUtil.STATS_TYPE_SUM, CodecUtil.STATS_TYPE_MIN,
+        CodecUtil.STATS_TYPE_MAX);
+  }
+
+  /**
+   * Full statistics.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestFull() throws IOException {
+    compare(CodecUtil.STATS_FULL, CodecUtil.STATS_TYPE_N,
+        CodecUtil.STATS_TYPE_SUM, CodecUtil.STATS_TYPE_MIN,
+        CodecUtil.STATS_TYPE_MAX, CodecUtil.STATS_TYPE_MEDIAN);
+  }
+
+  /**
+   * Keys without values, only errors, and an empty new list.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestErrors() throws IOException {
+    for (String statsType : new String[] { CodecUtil.STATS_BASIC,
+        CodecUtil.STATS_ADVANCED, CodecUtil.STATS_FULL }) {
+      MtasDataCollector<?, ?> collector = createCollector(statsType,
+          CodecUtil.STATS_TYPE_N, CodecUtil.STATS_TYPE_SUM);
+      // unsorted, so the list is remapped
+      collector.initNewList(2);
+      collector.error("b", "first", 2);
+      collector.add("a", new long[] { 3 }, 1);
+      collector.error("b", "second", 1);
+      collector.closeNewList();
+      collector.initNewList(2);
+      collector.closeNewList();
+      collector.initNewList(2);
+      collector.error("b", "first", 1);
+      collector.add("c", new long[] { 1 }, 1);
+      collector.add("b", new long[] { 5 }, 1);
+      Map<String, Map<String, Object>> result = result(collector);
+      assertEquals(statsType + " keys",
+          new TreeSet<>(Arrays.asList("a", "b", "c")), result.keySet());
+      assertFalse(statsType + " no errors for a",
+          result.get("a").containsKey("errorNumber"));
+      assertEquals(statsType + " sum for b", 5.0,
+          ((Number) result.get("b").get(CodecUtil.STATS_TYPE_SUM))
+              .doubleValue(), 0);
+      assertEquals(statsType + " n for b", 1L,
+          result.get("b").get(CodecUtil.STATS_TYPE_N));
+      assertEquals(statsType + " errors for b", 4,
+          result.get("b").get("errorNumber"));
+      Map<String, Object> errorList = new HashMap<>();
+      errorList.put("first", 3);
+      errorList.put("second", 1);
+      assertEquals(statsType + " error list for b", errorList,
+          result.get("b").get("errorList"));
+    }
+  }
+
+}
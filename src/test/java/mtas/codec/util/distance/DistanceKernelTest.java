@@ -0,0 +1,226 @@
+package mtas.codec.util.distance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+/**
+ * The Class DistanceKernelTest.
+ */
+public class DistanceKernelTest {
+
+  /** The Constant TOLERANCE. */
+  private static final double TOLERANCE = 1E-9;
+
+  /** The generator. */
+  private final Random generator = new Random(4711);
+
+  /**
+   * Reference distance: the full dynamic programming matrix with weights and
+   * optional transpositions of adjacent characters, as computed before the
+   * kernel was introduced.
+   *
+   * @param pattern the pattern
+   * @param text the text
+   * @param deletionDistance the deletion distance
+   * @param insertionDistance the insertion distance
+   * @param replaceDistance the replace distance
+   * @param transpositionDistance the transposition distance
+   * @param transpositions the transpositions
+   * @return the distance
+   */
+  static double referenceDistance(String pattern, String text,
+      double deletionDistance, double insertionDistance,
+      double replaceDistance, double transpositionDistance,
+      boolean transpositions) {
+    int n = pattern.length();
+    int m = text.length();
+    double[][] d = new double[m + 1][n + 1];
+    for (int i = 0; i <= n; i++) {
+      d[0][i] = i * insertionDistance;
+    }
+    for (int j = 1; j <= m; j++) {
+      char ch = text.charAt(j - 1);
+      d[j][0] = d[j - 1][0] + deletionDistance;
+      for (int i = 0; i < n; i++) {
+        double cost = pattern.charAt(i) == ch ? 0 : replaceDistance;
+        double value = Math.min(d[j][i] + insertionDistance, d[j - 1][i] + cost);
+        value = Math.min(value, d[j - 1][i + 1] + deletionDistance);
+        if (transpositions && i > 0 && j > 1 && pattern.charAt(i - 1) == ch
+            && pattern.charAt(i) == text.charAt(j - 2)) {
+          value = Math.min(value, d[j - 2][i - 1] + transpositionDistance);
+        }
+        d[j][i + 1] = value;
+      }
+    }
+    return d[m][n];
+  }
+
+  /**
+   * Random string.
+   *
+   * @param alphabet the alphabet
+   * @param length the length
+   * @return the string
+   */
+  private String randomString(String alphabet, int length) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      builder.append(alphabet.charAt(generator.nextInt(alphabet.length())));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Compare the kernel with the reference for random patterns and texts, and
+   * check that stopping with canMatch never loses a text within the maximum.
+   *
+   * @param alphabet the alphabet
+   * @param deletionDistance the deletion distance
+   * @param insertionDistance the insertion distance
+   * @param replaceDistance the replace distance
+   * @param transpositionDistance the transposition distance
+   * @param transpositions the transpositions
+   */
+  private void compare(String alphabet, double deletionDistance,
+      double insertionDistance, double replaceDistance,
+      double transpositionDistance, boolean transpositions) {
+    for (int patternLength : new int[] { 0, 1, 2, 5, 17, 63, 64, 65, 100 }) {
+      for (int n = 0; n < 20; n++) {
+        String pattern = randomString(alphabet, patternLength);
+        DistanceKernel kernel = transpositions
+            ? new DistanceKernel(pattern, deletionDistance, insertionDistance,
+                replaceDistance, transpositionDistance)
+            : new DistanceKernel(pattern, deletionDistance, insertionDistance,
+                replaceDistance);
+        // similar texts, and random texts
+        String text = n % 2 == 0 ? mutate(pattern, alphabet, 1 + n / 4)
+            : randomString(alphabet, generator.nextInt(patternLength + 6));
+        double expected = referenceDistance(pattern, text, deletionDistance,
+            insertionDistance, replaceDistance, transpositionDistance,
+            transpositions);
+        DistanceKernel.Evaluator evaluator = kernel.start();
+        for (int i = 0; i < text.length(); i++) {
+          evaluator.step(text.charAt(i));
+        }
+        String message = "'" + pattern + "' and '" + text + "'";
+        assertEquals(message, expected, evaluator.distance(), TOLERANCE);
+        // stop as soon as the maximum can't be reached
+        double maximum = expected + (n % 3 == 0 ? 0 : 0.5);
+        evaluator = kernel.start();
+        boolean stopped = false;
+        for (int i = 0; i < text.length() && !stopped; i++) {
+          evaluator.step(text.charAt(i));
+          stopped = !evaluator.canMatch(maximum, text.length() - i - 1);
+        }
+        if (stopped) {
+          assertTrue("stopped for " + message, expected >= maximum);
+        } else {
+          assertEquals("not stopped for " + message, expected,
+              evaluator.distance(), TOLERANCE);
+        }
+      }
+    }
+  }
+
+  /**
+   * Mutate a string with random edits and transpositions.
+   *
+   * @param text the text
+   * @param alphabet the alphabet
+   * @param edits the edits
+   * @return the string
+   */
+  private String mutate(String text, String alphabet, int edits) {
+    StringBuilder builder = new StringBuilder(text);
+    for (int e = 0; e < edits; e++) {
+      int position = builder.length() == 0 ? 0
+          : generator.nextInt(builder.length());
+      char ch = alphabet.charAt(generator.nextInt(alphabet.length()));
+      switch (builder.length() == 0 ? 0 : generator.nextInt(4)) {
+      case 0:
+        builder.insert(position, ch);
+        break;
+      case 1:
+        builder.deleteCharAt(position);
+        break;
+      case 2:
+        builder.setCharAt(position, ch);
+        break;
+      default:
+        if (position + 1 < builder.length()) {
+          char tmp = builder.charAt(position);
+          builder.setCharAt(position, builder.charAt(position + 1));
+          builder.setCharAt(position + 1, tmp);
+        }
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Unit costs, with the bit-parallel algorithm up to 64 characters.
+   */
+  @org.junit.Test
+  public void basicTestUnit() {
+    compare("ab", 1, 1, 1, 0, false);
+    compare("abcdefgh", 1, 1, 1, 0, false);
+  }
+
+  /**
+   * Unit costs with transpositions.
+   */
+  @org.junit.Test
+  public void basicTestUnitTranspositions() {
+    compare("ab", 1, 1, 1, 1, true);
+    compare("abcdefgh", 1, 1, 1, 1, true);
+  }
+
+  /**
+   * Weighted costs, always computed with the rows of the matrix.
+   */
+  @org.junit.Test
+  public void basicTestWeighted() {
+    compare("abc", 2, 0.5, 1.5, 0, false);
+    compare("abcdefgh", 1, 10, 10, 0, false);
+    compare("abc", 1, 1, 1, 0.5, true);
+    compare(".- ", 1, 10, 10, 10, true);
+  }
+
+  /**
+   * Non ASCII characters in pattern and text, also characters from bytes
+   * cast to characters as used for terms.
+   */
+  @org.junit.Test
+  public void basicTestNonAscii() {
+    String alphabet = "a\u00e9\u00fc\u20ac" + (char) (byte) 0xc3 + (char) (byte) 0xa9;
+    compare(alphabet, 1, 1, 1, 0, false);
+    compare(alphabet, 1, 1, 1, 1, true);
+    compare(alphabet, 2, 0.5, 1.5, 0.5, true);
+  }
+
+  /**
+   * Bit-parallel only for unit costs and patterns up to 64 characters.
+   */
+  @org.junit.Test
+  public void basicTestBitParallel() {
+    StringBuilder pattern = new StringBuilder();
+    for (int i = 0; i < 64; i++) {
+      pattern.append((char) ('a' + i % 26));
+    }
+    assertTrue("64 characters",
+        new DistanceKernel(pattern.toString(), 1, 1, 1).isBitParallel());
+    assertTrue("64 characters with transpositions",
+        new DistanceKernel(pattern.toString(), 1, 1, 1, 1).isBitParallel());
+    assertFalse("65 characters",
+        new DistanceKernel(pattern.toString() + "a", 1, 1, 1).isBitParallel());
+    assertFalse("weighted",
+        new DistanceKernel("abc", 1, 2, 1).isBitParallel());
+    assertFalse("weighted transpositions",
+        new DistanceKernel("abc", 1, 1, 1, 0.5).isBitParallel());
+    assertFalse("empty", new DistanceKernel("", 1, 1, 1).isBitParallel());
+  }
+
+}
@@ -0,0 +1,395 @@
+package mtas.codec.util.distance;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.ByteRunAutomaton;
+
+import mtas.analysis.token.MtasToken;
+
+/**
+ * The Class DistanceTest.
+ */
+public class DistanceTest {
+
+  /** The Constant TOLERANCE. */
+  private static final double TOLERANCE = 1E-9;
+
+  /** The Constant DOUBLE_TOLERANCE, as added to maximum and minimum. */
+  private static final double DOUBLE_TOLERANCE = 5E-16;
+
+  /** The Constant PREFIX. */
+  private static final String PREFIX = "t";
+
+  /** The Constant MORSE. */
+  private static final Map<Character, String> MORSE = new HashMap<>();
+  static {
+    MORSE.put('a', ".-");
+    MORSE.put('e', ".");
+    MORSE.put('m', "--");
+    MORSE.put('n', "-.");
+    MORSE.put('o', "---");
+    MORSE.put('s', "...");
+    MORSE.put('t', "-");
+  }
+
+  /** The generator. */
+  private final Random generator = new Random(1234);
+
+  /**
+   * Creates the term for a value, with the prefix, at a nonzero offset in the
+   * bytes.
+   *
+   * @param value the value
+   * @return the bytes ref
+   */
+  private static BytesRef term(String value) {
+    BytesRef term = new BytesRef(PREFIX + MtasToken.DELIMITER + value);
+    byte[] bytes = new byte[term.length + 6];
+    bytes[0] = 'x';
+    bytes[1] = 'y';
+    bytes[2] = 'z';
+    System.arraycopy(term.bytes, term.offset, bytes, 3, term.length);
+    bytes[bytes.length - 1] = 'q';
+    return new BytesRef(bytes, 3, term.length);
+  }
+
+  /**
+   * The value of a term as compared with the base, each byte as a character.
+   *
+   * @param value the value
+   * @return the string
+   */
+  private static String bytes(String value) {
+    BytesRef term = new BytesRef(value);
+    StringBuilder builder = new StringBuilder();
+    for (int i = term.offset; i < term.offset + term.length; i++) {
+      builder.append((char) term.bytes[i]);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Morse code of a value, null if not available.
+   *
+   * @param value the value
+   * @return the string
+   */
+  private static String morse(String value) {
+    StringBuilder builder = new StringBuilder();
+    for (char ch : value.toCharArray()) {
+      if (!MORSE.containsKey(ch)) {
+        return null;
+      }
+      builder.append(MORSE.get(ch)).append(" ");
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Random string.
+   *
+   * @param alphabet the alphabet
+   * @param length the length
+   * @return the string
+   */
+  private String randomString(String alphabet, int length) {
+    StringBuilder builder = new StringBuilder();
+    for (int i = 0; i < length; i++) {
+      builder.append(alphabet.charAt(generator.nextInt(alphabet.length())));
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Mutate a string with random edits and transpositions.
+   *
+   * @param text the text
+   * @param alphabet the alphabet
+   * @param edits the edits
+   * @return the string
+   */
+  private String mutate(String text, String alphabet, int edits) {
+    StringBuilder builder = new StringBuilder(text);
+    for (int e = 0; e < edits; e++) {
+      int position = builder.length() == 0 ? 0
+          : generator.nextInt(builder.length());
+      char ch = alphabet.charAt(generator.nextInt(alphabet.length()));
+      switch (builder.length() == 0 ? 0 : generator.nextInt(4)) {
+      case 0:
+        builder.insert(position, ch);
+        break;
+      case 1:
+        builder.deleteCharAt(position);
+        break;
+      case 2:
+        builder.setCharAt(position, ch);
+        break;
+      default:
+        if (position + 1 < builder.length()) {
+          char tmp = builder.charAt(position);
+          builder.setCharAt(position, builder.charAt(position + 1));
+          builder.setCharAt(position + 1, tmp);
+        }
+      }
+    }
+    return builder.toString();
+  }
+
+  /**
+   * Parameters.
+   *
+   * @param values the names and values
+   * @return the map
+   */
+  private static Map<String, String> parameters(String... values) {
+    Map<String, String> parameters = new HashMap<>();
+    for (int i = 0; i + 1 < values.length; i += 2) {
+      parameters.put(values[i], values[i + 1]);
+    }
+    return parameters;
+  }
+
+  /**
+   * Check compute and validation of a distance for a value against the
+   * expected distance, also for the value padded with a null character.
+   *
+   * @param type the type
+   * @param base the base
+   * @param value the value
+   * @param expected the expected distance
+   * @param parameters the parameters
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static void check(String type, String base, String value,
+      double expected, Map<String, String> parameters) throws IOException {
+    String message = type + " '" + base + "' and '" + value + "'";
+    Distance distance = create(type, base, null, null, parameters);
+    assertEquals(message, expected, distance.compute(term(value)), TOLERANCE);
+    assertEquals("padded " + message, expected,
+        distance.compute(term(value + "\u0000" + "zzz")), TOLERANCE);
+    if (expected < Double.MAX_VALUE) {
+      assertTrue("unrestricted " + message, distance.validate(term(value)));
+      for (double delta : new double[] { -0.5, 0, 0.5 }) {
+        double limit = expected + delta;
+        distance = create(type, base, limit, limit, parameters);
+        boolean validMaximum = expected < limit + DOUBLE_TOLERANCE;
+        boolean validMinimum = expected > limit - DOUBLE_TOLERANCE;
+        assertEquals("maximum " + limit + " for " + message, validMaximum,
+            distance.validateMaximum(term(value)));
+        assertEquals("padded maximum " + limit + " for " + message,
+            validMaximum,
+            distance.validateMaximum(term(value + "\u0000" + "zzz")));
+        assertEquals("minimum " + limit + " for " + message, validMinimum,
+            distance.validateMinimum(term(value)));
+      }
+    } else {
+      distance = create(type, base, null, 100.0, parameters);
+      assertFalse("maximum for " + message,
+          distance.validateMaximum(term(value)));
+    }
+  }
+
+  /**
+   * Creates the distance.
+   *
+   * @param type the type
+   * @param base the base
+   * @param minimum the minimum
+   * @param maximum the maximum
+   * @param parameters the parameters
+   * @return the distance
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  private static Distance create(String type, String base, Double minimum,
+      Double maximum, Map<String, String> parameters) throws IOException {
+    if (type.equals("levenshtein")) {
+      return new LevenshteinDistance(PREFIX, base, minimum, maximum,
+          parameters);
+    } else if (type.equals("damerauLevenshtein")) {
+      return new DamerauLevenshteinDistance(PREFIX, base, minimum, maximum,
+          parameters);
+    } else {
+      return new MorseDistance(PREFIX, base, minimum, maximum, parameters);
+    }
+  }
+
+  /**
+   * Levenshtein distance with unit and weighted costs, also for long and non
+   * ascii values.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestLevenshtein() throws IOException {
+    String alphabet = "abc\u00e9\u20ac";
+    Map<String, String> weighted = parameters(
+        LevenshteinDistance.PARAMETER_DELETIONDISTANCE, "2",
+        LevenshteinDistance.PARAMETER_INSERTIONDISTANCE, "0.5",
+        LevenshteinDistance.PARAMETER_REPLACEDISTANCE, "1.5");
+    for (int length : new int[] { 0, 1, 3, 20, 70 }) {
+      for (int n = 0; n < 10; n++) {
+        String base = randomString(alphabet, length);
+        String value = randomString(alphabet,
+            generator.nextInt(length + 4));
+        check("levenshtein", base, value, DistanceKernelTest.referenceDistance(
+            base, bytes(value), 1, 1, 1, 0, false), null);
+        check("levenshtein", base, value, DistanceKernelTest.referenceDistance(
+            base, bytes(value), 2, 0.5, 1.5, 0, false), weighted);
+      }
+    }
+    check("levenshtein", "abc", "abc", 0, null);
+    check("levenshtein", "abc", "bac", 2, null);
+    check("levenshtein", "abc", "", 3, null);
+    check("levenshtein", "", "abc", 3, null);
+    check("levenshtein", "abc", "ab", 1, null);
+    check("levenshtein", "abc", "ab", 0.5, weighted);
+    check("levenshtein", "abc", "abcd", 2, weighted);
+    // the characters of the base are compared with the bytes of the term
+    check("levenshtein", "\u00e9", "e", 1, null);
+    check("levenshtein", "\u00e9", "\u00e9", 2, null);
+  }
+
+  /**
+   * Damerau-Levenshtein distance with transpositions.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestDamerauLevenshtein() throws IOException {
+    String alphabet = "abc\u00e9";
+    Map<String, String> weighted = parameters(
+        LevenshteinDistance.PARAMETER_INSERTIONDISTANCE, "2",
+        DamerauLevenshteinDistance.PARAMETER_TRANSPOSITIONDISTANCE, "0.5");
+    for (int length : new int[] { 0, 1, 3, 20, 70 }) {
+      for (int n = 0; n < 10; n++) {
+        String base = randomString(alphabet, length);
+        String value = randomString(alphabet,
+            generator.nextInt(length + 4));
+        check("damerauLevenshtein", base, value,
+            DistanceKernelTest.referenceDistance(base, bytes(value), 1,
+                1, 1, 1, true),
+            null);
+        check("damerauLevenshtein", base, value,
+            DistanceKernelTest.referenceDistance(base, bytes(value), 1,
+                2, 1, 0.5, true),
+            weighted);
+      }
+    }
+    check("damerauLevenshtein", "abc", "bac", 1, null);
+    check("damerauLevenshtein", "abc", "bac", 0.5, weighted);
+    check("damerauLevenshtein", "abcd", "badc", 2, null);
+  }
+
+  /**
+   * Morse distance, computed on the morse code of base and value.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestMorse() throws IOException {
+    String alphabet = "aemnost";
+    Map<String, String> weighted = parameters(
+        MorseDistance.PARAMETER_DELETIONDISTANCE, "1",
+        MorseDistance.PARAMETER_INSERTIONDISTANCE, "2",
+        MorseDistance.PARAMETER_REPLACEDISTANCE, "3",
+        MorseDistance.PARAMETER_TRANSPOSITIONDISTANCE, "0.5");
+    for (int length : new int[] { 0, 1, 3, 20 }) {
+      for (int n = 0; n < 10; n++) {
+        String base = randomString(alphabet, length);
+        String value = randomString(alphabet,
+            generator.nextInt(length + 4));
+        check("morse", base, value, DistanceKernelTest.referenceDistance(
+            morse(base), morse(value), 1, 10, 10, 10, true), null);
+        check("morse", base, value, DistanceKernelTest.referenceDistance(
+            morse(base), morse(value), 1, 2, 3, 0.5, true), weighted);
+      }
+    }
+    check("morse", "sos", "sos", 0, null);
+    // '-. ' to '--- ', insert and replace
+    check("morse", "o", "n", 20, null);
+    // characters without morse code
+    check("morse", "sos", "s\u00e9s", Double.MAX_VALUE, null);
+    check("morse", "s\u00e9s", "sos", Double.MAX_VALUE, null);
+  }
+
+  /**
+   * The automaton for the maximum distance accepts all terms within the
+   * maximum, also at exactly the maximum and padded with a null character.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void basicTestMaximumAutomaton() throws IOException {
+    String alphabet = "abc";
+    String base = "abcab";
+    Map<String, String> weighted = parameters(
+        LevenshteinDistance.PARAMETER_REPLACEDISTANCE, "1.5",
+        DamerauLevenshteinDistance.PARAMETER_TRANSPOSITIONDISTANCE, "1.5");
+    for (String type : new String[] { "levenshtein", "damerauLevenshtein" }) {
+      for (Map<String, String> parameters : Arrays.asList(null, weighted)) {
+        for (double maximum : new double[] { 0, 1, 1.5, 2 }) {
+          String message = type + " with maximum " + maximum
+              + (parameters == null ? "" : " and " + parameters);
+          Distance distance = create(type, base, null, maximum, parameters);
+          Automaton automaton = distance.createMaximumAutomaton();
+          assertNotNull("automaton for " + message, automaton);
+          ByteRunAutomaton runAutomaton = new ByteRunAutomaton(automaton);
+          int boundary = 0;
+          for (int n = 0; n < 500; n++) {
+            String value = mutate(base, alphabet, n % 4);
+            if (n % 3 == 0) {
+              value += "\u0000" + randomString(alphabet, 2);
+            }
+            BytesRef term = new BytesRef(PREFIX + MtasToken.DELIMITER + value);
+            if (distance.validateMaximum(term)) {
+              assertTrue("'" + value + "' accepted for " + message,
+                  runAutomaton.run(term.bytes, term.offset, term.length));
+              if (Math.abs(distance.compute(term) - maximum) < TOLERANCE) {
+                boundary++;
+              }
+            }
+          }
+          assertTrue("terms at the maximum for " + message, boundary > 0);
+        }
+      }
+    }
+    // not available
+    assertNull("without maximum", create("levenshtein", base, null, null,
+        null).createMaximumAutomaton());
+    assertNull("more than two edits", create("levenshtein", base, null, 3.0,
+        null).createMaximumAutomaton());
+    assertNull("zero cost edits", create("levenshtein", base, null, 1.0,
+        parameters(LevenshteinDistance.PARAMETER_INSERTIONDISTANCE, "0"))
+            .createMaximumAutomaton());
+    assertNull("non ascii base", create("levenshtein", "ab\u00e9", null, 1.0,
+        null).createMaximumAutomaton());
+    assertNull("non ascii prefix", new LevenshteinDistance("t\u00e9", base,
+        null, 1.0, null).createMaximumAutomaton());
+    assertNull("morse", create("morse", "sos", null, 1.0, null)
+        .createMaximumAutomaton());
+  }
+
+  /**
+   * Negative distances are not allowed.
+   *
+   * @throws IOException Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test(expected = IOException.class)
+  public void basicTestNegative() throws IOException {
+    new DamerauLevenshteinDistance(PREFIX, "abc", null, 1.0, parameters(
+        DamerauLevenshteinDistance.PARAMETER_TRANSPOSITIONDISTANCE, "-1"));
+  }
+
+}
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
 import java.lang.reflect.InvocationTargetException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -20,6 +21,9 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.SortedMap;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -40,24 +44,39 @@ import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.SegmentReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.ScoreMode;
 import org.apache.lucene.search.spans.SpanWeight;
 import org.apache.lucene.search.spans.Spans;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
 import mtas.analysis.token.MtasToken;
+import mtas.codec.util.CodecAutomatonCache;
+import mtas.codec.util.CodecDocColumn;
+import mtas.codec.util.CodecDocSet;
 import mtas.codec.util.CodecInfo;
+import mtas.codec.util.CodecSpanMatchCache;
 import mtas.codec.util.CodecUtil;
 import mtas.codec.util.Status;
+import mtas.codec.util.collector.MtasDataCollector;
 import mtas.codec.util.collector.MtasDataItem;
+import mtas.codec.util.distance.Distance;
+import mtas.codec.util.CodecComponent.ComponentDocument;
 import mtas.codec.util.CodecComponent.ComponentField;
 import mtas.codec.util.CodecComponent.ComponentGroup;
+import mtas.codec.util.CodecComponent.ComponentKwic;
+import mtas.codec.util.CodecComponent.ComponentList;
 import mtas.codec.util.CodecComponent.ComponentPosition;
 import mtas.codec.util.CodecComponent.ComponentSpan;
 import mtas.codec.util.CodecComponent.ComponentTermVector;
 import mtas.codec.util.CodecComponent.ComponentToken;
 import mtas.codec.util.CodecComponent.GroupHit;
+import mtas.codec.util.CodecComponent.KwicHit;
+import mtas.codec.util.CodecComponent.ListHit;
+import mtas.codec.util.CodecComponent.SubComponentDistance;
 import mtas.codec.util.CodecComponent.SubComponentFunction;
 import mtas.codec.util.CodecSearchTree.MtasTreeHit;
 import mtas.parser.cql.MtasCQLParser;
@@ -83,6 +102,9 @@ public class MtasSearchTestConsistency {
 	/** The Constant FIELD_CONTENT. */
 	private static final String FIELD_CONTENT = "content";
 
+	/** The maximum size of the match cache when enabled. */
+	private static final long MATCH_CACHE_MAXIMUM_SIZE = 64L * 1024 * 1024;
+
 	/** The directory. */
 	private static Directory directory;
 
@@ -310,6 +332,81 @@ public class MtasSearchTestConsistency {
 		indexReader.close();
 	}
 
+	/**
+	 * Basic search recurrence 1.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void basicSearchRecurrence1() throws IOException {
+		IndexReader indexReader = DirectoryReader.open(directory);
+		testNumberOfHits(indexReader, FIELD_CONTENT, Arrays.asList("[pos=\"ADJ\"]{1,3}"), Arrays.asList(
+				"[pos=\"ADJ\"]", "[pos=\"ADJ\"][pos=\"ADJ\"]", "[pos=\"ADJ\"][pos=\"ADJ\"][pos=\"ADJ\"]"));
+		testNumberOfHits(indexReader, FIELD_CONTENT, Arrays.asList("([pos=\"ADJ\"]|[pos=\"N\"]){2}"),
+				Arrays.asList("[pos=\"ADJ\"][pos=\"ADJ\"]", "[pos=\"ADJ\"][pos=\"N\"]", "[pos=\"N\"][pos=\"ADJ\"]",
+						"[pos=\"N\"][pos=\"N\"]"));
+		indexReader.close();
+	}
+
+	/**
+	 * Basic search recurrence 2.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void basicSearchRecurrence2() throws IOException {
+		int ignoreNumber = 2;
+		String cql1 = "[pos=\"N\"][pos=\"ADJ\"]{0," + ignoreNumber + "}[pos=\"N\"]";
+		String cql2 = "[pos=\"N\"]{2}";
+		String cql2ignore = "[pos=\"ADJ\"]";
+		IndexReader indexReader = DirectoryReader.open(directory);
+		QueryResult queryResult1 = doQuery(indexReader, FIELD_CONTENT, cql1, null, null, null, false);
+		MtasSpanQuery ignore;
+		try {
+			ignore = createQuery(FIELD_CONTENT, cql2ignore, null, null, false);
+		} catch (ParseException e) {
+			throw new IOException("Parse Exception", e);
+		}
+		QueryResult queryResult2 = doQuery(indexReader, FIELD_CONTENT, cql2, ignore, ignoreNumber, null, false);
+		QueryResult queryResult2disabled = doQuery(indexReader, FIELD_CONTENT, cql2, ignore, ignoreNumber, null, true);
+		assertFalse("Recurrence: " + cql2 + " has no hits", queryResult2.hits == 0);
+		assertEquals("Two nouns ignoring adjectives", queryResult1.hits, queryResult2.hits);
+		assertEquals("Recurrence: twoPhaseIterator", queryResult2.hits, queryResult2disabled.hits);
+		indexReader.close();
+	}
+
+	/**
+	 * Basic search expand.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void basicSearchExpand() throws IOException {
+		IndexReader indexReader = DirectoryReader.open(directory);
+		testNumberOfHits(indexReader, FIELD_CONTENT, Arrays.asList("[pos=\"N\"][]{0,2}"),
+				Arrays.asList("[pos=\"N\"]", "[pos=\"N\"][]", "[pos=\"N\"][]{2}"));
+		testNumberOfHits(indexReader, FIELD_CONTENT, Arrays.asList("[]{1,2}[pos=\"N\"]"),
+				Arrays.asList("[][pos=\"N\"]", "[]{2}[pos=\"N\"]"));
+		testNumberOfHits(indexReader, FIELD_CONTENT, Arrays.asList("[]{0,1}[pos=\"N\"][]{0,1}"),
+				Arrays.asList("[pos=\"N\"]", "[][pos=\"N\"]", "[pos=\"N\"][]", "[][pos=\"N\"][]"));
+		indexReader.close();
+	}
+
+	/**
+	 * Basic search unique position.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void basicSearchUniquePosition() throws IOException {
+		IndexReader indexReader = DirectoryReader.open(directory);
+		testNumberOfHits(indexReader, FIELD_CONTENT, Arrays.asList("[pos=\"N\"] | [pos=\"N\" & !pos=\"ADJ\"]"),
+				Arrays.asList("[pos=\"N\"]"));
+		testNumberOfHits(indexReader, FIELD_CONTENT, Arrays.asList("[pos=\"N\"][]{0,1} | [pos=\"N\"][]"),
+				Arrays.asList("[pos=\"N\"]", "[pos=\"N\"][]"));
+		indexReader.close();
+	}
+
 	/**
 	 * Basic search within 1.
 	 *
@@ -801,6 +898,65 @@ public class MtasSearchTestConsistency {
 		}
 	}
 
+	/**
+	 * Collect numbers of positions and tokens in columns for the documents of a
+	 * segment, compared with the numbers for each document.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectDocColumns() throws IOException {
+		IndexReader indexReader = DirectoryReader.open(directory);
+		try {
+			CodecDocSet fullDocSet = CodecDocSet.fromList(docs);
+			int number = 0;
+			for (LeafReaderContext lrc : indexReader.leaves()) {
+				CodecInfo mtasCodecInfo = CodecInfo.getCodecInfoFromTerms(lrc.reader().terms(FIELD_CONTENT));
+				Map<Integer, Integer> allPositions = mtasCodecInfo.getAllNumberOfPositions(FIELD_CONTENT, lrc.docBase);
+				Map<Integer, Integer> allTokens = mtasCodecInfo.getAllNumberOfTokens(FIELD_CONTENT, lrc.docBase);
+				// live documents, and every other document
+				CodecDocSet docSet = fullDocSet.segment(lrc, lrc.reader().getLiveDocs());
+				int[] otherDocIds = new int[docSet.size()];
+				int otherSize = 0;
+				for (int i = 0; i < docSet.size(); i += 2) {
+					otherDocIds[otherSize++] = docSet.getInt(i);
+				}
+				for (CodecDocSet columnDocSet : new CodecDocSet[] { docSet, CodecDocSet.of(otherDocIds, otherSize) }) {
+					CodecDocColumn positions = new CodecDocColumn(columnDocSet);
+					CodecDocColumn tokens = new CodecDocColumn(columnDocSet);
+					mtasCodecInfo.fillNumberOfPositions(FIELD_CONTENT, lrc.docBase, positions);
+					mtasCodecInfo.fillNumberOfTokens(FIELD_CONTENT, lrc.docBase, tokens);
+					assertEquals("column size", columnDocSet.size(), positions.size());
+					for (int i = 0; i < columnDocSet.size(); i++) {
+						int docId = columnDocSet.getInt(i);
+						Integer numberOfPositions = mtasCodecInfo.getNumberOfPositions(FIELD_CONTENT, docId - lrc.docBase);
+						Integer numberOfTokens = mtasCodecInfo.getNumberOfTokens(FIELD_CONTENT, docId - lrc.docBase);
+						assertEquals("positions for " + docId, numberOfPositions == null ? 0 : numberOfPositions,
+								positions.valueAt(i));
+						assertEquals("all positions for " + docId, allPositions.getOrDefault(docId, 0),
+								Integer.valueOf(positions.get(docId)));
+						assertEquals("positions from the doc set for " + docId, positions.valueAt(i),
+								positions.get(docSet, docSet.indexOfDoc(docId)));
+						assertEquals("tokens for " + docId, numberOfTokens == null ? 0 : numberOfTokens,
+								tokens.valueAt(i));
+						assertEquals("all tokens for " + docId, allTokens.getOrDefault(docId, 0),
+								Integer.valueOf(tokens.get(docId)));
+						if (numberOfPositions != null) {
+							number++;
+						}
+					}
+				}
+				// documents without a column value
+				CodecDocColumn empty = new CodecDocColumn(CodecDocSet.of(new int[0], 0));
+				mtasCodecInfo.fillNumberOfPositions(FIELD_CONTENT, lrc.docBase, empty);
+				assertEquals("no column value", 0, empty.get(lrc.docBase));
+			}
+			assertTrue("documents with positions", number >= docs.size());
+		} finally {
+			indexReader.close();
+		}
+	}
+
 	/**
 	 * Collect stats spans 1.
 	 *
@@ -889,6 +1045,299 @@ public class MtasSearchTestConsistency {
 		}
 	}
 
+	/**
+	 * Collect stats spans shared.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectStatsSpansShared() throws IOException {
+		// queries with equal subqueries, shared within a single request
+		String[] cqls = new String[] { "[pos=\"ADJ\"]{1,2}", "[pos=\"ADJ\"]{1,2}[pos=\"N\"]",
+				"[pos=\"LID\"][pos=\"ADJ\"]{1,2}[pos=\"N\"]", "[pos=\"ADJ\"]{1,2}[pos=\"N\"] within <s/>",
+				"<s/> containing ([pos=\"ADJ\"]{1,2}[pos=\"N\"])" };
+		IndexReader indexReader = DirectoryReader.open(directory);
+		try {
+			ComponentField fieldStats = new ComponentField(FIELD_ID);
+			for (int i = 0; i < cqls.length; i++) {
+				MtasSpanQuery q = createQuery(FIELD_CONTENT, cqls[i], null, null, false);
+				fieldStats.spanQueryList.add(q);
+				fieldStats.statsSpanList.add(new ComponentSpan(new MtasSpanQuery[] { q }, "total" + i, null, null,
+						"n,sum", null, null, null));
+			}
+			HashMap<String, HashMap<String, Object>> response = doAdvancedSearch(docs, fieldStats);
+			for (int i = 0; i < cqls.length; i++) {
+				// unshared
+				QueryResult queryResult = doQuery(indexReader, FIELD_CONTENT, cqls[i], null, null, null, false);
+				HashMap<String, Object> responseTotal = (HashMap<String, Object>) response.get("statsSpans")
+						.get("total" + i);
+				Long total = responseTotal != null ? (Long) responseTotal.get("sum") : 0;
+				assertEquals("Number of hits shared and unshared for " + cqls[i], Long.valueOf(queryResult.hits),
+						total);
+			}
+		} catch (ParseException | mtas.parser.function.ParseException e) {
+			log.error(e);
+		} finally {
+			indexReader.close();
+		}
+	}
+
+	/**
+	 * Collect parallel.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectParallel() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			HashMap<String, HashMap<String, Object>> response1 = doAdvancedSearch(docs, createParallelFieldStats(),
+					null);
+			HashMap<String, HashMap<String, Object>> response2 = doAdvancedSearch(docs, createParallelFieldStats(),
+					executor);
+			for (String type : new String[] { "statsPositions", "statsTokens", "statsSpans", "termvector" }) {
+				assertFalse("no " + type, response1.get(type).isEmpty());
+				assertEquals("serial and parallel " + type, response1.get(type), response2.get(type));
+			}
+			ArrayList<HashMap<String, Object>> list1 = (ArrayList<HashMap<String, Object>>) response1.get("group")
+					.get("group");
+			ArrayList<HashMap<String, Object>> list2 = (ArrayList<HashMap<String, Object>>) response2.get("group")
+					.get("group");
+			assertEquals("serial and parallel number of groups", list1.size(), list2.size());
+			for (int i = 0; i < list1.size(); i++) {
+				assertEquals("serial and parallel group key", list1.get(i).get("key"), list2.get(i).get("key"));
+				assertEquals("serial and parallel group sum", list1.get(i).get("sum"), list2.get(i).get("sum"));
+			}
+		} catch (ParseException | mtas.parser.function.ParseException e) {
+			log.error(e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Creates the field stats for comparing serial and parallel collection.
+	 *
+	 * @return the component field
+	 * @throws ParseException the parse exception
+	 * @throws mtas.parser.function.ParseException the parse exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private ComponentField createParallelFieldStats()
+			throws ParseException, mtas.parser.function.ParseException, IOException {
+		ComponentField fieldStats = new ComponentField(FIELD_ID);
+		MtasSpanQuery q1 = createQuery(FIELD_CONTENT, "[pos=\"N\"]", null, null, false);
+		MtasSpanQuery q2 = createQuery(FIELD_CONTENT, "[pos=\"LID\"][pos=\"ADJ\"]{0,2}[pos=\"N\"]", null, null,
+				false);
+		fieldStats.spanQueryList.add(q1);
+		fieldStats.spanQueryList.add(q2);
+		fieldStats.statsPositionList.add(new ComponentPosition("total", null, null, "n,sum,min,max"));
+		fieldStats.statsTokenList.add(new ComponentToken("total", null, null, "n,sum,min,max"));
+		fieldStats.statsSpanList
+				.add(new ComponentSpan(new MtasSpanQuery[] { q1 }, "nouns", null, null, "n,sum,min,max", null, null, null));
+		fieldStats.statsSpanList.add(
+				new ComponentSpan(new MtasSpanQuery[] { q2 }, "phrases", null, null, "n,sum,min,max", null, null, null));
+		fieldStats.groupList.add(new ComponentGroup(q2, "group", Integer.MAX_VALUE, 0, "t_lc", null, null, null, null,
+				null, null, null, null, null, null, null, null));
+		fieldStats.termVectorList.add(new ComponentTermVector("termvector", "lemma", null, null, null, null, null, null,
+				null, false, "sum", CodecUtil.STATS_TYPE_SUM, CodecUtil.SORT_DESC, null, 100, null, null, null, null,
+				null, null, "lemma", null, null));
+		// full termvectors, computed while collecting segments
+		fieldStats.termVectorList.add(new ComponentTermVector("full", "t_lc", null, null, null, null, null, null,
+				null, true, "n,sum", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null, Integer.MAX_VALUE, null, null, null,
+				null, null, null, null, null, null));
+		fieldStats.termVectorList.add(new ComponentTermVector("fullRegexp", "lemma", null, null, null, null, null,
+				null, "[a-k].*", true, "n,sum,min,max", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null,
+				Integer.MAX_VALUE, null, null, null, null, null, null, null, null, null));
+		return fieldStats;
+	}
+
+	/**
+	 * Collect list using a cursor.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectListCursor() throws IOException {
+		String cql = "[pos=\"ADJ\"]";
+		int number = 7;
+		CodecSpanMatchCache matchCache = CodecSpanMatchCache.getInstance();
+		try {
+			MtasSpanQuery q = createQuery(FIELD_CONTENT, cql, null, null, false);
+			// skip before the cursor without and with cached matches
+			for (long maximumSize : new long[] { 0, MATCH_CACHE_MAXIMUM_SIZE }) {
+				matchCache.setMaximumSize(maximumSize);
+				// without cursor, all matches are collected and cached
+				List<String> allHits = collectListHits(q, 0, Integer.MAX_VALUE, null);
+				assertFalse("no hits for " + cql, allHits.isEmpty());
+				List<String> cursorHits = new ArrayList<>();
+				String cursor = ComponentList.CURSOR_START;
+				String[] nextCursor = new String[1];
+				while (cursor != null) {
+					List<String> hits = collectListHits(q, 0, number, cursor, nextCursor);
+					assertTrue("too many hits on page", hits.size() <= number);
+					cursorHits.addAll(hits);
+					cursor = hits.isEmpty() ? null : nextCursor[0];
+				}
+				assertEquals("hits with cursor and without cursor", allHits, cursorHits);
+			}
+			// cursor from another version of the index
+			String[] nextCursor = new String[1];
+			collectListHits(q, 0, number, ComponentList.CURSOR_START, nextCursor);
+			String[] parts = nextCursor[0].split(":");
+			parts[1] = Long.toString(Long.parseLong(parts[1]) + 1);
+			try {
+				collectListHits(q, 0, number, String.join(":", parts), nextCursor);
+				assertTrue("cursor for other version of the index accepted", false);
+			} catch (IOException e) {
+				assertTrue("expired cursor", e.getMessage().contains("expired"));
+			}
+		} catch (ParseException e) {
+			log.error(e);
+		} finally {
+			matchCache.setMaximumSize(CodecSpanMatchCache.DEFAULT_MAXIMUM_SIZE);
+		}
+	}
+
+	/**
+	 * Collect list hits.
+	 *
+	 * @param q      the query
+	 * @param start  the start
+	 * @param number the number
+	 * @param cursor the cursor, null if not used
+	 * @return the hits
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private List<String> collectListHits(MtasSpanQuery q, int start, int number, String cursor)
+			throws IOException {
+		return collectListHits(q, start, number, cursor, new String[1]);
+	}
+
+	/**
+	 * Collect list hits.
+	 *
+	 * @param q          the query
+	 * @param start      the start
+	 * @param number     the number
+	 * @param cursor     the cursor, null if not used
+	 * @param nextCursor the next cursor, set after collecting
+	 * @return the hits
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private List<String> collectListHits(MtasSpanQuery q, int start, int number, String cursor, String[] nextCursor)
+			throws IOException {
+		List<String> hits = new ArrayList<>();
+		try (IndexReader indexReader = DirectoryReader.open(directory)) {
+			ComponentField fieldStats = new ComponentField(FIELD_ID);
+			fieldStats.spanQueryList.add(q);
+			ComponentList list = new ComponentList(q, FIELD_CONTENT, null, null, null, null, null, null, "list", null,
+					"t_lc", start, number, 0, 0, ComponentList.LIST_OUTPUT_HIT, cursor);
+			fieldStats.listList.add(list);
+			CodecUtil.collectField(FIELD_CONTENT, new IndexSearcher(indexReader), indexReader, new ArrayList<>(),
+					docs, fieldStats, new Status(), null);
+			for (ListHit hit : list.hits) {
+				hits.add(list.uniqueKey.get(hit.docId) + ":" + hit.docPosition + ":" + hit.startPosition + "-"
+						+ hit.endPosition);
+			}
+			nextCursor[0] = list.nextCursor;
+		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+			throw new IOException(e);
+		}
+		return hits;
+	}
+
+	/**
+	 * Collect kwic and list within the shown window.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectKwicAndListWindow() throws IOException {
+		String cql = "[pos=\"ADJ\"]";
+		CodecSpanMatchCache matchCache = CodecSpanMatchCache.getInstance();
+		try {
+			matchCache.setMaximumSize(0);
+			MtasSpanQuery q = createQuery(FIELD_CONTENT, cql, null, null, false);
+			// listed docs
+			ArrayList<Integer> docList = new ArrayList<>(docs.subList(0, Math.min(docs.size(), 3)));
+			for (int[] window : new int[][] { { 0, 2 }, { 1, 3 }, { 0, 1000 } }) {
+				// only kwic, and kwic with an additional list needing all matches
+				ComponentKwic kwic = collectKwicAndList(q, docList, window[0], window[1], false)[0];
+				ComponentKwic kwicFull = collectKwicAndList(q, docList, window[0], window[1], true)[0];
+				assertEquals("kwic docs " + Arrays.toString(window), kwicFull.hits.keySet(), kwic.hits.keySet());
+				assertEquals("kwic subTotals " + Arrays.toString(window), kwicFull.subTotal, kwic.subTotal);
+				for (Integer docId : kwicFull.hits.keySet()) {
+					assertEquals("kwic hits for doc " + docId + " " + Arrays.toString(window),
+							kwicHits(kwicFull.hits.get(docId)), kwicHits(kwic.hits.get(docId)));
+				}
+			}
+			for (int[] window : new int[][] { { 0, 5 }, { 3, 5 }, { 7, 100 } }) {
+				// only list, and list with an additional kwic needing all matches
+				List<String> hits = collectListHits(q, window[0], window[1], null);
+				ComponentList listFull = (ComponentList) collectKwicAndList(q, docList, window[0], window[1], true)[1];
+				List<String> fullHits = new ArrayList<>();
+				for (ListHit hit : listFull.hits) {
+					fullHits.add(listFull.uniqueKey.get(hit.docId) + ":" + hit.docPosition + ":" + hit.startPosition + "-"
+							+ hit.endPosition);
+				}
+				assertEquals("list hits " + Arrays.toString(window), fullHits, hits);
+			}
+		} catch (ParseException e) {
+			log.error(e);
+		} finally {
+			matchCache.setMaximumSize(CodecSpanMatchCache.DEFAULT_MAXIMUM_SIZE);
+		}
+	}
+
+	/**
+	 * Collect kwic and list for the same query.
+	 *
+	 * @param q       the query
+	 * @param docList the listed docs
+	 * @param start   the start
+	 * @param number  the number
+	 * @param full    if both kwic and list are collected, otherwise only the
+	 *                kwic
+	 * @return the kwic and list components
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private Object[] collectKwicAndList(MtasSpanQuery q, ArrayList<Integer> docList, int start, int number,
+			boolean full) throws IOException {
+		try (IndexReader indexReader = DirectoryReader.open(directory)) {
+			ComponentField fieldStats = new ComponentField(FIELD_ID);
+			fieldStats.spanQueryList.add(q);
+			ComponentKwic kwic = new ComponentKwic(q, "kwic", null, number, start, null, null, 0, 0,
+					ComponentKwic.KWIC_OUTPUT_HIT);
+			fieldStats.kwicList.add(kwic);
+			ComponentList list = null;
+			if (full) {
+				list = new ComponentList(q, FIELD_CONTENT, null, null, null, null, null, null, "list", null, "t_lc",
+						start, number, 0, 0, ComponentList.LIST_OUTPUT_HIT);
+				fieldStats.listList.add(list);
+			}
+			CodecUtil.collectField(FIELD_CONTENT, new IndexSearcher(indexReader), indexReader, docList, docs,
+					fieldStats, new Status(), null);
+			return new Object[] { kwic, list };
+		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+			throw new IOException(e);
+		}
+	}
+
+	/**
+	 * Kwic hits as strings.
+	 *
+	 * @param hits the hits
+	 * @return the list
+	 */
+	private static List<String> kwicHits(List<KwicHit> hits) {
+		List<String> result = new ArrayList<>();
+		for (KwicHit hit : hits) {
+			result.add(hit.startPosition + "-" + hit.endPosition);
+		}
+		return result;
+	}
+
 	/**
 	 * Collect group.
 	 *
@@ -933,6 +1382,174 @@ public class MtasSearchTestConsistency {
 		}
 	}
 
+	/**
+	 * Collect group for hits with multiple positions.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectGroupMultiplePositions() throws IOException {
+		// hits with equal start and different end positions
+		String cql = "[pos=\"LID\"][pos=\"ADJ\"]{0,2}[pos=\"N\"]";
+		int checkedGroups = 20;
+		DirectoryReader indexReader = DirectoryReader.open(directory);
+		try {
+			ComponentField fieldStats = new ComponentField(FIELD_ID);
+			MtasSpanQuery q = createQuery(FIELD_CONTENT, cql, null, null, false);
+			fieldStats.spanQueryList.add(q);
+			fieldStats.groupList.add(new ComponentGroup(q, "phrases", Integer.MAX_VALUE, 0, "t_lc", null, null, null,
+					null, null, null, null, null, null, null, null, null));
+			HashMap<String, HashMap<String, Object>> response = doAdvancedSearch(docs, fieldStats);
+			ArrayList<HashMap<String, Object>> list = (ArrayList<HashMap<String, Object>>) response.get("group")
+					.get("phrases");
+			long total = 0;
+			for (HashMap<String, Object> listItem : list) {
+				total += (Long) listItem.get("sum");
+				if (checkedGroups-- > 0) {
+					HashMap<String, HashMap<Integer, HashMap<String, String>[]>> group = (HashMap<String, HashMap<Integer, HashMap<String, String>[]>>) listItem
+							.get("group");
+					HashMap<Integer, HashMap<String, String>[]> hitList = group.get("hit");
+					StringBuilder groupCql = new StringBuilder();
+					for (int i = 0; i < hitList.size(); i++) {
+						HashMap<String, String> hitListItem = hitList.get(i)[0];
+						groupCql.append("[" + hitListItem.get("prefix") + "=\"" + hitListItem.get("value") + "\"]");
+					}
+					QueryResult queryResult = doQuery(indexReader, FIELD_CONTENT,
+							"(" + cql + ") fullyalignedwith (" + groupCql + ")", null, null, null, false);
+					assertEquals("number of hits for " + groupCql, listItem.get("sum"),
+							Long.valueOf(queryResult.hits));
+				}
+			}
+			// each hit is counted exactly once
+			QueryResult queryResult = doQuery(indexReader, FIELD_CONTENT, cql, null, null, null, false);
+			assertEquals("Total number of hits in groups", Long.valueOf(queryResult.hits), Long.valueOf(total));
+		} catch (ParseException | mtas.parser.function.ParseException e) {
+			log.error(e);
+		} finally {
+			indexReader.close();
+		}
+	}
+
+	/**
+	 * Collect group approximate.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectGroupApproximate() throws IOException {
+		String cql = "[pos=\"ADJ\"]";
+		int capacity = 10;
+		try {
+			MtasSpanQuery q = createQuery(FIELD_CONTENT, cql, null, null, false);
+			ComponentGroup[] groups = new ComponentGroup[] {
+					new ComponentGroup(q, "exact", Integer.MAX_VALUE, 0, "t_lc", null, null, null, null, null, null, null,
+							null, null, null, null, null),
+					new ComponentGroup(q, "unbounded", Integer.MAX_VALUE, 0, "t_lc", null, null, null, null, null, null,
+							null, null, null, null, null, null, true, null),
+					new ComponentGroup(q, "bounded", capacity, 0, "t_lc", null, null, null, null, null, null, null, null,
+							null, null, null, null, true, capacity) };
+			Map<String, Map<String, Long>> sums = new HashMap<>();
+			for (ComponentGroup group : groups) {
+				ComponentField fieldStats = new ComponentField(FIELD_ID);
+				fieldStats.spanQueryList.add(q);
+				fieldStats.groupList.add(group);
+				HashMap<String, HashMap<String, Object>> response = doAdvancedSearch(docs, fieldStats);
+				Map<String, Long> groupSums = new HashMap<>();
+				for (HashMap<String, Object> listItem : (ArrayList<HashMap<String, Object>>) response.get("group")
+						.get(group.key)) {
+					groupSums.put((String) listItem.get("key"), (Long) listItem.get("sum"));
+				}
+				sums.put(group.key, groupSums);
+			}
+			// capacity not reached
+			assertEquals("error for unbounded approximation", 0, groups[1].approximationError);
+			assertEquals("unbounded approximation and exact groups", sums.get("exact"), sums.get("unbounded"));
+			// capacity reached, the error bounds the undercount
+			assertFalse("no groups for bounded approximation", sums.get("bounded").isEmpty());
+			assertTrue("too many groups for bounded approximation", sums.get("bounded").size() <= capacity);
+			for (Entry<String, Long> entry : sums.get("bounded").entrySet()) {
+				Long exactSum = sums.get("exact").get(entry.getKey());
+				assertTrue("no exact group for " + entry.getKey(), exactSum != null);
+				assertTrue("sum for " + entry.getKey() + " above exact sum", entry.getValue() <= exactSum);
+				assertTrue("sum for " + entry.getKey() + " below exact sum minus error",
+						entry.getValue() + groups[2].approximationError >= exactSum);
+			}
+		} catch (ParseException e) {
+			log.error(e);
+		}
+	}
+
+	/**
+	 * Collect group using n-gram tokens.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectGroupNgrams() throws IOException {
+		String prefix = "lemma";
+		// index with n-gram tokens for the prefix
+		Path dataPath = Paths
+				.get("src" + File.separator + "test" + File.separator + "resources" + File.separator + "data");
+		String configuration = new String(
+				java.nio.file.Files.readAllBytes(dataPath.resolve("conf").resolve("folia.xml")), StandardCharsets.UTF_8);
+		configuration = configuration.replace("<makeunique value=\"true\" />",
+				"<makeunique value=\"true\" /><ngrams><ngram prefix=\"" + prefix + "\" size=\"2\" /><ngram prefix=\""
+						+ prefix + "\" size=\"3\" /></ngrams>");
+		Path configFile = java.nio.file.Files.createTempFile("folia-ngrams", ".xml");
+		Directory ngramDirectory = new RAMDirectory();
+		try {
+			java.nio.file.Files.write(configFile, configuration.getBytes(StandardCharsets.UTF_8));
+			createIndex(ngramDirectory, configFile.toAbsolutePath().toString(), files);
+			ArrayList<Integer> ngramDocs;
+			try (DirectoryReader indexReader = DirectoryReader.open(ngramDirectory)) {
+				ngramDocs = getLiveDocs(indexReader);
+				for (LeafReaderContext lrc : indexReader.leaves()) {
+					TermsEnum termsEnum = lrc.reader().terms(FIELD_CONTENT).iterator();
+					BytesRef ngramPrefix = new BytesRef(MtasToken.getNgramPrefix(prefix, 2) + MtasToken.DELIMITER);
+					assertTrue("n-gram tokens in segment",
+							termsEnum.seekCeil(ngramPrefix) != TermsEnum.SeekStatus.END
+									&& StringHelper.startsWith(termsEnum.term(), ngramPrefix));
+				}
+			}
+			assertEquals("number of documents with n-gram tokens", docs.size(), ngramDocs.size());
+			// groups for hit inside, and for hit inside with left position
+			String[] cqls = new String[] { "[" + prefix + "=\".*\"][" + prefix + "=\".*\"]",
+					"[" + prefix + "=\".*\"]" };
+			String[][] leftPositions = new String[][] { null, new String[] { "0" } };
+			String[][] leftPrefixes = new String[][] { null, new String[] { prefix } };
+			for (int i = 0; i < cqls.length; i++) {
+				MtasSpanQuery q = createQuery(FIELD_CONTENT, cqls[i], null, null, false);
+				List<Map<String, Long>> sums = new ArrayList<>();
+				List<Object> tokens = new ArrayList<>();
+				for (Directory searchDirectory : new Directory[] { directory, ngramDirectory }) {
+					ComponentField fieldStats = new ComponentField(FIELD_ID);
+					fieldStats.spanQueryList.add(q);
+					fieldStats.statsTokenList.add(new ComponentToken("tokens", null, null, "n,sum"));
+					fieldStats.groupList.add(new ComponentGroup(q, "group", Integer.MAX_VALUE, 0, prefix, null, null,
+							null, null, null, null, null, null, leftPositions[i], leftPrefixes[i], null, null));
+					HashMap<String, HashMap<String, Object>> response = doAdvancedSearch(searchDirectory,
+							searchDirectory == directory ? docs : ngramDocs, fieldStats, null);
+					Map<String, Long> groupSums = new HashMap<>();
+					for (HashMap<String, Object> listItem : (ArrayList<HashMap<String, Object>>) response.get("group")
+							.get("group")) {
+						groupSums.put((String) listItem.get("key"), (Long) listItem.get("sum"));
+					}
+					sums.add(groupSums);
+					tokens.add(response.get("statsTokens").get("tokens"));
+				}
+				assertFalse("no groups for " + cqls[i], sums.get(0).isEmpty());
+				assertEquals("groups with and without n-gram tokens for " + cqls[i], sums.get(0), sums.get(1));
+				// n-gram tokens are not counted
+				assertEquals("tokens with and without n-gram tokens", tokens.get(0), tokens.get(1));
+			}
+		} catch (ParseException e) {
+			log.error(e);
+		} finally {
+			ngramDirectory.close();
+			java.nio.file.Files.deleteIfExists(configFile);
+		}
+	}
+
 	/**
 	 * Collect termvector.
 	 *
@@ -990,6 +1607,378 @@ public class MtasSearchTestConsistency {
 		}
 	}
 
+	/**
+	 * Collect termvector with many candidates for full values within each
+	 * segment.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectTermvectorCandidates() throws IOException {
+		String prefix = "t_lc";
+		int number = 250;
+		try {
+			ComponentField fieldStats = new ComponentField(FIELD_ID);
+			// each term in the segment is a candidate for full values
+			fieldStats.termVectorList.add(new ComponentTermVector("toplist", prefix, null, null, null, null, null,
+					null, null, false, "n,sum,min,max", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null, number, null,
+					null, null, null, null, null, null, null, null));
+			fieldStats.termVectorList.add(new ComponentTermVector("fulllist", prefix, null, null, null, null, null,
+					null, null, true, "n,sum,min,max", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null,
+					Integer.MAX_VALUE, null, null, null, null, null, null, null, null, null));
+			HashMap<String, HashMap<String, Object>> response = doAdvancedSearch(docs, fieldStats);
+			Map<String, Object> topList = (Map<String, Object>) response.get("termvector").get("toplist");
+			Map<String, Object> fullList = (Map<String, Object>) response.get("termvector").get("fulllist");
+			assertEquals("number of terms in toplist", number, topList.size());
+			for (Entry<String, Object> entry : topList.entrySet()) {
+				assertEquals("toplist and fulllist for " + entry.getKey(), fullList.get(entry.getKey()),
+						entry.getValue());
+			}
+		} catch (mtas.parser.function.ParseException e) {
+			log.error(e);
+		}
+	}
+
+	/**
+	 * Collect termvector sorted on sum or n and with a boundary, with a second
+	 * round for keys missing in some segments, compared with the full termvector
+	 * for the same doc set. The function on the number of positions is also
+	 * computed in the second round.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectTermvectorSecondRound() throws IOException {
+		String prefix = "t_lc";
+		List<ArrayList<Integer>> docSets = new ArrayList<>();
+		docSets.add(docs);
+		ArrayList<Integer> halfDocSet = new ArrayList<>();
+		for (int i = 0; i < docs.size(); i += 2) {
+			halfDocSet.add(docs.get(i));
+		}
+		docSets.add(halfDocSet);
+		try {
+			for (ArrayList<Integer> docSet : docSets) {
+				for (String sortType : new String[] { CodecUtil.STATS_TYPE_SUM, CodecUtil.STATS_TYPE_N }) {
+					for (String sortDirection : new String[] { CodecUtil.SORT_DESC, CodecUtil.SORT_ASC }) {
+						for (String boundary : new String[] { null, "2" }) {
+							String message = sortType + " " + sortDirection + " with boundary " + boundary + " for "
+									+ docSet;
+							ComponentField fieldStats = new ComponentField(FIELD_ID);
+							fieldStats.termVectorList.add(new ComponentTermVector("toplist", prefix, null, null, null,
+									null, null, null, null, false, "n,sum", sortType, sortDirection, null, 5,
+									new String[] { "positions" }, new String[] { "$n" }, new String[] { "sum" },
+									boundary, null, null, null, null, null));
+							fieldStats.termVectorList.add(new ComponentTermVector("fulllist", prefix, null, null, null,
+									null, null, null, null, true, "n,sum", sortType, sortDirection, null,
+									Integer.MAX_VALUE, new String[] { "positions" }, new String[] { "$n" },
+									new String[] { "sum" }, null, null, null, null, null, null));
+							HashMap<String, HashMap<String, Object>> response = doAdvancedSearch(docSet, fieldStats);
+							Map<String, Object> topList = (Map<String, Object>) response.get("termvector")
+									.get("toplist");
+							Map<String, Object> fullList = (Map<String, Object>) response.get("termvector")
+									.get("fulllist");
+							assertFalse("no terms for " + message, topList.isEmpty());
+							Map<String, ?> topFunction = fieldStats.termVectorList.get(0).functions.get(0).dataCollector
+									.getResult().getList();
+							Map<String, ?> fullFunction = fieldStats.termVectorList.get(1).functions.get(0).dataCollector
+									.getResult().getList();
+							for (Entry<String, Object> entry : topList.entrySet()) {
+								assertEquals("toplist and fulllist for " + entry.getKey() + " with " + message,
+										fullList.get(entry.getKey()), entry.getValue());
+								assertTrue("function for " + entry.getKey() + " with " + message,
+										topFunction.containsKey(entry.getKey()));
+								assertEquals("function for " + entry.getKey() + " with " + message,
+										((MtasDataItem<?, ?>) fullFunction.get(entry.getKey())).rewrite(false),
+										((MtasDataItem<?, ?>) topFunction.get(entry.getKey())).rewrite(false));
+							}
+						}
+					}
+				}
+			}
+		} catch (mtas.parser.function.ParseException e) {
+			log.error(e);
+		}
+	}
+
+	/**
+	 * Collect termvector from the forward index and from the postings.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectTermvectorForwardIndex() throws IOException {
+		List<ArrayList<Integer>> docSets = new ArrayList<>();
+		docSets.add(docs);
+		for (Integer doc : docs) {
+			docSets.add(new ArrayList<>(Arrays.asList(doc)));
+		}
+		try {
+			for (ArrayList<Integer> docSet : docSets) {
+				List<Object> termvectors = new ArrayList<>();
+				// always the forward index, always the postings
+				for (int factor : new int[] { 0, Integer.MAX_VALUE }) {
+					ComponentField fieldStats = new ComponentField(FIELD_ID);
+					fieldStats.termVectorList.add(new ComponentTermVector("termvector", "t_lc", null, null, null,
+							null, null, null, null, false, "n,sum", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null, 1000,
+							null, null, null, null, null, null, null, null, null));
+					fieldStats.termVectorList.add(new ComponentTermVector("regexp", "lemma", null, null, null, null,
+							null, null, "[a-k].*", false, "n,sum", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null, 1000,
+							null, null, null, null, null, null, null, null, null));
+					for (ComponentTermVector termVector : fieldStats.termVectorList) {
+						termVector.docCostFactor = factor;
+					}
+					HashMap<String, HashMap<String, Object>> response = doAdvancedSearch(docSet, fieldStats);
+					termvectors.add(response.get("termvector"));
+				}
+				assertFalse("no terms for " + docSet,
+						((Map<String, Object>) ((Map<String, Object>) termvectors.get(0)).get("termvector"))
+								.isEmpty());
+				assertEquals("termvectors from forward index and postings for " + docSet, termvectors.get(1),
+						termvectors.get(0));
+			}
+		} catch (mtas.parser.function.ParseException e) {
+			log.error(e);
+		}
+	}
+
+	/**
+	 * Collect full termvector in partitions and in a single pass.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectTermvectorPartitioned() throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Object> termvectors = new ArrayList<>();
+			for (int partitions : new int[] { 0, 2, 7, 50 }) {
+				ComponentField fieldStats = new ComponentField(FIELD_ID);
+				fieldStats.termVectorList.add(new ComponentTermVector("basic", "t_lc", null, null, null, null, null,
+						null, null, true, "n,sum", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null, Integer.MAX_VALUE,
+						null, null, null, null, null, null, null, null, null));
+				fieldStats.termVectorList.add(new ComponentTermVector("advanced", "lemma", null, null, null, null,
+						null, null, "[a-k].*", true, "n,sum,min,max", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null,
+						Integer.MAX_VALUE, null, null, null, null, null, null, null, null, null));
+				// postings only, the forward index is never partitioned
+				for (ComponentTermVector termVector : fieldStats.termVectorList) {
+					termVector.docCostFactor = Integer.MAX_VALUE;
+					termVector.partitions = partitions;
+				}
+				HashMap<String, HashMap<String, Object>> response = doAdvancedSearch(docs, fieldStats,
+						partitions > 0 ? executor : null);
+				termvectors.add(response.get("termvector"));
+			}
+			assertFalse("no terms",
+					((Map<String, Object>) ((Map<String, Object>) termvectors.get(0)).get("basic")).isEmpty());
+			for (int i = 1; i < termvectors.size(); i++) {
+				assertEquals("partitioned and single termvectors", termvectors.get(0), termvectors.get(i));
+			}
+		} catch (mtas.parser.function.ParseException e) {
+			log.error(e);
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Collect termvector with a maximum distance, with and without the
+	 * automaton for the terms within the maximum distance.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectTermvectorDistance() throws IOException {
+		String prefix = "t_lc";
+		try {
+			ComponentField fieldStats = new ComponentField(FIELD_ID);
+			fieldStats.termVectorList.add(new ComponentTermVector("all", prefix, null, null, null, null, null, null,
+					null, true, "n,sum", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null, Integer.MAX_VALUE, null, null,
+					null, null, null, null, null, null, null));
+			Map<String, Object> all = (Map<String, Object>) doAdvancedSearch(docs, fieldStats).get("termvector")
+					.get("all");
+			String term = null;
+			for (String key : new TreeSet<>(all.keySet())) {
+				if (key.matches("[a-z]{4,}")) {
+					term = key;
+					break;
+				}
+			}
+			assertTrue("no term", term != null);
+			// a base with a term at exactly distance one, and a non ascii base
+			String[] bases = new String[] { term, term + "x", "\u00e9" + term };
+			int boundary = 0;
+			for (String base : bases) {
+				for (String type : new String[] { "levenshtein", "damerau-levenshtein" }) {
+					for (String maximum : new String[] { "0", "1", "2" }) {
+						String message = type + " for " + base + " with maximum " + maximum;
+						SubComponentDistance item = new SubComponentDistance("distance", type, prefix, base, null, null,
+								maximum);
+						Distance distance = item.getDistance();
+						Map<String, Object> expected = new HashMap<>();
+						for (Entry<String, Object> entry : all.entrySet()) {
+							BytesRef termRef = new BytesRef(prefix + MtasToken.DELIMITER + entry.getKey());
+							if (distance.validate(termRef)) {
+								expected.put(entry.getKey(), entry.getValue());
+								if (distance.compute(termRef) == Double.parseDouble(maximum)) {
+									boundary++;
+								}
+							}
+						}
+						List<Object> termvectors = new ArrayList<>();
+						// with and without automaton
+						for (boolean useAutomaton : new boolean[] { true, false }) {
+							fieldStats = new ComponentField(FIELD_ID);
+							fieldStats.termVectorList.add(new ComponentTermVector("full", prefix,
+									new String[] { "distance" }, new String[] { type }, new String[] { base },
+									new Map[] { null }, new String[] { null }, new String[] { maximum }, null, true,
+									"n,sum", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null, Integer.MAX_VALUE, null,
+									null, null, null, null, null, null, null, null));
+							fieldStats.termVectorList.add(new ComponentTermVector("top", prefix,
+									new String[] { "distance" }, new String[] { type }, new String[] { base },
+									new Map[] { null }, new String[] { null }, new String[] { maximum }, null, false,
+									"n,sum", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null, all.size(), null, null,
+									null, null, null, null, null, null, null));
+							for (ComponentTermVector termVector : fieldStats.termVectorList) {
+								// postings only, the forward index doesn't use the automaton
+								termVector.docCostFactor = Integer.MAX_VALUE;
+								termVector.distanceAutomatonCreated = !useAutomaton;
+							}
+							HashMap<String, HashMap<String, Object>> response = doAdvancedSearch(docs, fieldStats);
+							for (ComponentTermVector termVector : fieldStats.termVectorList) {
+								// only available for an ascii base
+								assertEquals("automaton " + termVector.key + " " + message,
+										useAutomaton && !base.startsWith("\u00e9"),
+										termVector.distanceAutomaton != null);
+							}
+							termvectors.add(response.get("termvector"));
+						}
+						Map<String, Object> restricted = (Map<String, Object>) termvectors.get(0);
+						Map<String, Object> unrestricted = (Map<String, Object>) termvectors.get(1);
+						assertEquals("full " + message, expected, restricted.get("full"));
+						assertEquals("full without automaton " + message, expected, unrestricted.get("full"));
+						assertEquals("top " + message, expected, restricted.get("top"));
+						assertEquals("top without automaton " + message, expected, unrestricted.get("top"));
+					}
+				}
+			}
+			assertTrue("terms at exactly the maximum distance", boundary > 0);
+		} catch (mtas.parser.function.ParseException e) {
+			log.error(e);
+		}
+	}
+
+	/**
+	 * Collect termvector for a list of literal values, also with wildcards,
+	 * with and without automaton.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectTermvectorList() throws IOException {
+		String prefix = "t_lc";
+		try {
+			ComponentField fieldStats = new ComponentField(FIELD_ID);
+			fieldStats.termVectorList.add(new ComponentTermVector("all", prefix, null, null, null, null, null, null,
+					null, true, "n,sum", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null, Integer.MAX_VALUE, null, null,
+					null, null, null, null, null, null, null));
+			Map<String, Object> all = (Map<String, Object>) doAdvancedSearch(docs, fieldStats).get("termvector")
+					.get("all");
+			// every tenth term, a missing term, and a term with escaped characters
+			List<String> values = new ArrayList<>();
+			int counter = 0;
+			for (String key : new TreeSet<>(all.keySet())) {
+				if (counter++ % 10 == 0 && key.matches("[a-z]+")) {
+					values.add(key);
+				}
+			}
+			assertFalse("no values", values.isEmpty());
+			values.add("missing");
+			values.add("mis.sing");
+			// literal values, also with wildcards, and as regular expressions
+			String[][] lists = new String[][] { values.toArray(new String[0]),
+					values.toArray(new String[values.size() + 1]), values.toArray(new String[values.size() + 1]) };
+			lists[1][values.size()] = "de*";
+			lists[2][values.size()] = "d.*";
+			boolean[] listRegexps = new boolean[] { false, false, true };
+			for (int i = 0; i < lists.length; i++) {
+				String message = "list " + Arrays.toString(lists[i]) + (listRegexps[i] ? " as regexp" : "");
+				Map<String, Object> expected = new HashMap<>();
+				for (Entry<String, Object> entry : all.entrySet()) {
+					if (values.contains(entry.getKey()) || (i == 1 && entry.getKey().matches("de*"))
+							|| (i == 2 && entry.getKey().matches("d.*"))) {
+						expected.put(entry.getKey(), entry.getValue());
+					}
+				}
+				assertEquals("literal terms for " + message, i == 0,
+						CodecAutomatonCache.createLiteralTerms(prefix, Arrays.asList(lists[i])) != null);
+				// without and with regexp, the latter always uses the automaton
+				for (String regexp : new String[] { null, ".*" }) {
+					fieldStats = new ComponentField(FIELD_ID);
+					fieldStats.termVectorList.add(new ComponentTermVector("full", prefix, null, null, null, null,
+							null, null, regexp, true, "n,sum", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null,
+							Integer.MAX_VALUE, null, null, null, null, lists[i], listRegexps[i], null, null, null));
+					fieldStats.termVectorList.add(new ComponentTermVector("top", prefix, null, null, null, null, null,
+							null, regexp, false, "n,sum", CodecUtil.SORT_TERM, CodecUtil.SORT_ASC, null,
+							Integer.MAX_VALUE, null, null, null, null, lists[i], listRegexps[i], null, null, null));
+					Map<String, Object> termvectors = doAdvancedSearch(docs, fieldStats).get("termvector");
+					assertEquals("full " + message + " with regexp " + regexp, expected, termvectors.get("full"));
+					assertEquals("top " + message + " with regexp " + regexp, expected, termvectors.get("top"));
+				}
+			}
+		} catch (mtas.parser.function.ParseException e) {
+			log.error(e);
+		}
+	}
+
+	/**
+	 * Collect document term statistics from the forward index and from the
+	 * postings.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@org.junit.Test
+	public void collectDocumentForwardIndex() throws IOException {
+		IndexReader indexReader = DirectoryReader.open(directory);
+		try {
+			IndexSearcher searcher = new IndexSearcher(indexReader);
+			List<Map<String, Object>> results = new ArrayList<>();
+			// always the forward index, always the postings
+			for (int factor : new int[] { 0, Integer.MAX_VALUE }) {
+				ComponentField fieldStats = new ComponentField(FIELD_ID);
+				fieldStats.documentList.add(new ComponentDocument("terms", "t_lc", "n,sum", null, null, 1000, false,
+						false, 0, null, null, false));
+				fieldStats.documentList.add(new ComponentDocument("list", "lemma", "n,sum", null,
+						new String[] { "d.*", "h.*" }, 10, true, false, 0, null, null, false));
+				for (ComponentDocument document : fieldStats.documentList) {
+					document.docCostFactor = factor;
+				}
+				CodecUtil.collectField(FIELD_CONTENT, searcher, indexReader, docs, docs, fieldStats, new Status(),
+						null);
+				Map<String, Object> result = new HashMap<>();
+				for (ComponentDocument document : fieldStats.documentList) {
+					for (Entry<Integer, MtasDataCollector<?, ?>> entry : document.statsData.entrySet()) {
+						String key = document.key + " " + document.uniqueKey.get(entry.getKey());
+						result.put(key, entry.getValue().getResult().getData().rewrite(false));
+						Map<String, Object> list = new HashMap<>();
+						for (Entry<String, ?> item : document.statsList.get(entry.getKey()).getResult().getList()
+								.entrySet()) {
+							list.put(item.getKey(), ((MtasDataItem<?, ?>) item.getValue()).rewrite(false));
+						}
+						result.put(key + " list", list);
+					}
+				}
+				results.add(result);
+			}
+			assertEquals("number of document statistics", 2 * docs.size() * 2, results.get(0).size());
+			assertEquals("document statistics from forward index and postings", results.get(1), results.get(0));
+		} catch (IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
+			log.error(e);
+		} finally {
+			indexReader.close();
+		}
+	}
+
 	/**
 	 * Do advanced search.
 	 *
@@ -999,14 +1988,42 @@ public class MtasSearchTestConsistency {
 	 */
 	private HashMap<String, HashMap<String, Object>> doAdvancedSearch(ArrayList<Integer> fullDocSet,
 			ComponentField fieldStats) {
+		return doAdvancedSearch(fullDocSet, fieldStats, null);
+	}
+
+	/**
+	 * Do advanced search, collecting the segments with the executor if provided.
+	 *
+	 * @param fullDocSet the full doc set
+	 * @param fieldStats the field stats
+	 * @param executor   the executor, null to collect serially
+	 * @return the hash map
+	 */
+	private HashMap<String, HashMap<String, Object>> doAdvancedSearch(ArrayList<Integer> fullDocSet,
+			ComponentField fieldStats, ExecutorService executor) {
+		return doAdvancedSearch(directory, fullDocSet, fieldStats, executor);
+	}
+
+	/**
+	 * Do advanced search on the search directory.
+	 *
+	 * @param searchDirectory the search directory
+	 * @param fullDocSet      the full doc set
+	 * @param fieldStats      the field stats
+	 * @param executor        the executor, null to collect serially
+	 * @return the hash map
+	 */
+	private HashMap<String, HashMap<String, Object>> doAdvancedSearch(Directory searchDirectory,
+			ArrayList<Integer> fullDocSet, ComponentField fieldStats, ExecutorService executor) {
 		HashMap<String, HashMap<String, Object>> response = new HashMap<>();
 		IndexReader indexReader;
 		Status status = new Status();
 		try {
-			indexReader = DirectoryReader.open(directory);
+			indexReader = DirectoryReader.open(searchDirectory);
 			IndexSearcher searcher = new IndexSearcher(indexReader);
 			ArrayList<Integer> fullDocList = new ArrayList<>();
-			CodecUtil.collectField(FIELD_CONTENT, searcher, indexReader, fullDocList, fullDocSet, fieldStats, status);
+			CodecUtil.collectField(FIELD_CONTENT, searcher, indexReader, fullDocList, fullDocSet, fieldStats, status,
+					executor);
 			// add stats - position
 			response.put("statsPositions", new HashMap<String, Object>());
 			for (ComponentPosition cp : fieldStats.statsPositionList) {
@@ -1064,6 +2081,19 @@ public class MtasSearchTestConsistency {
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
 	private static void createIndex(String configFile, HashMap<String, String> files) throws IOException {
+		createIndex(directory, configFile, files);
+	}
+
+	/**
+	 * Creates the index in the index directory.
+	 *
+	 * @param indexDirectory the index directory
+	 * @param configFile     the config file
+	 * @param files          the files
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private static void createIndex(Directory indexDirectory, String configFile, HashMap<String, String> files)
+			throws IOException {
 		// analyzer
 		Map<String, String> paramsCharFilterMtas = new HashMap<>();
 		paramsCharFilterMtas.put("type", "file");
@@ -1078,7 +2108,7 @@ public class MtasSearchTestConsistency {
 		IndexWriterConfig config = new IndexWriterConfig(analyzer);
 		config.setUseCompoundFile(false);
 		config.setCodec(Codec.forName("MtasCodec"));
-		IndexWriter w = new IndexWriter(directory, config);
+		IndexWriter w = new IndexWriter(indexDirectory, config);
 		// delete
 		w.deleteAll();
 		// add
@@ -430,6 +430,43 @@ public class MtasSolrBase {
     return null;
   }
 
+  /**
+   * Gets the from mtas list.
+   *
+   * @param response the response
+   * @param key the key
+   * @return the from mtas list
+   */
+  public static NamedList<Object> getFromMtasList(
+      NamedList<Object> response, String key) {
+    if (response == null) {
+      log.error("no (valid); response");
+    } else {
+      Object mtasResponseRaw = response.get("mtas");
+      if (mtasResponseRaw != null && mtasResponseRaw instanceof NamedList) {
+        NamedList<Object> mtasResponse = (NamedList<Object>) response
+            .get("mtas");
+        Object mtasListResponseRaw = mtasResponse.get("list");
+        if (mtasListResponseRaw != null
+            && mtasListResponseRaw instanceof List) {
+          List<NamedList<Object>> mtasListResponse = (List<NamedList<Object>>) mtasListResponseRaw;
+          for (NamedList<Object> mtasListResponseItem : mtasListResponse) {
+            if (mtasListResponseItem.get("key") != null
+                && (mtasListResponseItem.get("key") instanceof String)
+                && mtasListResponseItem.get("key").equals(key)) {
+              return mtasListResponseItem;
+            }
+          }
+        } else {
+          log.error("unexpected " + mtasListResponseRaw);
+        }
+      } else {
+        log.error("unexpected " + mtasResponseRaw);
+      }
+    }
+    return null;
+  }
+
   /**
    * Gets the from mtas collection list.
    *
@@ -36,6 +36,8 @@ import org.apache.solr.util.SSLTestConfig;
 
 import com.google.common.io.Files;
 
+import mtas.codec.util.CodecComponent.ComponentList;
+
 /**
  * The Class MtasSolrTestDistributedSearchConsistency.
  */
@@ -321,6 +323,61 @@ public class MtasSolrTestDistributedSearchConsistency {
     }
   }
 
+  /**
+   * Mtas request handler list cursor.
+   *
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void mtasRequestHandlerListCursor() throws IOException {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    String[] collections = new String[] { COLLECTION_ALL_OPTIMIZED,
+        COLLECTION_ALL_MULTIPLE_SEGMENTS, COLLECTION_DISTRIBUTED };
+    params.set("q", "*:*");
+    params.set("rows", 0);
+    params.set("mtas", "true");
+    params.set("mtas.list", "true");
+    params.set("mtas.list.0.field", "mtas");
+    params.set("mtas.list.0.key", "list");
+    params.set("mtas.list.0.query.type", "cql");
+    params.set("mtas.list.0.query.value", "[pos=\"N\"]");
+    params.set("mtas.list.0.number", 0);
+    Map<String, QueryResponse> totals = createResults(params,
+        Arrays.asList(new String[] { COLLECTION_ALL_OPTIMIZED }));
+    Number total = (Number) MtasSolrBase.getFromMtasList(
+        totals.get(COLLECTION_ALL_OPTIMIZED).getResponse(), "list")
+        .get("total");
+    assertNotNull("no total", total);
+    params.set("mtas.list.0.number", 7);
+    params.set("mtas.list.0.output", "hit");
+    for (String collection : collections) {
+      String cursor = ComponentList.CURSOR_START;
+      int pages = 0;
+      int hits = 0;
+      while (cursor != null) {
+        assertTrue("too many pages for " + collection,
+            pages <= total.intValue());
+        params.set("mtas.list.0.cursor", cursor);
+        Map<String, QueryResponse> list = createResults(params,
+            Arrays.asList(new String[] { collection }));
+        NamedList<Object> item = MtasSolrBase
+            .getFromMtasList(list.get(collection).getResponse(), "list");
+        assertNotNull("no list for " + collection, item);
+        Object listItems = item.get("list");
+        int number = (listItems instanceof List) ? ((List<?>) listItems).size()
+            : 0;
+        cursor = (String) item.get("nextCursor");
+        // only the page after the last hit has no next cursor
+        assertEquals("next cursor for " + collection + " on page " + pages,
+            number > 0, cursor != null);
+        hits += number;
+        pages++;
+      }
+      assertEquals("number of hits for " + collection, total.intValue(), hits);
+    }
+  }
+
   /**
    * Mtas request handler collection 1.
    *
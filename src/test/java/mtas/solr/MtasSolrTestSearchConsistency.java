@@ -329,6 +329,74 @@ public class MtasSolrTestSearchConsistency {
         MtasSolrBase.getFromStats(response, "numberOfTokens", "sum", true));
   }
 
+  /**
+   * Mtas request handler concurrent fields: stats and termvectors for several
+   * fields, collected serially by the select handler and concurrently by the
+   * selectConcurrent handler, should give the same response.
+   *
+   * @throws IOException
+   *           Signals that an I/O exception has occurred.
+   */
+  @org.junit.Test
+  public void mtasRequestHandlerConcurrentFields() throws IOException {
+    ModifiableSolrParams params = new ModifiableSolrParams();
+    String[] fields = new String[] { MtasSolrBase.FIELD_MTAS,
+        MtasSolrBase.FIELD_MTAS_ADVANCED };
+    params.set("q", "*:*");
+    params.set("rows", 0);
+    params.set("mtas", "true");
+    params.set("mtas.stats", "true");
+    params.set("mtas.stats.spans", "true");
+    params.set("mtas.stats.positions", "true");
+    params.set("mtas.stats.tokens", "true");
+    params.set("mtas.termvector", "true");
+    for (int i = 0; i < fields.length; i++) {
+      params.set("mtas.stats.spans." + i + ".field", fields[i]);
+      params.set("mtas.stats.spans." + i + ".key", "spans" + i);
+      params.set("mtas.stats.spans." + i + ".query.0.type", "cql");
+      params.set("mtas.stats.spans." + i + ".query.0.value", "[pos=\"LID\"]");
+      params.set("mtas.stats.spans." + i + ".type", "n,sum,mean");
+      params.set("mtas.stats.positions." + i + ".field", fields[i]);
+      params.set("mtas.stats.positions." + i + ".key", "positions" + i);
+      params.set("mtas.stats.positions." + i + ".type", "n,sum,min,max");
+      params.set("mtas.stats.tokens." + i + ".field", fields[i]);
+      params.set("mtas.stats.tokens." + i + ".key", "tokens" + i);
+      params.set("mtas.stats.tokens." + i + ".type", "n,sum,min,max");
+      params.set("mtas.termvector." + i + ".field", fields[i]);
+      params.set("mtas.termvector." + i + ".prefix", "t_lc");
+      params.set("mtas.termvector." + i + ".key", "tv" + i);
+      params.set("mtas.termvector." + i + ".type", "n,sum");
+      params.set("mtas.termvector." + i + ".number", 20);
+    }
+    NamedList<Object> response;
+    try {
+      response = server.request(new QueryRequest(params), "collection1");
+    } catch (SolrServerException e) {
+      throw new IOException(e);
+    }
+    for (int i = 0; i < fields.length; i++) {
+      assertNotNull("spans for " + fields[i], MtasSolrBase
+          .getFromMtasStats(response, "spans", "spans" + i, "sum"));
+      assertNotNull("positions for " + fields[i], MtasSolrBase
+          .getFromMtasStats(response, "positions", "positions" + i, "sum"));
+      assertNotNull("tokens for " + fields[i], MtasSolrBase
+          .getFromMtasStats(response, "tokens", "tokens" + i, "sum"));
+    }
+    // repeated, the order in which the fields finish differs
+    for (int n = 0; n < 5; n++) {
+      SolrRequest<?> request = new QueryRequest(params);
+      request.setPath("/selectConcurrent");
+      NamedList<Object> responseConcurrent;
+      try {
+        responseConcurrent = server.request(request, "collection1");
+      } catch (SolrServerException e) {
+        throw new IOException(e);
+      }
+      assertEquals("concurrent fields", response.get("mtas"),
+          responseConcurrent.get("mtas"));
+    }
+  }
+
   /**
    * Mtas request handler termvector 1.
    *